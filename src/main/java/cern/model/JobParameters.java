@@ -4,6 +4,9 @@ import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.annotation.JsonInclude;
 import org.eclipse.microprofile.openapi.annotations.media.Schema;
 
+import java.util.HashMap;
+import java.util.Map;
+
 import eosc.eu.model.TransferParameters;
 
 
@@ -28,6 +31,10 @@ public class JobParameters {
     @Schema(title="Credentials for S3 destination storage system, Base-64 encoded \"accesskey:secretkey\"")
     public String s3_credentials;
 
+    @Schema(title="Metadata attached to the job")
+    @JsonInclude(JsonInclude.Include.NON_EMPTY)
+    public Map<String, String> job_metadata;
+
 
     /**
      * Constructor
@@ -41,5 +48,8 @@ public class JobParameters {
         this.overwrite = params.overwrite;
         this.retry = params.retry;
         this.priority = params.priority;
+
+        if(null != params.metadata && !params.metadata.isEmpty())
+            this.job_metadata = new HashMap<>(params.metadata);
     }
 }
@@ -1,6 +1,7 @@
 package egi.eu;
 
 import io.minio.errors.*;
+import io.smallrye.mutiny.Multi;
 import io.smallrye.mutiny.Uni;
 import io.smallrye.mutiny.tuples.Tuple2;
 import org.apache.commons.lang3.StringUtils;
@@ -14,7 +15,11 @@ import java.net.URISyntaxException;
 import java.time.Duration;
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
 
 import io.minio.*;
 import io.minio.messages.Item;
@@ -28,6 +33,8 @@ import eosc.eu.TransferServiceException;
 import eosc.eu.TransferConfig.StorageSystemConfig;
 import eosc.eu.model.*;
 
+import egi.s3.MultipartCopyClient;
+import egi.s3.S3Executor;
 import egi.s3.model.*;
 
 
@@ -38,9 +45,17 @@ public class MinioStorage implements StorageService {
 
     private static final Logger log = Logger.getLogger(MinioStorage.class);
 
+    private static final int MAX_KEYS = 1000; // S3 limit for one listing request
+
     private String name;
     private String baseUri;
     private MinioAsyncClient minio;
+    private Executor executor;
+    private MultipartCopyClient copier;
+    private int deleteConcurrency;
+    private long multipartCopyThreshold;
+    private long copyPartSize;
+    private int copyConcurrency;
     private int timeout;
 
 
@@ -64,6 +79,11 @@ public class MinioStorage implements StorageService {
 
         this.name = serviceConfig.name();
         this.timeout = serviceConfig.timeout();
+        this.executor = S3Executor.executor(serviceConfig);
+        this.deleteConcurrency = serviceConfig.deleteConcurrency();
+        this.multipartCopyThreshold = serviceConfig.multipartCopyThreshold() * 1024L * 1024L;
+        this.copyPartSize = serviceConfig.copyPartSize() * 1024L * 1024L;
+        this.copyConcurrency = serviceConfig.copyConcurrency();
 
         MDC.put("storageElement", storageElementUrl);
         log.debug("Obtaining client for S3 compatible object storage");
@@ -90,6 +110,9 @@ public class MinioStorage implements StorageService {
                         .credentials(userInfo.getAccessKey(), userInfo.getSecretKey())
                         .build();
 
+            // Big objects are copied in parts, sharing connections with the client above
+            copier = new MultipartCopyClient(minio);
+
             return true;
         }
         catch(IllegalArgumentException iae) {
@@ -167,12 +190,30 @@ public class MinioStorage implements StorageService {
      *                  it will list all the buckets. If the path contains the bucket (with or without
      *                  a terminating /), it will return the objects and virtual folders directly in the
      *                  bucket. To list content of virtual folders, the folderUri must end in a slash (/).
+     * @param limit Maximum number of elements to return, 0 for all
+     * @param cursor Cursor returned with the previous page, null for the first page
+     * @param filter Selects the elements to return, null for all. The literal start of the name
+     *               glob is passed to S3 as part of the prefix, the rest is applied while listing.
      * @return List of folder content
      */
-    public Uni<StorageContent> listFolderContent(String auth, String storageAuth, String folderUri) {
+    public Uni<StorageContent> listFolderContent(String auth, String storageAuth, String folderUri,
+                                                 int limit, String cursor, StorageFilter filter) {
         if(null == minio)
             return Uni.createFrom().failure(new TransferServiceException("configInvalid"));
 
+        String startAfter = null;
+        try {
+            // The cursor is the name of the last element on the previous page
+            startAfter = StorageContent.decodeCursor(cursor);
+        }
+        catch(IllegalArgumentException e) {
+            return Uni.createFrom().failure(new TransferServiceException("cursorInvalid"));
+        }
+
+        final String lastSeen = startAfter;
+        final var selecting = null != filter && filter.selects();
+        final var maxScan = (selecting && limit > 0) ? filter.maxScan : 0;
+        var next = new AtomicReference<String>(null);
         var bucket = new AtomicReference<String>(null);
         var loa = new AtomicReference<ListObjectsArgs>(null);
         Uni<StorageContent> result = Uni.createFrom().nullItem()
@@ -198,10 +239,16 @@ public class MinioStorage implements StorageService {
                     // If no bucket name, then we need to list the buckets
                     return Uni.createFrom().nullItem();
 
-                // Prepare to list objects
+                // Prepare to list objects, only names starting like the filter are listed
+                var prefix = (null != objectName ? objectName : "") + (selecting ? filter.namePrefix() : "");
                 var listArgs = ListObjectsArgs.builder().bucket(bucketName);
-                if(null != objectName && !objectName.isBlank())
-                    listArgs.prefix(objectName);
+                if(!prefix.isEmpty())
+                    listArgs.prefix(prefix);
+                if(null != lastSeen)
+                    listArgs.startAfter(lastSeen);
+                if(limit > 0 && !selecting)
+                    // Ask for one more, to know if there is a next page without another request
+                    listArgs.maxKeys(Math.min(limit + 1, MAX_KEYS));
 
                 return Uni.createFrom().item(listArgs.build());
             })
@@ -233,32 +280,55 @@ public class MinioStorage implements StorageService {
                 var objects = minio.listObjects(listArgs);
                 return Uni.createFrom().item(Tuple2.of(null, objects));
             })
-            .chain(contentLists -> {
-                // When we get here, we have either a list of buckets or a list of objects
+            .chain(contentLists -> S3Executor.run(this.executor, () -> {
+                // When we get here, we have either a list of buckets or a list of objects,
+                // iterating the objects fetches pages with blocking calls, so not on the event loop
                 var buckets = (List<Bucket>)contentLists.getItem1();
                 var objects = (Iterable<Result<Item>>)contentLists.getItem2();
+                var pageSize = (limit > 0 && !selecting) ? Math.min(limit + 1, MAX_KEYS) : MAX_KEYS;
+                var scanned = 0;
 
                 var content = new ArrayList<ObjectInfo>();
                 String bucketUri = null;
 
                 if(null != buckets) {
-                    // Got list of buckets
+                    // Got list of buckets, these are not paged by S3
                     bucketUri = this.baseUri;
-                    for(var b : buckets) {
+                    var sorted = new ArrayList<>(buckets);
+                    sorted.sort(Comparator.comparing(Bucket::name));
+                    String lastName = null;
+                    for(var b : sorted) {
+                        if(null != lastSeen && b.name().compareTo(lastSeen) <= 0)
+                            continue;
+
                         var objInfo = new ObjectInfo(null, b);
+                        if(maxScan > 0 && ++scanned > maxScan) {
+                            // Examined enough, continue after the last examined bucket
+                            next.set(StorageContent.encodeCursor(lastName));
+                            break;
+                        }
+                        if(selecting && !filter.matches(new StorageElement(objInfo))) {
+                            lastName = b.name();
+                            continue;
+                        }
+                        if(limit > 0 && content.size() >= limit) {
+                            next.set(StorageContent.encodeCursor(lastName));
+                            break;
+                        }
+
                         content.add(objInfo);
+                        lastName = b.name();
                     }
                 }
                 else if(null != objects) {
-                    // Got list of objects
+                    // Got list of objects, the iterator only fetches further pages when needed
                     var bucketName = bucket.get();
                     bucketUri = this.baseUri + "/" + bucketName;
-                    for(var object : objects)
+                    String lastName = null;
+                    for(var object : S3Executor.timed(objects, this.name, "list", pageSize)) {
+                        Item item = null;
                         try {
-                            var item = object.get();
-                            var objInfo = new ObjectInfo(bucketUri, item);
-                            objInfo.bucket = bucketName;
-                            content.add(objInfo);
+                            item = object.get();
                         }
                         catch(Exception e) {
                             var code = 0;
@@ -267,13 +337,133 @@ public class MinioStorage implements StorageService {
                                 code = ((ErrorResponseException)e).response().code();
                             else if(type.equals(ServerException.class))
                                 code = ((ServerException)e).statusCode();
-                            return Uni.createFrom().failure(new TransferServiceException("listObjects", code,
-                                                             e.getMessage().replaceAll("\\.$", "")));
+                            throw new TransferServiceException("listObjects", code,
+                                                               e.getMessage().replaceAll("\\.$", ""));
+                        }
+
+                        if(item.isDir() && item.objectName().equals(lastSeen))
+                            // Virtual folder that ended the previous page shows up again
+                            continue;
+
+                        var objInfo = new ObjectInfo(bucketUri, item);
+                        objInfo.bucket = bucketName;
+                        if(maxScan > 0 && ++scanned > maxScan) {
+                            // Examined enough, continue after the last examined object
+                            next.set(StorageContent.encodeCursor(lastName));
+                            break;
+                        }
+                        if(selecting && !filter.matches(new StorageElement(objInfo))) {
+                            lastName = item.objectName();
+                            continue;
                         }
+                        if(limit > 0 && content.size() >= limit) {
+                            next.set(StorageContent.encodeCursor(lastName));
+                            break;
+                        }
+
+                        content.add(objInfo);
+                        lastName = item.objectName();
+                    }
+                }
+
+                var page = new StorageContent(bucketUri, content);
+                page.next = next.get();
+                return page;
+            }))
+            .invoke(page -> {
+                // Back on the request context
+                MDC.put("seCount", page.count);
+            })
+            .onFailure().invoke(e -> {
+                log.error(e);
+            });
+
+        return result;
+    }
+
+    /**
+     * Stream all buckets or all objects in a bucket. Objects are emitted as the pages of the
+     * listing arrive, and the next page is only fetched when the previous one was consumed.
+     * @param auth Optional access token needed to call the service.
+     * @param storageAuth Optional credentials for the destination storage, Base-64 encoded "key:value"
+     * @param folderUri The link to the bucket to list content of, see listFolderContent()
+     * @param filter Selects the elements to emit, null for all
+     * @return Stream of folder content
+     */
+    public Multi<StorageElement> streamFolderContent(String auth, String storageAuth, String folderUri,
+                                                     StorageFilter filter) {
+        if(null == minio)
+            return Multi.createFrom().failure(new TransferServiceException("configInvalid"));
+
+        Multi<StorageElement> result = Uni.createFrom().nullItem()
+
+            .ifNoItem()
+                .after(Duration.ofMillis(this.timeout))
+                .failWith(new TransferServiceException("listFolderContentTimeout"))
+            .chain(unused -> {
+                // Split the storage element URI into bucket and object names
+                return getBucketObjectFromUri(folderUri);
+            })
+            .onItem().transformToMulti(buckobj -> {
+                // Got the URI parsed
+                var bucketName = buckobj.getItem1();
+                var objectName = buckobj.getItem2();
+                if(null != objectName && '/' != objectName.charAt(objectName.length() - 1))
+                    // This is an object, not a bucket, bail
+                    return Multi.createFrom().failure(new TransferServiceException("notFolder"));
+
+                if(null == bucketName || bucketName.isBlank()) {
+                    // No bucket name, list the buckets, these are not paged by S3
+                    CompletableFuture<List<Bucket>> buckets = null;
+                    try {
+                        buckets = minio.listBuckets();
+                    } catch(Exception e) {
+                        var msg = e.getMessage().replaceAll("\\.$", "");
+                        return Multi.createFrom().failure(new TransferServiceException("listBuckets", msg));
+                    }
+
+                    final var bucketUri = this.baseUri + "/";
+                    return Uni.createFrom().completionStage(buckets)
+                            .onItem().transformToMulti(list -> Multi.createFrom().iterable(list))
+                            .map(b -> {
+                                var se = new StorageElement(new ObjectInfo(null, b));
+                                se.accessUrl = bucketUri + se.name;
+                                return se;
+                            })
+                            .select().where(se -> null == filter || filter.matches(se));
                 }
 
-                MDC.put("seCount", content.size());
-                return Uni.createFrom().item(new StorageContent(bucketUri, content));
+                // List objects, iterating fetches pages with blocking calls, so not on the event loop,
+                // only names starting like the filter are listed
+                var prefix = (null != objectName ? objectName : "") + (null != filter ? filter.namePrefix() : "");
+                var listArgs = ListObjectsArgs.builder().bucket(bucketName);
+                if(!prefix.isEmpty())
+                    listArgs.prefix(prefix);
+
+                final var bucketUri = this.baseUri + "/" + bucketName;
+                final var objects = minio.listObjects(listArgs.build());
+                return Multi.createFrom().iterable(S3Executor.timed(objects, this.name, "list", MAX_KEYS))
+                        .map(object -> {
+                            try {
+                                var objInfo = new ObjectInfo(bucketUri, object.get());
+                                objInfo.bucket = bucketName;
+                                var se = new StorageElement(objInfo);
+                                se.accessUrl = bucketUri + "/" + se.name;
+                                return se;
+                            }
+                            catch(Exception e) {
+                                var code = 0;
+                                var type = e.getClass();
+                                if(type.equals(ErrorResponseException.class))
+                                    code = ((ErrorResponseException)e).response().code();
+                                else if(type.equals(ServerException.class))
+                                    code = ((ServerException)e).statusCode();
+                                throw new TransferServiceException("listObjects", code,
+                                                                   e.getMessage().replaceAll("\\.$", ""));
+                            }
+                        })
+                        .select().where(se -> null == filter || filter.matches(se))
+                        .runSubscriptionOn(this.executor);
             })
             .onFailure().invoke(e -> {
                 log.error(e);
@@ -406,18 +596,21 @@ public class MinioStorage implements StorageService {
     /**
      * Delete existing bucket or virtual folder. If deleting a bucket, the bucket must be empty.
      * If deleting a virtual folder, it will delete all objects in that virtual folder (and deeper).
+     * Objects are deleted while they are listed, in batches sent in parallel,
+     * so memory use does not depend on the number of objects.
      * @param auth Optional access token needed to call the service.
      * @param storageAuth Optional credentials for the destination storage, Base-64 encoded "key:value"
      * @param folderUri The link to the bucket or virtual folder to delete.
+     * @param progress Optional operation to record the number of deleted objects in
      * @return Confirmation message
      */
-    public Uni<String> deleteFolder(String auth, String storageAuth, String folderUri) {
+    public Uni<String> deleteFolder(String auth, String storageAuth, String folderUri, StorageOperation progress) {
         if(null == minio)
             return Uni.createFrom().failure(new TransferServiceException("configInvalid"));
 
         var bucket = new AtomicReference<String>(null);
         var message = new AtomicReference<String>("Deleted");
-        var objectCount = new AtomicReference<Integer>(null);
+        var deleted = new AtomicLong(0);
         Uni<String> result = Uni.createFrom().nullItem()
 
             .ifNoItem()
@@ -441,100 +634,34 @@ public class MinioStorage implements StorageService {
                     // Deleting a bucket, skip this step
                     return Uni.createFrom().nullItem();
 
-                // For virtual folders prepare to list objects
+                // For virtual folders prepare to list all objects, at any depth
                 return Uni.createFrom().item(ListObjectsArgs.builder()
                                         .bucket(bucketName)
                                         .prefix(objectName)
+                                        .recursive(true)
                                         .build());
             })
             .chain(listArgs -> {
-                if(null != listArgs) {
-                    // If we have arguments for listing objects, use it
-                    Iterable<Result<Item>> objects = minio.listObjects(listArgs);
-                    return Uni.createFrom().item(objects);
-                }
-
-                // Deleting a bucket, skip this step
-                return Uni.createFrom().nullItem();
-            })
-            .chain(objectsToDelete -> {
-                if(null != objectsToDelete) {
-                    // If we have a list of objects, prepare to delete them
-                    List<DeleteObject> objects = new LinkedList<>();
-                    var bucketName = bucket.get();
-                    var bucketUri = this.baseUri + "/" + bucketName;
-
-                    for(var object : objectsToDelete)
-                        try {
-                            var item = object.get();
-                            var objInfo = new ObjectInfo(bucketUri, item);
-                            objects.add(new DeleteObject(objInfo.getName()));
-                        }
-                        catch(Exception e) {
-                            var code = 0;
-                            var type = e.getClass();
-                            if(type.equals(ErrorResponseException.class))
-                                code = ((ErrorResponseException)e).response().code();
-                            else if(type.equals(ServerException.class))
-                                code = ((ServerException)e).statusCode();
-                            return Uni.createFrom().failure(new TransferServiceException("deleteObject", code,
-                                                             e.getMessage().replaceAll("\\.$", "")));
-                        }
-
-                    MDC.put("objectCount", objects.size());
-                    objectCount.set(objects.size());
-
-                    // Prepare to delete objects
-                    return Uni.createFrom().item(RemoveObjectsArgs.builder()
-                            .bucket(bucketName)
-                            .objects(objects)
-                            .build());
-                }
+                if(null == listArgs)
+                    // Deleting a bucket, skip this step
+                    return Uni.createFrom().nullItem();
 
-                // Deleting a bucket, skip this step
-                return Uni.createFrom().nullItem();
+                // Delete the objects while listing them
+                return deleteObjects(bucket.get(), listArgs, deleted, progress);
             })
-            .chain(removeArgs -> {
-                if(null != removeArgs) {
-                    // If we have arguments for deleting objects, use it
-                    Iterable<Result<DeleteError>> deleted = minio.removeObjects(removeArgs);
-                    return Uni.createFrom().item(deleted);
-                }
-
-                // Deleting a bucket, skip this step
-                return Uni.createFrom().nullItem();
-            })
-            .chain(deleteErrors -> {
-                if(null != deleteErrors) {
-                    // If we got object delete errors, package them for the response
-                    List<Tuple2<String, String>> details = new ArrayList<>();
-                    for(var error : deleteErrors) {
-                        try {
-                            var e = error.get();
-                            var code = e.code();
-                            var msg = e.message();
-                            details.add(Tuple2.of(code, msg));
-                        } catch(Exception e) {
-                            var code = 0;
-                            var type = e.getClass();
-                            if(type.equals(ErrorResponseException.class))
-                                code = ((ErrorResponseException)e).response().code();
-                            else if(type.equals(ServerException.class))
-                                code = ((ServerException)e).statusCode();
-                            return Uni.createFrom().failure(new TransferServiceException("deleteError", code,
-                                                             e.getMessage().replaceAll("\\.$", "")));
-                        }
-                    }
-
+            .chain(details -> {
+                if(null != details) {
+                    MDC.put("objectCount", deleted.get() + details.size());
                     if(details.isEmpty()) {
                         // Success
-                        var msg = String.format("Deleted %d prefixed objects", objectCount.get());
+                        var msg = String.format("Deleted %d prefixed objects", deleted.get());
                         log.info(msg);
                         message.set(msg);
                     }
                     else {
                         MDC.put("errorCount", details.size());
-                        log.infof("Failed to delete %d prefixed objects", objectCount.get());
+                        log.infof("Failed to delete %d of %d prefixed objects",
+                                  details.size(), deleted.get() + details.size());
                         return Uni.createFrom().failure(new TransferServiceException("deleteError", details));
                     }
 
@@ -550,16 +677,20 @@ public class MinioStorage implements StorageService {
             .chain(bucketArgs -> {
                 if(null != bucketArgs) {
                     // If we have arguments for deleting a bucket, use it
-                    CompletableFuture<Void> deleted = null;
+                    CompletableFuture<Void> removed = null;
                     try {
                         // Delete bucket
-                        deleted = minio.removeBucket(bucketArgs);
+                        removed = minio.removeBucket(bucketArgs);
 
                     } catch(Exception e) {
                         var msg = e.getMessage().replaceAll("\\.$", "");
                         return Uni.createFrom().failure(new TransferServiceException("removeBucket", msg));
                     }
-                    return Uni.createFrom().completionStage(deleted);
+                    return Uni.createFrom().completionStage(removed)
+                            .invoke(unused -> {
+                                if(null != progress)
+                                    progress.progress(1, 0);
+                            });
                 }
 
                 // Deleting virtual folder, nothing else left to do
@@ -576,6 +707,98 @@ public class MinioStorage implements StorageService {
         return result;
     }
 
+    /***
+     * Delete all listed objects. The listing is consumed page by page, grouped into
+     * batches of at most 1000 keys (one DeleteObjects request each), and several
+     * batches are deleted in parallel. Only the batches in flight are held in memory.
+     * @param bucketName is the bucket to delete from
+     * @param listArgs selects the objects to delete
+     * @param deleted counts the deleted objects
+     * @param progress Optional operation to record progress in
+     * @return List of (error code, message) for the objects that could not be deleted
+     */
+    private Uni<List<Tuple2<String, String>>> deleteObjects(String bucketName, ListObjectsArgs listArgs,
+                                                            AtomicLong deleted, StorageOperation progress) {
+
+        final var objects = minio.listObjects(listArgs);
+        return Multi.createFrom().iterable(S3Executor.timed(objects, this.name, "list", MAX_KEYS))
+            .map(object -> new DeleteObject(listedItem(object).objectName()))
+            .runSubscriptionOn(this.executor)
+            .group().intoLists().of(MAX_KEYS)
+            .onItem().transformToUni(batch -> S3Executor.run(this.executor, () -> {
+                // Delete one batch
+                var details = removeObjectBatch(bucketName, batch);
+
+                final var ok = batch.size() - details.size();
+                deleted.addAndGet(ok);
+                if(null != progress)
+                    progress.progress(ok, details.size());
+
+                return details;
+            }))
+            .merge(Math.max(1, this.deleteConcurrency))
+            .collect().<List<Tuple2<String, String>>>in(ArrayList::new, List::addAll);
+    }
+
+    /***
+     * Get a listed object, turning listing errors into exceptions
+     * @param result is one result of a listing
+     * @return The listed object
+     * @throws TransferServiceException if the listing failed
+     */
+    private static Item listedItem(Result<Item> result) {
+        try {
+            return result.get();
+        }
+        catch(Exception e) {
+            var code = 0;
+            var type = e.getClass();
+            if(type.equals(ErrorResponseException.class))
+                code = ((ErrorResponseException)e).response().code();
+            else if(type.equals(ServerException.class))
+                code = ((ServerException)e).statusCode();
+            throw new TransferServiceException("listObjects", code,
+                                               e.getMessage().replaceAll("\\.$", ""));
+        }
+    }
+
+    /***
+     * Delete a batch of at most 1000 objects with one DeleteObjects request.
+     * Blocks while the request is sent, do not call on the event loop.
+     * @param bucketName is the bucket to delete from
+     * @param batch are the objects to delete
+     * @return List of (error code, message) for the objects that could not be deleted
+     * @throws TransferServiceException if the request failed
+     */
+    private List<Tuple2<String, String>> removeObjectBatch(String bucketName, List<DeleteObject> batch) {
+        final var start = System.nanoTime();
+        var removeArgs = RemoveObjectsArgs.builder()
+                .bucket(bucketName)
+                .objects(batch)
+                .build();
+
+        // The request is sent while iterating the errors
+        List<Tuple2<String, String>> details = new ArrayList<>();
+        for(var error : minio.removeObjects(removeArgs)) {
+            try {
+                var e = error.get();
+                details.add(Tuple2.of(e.code(), e.message()));
+            } catch(Exception e) {
+                var code = 0;
+                var type = e.getClass();
+                if(type.equals(ErrorResponseException.class))
+                    code = ((ErrorResponseException)e).response().code();
+                else if(type.equals(ServerException.class))
+                    code = ((ServerException)e).statusCode();
+                throw new TransferServiceException("deleteError", code,
+                                                   e.getMessage().replaceAll("\\.$", ""));
+            }
+        }
+
+        S3Executor.recordPage(this.name, "delete", start);
+        return details;
+    }
+
     /**
      * Delete existing object.
      * @param auth Optional access token needed to call the service.
@@ -633,103 +856,324 @@ public class MinioStorage implements StorageService {
         return result;
     }
 
+    /***
+     * Check if an object can be copied server-side, which is the case when both
+     * the source and the copy are objects on this storage system.
+     * @param seFrom The link to the object to copy.
+     * @param seTo The link to the copy.
+     * @return True if copyStorageElement() can copy between these URIs
+     */
+    public boolean canCopyInPlace(String seFrom, String seTo) {
+        if(null == minio || null == seFrom || null == seTo || seFrom.endsWith("/") || seTo.endsWith("/"))
+            return false;
+
+        try {
+            for(var seUri : List.of(seFrom, seTo)) {
+                var uri = new URI(seUri);
+                if(!this.baseUri.equals(uri.getScheme() + "://" + uri.getAuthority()))
+                    return false;
+
+                // Must include both a bucket and an object
+                var path = null != uri.getPath() ? uri.getPath().replaceAll("^/+", "") : "";
+                var slash = path.indexOf('/');
+                if(slash <= 0 || slash == path.length() - 1)
+                    return false;
+            }
+        }
+        catch(URISyntaxException e) {
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Copy an object server-side, the data does not leave the storage system.
+     * Big objects are copied as a multipart upload, with the parts copied in parallel.
+     * @param auth Optional access token needed to call the service.
+     * @param storageAuth Optional credentials for the destination storage, Base-64 encoded "key:value"
+     * @param seFrom The link to the object to copy.
+     * @param seTo The link to the copy, overwritten if it exists.
+     * @return Number of bytes copied
+     */
+    public Uni<Long> copyStorageElement(String auth, String storageAuth, String seFrom, String seTo) {
+        if(null == minio)
+            return Uni.createFrom().failure(new TransferServiceException("configInvalid"));
+
+        var source = new AtomicReference<Tuple2<String, String>>(null);
+        var destination = new AtomicReference<Tuple2<String, String>>(null);
+        var size = new AtomicLong(0);
+        Uni<Long> result = Uni.createFrom().nullItem()
+
+            .chain(unused -> {
+                // Split the storage element URIs into bucket and object names
+                return getBucketObjectFromUri(seFrom);
+            })
+            .chain(buckobj -> {
+                source.set(buckobj);
+                return getBucketObjectFromUri(seTo);
+            })
+            .chain(buckobj -> {
+                destination.set(buckobj);
+                if(null == source.get().getItem2() || null == buckobj.getItem2())
+                    // Buckets cannot be copied
+                    return Uni.createFrom().failure(new TransferServiceException("notFile"));
+
+                // Get the size and metadata of the source
+                return statObject(source.get().getItem1(), source.get().getItem2());
+            })
+            .chain(stats -> {
+                // Copy the object
+                size.set(stats.size());
+                return copyObject(source.get().getItem1(), source.get().getItem2(), stats,
+                                  destination.get().getItem1(), destination.get().getItem2());
+            })
+            .chain(copied -> {
+                // Object copied
+                MDC.put("objectSize", size.get());
+                log.debugf("Copied %s to %s", seFrom, seTo);
+                return Uni.createFrom().item(size.get());
+            })
+            .onFailure().invoke(e -> {
+                log.error(e);
+            });
+
+        return result;
+    }
+
+    /***
+     * Copy an object server-side. Big objects are copied as a multipart upload,
+     * with the parts copied in parallel, as a single copy is limited to 5 GiB.
+     * @param srcBucket is the bucket of the object to copy
+     * @param srcObject is the name of the object to copy
+     * @param stats are the stats of the object to copy
+     * @param bucket is the destination bucket
+     * @param object is the name of the destination object
+     * @return Uni with the response of the copy
+     */
+    private Uni<ObjectWriteResponse> copyObject(String srcBucket, String srcObject, StatObjectResponse stats,
+                                                String bucket, String object) {
+        var size = stats.size();
+        if(isMultipartCopy(size)) {
+            // Copy in parts, keeping content type and user metadata
+            var headers = new HashMap<String, String>();
+            if(null != stats.contentType())
+                headers.put("Content-Type", stats.contentType());
+            if(null != stats.userMetadata())
+                stats.userMetadata().forEach((key, value) -> headers.put("x-amz-meta-" + key, value));
+
+            MDC.put("objectSize", size);
+            log.debug("Copying object in parts");
+
+            return this.copier.copyInParts(srcBucket, srcObject, stats.etag(), size, bucket, object, headers,
+                                           this.copyPartSize, this.copyConcurrency);
+        }
+
+        // Copy in one request
+        return copySingle(srcBucket, srcObject, bucket, object);
+    }
+
+    /***
+     * Check if an object must be copied in parts
+     * @param size is the size of the object
+     * @return True if the object is above the multipart threshold or too big for a single copy
+     */
+    private boolean isMultipartCopy(long size) {
+        return size >= this.multipartCopyThreshold || size > MultipartCopyClient.MAX_SINGLE_COPY;
+    }
+
+    /***
+     * Copy a listed object server-side. Only big objects need to be looked up first,
+     * as the multipart copy needs their content type and user metadata.
+     * @param srcBucket is the bucket of the object to copy
+     * @param item is the object to copy
+     * @param bucket is the destination bucket
+     * @param object is the name of the destination object
+     * @return Uni with the response of the copy
+     */
+    private Uni<ObjectWriteResponse> copyListedObject(String srcBucket, Item item, String bucket, String object) {
+        if(!isMultipartCopy(item.size()))
+            return copySingle(srcBucket, item.objectName(), bucket, object);
+
+        return statObject(srcBucket, item.objectName())
+            .chain(stats -> copyObject(srcBucket, item.objectName(), stats, bucket, object));
+    }
+
+    /***
+     * Copy an object server-side with one request, keeping its metadata.
+     * @param srcBucket is the bucket of the object to copy
+     * @param srcObject is the name of the object to copy
+     * @param bucket is the destination bucket
+     * @param object is the name of the destination object
+     * @return Uni with the response of the copy
+     */
+    private Uni<ObjectWriteResponse> copySingle(String srcBucket, String srcObject, String bucket, String object) {
+        var copyArgs = CopyObjectArgs.builder()
+                            .bucket(bucket)
+                            .object(object)
+                            .source(CopySource.builder()
+                                .bucket(srcBucket)
+                                .object(srcObject)
+                                .build())
+                            .build();
+
+        CompletableFuture<ObjectWriteResponse> copied = null;
+        try {
+            copied = minio.copyObject(copyArgs);
+        } catch(Exception e) {
+            var msg = e.getMessage().replaceAll("\\.$", "");
+            return Uni.createFrom().failure(new TransferServiceException("copyObject", msg));
+        }
+        return Uni.createFrom().completionStage(copied);
+    }
+
+    /***
+     * Get the stats of an object.
+     * @param bucketName is the bucket of the object
+     * @param objectName is the name of the object
+     * @return Uni with the stats of the object
+     */
+    private Uni<StatObjectResponse> statObject(String bucketName, String objectName) {
+        var statArgs = StatObjectArgs.builder()
+                            .bucket(bucketName)
+                            .object(objectName)
+                            .build();
+
+        CompletableFuture<StatObjectResponse> stats = null;
+        try {
+            stats = minio.statObject(statArgs);
+        }
+        catch(Exception e) {
+            var msg = e.getMessage().replaceAll("\\.$", "");
+            return Uni.createFrom().failure(new TransferServiceException("statObject", msg));
+        }
+        return Uni.createFrom().completionStage(stats);
+    }
+
     /**
-     * Rename an object. Attempts to rename a bucket or a virtual folder will fail.
-     * Note: Rename is not supported even for objects. Instead, the object is copied to
-     *       the new location with the new name, then the old one will be deleted.
+     * Rename an object or a virtual folder. Attempts to rename a bucket will fail.
+     * Note: Rename is not supported by S3. Instead, objects are copied to the new location
+     *       with the new name, then the old ones are deleted. Virtual folders are moved one
+     *       page of objects at a time, and an interrupted move continues with the objects
+     *       still under the old name when retried.
      * @param auth Optional access token needed to call the service.
      * @param storageAuth Optional credentials for the destination storage, Base-64 encoded "key:value"
      * @param seOld The link to the storage element to rename.
      * @param seNew The link to the new name/location of the storage element.
+     * @param progress Optional operation to record the number of renamed objects in
      * @return Confirmation message
      */
-    public Uni<String> renameStorageElement(String auth, String storageAuth, String seOld, String seNew) {
+    public Uni<String> renameStorageElement(String auth, String storageAuth, String seOld, String seNew,
+                                            StorageOperation progress) {
         if(null == minio)
             throw new TransferServiceException("configInvalid");
 
         var bucketOld = new AtomicReference<String>(null);
         var objectOld = new AtomicReference<String>(null);
-        var bucketNew = new AtomicReference<String>(null);
-        var objectNew = new AtomicReference<String>(null);
+        var isFolder = new AtomicBoolean(false);
         Uni<String> result = Uni.createFrom().nullItem()
 
             .ifNoItem()
             .after(Duration.ofMillis(this.timeout))
             .failWith(new TransferServiceException("renameStorageElementTimeout"))
             .chain(unused -> {
-                // Split the new storage element URI into bucket and object names
-                return getBucketObjectFromUri(seNew);
+                // Split the old storage element URI into bucket and object names
+                return getBucketObjectFromUri(seOld);
             })
             .chain(buckobj -> {
-                // Got the new URI parsed
+                // Got the old URI parsed
                 var bucketName = buckobj.getItem1();
                 var objectName = buckobj.getItem2();
 
-                if(null == objectName || objectName.isBlank() ||
-                    '/' == objectName.charAt(objectName.length() - 1))
-                    // This is a bucket or a virtual folder, bail
+                if(null == objectName || objectName.isBlank())
+                    // This is a bucket, bail
                     return Uni.createFrom().failure(new TransferServiceException("notFile"));
 
-                bucketNew.set(bucketName);
-                objectNew.set(objectName);
+                bucketOld.set(bucketName);
+                objectOld.set(objectName);
+                isFolder.set('/' == objectName.charAt(objectName.length() - 1));
 
-                // Split the old storage element URI into bucket and object names
-                return getBucketObjectFromUri(seOld);
+                // Split the new storage element URI into bucket and object names
+                return getBucketObjectFromUri(seNew);
             })
             .chain(buckobj -> {
-                // Got the old URI parsed
+                // Got the new URI parsed
                 var bucketName = buckobj.getItem1();
                 var objectName = buckobj.getItem2();
 
-                if(null == objectName || objectName.isBlank() ||
-                    '/' == objectName.charAt(objectName.length() - 1))
-                    // The old location cannot be a bucket or a virtual folder either, bail
+                if(null == objectName || objectName.isBlank())
+                    // The new location cannot be a bucket, bail
                     return Uni.createFrom().failure(new TransferServiceException("notFile"));
 
-                bucketOld.set(bucketName);
-                objectOld.set(objectName);
+                if(isFolder.get()) {
+                    if('/' != objectName.charAt(objectName.length() - 1))
+                        objectName += "/";
+                }
+                else if('/' == objectName.charAt(objectName.length() - 1))
+                    // Objects cannot become virtual folders, bail
+                    return Uni.createFrom().failure(new TransferServiceException("notFile"));
 
-                var bucketNameNew = bucketNew.get();
-                var objectNameNew = objectNew.get();
+                var bucketNameOld = bucketOld.get();
+                var objectNameOld = objectOld.get();
 
-                if(bucketName.equals(bucketNameNew) && objectName.equals(objectNameNew))
+                if(bucketNameOld.equals(bucketName) && objectNameOld.equals(objectName))
                     // Source and destination the same, nothing to do
                     return Uni.createFrom().failure(new TransferServiceException("noOp",
                                                                     "Source and destination the same, nothing to do"));
 
-                // Prepare to copy object
-                return Uni.createFrom().item(CopyObjectArgs.builder()
-                                        .bucket(bucketNameNew)
-                                        .object(objectNameNew)
-                                        .source(CopySource.builder()
-                                            .bucket(bucketName)
-                                            .object(objectName)
-                                            .build())
-                                        .build());
-            })
-            .chain(copyArgs -> {
-                CompletableFuture<ObjectWriteResponse> copied = null;
-                try {
-                    // Copy object to new location
-                    copied = minio.copyObject(copyArgs);
-                } catch(Exception e) {
-                    var msg = e.getMessage().replaceAll("\\.$", "");
-                    return Uni.createFrom().failure(new TransferServiceException("copyObject", msg));
+                if(isFolder.get()) {
+                    if(bucketNameOld.equals(bucketName) && objectName.startsWith(objectNameOld))
+                        // Would keep finding the objects it just moved
+                        return Uni.createFrom().failure(new TransferServiceException("renameIntoSelf", 400,
+                                                                    "Cannot move a folder into itself"));
+
+                    // Move all prefixed objects
+                    return renameFolder(bucketNameOld, objectNameOld, bucketName, objectName, progress);
                 }
-                return Uni.createFrom().completionStage(copied);
+
+                // Move the object
+                return moveObject(bucketNameOld, objectNameOld, bucketName, objectName)
+                    .map(moved -> {
+                        if(null != progress)
+                            progress.progress(1, 0);
+
+                        return "Renamed";
+                    });
+            })
+            .onFailure().invoke(e -> {
+                log.error(e);
+            });
+
+        return result;
+    }
+
+    /***
+     * Move an object, by copying it then deleting the original.
+     * @param srcBucket is the bucket of the object to move
+     * @param srcObject is the name of the object to move
+     * @param bucket is the destination bucket
+     * @param object is the name of the destination object
+     * @return Uni with the response of the copy
+     */
+    private Uni<ObjectWriteResponse> moveObject(String srcBucket, String srcObject, String bucket, String object) {
+        final var copy = new AtomicReference<ObjectWriteResponse>(null);
+        return statObject(srcBucket, srcObject)
+
+            .chain(stats -> {
+                // Got object stats, copy object to new location
+                return copyObject(srcBucket, srcObject, stats, bucket, object);
             })
             .chain(copied -> {
                 // Object copied to new location
                 if(null == copied)
                     return Uni.createFrom().failure(new TransferServiceException("copyObject"));
 
-                var bucketName = bucketOld.get();
-                var objectName = objectOld.get();
+                copy.set(copied);
 
                 // Prepare to delete original object
                 return Uni.createFrom().item(RemoveObjectArgs.builder()
-                                        .bucket(bucketName)
-                                        .object(objectName)
+                                        .bucket(srcBucket)
+                                        .object(srcObject)
                                         .build());
             })
             .chain(removeArgs -> {
@@ -743,14 +1187,90 @@ public class MinioStorage implements StorageService {
                 }
                 return Uni.createFrom().completionStage(removed);
             })
-            .chain(unused -> {
-                // If we got here, object was moved
-                return Uni.createFrom().item("Renamed");
-            })
-            .onFailure().invoke(e -> {
-                log.error(e);
+            .map(unused -> copy.get());
+    }
+
+    /***
+     * Move all objects of a virtual folder to a new prefix. The listing is consumed page
+     * by page, the objects of each page are copied in parallel, then deleted with one
+     * DeleteObjects request. As moved objects are gone from the old prefix, a move that was
+     * interrupted continues by simply renaming the folder again, which also picks up objects
+     * written to the old prefix meanwhile.
+     * @param bucketOld is the bucket of the folder to move
+     * @param prefixOld is the prefix of the folder to move
+     * @param bucketNew is the destination bucket
+     * @param prefixNew is the destination prefix
+     * @param progress Optional operation to record progress in
+     * @return Confirmation message
+     */
+    private Uni<String> renameFolder(String bucketOld, String prefixOld, String bucketNew, String prefixNew,
+                                     StorageOperation progress) {
+
+        final var renamed = new AtomicLong(0);
+        final var listArgs = ListObjectsArgs.builder()
+                                    .bucket(bucketOld)
+                                    .prefix(prefixOld)
+                                    .recursive(true)
+                                    .build();
+
+        // Move the objects while listing them
+        final var objects = minio.listObjects(listArgs);
+        return Multi.createFrom().iterable(S3Executor.timed(objects, this.name, "list", MAX_KEYS))
+            .map(MinioStorage::listedItem)
+            .runSubscriptionOn(this.executor)
+            .group().intoLists().of(MAX_KEYS)
+            .onItem().transformToUniAndConcatenate(page ->
+                movePage(bucketOld, prefixOld, bucketNew, prefixNew, page)
+                    .invoke(moved -> {
+                        // Page moved
+                        renamed.addAndGet(moved);
+                        if(null != progress)
+                            progress.progress(moved, 0);
+                    }))
+            .collect().last()
+            .map(unused -> {
+                MDC.put("objectCount", renamed.get());
+                var msg = String.format("Renamed %d prefixed objects", renamed.get());
+                log.info(msg);
+                return msg;
             });
+    }
 
-        return result;
+    /***
+     * Move one page of objects to a new prefix. Objects are copied in parallel,
+     * the originals are only deleted after all copies succeeded.
+     * @param bucketOld is the bucket of the objects to move
+     * @param prefixOld is the prefix to replace
+     * @param bucketNew is the destination bucket
+     * @param prefixNew is the destination prefix
+     * @param page are the objects to move
+     * @return Number of moved objects
+     */
+    private Uni<Integer> movePage(String bucketOld, String prefixOld, String bucketNew, String prefixNew,
+                                  List<Item> page) {
+
+        return Multi.createFrom().iterable(page)
+
+            .onItem().transformToUni(item -> {
+                var objectNew = prefixNew + item.objectName().substring(prefixOld.length());
+                return copyListedObject(bucketOld, item, bucketNew, objectNew);
+            })
+            .merge(Math.max(1, this.copyConcurrency))
+            .collect().last()
+            .chain(unused -> S3Executor.run(this.executor, () -> {
+                // All copied, delete the originals
+                var batch = page.stream()
+                                .map(item -> new DeleteObject(item.objectName()))
+                                .collect(Collectors.toList());
+                return removeObjectBatch(bucketOld, batch);
+            }))
+            .chain(details -> {
+                if(!details.isEmpty()) {
+                    MDC.put("errorCount", details.size());
+                    return Uni.createFrom().failure(new TransferServiceException("deleteError", details));
+                }
+
+                return Uni.createFrom().item(page.size());
+            });
     }
 }
@@ -1,49 +1,67 @@
 package egi.eu;
 
-import io.minio.errors.*;
+import io.quarkus.arc.Arc;
+import io.smallrye.mutiny.Multi;
 import io.smallrye.mutiny.Uni;
-import io.smallrye.mutiny.tuples.Tuple2;
-import org.apache.commons.lang3.StringUtils;
+import io.smallrye.mutiny.infrastructure.Infrastructure;
+import io.vertx.core.http.HttpClientOptions;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.http.RequestOptions;
+import io.vertx.mutiny.core.Vertx;
+import io.vertx.mutiny.core.buffer.Buffer;
+import io.vertx.mutiny.core.http.HttpClient;
+import io.vertx.mutiny.core.http.HttpClientResponse;
+import io.vertx.mutiny.ext.web.client.HttpResponse;
+import io.vertx.mutiny.ext.web.client.WebClient;
 import org.jboss.logging.Logger;
 import org.jboss.logging.MDC;
 
 import jakarta.annotation.PostConstruct;
+import jakarta.ws.rs.core.HttpHeaders;
 
-import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
-import java.security.InvalidKeyException;
-import java.security.NoSuchAlgorithmException;
 import java.time.Duration;
-import java.util.*;
-import java.util.concurrent.CompletableFuture;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Predicate;
+import javax.xml.stream.XMLStreamException;
 
-import io.minio.*;
-import io.minio.messages.Item;
-import io.minio.messages.Bucket;
-import io.minio.messages.DeleteError;
-import io.minio.messages.DeleteObject;
-
-import eosc.eu.DataStorageCredentials;
+import eosc.eu.CachingStorageService;
 import eosc.eu.StorageService;
 import eosc.eu.TransferServiceException;
 import eosc.eu.TransferConfig.StorageSystemConfig;
 import eosc.eu.model.*;
 
-import egi.s3.model.*;
+import egi.webdav.PropfindParser;
+import egi.webdav.ResponseInputStream;
+import egi.webdav.model.DavResource;
 
 
 /***
- * Class for manipulating storage elements in WebDAV systems
+ * Class for manipulating storage elements in WebDAV systems.
+ * Requests are sent with the Vert.x HTTP client, using one pooled keep-alive client per server,
+ * and PROPFIND responses are parsed incrementally while they are received.
  */
 public class WebDavStorage implements StorageService {
 
-    private static final Logger log = Logger.getLogger(MinioStorage.class);
+    private static final Logger log = Logger.getLogger(WebDavStorage.class);
+
+    private static final int MAX_CONNECTIONS = 16; // per server
+    private static final int STATUS_MULTISTATUS = 207;
+
+    // Clients are expensive, share them between instances of this class
+    private static final Map<String, HttpClient> httpClients = new ConcurrentHashMap<>();
+    private static final Map<String, WebClient> webClients = new ConcurrentHashMap<>();
 
     private String name;
     private String baseUri;
-    private MinioAsyncClient minio;
+    private String auth;
+    private HttpClient http;
+    private WebClient client;
     private int timeout;
 
 
@@ -56,42 +74,61 @@ public class WebDavStorage implements StorageService {
      * Initialize the client for the WebDAV system.
      * @param serviceConfig Configuration loaded from the config file
      * @param storageElementUrl the URL to a folder or file on the target storage system
-     * @param storageAuth Credentials for the storage system, Base-64 encoded "accesskey:secretkey"
+     * @param storageAuth Access token for the storage system
      * @return true on success
      */
     @PostConstruct
     public boolean initService(StorageSystemConfig serviceConfig, String storageElementUrl, String storageAuth) {
 
-        if(null != minio)
+        if(null != this.client)
             return true;
 
         this.name = serviceConfig.name();
         this.timeout = serviceConfig.timeout();
+        this.auth = storageAuth;
 
         MDC.put("storageElement", storageElementUrl);
-        log.debug("Obtaining client for S3 compatible object storage");
+        log.debug("Obtaining client for WebDAV storage");
 
-        // Get the base URL for the S3 storage system
+        // Get the base URL for the WebDAV storage system
+        URI uriStorageSystem = null;
         try {
-            URI uriStorageSystem = new URI(storageElementUrl);
+            uriStorageSystem = new URI(storageElementUrl);
             this.baseUri = uriStorageSystem.getScheme() + "://" + uriStorageSystem.getAuthority();
         } catch(URISyntaxException e) {
             log.error(e.getMessage());
             return false;
         }
 
+        final var secure = "https".equalsIgnoreCase(uriStorageSystem.getScheme()) ||
+                           "davs".equalsIgnoreCase(uriStorageSystem.getScheme());
+        final var host = uriStorageSystem.getHost();
+        final var port = uriStorageSystem.getPort();
+        if(null == host) {
+            log.error("No host in storage element URL");
+            return false;
+        }
+
         try {
-            // Create the WebDAV client for the storage system
-            //var userInfo = new DataStorageCredentials(storageAuth);
-            minio = MinioAsyncClient.builder()
-                        .endpoint(this.baseUri)
-                        //.credentials(userInfo.getAccessKey(), userInfo.getSecretKey())
-                        .build();
+            // Get the pooled client for this WebDAV server, create it on first use
+            this.http = httpClients.computeIfAbsent(this.baseUri, key -> {
+                var vertx = Arc.container().instance(Vertx.class).get();
+                var options = new HttpClientOptions()
+                        .setSsl(secure)
+                        .setDefaultHost(host)
+                        .setDefaultPort(port > 0 ? port : (secure ? 443 : 80))
+                        .setKeepAlive(true)
+                        .setMaxPoolSize(MAX_CONNECTIONS)
+                        .setConnectTimeout(this.timeout);
+
+                return vertx.createHttpClient(options);
+            });
 
+            this.client = webClients.computeIfAbsent(this.baseUri, key -> WebClient.wrap(this.http));
             return true;
         }
-        catch(IllegalArgumentException iae) {
-            log.error(iae.getMessage());
+        catch(IllegalArgumentException | IllegalStateException e) {
+            log.error(e.getMessage());
         }
 
         return false;
@@ -109,168 +146,312 @@ public class WebDavStorage implements StorageService {
      */
     public String getServiceBaseUrl() { return this.baseUri; }
 
-    /**
-     * Retrieve information about current user.
-     * @return User information.
+    /***
+     * Build the value of the Authorization header.
+     * @param tsAuth Optional access token passed in the call, overrides the one from initialization
+     * @return Authorization header value, null if no credentials available
      */
-    public Uni<eosc.eu.model.UserInfo> getUserInfo() {
-        if(null == minio)
-            return Uni.createFrom().failure(new TransferServiceException("configInvalid"));
+    private String authorization(String tsAuth) {
+        var token = (null != tsAuth && !tsAuth.isBlank()) ? tsAuth : this.auth;
+        if(null == token || token.isBlank())
+            return null;
 
-        return Uni.createFrom().failure(new TransferServiceException("configInvalid"));
+        return token.regionMatches(true, 0, "Bearer ", 0, 7) ? token : "Bearer " + token;
     }
 
     /***
-     * Extract the bucket and object name from an URI.
-     * @param seUri is the fully qualified URI to the object
-     * @return Uni containing Tuple with (bucketName, objectName), failure Uni on error.
+     * Extract the path from an URI, checking that it belongs to this storage system.
+     * @param seUri is the fully qualified URI to the file or folder
+     * @return Uni containing the encoded path, failure Uni on error.
      */
-    private Uni<Tuple2<String, String>> getBucketObjectFromUri(String seUri) {
-        // Split the storage element URI into a bucket and an object name
-        java.lang.String bucketName = null;
-        java.lang.String objectName = null;
+    private Uni<String> getPathFromUri(String seUri) {
         try {
             URI uri = new URI(seUri);
-            if(!this.baseUri.equals(uri.getScheme() + "://" + uri.getAuthority())) {
+            if(!this.baseUri.equals(uri.getScheme() + "://" + uri.getAuthority()))
                 return Uni.createFrom().failure(new TransferServiceException("uriMismatch"));
-            }
-
-            var elements = uri.getPath().split("/");
-            if(elements.length >= 1 && elements[0].isBlank())
-                elements = Arrays.copyOfRange(elements, 1, elements.length);
-
-            if(elements.length >= 1) {
-                // If the URI includes a path
-                bucketName = elements[0];
-                elements = Arrays.copyOfRange(elements, 1, elements.length);
-
-                objectName = elements.length > 0 ? StringUtils.join(elements, '/') : null;
 
-                if(null != objectName && !objectName.isBlank() && '/' == seUri.charAt(seUri.length() - 1))
-                    objectName += "/";
-            }
+            var path = uri.getRawPath();
+            return Uni.createFrom().item(null == path || path.isEmpty() ? "/" : path);
         } catch(URISyntaxException e) {
             return Uni.createFrom().failure(new TransferServiceException(e, "uriInvalid"));
         }
+    }
+
+    /***
+     * Build a failure from an unexpected status code.
+     * @param operation is the WebDAV method that failed, used as the error id
+     * @param code is the status code of the response
+     * @param message is the status message of the response
+     * @return Exception to fail with
+     */
+    private static TransferServiceException statusError(String operation, int code, String message) {
+        if(404 == code)
+            return new TransferServiceException("notFound", code, message);
 
-        return Uni.createFrom().item(Tuple2.of(bucketName, objectName));
+        return new TransferServiceException(operation.toLowerCase(), code, message);
+    }
+
+    /***
+     * Send a PROPFIND request. The response is only returned if it is a multistatus,
+     * in which case its body was not consumed yet, so it can be parsed while it arrives.
+     * @param path is the encoded path of the file or folder
+     * @param depth is the depth of the listing (0 for the element itself, 1 for its children)
+     * @param authorization is the value for the Authorization header
+     * @return Multistatus response, failure Uni on error
+     */
+    private Uni<HttpClientResponse> propfind(String path, int depth, String authorization) {
+        var options = new RequestOptions()
+                .setMethod(HttpMethod.valueOf("PROPFIND"))
+                .setURI(path)
+                .setIdleTimeout(this.timeout)
+                .putHeader("Depth", String.valueOf(depth))
+                .putHeader(HttpHeaders.CONTENT_TYPE, "application/xml; charset=utf-8");
+        if(null != authorization)
+            options.putHeader(HttpHeaders.AUTHORIZATION, authorization);
+
+        return this.http.request(options)
+            .chain(request -> request.send(PropfindParser.PROPFIND_BODY))
+            .chain(response -> {
+                if(STATUS_MULTISTATUS == response.statusCode())
+                    return Uni.createFrom().item(response);
+
+                // Discard the body, so that the connection can be reused
+                final var code = response.statusCode();
+                final var message = response.statusMessage();
+                return response.body()
+                        .onItemOrFailure().transformToUni((body, e) ->
+                            Uni.createFrom().failure(statusError("propfind", code, message)));
+            });
+    }
+
+    /***
+     * Parse a multistatus response on a worker thread, while the body is still being received.
+     * @param response is the multistatus response
+     * @param resourceHandler is called for each parsed resource, returns false to stop parsing
+     * @return Number of resources parsed
+     */
+    private Uni<Integer> parseMultistatus(HttpClientResponse response, Predicate<DavResource> resourceHandler) {
+        // Must hook the body handlers before leaving the event loop
+        var context = Vertx.currentContext();
+        if(null == context)
+            context = Arc.container().instance(Vertx.class).get().getOrCreateContext();
+
+        final var body = new ResponseInputStream(response, context, this.timeout);
+        return Uni.createFrom().item(() -> {
+                try(body) {
+                    return PropfindParser.parse(body, resourceHandler);
+                }
+                catch(XMLStreamException e) {
+                    throw new TransferServiceException("propfind", e.getMessage());
+                }
+            })
+            .runSubscriptionOn(Infrastructure.getDefaultWorkerPool());
+    }
+
+    /***
+     * Stream the resources in a multistatus response, parsing one resource per request from downstream.
+     * Parsing happens on a worker thread, and the HTTP response is paused while nobody asks for more.
+     * @param response is the multistatus response
+     * @return Stream of the resources in the response
+     */
+    private Multi<DavResource> streamMultistatus(HttpClientResponse response) {
+        // Must hook the body handlers before leaving the event loop
+        var context = Vertx.currentContext();
+        if(null == context)
+            context = Arc.container().instance(Vertx.class).get().getOrCreateContext();
+
+        final var body = new ResponseInputStream(response, context, this.timeout);
+        return Multi.createFrom().<DavResource>iterable(() -> {
+                try {
+                    return PropfindParser.iterate(body);
+                }
+                catch(XMLStreamException e) {
+                    throw new TransferServiceException("propfind", e.getMessage());
+                }
+            })
+            .runSubscriptionOn(Infrastructure.getDefaultWorkerPool())
+            .onTermination().invoke(body::close);
+    }
+
+    /***
+     * Send a request without body and without interesting response body.
+     * @param method is the WebDAV method
+     * @param path is the encoded path of the file or folder
+     * @param authorization is the value for the Authorization header
+     * @param headers are extra request headers, may be null
+     * @return Response, failure Uni if the status is not 2xx
+     */
+    private Uni<HttpResponse<Buffer>> send(String method, String path, String authorization, Map<String, String> headers) {
+        var request = this.client.request(HttpMethod.valueOf(method), path)
+                .timeout(this.timeout);
+        if(null != authorization)
+            request.putHeader(HttpHeaders.AUTHORIZATION, authorization);
+        if(null != headers)
+            headers.forEach(request::putHeader);
+
+        return request.send()
+            .chain(response -> {
+                var code = response.statusCode();
+                if(code < 200 || code >= 300)
+                    return Uni.createFrom().failure(statusError(method, code, response.statusMessage()));
+
+                return Uni.createFrom().item(response);
+            });
     }
 
     /**
-     * List all buckets or all objects in a bucket.
+     * List the files and sub-folders in a folder.
+     * WebDAV has no paging, so pages follow the order in which the server returns the members.
+     * Parsing stops as soon as a page is full, the rest of the response is discarded.
+     * Every page lists the folder again from the start and skips to the cursor, so fetching
+     * a page costs O(n) in the size of the folder, and paging through it all costs O(n^2).
+     * If the last element of the previous page no longer exists, the cursor is rejected.
      * @param tsAuth Optional access token needed to call the service.
-     * @param storageAuth Optional credentials for the destination storage, Base-64 encoded "key:value"
-     * @param folderUri The link to the bucket to list content of. If the URI has no path (or just /),
-     *                  it will list all the buckets. If the path contains the bucket (with or without
-     *                  a terminating /), it will return the objects and virtual folders directly in the
-     *                  bucket. To list content of virtual folders, the folderUri must end in a slash (/).
+     * @param storageAuth Optional credentials for the destination storage, not used
+     * @param folderUri The link to the folder to list content of.
+     * @param limit Maximum number of elements to return, 0 for all
+     * @param cursor Cursor returned with the previous page, null for the first page
+     * @param filter Selects the elements to return, null for all, applied while parsing
      * @return List of folder content.
      */
-    public Uni<StorageContent> listFolderContent(String tsAuth, String storageAuth, String folderUri) {
-        if(null == minio)
+    public Uni<StorageContent> listFolderContent(String tsAuth, String storageAuth, String folderUri,
+                                                 int limit, String cursor, StorageFilter filter) {
+        if(null == this.client)
             return Uni.createFrom().failure(new TransferServiceException("configInvalid"));
 
-        var bucket = new AtomicReference<String>(null);
-        var loa = new AtomicReference<ListObjectsArgs>(null);
+        String startAfter = null;
+        try {
+            // The cursor is the path of the last element on the previous page
+            startAfter = StorageContent.decodeCursor(cursor);
+        }
+        catch(IllegalArgumentException e) {
+            return Uni.createFrom().failure(new TransferServiceException("cursorInvalid"));
+        }
+
+        final String lastSeen = startAfter;
+        final var skipping = new AtomicBoolean(null != lastSeen);
+        final var selecting = null != filter && filter.selects();
+        final var maxScan = (selecting && limit > 0) ? filter.maxScan : 0;
+        var folderPath = new AtomicReference<String>(null);
+        var content = new StorageContent();
         Uni<StorageContent> result = Uni.createFrom().nullItem()
 
             .ifNoItem()
                 .after(Duration.ofMillis(this.timeout))
                 .failWith(new TransferServiceException("listFolderContentTimeout"))
             .chain(unused -> {
-                // Split the storage element URI into bucket and object names
-                return getBucketObjectFromUri(folderUri);
-            })
-            .chain(buckobj -> {
-                // Got the URI parsed
-                var bucketName = buckobj.getItem1();
-                var objectName = buckobj.getItem2();
-                if(null != objectName && '/' != objectName.charAt(objectName.length() - 1))
-                    // This is an object, not a bucket, bail
-                    return Uni.createFrom().failure(new TransferServiceException("notFolder"));
-
-                if(null != bucketName && !bucketName.isBlank())
-                    bucket.set(bucketName);
-                else
-                    // If no bucket name, then we need to list the buckets
-                    return Uni.createFrom().nullItem();
-
-                // Prepare to list objects
-                var listArgs = ListObjectsArgs.builder().bucket(bucketName);
-                if(null != objectName && !objectName.isBlank())
-                    listArgs.prefix(objectName);
-
-                return Uni.createFrom().item(listArgs.build());
-            })
-            .chain(listArgs -> {
-                if(null != listArgs) {
-                    // If we have arguments for listing objects, skip this step
-                    loa.set(listArgs);
-                    return Uni.createFrom().nullItem();
-                }
+                // Get the path of the folder
+                return getPathFromUri(folderUri);
+            })
+            .chain(path -> {
+                // Collections should be addressed with a trailing slash
+                if(!path.endsWith("/"))
+                    path += "/";
+
+                folderPath.set(path);
+                return propfind(path, 1, authorization(tsAuth));
+            })
+            .chain(response -> {
+                // Got multistatus, parse it while it arrives
+                final var self = new DavResource();
+                self.href = folderPath.get();
+                final var selfPath = self.getPath();
+                final var lastPath = new AtomicReference<String>(null);
+                final var scanned = new AtomicLong(0);
+                return parseMultistatus(response, resource -> {
+                    final var path = resource.getPath();
+                    if(selfPath.equals(path)) {
+                        // Skip the entry of the folder itself, but keep its validator for caching
+                        content.validator = CachingStorageService.validator(new StorageElement(resource, this.baseUri));
+                        return true;
+                    }
 
-                CompletableFuture<List<Bucket>> buckets = null;
-                try {
-                    // List buckets
-                    buckets = minio.listBuckets();
-                } catch(Exception e) {
-                    var msg = e.getMessage().replaceAll("\\.$", "");
-                    return Uni.createFrom().failure(new TransferServiceException("listBuckets", msg));
-                }
+                    if(skipping.get()) {
+                        // Skip until after the last element of the previous page
+                        if(lastSeen.equals(path))
+                            skipping.set(false);
+                        return true;
+                    }
 
-                return Uni.createFrom().completionStage(buckets);
+                    if(maxScan > 0 && scanned.incrementAndGet() > maxScan) {
+                        // Examined enough, continue after the last examined element
+                        content.next = StorageContent.encodeCursor(lastPath.get());
+                        return false;
+                    }
+
+                    var se = new StorageElement(resource, this.baseUri);
+                    if(selecting && !filter.matches(se)) {
+                        lastPath.set(path);
+                        return true;
+                    }
+
+                    if(limit > 0 && content.count >= limit) {
+                        // Page is full and there is more
+                        content.next = StorageContent.encodeCursor(lastPath.get());
+                        return false;
+                    }
+
+                    content.add(se);
+                    lastPath.set(path);
+                    return true;
+                });
             })
-            .chain(bucketList -> {
-                if(null != bucketList)
-                    // If we got buckets, skip this step
-                    return Uni.createFrom().item(Tuple2.of(bucketList, null));
-
-                // List objects
-                var listArgs = loa.get();
-                var objects = minio.listObjects(listArgs);
-                return Uni.createFrom().item(Tuple2.of(null, objects));
+            .chain(parsed -> {
+                if(skipping.get())
+                    // The last element of the previous page is gone, cannot tell where to continue
+                    return Uni.createFrom().failure(new TransferServiceException("cursorInvalid"));
+
+                // Folder listed
+                MDC.put("seCount", content.count);
+                return Uni.createFrom().item(content);
             })
-            .chain(contentLists -> {
-                // When we get here, we have either a list of buckets or a list of objects
-                var buckets = (List<Bucket>)contentLists.getItem1();
-                var objects = (Iterable<Result<Item>>)contentLists.getItem2();
-
-                var content = new ArrayList<ObjectInfo>();
-                String bucketUri = null;
-
-                if(null != buckets) {
-                    // Got list of buckets
-                    bucketUri = this.baseUri;
-                    for(var b : buckets) {
-                        var objInfo = new ObjectInfo(null, b);
-                        content.add(objInfo);
-                    }
-                }
-                else if(null != objects) {
-                    // Got list of objects
-                    var bucketName = bucket.get();
-                    bucketUri = this.baseUri + "/" + bucketName;
-                    for(var object : objects)
-                        try {
-                            var item = object.get();
-                            var objInfo = new ObjectInfo(bucketUri, item);
-                            objInfo.bucket = bucketName;
-                            content.add(objInfo);
-                        }
-                        catch(Exception e) {
-                            var code = 0;
-                            var type = e.getClass();
-                            if(type.equals(ErrorResponseException.class))
-                                code = ((ErrorResponseException)e).response().code();
-                            else if(type.equals(ServerException.class))
-                                code = ((ServerException)e).statusCode();
-                            return Uni.createFrom().failure(new TransferServiceException("listObjects", code,
-                                                                        e.getMessage().replaceAll("\\.$", "")));
-                        }
-                }
+            .onFailure().invoke(e -> {
+                log.error(e);
+            });
 
-                MDC.put("seCount", content.size());
-                return Uni.createFrom().item(new StorageContent(bucketUri, content));
+        return result;
+    }
+
+    /**
+     * Stream the files and sub-folders in a folder, as they are parsed from the response.
+     * @param tsAuth Optional access token needed to call the service.
+     * @param storageAuth Optional credentials for the destination storage, not used
+     * @param folderUri The link to the folder to list content of.
+     * @param filter Selects the elements to emit, null for all
+     * @return Stream of folder content.
+     */
+    public Multi<StorageElement> streamFolderContent(String tsAuth, String storageAuth, String folderUri,
+                                                     StorageFilter filter) {
+        if(null == this.client)
+            return Multi.createFrom().failure(new TransferServiceException("configInvalid"));
+
+        var folderPath = new AtomicReference<String>(null);
+        Multi<StorageElement> result = Uni.createFrom().nullItem()
+
+            .ifNoItem()
+                .after(Duration.ofMillis(this.timeout))
+                .failWith(new TransferServiceException("listFolderContentTimeout"))
+            .chain(unused -> {
+                // Get the path of the folder
+                return getPathFromUri(folderUri);
+            })
+            .chain(path -> {
+                // Collections should be addressed with a trailing slash
+                if(!path.endsWith("/"))
+                    path += "/";
+
+                folderPath.set(path);
+                return propfind(path, 1, authorization(tsAuth));
+            })
+            .onItem().transformToMulti(response -> {
+                // Got multistatus, emit members as they are parsed
+                final var self = new DavResource();
+                self.href = folderPath.get();
+                final var selfPath = self.getPath();
+                return streamMultistatus(response)
+                        .select().where(resource -> !selfPath.equals(resource.getPath()))
+                        .map(resource -> new StorageElement(resource, this.baseUri))
+                        .select().where(se -> null == filter || filter.matches(se));
             })
             .onFailure().invoke(e -> {
                 log.error(e);
@@ -280,55 +461,46 @@ public class WebDavStorage implements StorageService {
     }
 
     /**
-     * Get the details of an object. Fails if called for a bucket.
+     * Get the details of a file or folder.
      * @param tsAuth Optional access token needed to call the service.
-     * @param storageAuth Optional credentials for the destination storage, Base-64 encoded "key:value"
+     * @param storageAuth Optional credentials for the destination storage, not used
      * @param seUri The link to the file or folder to det details of.
-     * @return Details about the object.
+     * @return Details about the storage element.
      */
     public Uni<StorageElement> getStorageElementInfo(String tsAuth, String storageAuth, String seUri) {
-        if(null == minio || null == this.baseUri)
+        if(null == this.client || null == this.baseUri)
             return Uni.createFrom().failure(new TransferServiceException("configInvalid"));
 
+        var element = new AtomicReference<StorageElement>(null);
         Uni<StorageElement> result = Uni.createFrom().nullItem()
 
             .ifNoItem()
                 .after(Duration.ofMillis(this.timeout))
                 .failWith(new TransferServiceException("getStorageElementInfoTimeout"))
             .chain(unused -> {
-                // Split the storage element URI into bucket and object names
-                return getBucketObjectFromUri(seUri);
-            })
-            .chain(buckobj -> {
-                // Got the URI parsed
-                var bucketName = buckobj.getItem1();
-                var objectName = buckobj.getItem2();
-                if(null == objectName || objectName.isBlank() || '/' == objectName.charAt(objectName.length() - 1))
-                    // This is not an object, bail
-                    return Uni.createFrom().failure(new TransferServiceException("notFile"));
-
-                // Prepare to get object statistics
-                return Uni.createFrom().item(StatObjectArgs.builder()
-                        .bucket(bucketName)
-                        .object(objectName)
-                        .build());
-            })
-            .chain(statArgs -> {
-                CompletableFuture<StatObjectResponse> stats = null;
-                try {
-                    // Get storage element stats
-                    stats = minio.statObject(statArgs);
-                }
-                catch(Exception e) {
-                    var msg = e.getMessage().replaceAll("\\.$", "");
-                    return Uni.createFrom().failure(new TransferServiceException("statObject", msg));
-                }
-                return Uni.createFrom().completionStage(stats);
-            })
-            .chain(stats -> {
-                // Got storage element stats
-                var objInfo = new ObjectInfo(seUri, stats);
-                return Uni.createFrom().item(new StorageElement(objInfo));
+                // Get the path of the storage element
+                return getPathFromUri(seUri);
+            })
+            .chain(path -> {
+                // Only the element itself
+                return propfind(path, 0, authorization(tsAuth));
+            })
+            .chain(response -> {
+                // Got multistatus, parse it
+                return parseMultistatus(response, resource -> {
+                    // Only interested in the first entry
+                    resource.seUri = seUri;
+                    element.set(new StorageElement(resource, this.baseUri));
+                    return false;
+                });
+            })
+            .chain(parsed -> {
+                var se = element.get();
+                if(null == se)
+                    return Uni.createFrom().failure(new TransferServiceException("notFound"));
+
+                // Got storage element details
+                return Uni.createFrom().item(se);
             })
             .onFailure().invoke(e -> {
                 log.error(e);
@@ -338,14 +510,14 @@ public class WebDavStorage implements StorageService {
     }
 
     /**
-     * Create new bucket.
+     * Create new folder.
      * @param tsAuth Optional access token needed to call the service.
-     * @param storageAuth Optional credentials for the destination storage, Base-64 encoded "key:value"
-     * @param folderUri The link to the bucket to create. The bucket name must be unique.
+     * @param storageAuth Optional credentials for the destination storage, not used
+     * @param folderUri The link to the folder to create.
      * @return Confirmation message.
      */
-    public Uni<String> createFolder(String tsAUth, String storageAuth, String folderUri) {
-        if(null == minio)
+    public Uni<String> createFolder(String tsAuth, String storageAuth, String folderUri) {
+        if(null == this.client)
             return Uni.createFrom().failure(new TransferServiceException("configInvalid"));
 
         Uni<String> result = Uni.createFrom().nullItem()
@@ -354,43 +526,15 @@ public class WebDavStorage implements StorageService {
                 .after(Duration.ofMillis(this.timeout))
                 .failWith(new TransferServiceException("createFolderTimeout"))
             .chain(unused -> {
-                // Split the storage element URI into bucket and object names
-                return getBucketObjectFromUri(folderUri);
+                // Get the path of the folder
+                return getPathFromUri(folderUri);
             })
-            .chain(buckobj -> {
-                // Got the URI parsed
-                var bucketName = buckobj.getItem1();
-                var objectName = buckobj.getItem2();
-                if(null != objectName && !objectName.isBlank() && '/' != objectName.charAt(objectName.length() - 1))
-                    // This is an object, not a bucket, bail
-                    return Uni.createFrom().failure(new TransferServiceException("notFolder"));
-
-                if(null != objectName)
-                    // For virtual folders we don't have to do anything
-                    return Uni.createFrom().nullItem();
-
-                // Prepare to make bucket
-                return Uni.createFrom().item(MakeBucketArgs.builder()
-                        .bucket(bucketName)
-                        .build());
+            .chain(path -> {
+                // Create collection
+                return send("MKCOL", path, authorization(tsAuth), null);
             })
-            .chain(makeArgs -> {
-                if(null == makeArgs)
-                    return Uni.createFrom().nullItem();
-
-                CompletableFuture<Void> nope = null;
-                try {
-                    // Create bucket
-                    nope = minio.makeBucket(makeArgs);
-                }
-                catch(Exception e) {
-                    var msg = e.getMessage().replaceAll("\\.$", "");
-                    return Uni.createFrom().failure(new TransferServiceException("makeBucket", msg));
-                }
-                return Uni.createFrom().completionStage(nope);
-            })
-            .chain(unused -> {
-                // If we got here, bucket was successfully created
+            .chain(response -> {
+                // If we got here, folder was successfully created
                 return Uni.createFrom().item("Created");
             })
             .onFailure().invoke(e -> {
@@ -401,170 +545,36 @@ public class WebDavStorage implements StorageService {
     }
 
     /**
-     * Delete existing bucket or virtual folder. If deleting a bucket, the bucket must be empty.
-     * If deleting a virtual folder, it will delete all objects in that virtual folder (and deeper).
+     * Delete existing folder, including its content.
      * @param tsAuth Optional access token needed to call the service.
-     * @param storageAuth Optional credentials for the destination storage, Base-64 encoded "key:value"
-     * @param folderUri The link to the bucket or virtual folder to delete.
+     * @param storageAuth Optional credentials for the destination storage, not used
+     * @param folderUri The link to the folder to delete.
+     * @param progress Optional operation to record progress in, WebDAV deletes the whole tree at once
      * @return Confirmation message.
      */
-    public Uni<String> deleteFolder(String tsAuth, String storageAuth, String folderUri) {
-        if(null == minio)
+    public Uni<String> deleteFolder(String tsAuth, String storageAuth, String folderUri, StorageOperation progress) {
+        if(null == this.client)
             return Uni.createFrom().failure(new TransferServiceException("configInvalid"));
 
-        var bucket = new AtomicReference<String>(null);
-        var message = new AtomicReference<String>("Deleted");
-        var objectCount = new AtomicReference<Integer>(null);
         Uni<String> result = Uni.createFrom().nullItem()
 
             .ifNoItem()
-            .after(Duration.ofMillis(this.timeout))
-            .failWith(new TransferServiceException("deleteFolderTimeout"))
+                .after(Duration.ofMillis(this.timeout))
+                .failWith(new TransferServiceException("deleteFolderTimeout"))
             .chain(unused -> {
-                // Split the storage element URI into bucket and object names
-                return getBucketObjectFromUri(folderUri);
-            })
-            .chain(buckobj -> {
-                // Got the URI parsed
-                var bucketName = buckobj.getItem1();
-                var objectName = buckobj.getItem2();
-                if(null != objectName && !objectName.isBlank() && '/' != objectName.charAt(objectName.length() - 1))
-                    // This is an object, not a virtual folder, bail
-                    return Uni.createFrom().failure(new TransferServiceException("notFolder"));
-
-                bucket.set(bucketName);
-
-                if(null == objectName)
-                    // Deleting a bucket, skip this step
-                    return Uni.createFrom().nullItem();
-
-                // For virtual folders prepare to list objects
-                return Uni.createFrom().item(ListObjectsArgs.builder()
-                        .bucket(bucketName)
-                        .prefix(objectName)
-                        .build());
-            })
-            .chain(listArgs -> {
-                if(null != listArgs) {
-                    // If we have arguments for listing objects, use it
-                    Iterable<Result<Item>> objects = minio.listObjects(listArgs);
-                    return Uni.createFrom().item(objects);
-                }
-
-                // Deleting a bucket, skip this step
-                return Uni.createFrom().nullItem();
-            })
-            .chain(objectsToDelete -> {
-                if(null != objectsToDelete) {
-                    // If we have a list of objects, prepare to delete them
-                    List<DeleteObject> objects = new LinkedList<>();
-                    var bucketName = bucket.get();
-                    var bucketUri = this.baseUri + "/" + bucketName;
-
-                    for(var object : objectsToDelete)
-                        try {
-                            var item = object.get();
-                            var objInfo = new ObjectInfo(bucketUri, item);
-                            objects.add(new DeleteObject(objInfo.getName()));
-                        }
-                        catch(Exception e) {
-                            var code = 0;
-                            var type = e.getClass();
-                            if(type.equals(ErrorResponseException.class))
-                                code = ((ErrorResponseException)e).response().code();
-                            else if(type.equals(ServerException.class))
-                                code = ((ServerException)e).statusCode();
-                            return Uni.createFrom().failure(new TransferServiceException("deleteObject", code,
-                                                                                e.getMessage().replaceAll("\\.$", "")));
-                        }
-
-                    MDC.put("objectCount", objects.size());
-                    objectCount.set(objects.size());
-
-                    // Prepare to delete objects
-                    return Uni.createFrom().item(RemoveObjectsArgs.builder()
-                            .bucket(bucketName)
-                            .objects(objects)
-                            .build());
-                }
-
-                // Deleting a bucket, skip this step
-                return Uni.createFrom().nullItem();
-            })
-            .chain(removeArgs -> {
-                if(null != removeArgs) {
-                    // If we have arguments for deleting objects, use it
-                    Iterable<Result<DeleteError>> deleted = minio.removeObjects(removeArgs);
-                    return Uni.createFrom().item(deleted);
-                }
-
-                // Deleting a bucket, skip this step
-                return Uni.createFrom().nullItem();
+                // Get the path of the folder
+                return getPathFromUri(folderUri);
             })
-            .chain(deleteErrors -> {
-                if(null != deleteErrors) {
-                    // If we got object delete errors, package them for the response
-                    List<Tuple2<String, String>> details = new ArrayList<>();
-                    for(var error : deleteErrors) {
-                        try {
-                            var e = error.get();
-                            var code = e.code();
-                            var msg = e.message();
-                            details.add(Tuple2.of(code, msg));
-                        } catch(Exception e) {
-                            var code = 0;
-                            var type = e.getClass();
-                            if(type.equals(ErrorResponseException.class))
-                                code = ((ErrorResponseException)e).response().code();
-                            else if(type.equals(ServerException.class))
-                                code = ((ServerException)e).statusCode();
-                            return Uni.createFrom().failure(new TransferServiceException("deleteError", code,
-                                                                                    e.getMessage().replaceAll("\\.$", "")));
-                        }
-                    }
-
-                    if(details.isEmpty()) {
-                        // Success
-                        var msg = String.format("Deleted %d prefixed objects", objectCount.get());
-                        log.info(msg);
-                        message.set(msg);
-                    }
-                    else {
-                        MDC.put("errorCount", details.size());
-                        log.infof("Failed to delete %d prefixed objects", objectCount.get());
-                        return Uni.createFrom().failure(new TransferServiceException("deleteError", details));
-                    }
+            .chain(path -> {
+                // Collections are always deleted with all their members
+                if(!path.endsWith("/"))
+                    path += "/";
 
-                    return Uni.createFrom().nullItem();
-                }
-
-                // Prepare to delete a bucket
-                var bucketName = bucket.get();
-                return Uni.createFrom().item(RemoveBucketArgs.builder()
-                        .bucket(bucketName)
-                        .build());
+                return send("DELETE", path, authorization(tsAuth), Map.of("Depth", "infinity"));
             })
-            .chain(bucketArgs -> {
-                if(null != bucketArgs) {
-                    // If we have arguments for deleting a bucket, use it
-                    CompletableFuture<Void> deleted = null;
-                    try {
-                        // Delete bucket
-                        deleted = minio.removeBucket(bucketArgs);
-
-                    } catch(Exception e) {
-                        var msg = e.getMessage().replaceAll("\\.$", "");
-                        return Uni.createFrom().failure(new TransferServiceException("removeBucket", msg));
-                    }
-                    return Uni.createFrom().completionStage(deleted);
-                }
-
-                // Deleting virtual folder, nothing else left to do
-                return Uni.createFrom().nullItem();
-            })
-            .chain(unused -> {
-                // If we got here, bucket or prefixed objects were deleted
-                return Uni.createFrom().item(message.get());
+            .chain(response -> {
+                // If we got here, folder was successfully deleted
+                return Uni.createFrom().item("Deleted");
             })
             .onFailure().invoke(e -> {
                 log.error(e);
@@ -574,14 +584,14 @@ public class WebDavStorage implements StorageService {
     }
 
     /**
-     * Delete existing object.
+     * Delete existing file.
      * @param tsAuth Optional access token needed to call the service.
-     * @param storageAuth Optional credentials for the destination storage, Base-64 encoded "key:value"
-     * @param fileUri The link to the object to delete.
+     * @param storageAuth Optional credentials for the destination storage, not used
+     * @param fileUri The link to the file to delete.
      * @return Confirmation message.
      */
     public Uni<String> deleteFile(String tsAuth, String storageAuth, String fileUri) {
-        if(null == minio)
+        if(null == this.client)
             return Uni.createFrom().failure(new TransferServiceException("configInvalid"));
 
         Uni<String> result = Uni.createFrom().nullItem()
@@ -590,37 +600,18 @@ public class WebDavStorage implements StorageService {
                 .after(Duration.ofMillis(this.timeout))
                 .failWith(new TransferServiceException("deleteFileTimeout"))
             .chain(unused -> {
-                // Split the storage element URI into bucket and object names
-                return getBucketObjectFromUri(fileUri);
+                // Get the path of the file
+                return getPathFromUri(fileUri);
             })
-            .chain(buckobj -> {
-                // Got the URI parsed
-                var bucketName = buckobj.getItem1();
-                var objectName = buckobj.getItem2();
-                if(null == objectName || (!objectName.isBlank() && '/' == objectName.charAt(objectName.length() - 1)))
-                    // This is not an object, bail
+            .chain(path -> {
+                if(path.endsWith("/"))
+                    // This is a folder, not a file, bail
                     return Uni.createFrom().failure(new TransferServiceException("notFile"));
 
-                // Prepare to delete object
-                return Uni.createFrom().item(RemoveObjectArgs.builder()
-                        .bucket(bucketName)
-                        .object(objectName)
-                        .build());
-            })
-            .chain(removeArgs -> {
-                CompletableFuture<Void> nope = null;
-                try {
-                    // Delete object
-                    nope = minio.removeObject(removeArgs);
-                }
-                catch(Exception e) {
-                    var msg = e.getMessage().replaceAll("\\.$", "");
-                    return Uni.createFrom().failure(new TransferServiceException("removeObject", msg));
-                }
-                return Uni.createFrom().completionStage(nope);
+                return send("DELETE", path, authorization(tsAuth), null);
             })
-            .chain(unused -> {
-                // If we got here, object was successfully deleted
+            .chain(response -> {
+                // If we got here, file was successfully deleted
                 return Uni.createFrom().item("Deleted");
             })
             .onFailure().invoke(e -> {
@@ -631,117 +622,39 @@ public class WebDavStorage implements StorageService {
     }
 
     /**
-     * Rename an object. Attempts to rename a bucket or a virtual folder will fail.
-     * Note: Rename is not supported even for objects. Instead, the object is copied to
-     *       the new location with the new name, then the old one will be deleted.
+     * Rename a file or folder.
      * @param tsAuth Optional access token needed to call the service.
-     * @param storageAuth Optional credentials for the destination storage, Base-64 encoded "key:value"
+     * @param storageAuth Optional credentials for the destination storage, not used
      * @param seOld The link to the storage element to rename.
      * @param seNew The link to the new name/location of the storage element.
+     * @param progress Optional operation to record progress in, WebDAV moves the whole tree at once
      * @return Confirmation message.
      */
-    public Uni<String> renameStorageElement(String tsAuth, String storageAuth, String seOld, String seNew) {
-        if(null == minio)
-            throw new TransferServiceException("configInvalid");
-
-        var bucketOld = new AtomicReference<String>(null);
-        var objectOld = new AtomicReference<String>(null);
-        var bucketNew = new AtomicReference<String>(null);
-        var objectNew = new AtomicReference<String>(null);
+    public Uni<String> renameStorageElement(String tsAuth, String storageAuth, String seOld, String seNew,
+                                            StorageOperation progress) {
+        if(null == this.client)
+            return Uni.createFrom().failure(new TransferServiceException("configInvalid"));
+
         Uni<String> result = Uni.createFrom().nullItem()
 
             .ifNoItem()
-            .after(Duration.ofMillis(this.timeout))
-            .failWith(new TransferServiceException("renameStorageElementTimeout"))
+                .after(Duration.ofMillis(this.timeout))
+                .failWith(new TransferServiceException("renameTimeout"))
             .chain(unused -> {
-                // Split the new storage element URI into bucket and object names
-                return getBucketObjectFromUri(seNew);
+                // Make sure the destination is on the same server
+                return getPathFromUri(seNew);
             })
-            .chain(buckobj -> {
-                // Got the new URI parsed
-                var bucketName = buckobj.getItem1();
-                var objectName = buckobj.getItem2();
-
-                if(null == objectName || objectName.isBlank() ||
-                    '/' == objectName.charAt(objectName.length() - 1))
-                    // This is a bucket or a virtual folder, bail
-                    return Uni.createFrom().failure(new TransferServiceException("notFile"));
-
-                bucketNew.set(bucketName);
-                objectNew.set(objectName);
-
-                // Split the old storage element URI into bucket and object names
-                return getBucketObjectFromUri(seOld);
+            .chain(newPath -> {
+                // Get the path of the source
+                return getPathFromUri(seOld);
             })
-            .chain(buckobj -> {
-                // Got the old URI parsed
-                var bucketName = buckobj.getItem1();
-                var objectName = buckobj.getItem2();
-
-                if(null == objectName || objectName.isBlank() ||
-                    '/' == objectName.charAt(objectName.length() - 1))
-                    // The old location cannot be a bucket or a virtual folder either, bail
-                    return Uni.createFrom().failure(new TransferServiceException("notFile"));
-
-                bucketOld.set(bucketName);
-                objectOld.set(objectName);
-
-                var bucketNameNew = bucketNew.get();
-                var objectNameNew = objectNew.get();
-
-                if(bucketName.equals(bucketNameNew) && objectName.equals(objectNameNew))
-                    // Source and destination the same, nothing to do
-                    return Uni.createFrom().failure(new TransferServiceException("noOp",
-                                                                    "Source and destination the same, nothing to do"));
-
-                // Prepare to copy object
-                return Uni.createFrom().item(CopyObjectArgs.builder()
-                                .bucket(bucketNameNew)
-                                .object(objectNameNew)
-                                .source(CopySource.builder()
-                                    .bucket(bucketName)
-                                    .object(objectName)
-                                    .build())
-                                .build());
+            .chain(oldPath -> {
+                // Move on the server, without replacing an existing destination
+                return send("MOVE", oldPath, authorization(tsAuth), Map.of("Destination", seNew,
+                                                                           "Overwrite", "F"));
             })
-            .chain(copyArgs -> {
-                CompletableFuture<ObjectWriteResponse> copied = null;
-                try {
-                    // Copy object to new location
-                    copied = minio.copyObject(copyArgs);
-                } catch(Exception e) {
-                    var msg = e.getMessage().replaceAll("\\.$", "");
-                    return Uni.createFrom().failure(new TransferServiceException("copyObject", msg));
-                }
-                return Uni.createFrom().completionStage(copied);
-            })
-            .chain(copied -> {
-                // Object copied to new location
-                if(null == copied)
-                    return Uni.createFrom().failure(new TransferServiceException("copyObject"));
-
-                var bucketName = bucketOld.get();
-                var objectName = objectOld.get();
-
-                // Prepare to delete original object
-                return Uni.createFrom().item(RemoveObjectArgs.builder()
-                        .bucket(bucketName)
-                        .object(objectName)
-                        .build());
-            })
-            .chain(removeArgs -> {
-                CompletableFuture<Void> removed = null;
-                try {
-                    // Delete object from old location
-                    removed = minio.removeObject(removeArgs);
-                } catch(Exception e) {
-                    var msg = e.getMessage().replaceAll("\\.$", "");
-                    return Uni.createFrom().failure(new TransferServiceException("removeObject", msg));
-                }
-                return Uni.createFrom().completionStage(removed);
-            })
-            .chain(unused -> {
-                // If we got here, object was moved
+            .chain(response -> {
+                // If we got here, storage element was successfully renamed
                 return Uni.createFrom().item("Renamed");
             })
             .onFailure().invoke(e -> {
@@ -0,0 +1,166 @@
+package egi.s3;
+
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.Multimap;
+import io.minio.MinioAsyncClient;
+import io.minio.ObjectWriteResponse;
+import io.minio.S3Escaper;
+import io.minio.messages.Part;
+import io.smallrye.mutiny.Multi;
+import io.smallrye.mutiny.Uni;
+import org.jboss.logging.Logger;
+
+import java.util.Comparator;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicReference;
+
+import eosc.eu.TransferServiceException;
+
+
+/***
+ * MinIO client that can copy large objects server-side, as a multipart upload
+ * with the parts copied in parallel (UploadPartCopy with byte ranges).
+ * A single CopyObject request is limited to 5 GiB, and copies one stream at a time.
+ */
+public class MultipartCopyClient extends MinioAsyncClient {
+
+    private static final Logger log = Logger.getLogger(MultipartCopyClient.class);
+
+    public static final long MIN_PART_SIZE = 5L * 1024 * 1024; // S3 limit, except for the last part
+    public static final long MAX_PART_SIZE = 5L * 1024 * 1024 * 1024; // S3 limit
+    public static final long MAX_SINGLE_COPY = MAX_PART_SIZE; // S3 limit for CopyObject
+    public static final int MAX_PARTS = 10000; // S3 limit
+
+
+    /***
+     * Construct from an existing client, sharing its connections and credentials
+     * @param client is the client to copy
+     */
+    public MultipartCopyClient(MinioAsyncClient client) {
+        super(client);
+    }
+
+    /***
+     * Pick the size of the parts for a copy, within the S3 limits
+     * @param size is the size of the object to copy
+     * @param partSize is the preferred part size
+     * @return Part size to use
+     */
+    public static long partSize(long size, long partSize) {
+        var minimum = Math.max(MIN_PART_SIZE, (size + MAX_PARTS - 1) / MAX_PARTS);
+        return Math.min(MAX_PART_SIZE, Math.max(minimum, partSize));
+    }
+
+    /***
+     * Copy an object server-side, copying parts of it in parallel.
+     * The copy only succeeds if the source did not change while being copied.
+     * On failure the multipart upload is aborted, so no parts are left behind.
+     * @param srcBucket is the bucket of the object to copy
+     * @param srcObject is the name of the object to copy
+     * @param srcEtag is the ETag of the object to copy, null to skip the check
+     * @param size is the size of the object to copy
+     * @param bucket is the destination bucket
+     * @param object is the name of the destination object
+     * @param headers are set on the destination object (e.g. content type and user metadata), can be null
+     * @param partSize is the preferred part size
+     * @param concurrency is the maximum number of parts copied at once
+     * @return Response of the completed upload
+     */
+    public Uni<ObjectWriteResponse> copyInParts(String srcBucket, String srcObject, String srcEtag, long size,
+                                                String bucket, String object, Map<String, String> headers,
+                                                long partSize, int concurrency) {
+
+        final var part = partSize(size, partSize);
+        final var parts = (int)Math.max(1, (size + part - 1) / part);
+        final var uploadId = new AtomicReference<String>(null);
+
+        Multimap<String, String> uploadHeaders = HashMultimap.create();
+        if(null != headers)
+            headers.forEach(uploadHeaders::put);
+
+        log.debugf("Copying %d bytes in %d parts of %d bytes", size, parts, part);
+
+        return call("createMultipartUpload", () ->
+                createMultipartUploadAsync(bucket, null, object, uploadHeaders, null))
+
+            .chain(created -> {
+                // Upload started, copy the parts
+                uploadId.set(created.result().uploadId());
+                return Multi.createFrom().range(1, parts + 1)
+                    .onItem().transformToUni(partNumber -> {
+                        var offset = (partNumber - 1) * part;
+                        var length = Math.min(part, size - offset);
+                        return copyPart(srcBucket, srcObject, srcEtag, bucket, object,
+                                        uploadId.get(), partNumber, offset, length);
+                    })
+                    .merge(Math.max(1, concurrency))
+                    .collect().asList();
+            })
+            .chain(copied -> {
+                // All parts copied, parts must be listed in order
+                copied.sort(Comparator.comparingInt(Part::partNumber));
+                return call("completeMultipartUpload", () ->
+                        completeMultipartUploadAsync(bucket, null, object, uploadId.get(),
+                                                     copied.toArray(new Part[0]), null, null));
+            })
+            .onFailure().call(e -> {
+                if(null == uploadId.get())
+                    return Uni.createFrom().voidItem();
+
+                // Do not leave parts behind
+                log.debugf("Aborting multipart copy (%s)", e.getMessage());
+                return call("abortMultipartUpload", () ->
+                        abortMultipartUploadAsync(bucket, null, object, uploadId.get(), null, null))
+                    .onFailure().recoverWithNull()
+                    .replaceWithVoid();
+            });
+    }
+
+    /***
+     * Copy a byte range of the source object as one part of a multipart upload
+     * @param srcBucket is the bucket of the object to copy
+     * @param srcObject is the name of the object to copy
+     * @param srcEtag is the ETag of the object to copy, null to skip the check
+     * @param bucket is the destination bucket
+     * @param object is the name of the destination object
+     * @param uploadId is the ID of the multipart upload
+     * @param partNumber is the number of the part, starting from 1
+     * @param offset is the first byte of the part
+     * @param length is the number of bytes in the part
+     * @return The copied part
+     */
+    private Uni<Part> copyPart(String srcBucket, String srcObject, String srcEtag,
+                               String bucket, String object, String uploadId,
+                               int partNumber, long offset, long length) {
+
+        Multimap<String, String> headers = HashMultimap.create();
+        headers.put("x-amz-copy-source", S3Escaper.encodePath("/" + srcBucket + "/" + srcObject));
+        headers.put("x-amz-copy-source-range", "bytes=" + offset + "-" + (offset + length - 1));
+        if(null != srcEtag && !srcEtag.isEmpty())
+            headers.put("x-amz-copy-source-if-match", srcEtag);
+
+        return call("uploadPartCopy", () ->
+                uploadPartCopyAsync(bucket, null, object, uploadId, partNumber, headers, null))
+            .map(copied -> new Part(partNumber, copied.result().etag()));
+    }
+
+    /***
+     * Call an SDK method, turning exceptions into failures
+     * @param operation is the name of the SDK method, used as error ID
+     * @param call calls the SDK method
+     * @return Uni with the result of the call
+     */
+    private static <T> Uni<T> call(String operation, Callable<CompletableFuture<T>> call) {
+        CompletableFuture<T> future = null;
+        try {
+            future = call.call();
+        }
+        catch(Exception e) {
+            var msg = null != e.getMessage() ? e.getMessage().replaceAll("\\.$", "") : null;
+            return Uni.createFrom().failure(new TransferServiceException(operation, msg));
+        }
+        return Uni.createFrom().completionStage(future);
+    }
+}
@@ -0,0 +1,213 @@
+package egi.s3;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.quarkus.arc.Arc;
+import io.smallrye.mutiny.Uni;
+import io.smallrye.mutiny.infrastructure.Infrastructure;
+import io.vertx.core.Vertx;
+import org.jboss.logging.Logger;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import eosc.eu.TransferConfig.StorageSystemConfig;
+
+
+/***
+ * Runs the blocking parts of the MinIO SDK off the event loop.
+ * The lazy iterables returned by listObjects() and removeObjects() fetch pages
+ * with blocking HTTP calls while being iterated, so they must never be iterated
+ * on a Vert.x event loop thread.
+ */
+public class S3Executor {
+
+    private static final Logger log = Logger.getLogger(S3Executor.class);
+
+    public static final String MODE_WORKER = "worker";
+    public static final String MODE_POOL = "pool";
+    public static final String MODE_VIRTUAL = "virtual";
+
+    public static final String METRIC_PAGE = "storage.s3.page.duration";
+
+    // Executors are shared between all storage instances with the same settings
+    private static final Map<String, Executor> executors = new ConcurrentHashMap<>();
+
+
+    /***
+     * Get the executor selected in the configuration of a storage system
+     * @param config is the storage system configuration
+     * @return Executor for blocking SDK calls
+     */
+    public static Executor executor(StorageSystemConfig config) {
+        final var mode = config.executor().toLowerCase();
+        final var threads = Math.max(1, config.executorThreads());
+        final var key = MODE_POOL.equals(mode) ? mode + ":" + threads : mode;
+
+        return executors.computeIfAbsent(key, k -> {
+            switch(mode) {
+                case MODE_VIRTUAL:
+                    var virtual = virtualThreadExecutor();
+                    if(null != virtual) {
+                        log.info("Using virtual threads for blocking S3 calls");
+                        return virtual;
+                    }
+                    log.warn("Virtual threads not available in this JVM, using the worker pool");
+                    return Infrastructure.getDefaultWorkerPool();
+
+                case MODE_POOL:
+                    log.infof("Using pool of %d threads for blocking S3 calls", threads);
+                    return boundedPool(threads);
+
+                case MODE_WORKER:
+                    return Infrastructure.getDefaultWorkerPool();
+
+                default:
+                    log.errorf("Unknown executor %s, using the worker pool", mode);
+                    return Infrastructure.getDefaultWorkerPool();
+            }
+        });
+    }
+
+    /***
+     * Create an executor that starts a virtual thread per task, if the JVM supports them.
+     * Looked up by reflection, as the service is built for Java 17.
+     * @return Executor, null if virtual threads are not available
+     */
+    private static Executor virtualThreadExecutor() {
+        try {
+            var factory = java.util.concurrent.Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService)factory.invoke(null);
+        }
+        catch(ReflectiveOperationException | UnsupportedOperationException e) {
+            return null;
+        }
+    }
+
+    /***
+     * Create a pool with a fixed maximum number of threads, excess tasks are queued
+     * @param threads is the maximum number of threads
+     * @return Executor
+     */
+    private static Executor boundedPool(int threads) {
+        final var counter = new AtomicInteger(0);
+        var pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                                          new LinkedBlockingQueue<>(),
+                                          task -> {
+                                              var thread = new Thread(task, "s3-blocking-" + counter.incrementAndGet());
+                                              thread.setDaemon(true);
+                                              return thread;
+                                          });
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    /***
+     * Run a blocking operation on an executor. If called on a Vert.x context,
+     * the result is delivered back on that context, so the rest of the pipeline
+     * (and the logging context) stays with the request.
+     * @param executor is the executor to run on
+     * @param operation is the blocking operation, may throw unchecked exceptions to fail
+     * @return Uni with the result of the operation
+     */
+    public static <T> Uni<T> run(Executor executor, Supplier<T> operation) {
+        final var context = Vertx.currentContext();
+        var result = Uni.createFrom().item(operation)
+                        .runSubscriptionOn(executor);
+
+        if(null != context)
+            result = result.emitOn(command -> context.runOnContext(unused -> command.run()));
+
+        return result;
+    }
+
+    /***
+     * Wrap a lazy SDK iterable to measure the time spent fetching each page.
+     * Only time spent inside the iterator is counted, not the processing of the items.
+     * @param source is the iterable returned by the SDK
+     * @param storage is the name of the storage system, for tagging
+     * @param operation is the operation that iterates, for tagging
+     * @param pageSize is the number of items per page
+     * @return Iterable that records one timer sample per page
+     */
+    public static <T> Iterable<T> timed(Iterable<T> source, String storage, String operation, int pageSize) {
+        final var timer = pageTimer(storage, operation);
+        if(null == timer)
+            return source;
+
+        return () -> new Iterator<T>() {
+            private final Iterator<T> iterator = source.iterator();
+            private long elapsed = 0;
+            private int items = 0;
+            private int pages = 0;
+            private boolean done = false;
+
+            @Override
+            public boolean hasNext() {
+                var start = System.nanoTime();
+                var more = this.iterator.hasNext();
+                this.elapsed += System.nanoTime() - start;
+                if(!more && !this.done) {
+                    // Last (partial or empty) page
+                    this.done = true;
+                    if(this.items > 0 || 0 == this.pages)
+                        timer.record(this.elapsed, TimeUnit.NANOSECONDS);
+                }
+                return more;
+            }
+
+            @Override
+            public T next() {
+                var start = System.nanoTime();
+                var item = this.iterator.next();
+                this.elapsed += System.nanoTime() - start;
+                if(++this.items >= pageSize) {
+                    timer.record(this.elapsed, TimeUnit.NANOSECONDS);
+                    this.pages++;
+                    this.items = 0;
+                    this.elapsed = 0;
+                }
+                return item;
+            }
+        };
+    }
+
+    /***
+     * Record the duration of a blocking call that is a single page (or batch) on its own
+     * @param storage is the name of the storage system, for tagging
+     * @param operation is the operation, for tagging
+     * @param startNanos is when the call started, from System.nanoTime()
+     */
+    public static void recordPage(String storage, String operation, long startNanos) {
+        var timer = pageTimer(storage, operation);
+        if(null != timer)
+            timer.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /***
+     * Get the timer for pages of an operation
+     * @param storage is the name of the storage system
+     * @param operation is the operation
+     * @return Timer, null if metrics are not available
+     */
+    private static Timer pageTimer(String storage, String operation) {
+        var container = Arc.container();
+        var registry = null != container ? container.instance(MeterRegistry.class) : null;
+        if(null == registry || !registry.isAvailable())
+            return null;
+
+        return Timer.builder(METRIC_PAGE)
+                    .description("Time spent in blocking S3 calls, per page of results")
+                    .tag("storage", null != storage ? storage : "unknown")
+                    .tag("operation", operation)
+                    .register(registry.get());
+    }
+}
@@ -0,0 +1,272 @@
+package egi.webdav;
+
+import org.jboss.logging.Logger;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.InputStream;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.function.Predicate;
+
+import eosc.eu.TransferServiceException;
+import egi.webdav.model.DavResource;
+
+
+/***
+ * Incremental parser for WebDAV multistatus responses (RFC 4918).
+ * Uses StAX, so each response element is handed over as soon as it was parsed,
+ * and memory use does not depend on the number of entries in the folder.
+ */
+public class PropfindParser {
+
+    private static final Logger log = Logger.getLogger(PropfindParser.class);
+
+    public static final String DAV_NS = "DAV:";
+
+    // Only ask for the properties we use
+    public static final String PROPFIND_BODY =
+            "<?xml version=\"1.0\" encoding=\"utf-8\"?>" +
+            "<d:propfind xmlns:d=\"DAV:\"><d:prop>" +
+            "<d:resourcetype/><d:getcontentlength/><d:getlastmodified/>" +
+            "<d:creationdate/><d:getetag/><d:getcontenttype/>" +
+            "</d:prop></d:propfind>";
+
+    private static final XMLInputFactory factory = createFactory();
+
+
+    /***
+     * Create a StAX factory that does not resolve external entities
+     * @return StAX factory
+     */
+    private static XMLInputFactory createFactory() {
+        var xif = XMLInputFactory.newFactory();
+        xif.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        xif.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        xif.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+        return xif;
+    }
+
+    /***
+     * Parse a multistatus response
+     * @param body is the response body
+     * @param resourceHandler is called for each resource in the response, returns false to stop parsing
+     * @return Number of resources parsed
+     * @throws XMLStreamException if the response is not valid XML
+     */
+    public static int parse(InputStream body, Predicate<DavResource> resourceHandler) throws XMLStreamException {
+        int count = 0;
+        var resources = iterate(body);
+        while(resources.hasNext()) {
+            count++;
+            if(!resourceHandler.test(resources.next())) {
+                resources.close();
+                break;
+            }
+        }
+
+        return count;
+    }
+
+    /***
+     * Parse a multistatus response on demand, one resource per call to next().
+     * Nothing is read from the body until the caller asks for the next resource,
+     * so a slow consumer slows down reading the response.
+     * @param body is the response body
+     * @return Iterator over the resources in the response, throws TransferServiceException
+     *         from hasNext() if the response is not valid XML
+     * @throws XMLStreamException if the response cannot be parsed
+     */
+    public static ResourceIterator iterate(InputStream body) throws XMLStreamException {
+        return new ResourceIterator(factory.createXMLStreamReader(body));
+    }
+
+    /***
+     * Pull-based iterator over the resources in a multistatus response
+     */
+    public static class ResourceIterator implements Iterator<DavResource>, AutoCloseable {
+
+        private final XMLStreamReader reader;
+        private DavResource next;
+        private boolean done;
+
+
+        /***
+         * Constructor
+         * @param reader is the StAX reader positioned at the start of the document
+         */
+        private ResourceIterator(XMLStreamReader reader) {
+            this.reader = reader;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if(null != this.next)
+                return true;
+            if(this.done)
+                return false;
+
+            try {
+                while(this.reader.hasNext()) {
+                    if(XMLStreamConstants.START_ELEMENT == this.reader.next() && isDav(this.reader, "response")) {
+                        this.next = parseResponse(this.reader);
+                        if(null != this.next)
+                            return true;
+                    }
+                }
+            }
+            catch(XMLStreamException e) {
+                close();
+                throw new TransferServiceException("propfind", e.getMessage());
+            }
+
+            close();
+            return false;
+        }
+
+        @Override
+        public DavResource next() {
+            if(!hasNext())
+                throw new NoSuchElementException();
+
+            var resource = this.next;
+            this.next = null;
+            return resource;
+        }
+
+        /***
+         * Stop parsing, does not close the underlying stream
+         */
+        @Override
+        public void close() {
+            if(!this.done) {
+                this.done = true;
+                try {
+                    this.reader.close();
+                }
+                catch(XMLStreamException e) {
+                    log.debug(e.getMessage());
+                }
+            }
+        }
+    }
+
+    /***
+     * Parse a response element, reader is positioned on its start tag
+     * @param reader is the StAX reader
+     * @return The resource described by the response, null if it has no href
+     * @throws XMLStreamException if the response is not valid XML
+     */
+    private static DavResource parseResponse(XMLStreamReader reader) throws XMLStreamException {
+        var resource = new DavResource();
+        var props = new DavResource();
+        boolean propsOk = false;
+
+        while(reader.hasNext()) {
+            var event = reader.next();
+            if(XMLStreamConstants.END_ELEMENT == event && isDav(reader, "response"))
+                break;
+
+            if(XMLStreamConstants.START_ELEMENT != event)
+                continue;
+
+            switch(reader.getLocalName()) {
+                case "href":
+                    resource.href = reader.getElementText().trim();
+                    break;
+                case "propstat":
+                    // Properties only count if their propstat has a 2xx status
+                    props = new DavResource();
+                    propsOk = false;
+                    break;
+                case "status":
+                    var status = reader.getElementText();
+                    propsOk = null != status && status.matches(".*\\s2\\d\\d(\\s.*)?");
+                    if(propsOk)
+                        merge(resource, props);
+                    break;
+                case "collection":
+                    props.isFolder = true;
+                    break;
+                case "getcontentlength":
+                    try {
+                        props.size = Long.parseLong(reader.getElementText().trim());
+                    }
+                    catch(NumberFormatException e) {
+                        log.debug("Invalid content length");
+                    }
+                    break;
+                case "getlastmodified":
+                    props.mtime = parseDate(reader.getElementText(), DateTimeFormatter.RFC_1123_DATE_TIME);
+                    break;
+                case "creationdate":
+                    props.ctime = parseDate(reader.getElementText(), DateTimeFormatter.ISO_OFFSET_DATE_TIME);
+                    break;
+                case "getetag":
+                    props.etag = reader.getElementText().trim().replaceAll("^\"|\"$", "");
+                    break;
+                case "getcontenttype":
+                    props.mediaType = reader.getElementText().trim();
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        return null != resource.href ? resource : null;
+    }
+
+    /***
+     * Copy the properties from a successful propstat
+     * @param resource is the resource to update
+     * @param props are the parsed properties
+     */
+    private static void merge(DavResource resource, DavResource props) {
+        resource.isFolder |= props.isFolder;
+        if(props.size > 0)
+            resource.size = props.size;
+        if(null != props.mtime)
+            resource.mtime = props.mtime;
+        if(null != props.ctime)
+            resource.ctime = props.ctime;
+        if(null != props.etag)
+            resource.etag = props.etag;
+        if(null != props.mediaType)
+            resource.mediaType = props.mediaType;
+    }
+
+    /***
+     * Check if the reader is on an element in the DAV: namespace
+     * @param reader is the StAX reader
+     * @param name is the local name of the element
+     * @return True if the element matches
+     */
+    private static boolean isDav(XMLStreamReader reader, String name) {
+        return name.equals(reader.getLocalName()) && DAV_NS.equals(reader.getNamespaceURI());
+    }
+
+    /***
+     * Parse a date property
+     * @param text is the property value
+     * @param format is the expected format
+     * @return Parsed date, null if invalid
+     */
+    private static Date parseDate(String text, DateTimeFormatter format) {
+        if(null == text || text.isBlank())
+            return null;
+
+        try {
+            return Date.from(ZonedDateTime.parse(text.trim(), format).toInstant());
+        }
+        catch(DateTimeParseException e) {
+            log.debugf("Invalid date %s", text);
+            return null;
+        }
+    }
+}
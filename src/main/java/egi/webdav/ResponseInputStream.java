@@ -0,0 +1,144 @@
+package egi.webdav;
+
+import io.vertx.mutiny.core.Context;
+import io.vertx.mutiny.core.buffer.Buffer;
+import io.vertx.mutiny.core.http.HttpClientResponse;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+
+/***
+ * Bridges the body of an HTTP response, delivered in chunks on the event loop,
+ * to a blocking InputStream that can be read on a worker thread.
+ * At most a few chunks are held in memory, the response is paused while the reader catches up.
+ */
+public class ResponseInputStream extends InputStream {
+
+    private static final int HIGH_WATER = 16; // chunks
+    private static final int LOW_WATER = 4;
+    private static final byte[] EOF = new byte[0];
+
+    // Unbounded, as chunks already in flight still arrive after pausing
+    private final BlockingQueue<byte[]> chunks = new LinkedBlockingQueue<>();
+    private final AtomicBoolean paused = new AtomicBoolean(false);
+    private final AtomicBoolean closed = new AtomicBoolean(false);
+    private final HttpClientResponse response;
+    private final Context context;
+    private final long timeout;
+    private volatile Throwable failure;
+    private byte[] current;
+    private int offset;
+    private boolean ended;
+
+
+    /***
+     * Start consuming the body of a response, must be called on the event loop
+     * before the response handler returns, so that no chunk is missed
+     * @param response is the response to read the body of
+     * @param context is the Vert.x context of the response
+     * @param timeout is how long to wait for a chunk [milliseconds]
+     */
+    public ResponseInputStream(HttpClientResponse response, Context context, long timeout) {
+        this.response = response;
+        this.context = context;
+        this.timeout = timeout;
+
+        // Do not let any chunk through until all handlers are in place
+        response.pause();
+        response.handler(this::onChunk);
+        response.exceptionHandler(e -> {
+            this.failure = e;
+            this.chunks.offer(EOF);
+        });
+        response.endHandler(() -> this.chunks.offer(EOF));
+        response.resume();
+    }
+
+    /***
+     * Queue a chunk of the body, pausing the response if the reader falls behind
+     * @param buffer is the chunk
+     */
+    private void onChunk(Buffer buffer) {
+        if(this.closed.get())
+            // Reader is gone, discard rest of the body
+            return;
+
+        this.chunks.offer(buffer.getBytes());
+        if(this.chunks.size() >= HIGH_WATER && this.paused.compareAndSet(false, true))
+            this.response.pause();
+    }
+
+    /***
+     * Get the next chunk, resuming the response if the queue drained
+     * @return True if there is data to read
+     * @throws IOException if the response failed or timed out
+     */
+    private boolean nextChunk() throws IOException {
+        while(null == this.current || this.offset >= this.current.length) {
+            if(this.ended)
+                return false;
+
+            try {
+                this.current = this.chunks.poll(this.timeout, TimeUnit.MILLISECONDS);
+            }
+            catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while reading response");
+            }
+
+            this.offset = 0;
+            if(null == this.current)
+                throw new IOException("Timeout while reading response");
+
+            if(this.chunks.size() <= LOW_WATER && this.paused.compareAndSet(true, false))
+                this.context.runOnContext(this.response::resume);
+
+            if(EOF == this.current) {
+                this.ended = true;
+                if(null != this.failure)
+                    throw new IOException(this.failure.getMessage(), this.failure);
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if(!nextChunk())
+            return -1;
+
+        return this.current[this.offset++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if(0 == len)
+            return 0;
+        if(!nextChunk())
+            return -1;
+
+        var count = Math.min(len, this.current.length - this.offset);
+        System.arraycopy(this.current, this.offset, b, off, count);
+        this.offset += count;
+        return count;
+    }
+
+    /***
+     * Stop reading, the rest of the body is discarded so that the connection can be reused
+     */
+    @Override
+    public void close() {
+        if(this.closed.compareAndSet(false, true)) {
+            this.chunks.clear();
+            if(this.paused.compareAndSet(true, false))
+                this.context.runOnContext(this.response::resume);
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package egi.webdav.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+
+
+/**
+ * Details of a file or folder from a WebDAV storage, as returned by PROPFIND
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class DavResource {
+
+    public String href; // As returned by the server, URL-encoded path
+    public String seUri;
+    public boolean isFolder;
+    public long size;
+    public Date ctime;
+    public Date mtime;
+    public String etag;
+    public String mediaType;
+
+
+    /***
+     * Constructor
+     */
+    public DavResource() {}
+
+    /***
+     * Get the path of the resource as sent by the server (still URL-encoded), without trailing slash.
+     * Use this to build URLs, as decoding and re-encoding a path may not give back the same one.
+     * @return Encoded path of the resource
+     */
+    public String getRawPath() {
+        if(null == this.href)
+            return null;
+
+        var path = this.href;
+        var scheme = path.indexOf("://");
+        if(scheme >= 0) {
+            // Absolute URL, keep only the path
+            var slash = path.indexOf('/', scheme + 3);
+            path = slash >= 0 ? path.substring(slash) : "/";
+        }
+
+        while(path.length() > 1 && path.endsWith("/"))
+            path = path.substring(0, path.length() - 1);
+
+        return path;
+    }
+
+    /***
+     * Get the decoded path of the resource, without trailing slash
+     * @return Path of the resource
+     */
+    public String getPath() {
+        var path = getRawPath();
+        if(null == path)
+            return null;
+
+        path = URLDecoder.decode(path.replace("+", "%2B"), StandardCharsets.UTF_8);
+        while(path.length() > 1 && path.endsWith("/"))
+            path = path.substring(0, path.length() - 1);
+
+        return path;
+    }
+
+    /***
+     * Extract name from the path, folders get a trailing slash
+     * @return The name of the file or folder
+     */
+    public String getName() {
+        var path = getPath();
+        if(null == path)
+            return null;
+
+        var name = path.substring(path.lastIndexOf('/') + 1);
+        return this.isFolder && !name.isEmpty() ? name + "/" : name;
+    }
+
+    /***
+     * Extract the path of the parent folder
+     * @return The path of the folder containing this file or folder
+     */
+    public String getParentPath() {
+        var path = getPath();
+        if(null == path)
+            return null;
+
+        var slash = path.lastIndexOf('/');
+        return slash > 0 ? path.substring(0, slash) : "/";
+    }
+}
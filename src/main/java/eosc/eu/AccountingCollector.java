@@ -10,10 +10,7 @@ import org.jboss.logging.MDC;
 import io.smallrye.mutiny.Uni;
 import io.smallrye.mutiny.Multi;
 import io.smallrye.mutiny.subscription.Cancellable;
-import io.quarkus.redis.datasource.stream.StreamMessage;
-import io.quarkus.redis.datasource.stream.XReadGroupArgs;
-import io.quarkus.redis.datasource.ReactiveRedisDataSource;
-import io.quarkus.redis.datasource.stream.ReactiveStreamCommands;
+import io.smallrye.mutiny.tuples.Tuple2;
 import io.quarkus.runtime.Startup;
 
 import jakarta.enterprise.context.ApplicationScoped;
@@ -23,13 +20,15 @@ import jakarta.inject.Inject;
 
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 
-import static java.util.Collections.emptyList;
 import static eosc.eu.Utils.loadKeyStore;
 
+import eosc.eu.model.DeadLetter;
+import eosc.eu.model.DeadLetterList;
+import eosc.eu.model.TransferInfoExtended;
 import eosc.eu.model.TransferPayloadInfo.FileDetails;
 import eosc.eu.model.TransferInfoExtended.TransferState;
 import eosc.eu.model.TransferPayloadInfo.FileState;
@@ -44,10 +43,14 @@ public class AccountingCollector {
 
     private final Logger log = Logger.getLogger(AccountingCollector.class);
 
-    public static final String CHANNEL = "transfer";
-    public static final String STREAM = "jobs";
-    public static final String GROUP = "api";
-    public static final String JOBSTORE_STREAM = String.format("%s:%s", CHANNEL, STREAM);
+    /***
+     * What happened to a message from the job store
+     */
+    enum JobOutcome {
+        accounted,  // Transfer finished and was accounted for, remove message
+        discarded,  // Message cannot be processed, remove message
+        pending     // Transfer still running or accounting failed, keep message for another check
+    }
 
     @Inject
     protected ServiceConfig service;
@@ -55,6 +58,18 @@ public class AccountingCollector {
     @Inject
     protected TransferConfig transfer;
 
+    @Inject
+    AccountingMetrics metrics;
+
+    @Inject
+    JobStore jobs;
+
+    @Inject
+    LocalTransfers localTransfers;
+
+    @Inject
+    LinkStatistics linkStatistics;
+
     @Inject
     OidcClient client;
     TokensHelper tokenHelper;
@@ -62,24 +77,21 @@ public class AccountingCollector {
     private static AccountingService accounting;
 
     private final String instance;
-    private final ReactiveStreamCommands<String, String, String> stream;
     private Cancellable consumer;
 
 
     /***
-     * Construct with a data source
-     * @param ds is the injected Redis data source
+     * Constructor
      */
-    public AccountingCollector(ReactiveRedisDataSource ds) {
+    public AccountingCollector() {
         this.tokenHelper = new TokensHelper();
-        this.stream = null != ds ? ds.stream(String.class) : null;
 
         // Get a unique consumer name
         this.instance = DynamicConfiguration.getInstanceName();
     }
 
     /***
-     * Starting listening to stream events after instance creation
+     * Start consuming the job store after instance creation
      */
     @PostConstruct
     void onStart() {
@@ -125,27 +137,41 @@ public class AccountingCollector {
             return;
         }
 
-        // Subscribe to job stream in Redis
-        this.consumer = this.stream.xgroupCreate(JOBSTORE_STREAM, GROUP, "0-0")
-
-            .onFailure().recoverWithNull()
-            .map(unused -> this.stream.xgroupCreateConsumer(JOBSTORE_STREAM, GROUP, instance))
-            .map(unused -> createStreamListener())
-            .subscribe().with(cancellable -> this.consumer = cancellable);
+        // Start consuming the job store
+        this.consumer = this.jobs.start(this.instance)
 
-        log.infof("Subscribed to channel %s", JOBSTORE_STREAM);
+            .onItem().transformToMulti(unused -> createJobListener())
+            .onFailure().recoverWithItem(e -> {
+                // On error report nothing accounted for, essentially a NOP
+                MDC.put("consumerId", this.instance);
+                log.errorf("Cannot process messages (%s)", e.getMessage());
+                return 0;
+            })
+            .subscribe()
+            .with(count -> {
+                if(count > 0) {
+                    // Log how many jobs were handled
+                    MDC.put("consumerId", this.instance);
+                    log.debugf("Accounted for %d transfer job(s)", count);
+                }
+            });
     }
 
     /***
-     * Stop listening to stream events before instance destruction
+     * Stop consuming the job store before instance destruction
      */
     @PreDestroy
     void onStop() {
         MDC.put("consumerId", this.instance);
         log.info("Accounting collector is stopping...");
+        if(null == this.consumer)
+            // Collector was never started
+            return;
+
         this.consumer.cancel();
-        log.info("Canceled stream listener");
-        this.stream.xgroupDelConsumer(JOBSTORE_STREAM, GROUP, this.instance)
+        log.info("Canceled job listener");
+
+        this.jobs.stop()
 
             .subscribe()
             .with(unack -> {
@@ -158,57 +184,89 @@ public class AccountingCollector {
     }
 
     /***
-     * Subscribe to the jobs stream
-     * @return object to be used to cancel this subscription
+     * Repeatedly get the next jobs from the job store and process them
+     * @return Stream with the number of transfers accounted for in each batch
      */
-    private Cancellable createStreamListener() {
+    private Multi<Integer> createJobListener() {
         MDC.put("consumerId", this.instance);
-        log.info("Creating stream listener");
+        log.info("Creating job listener");
 
-        XReadGroupArgs args = new XReadGroupArgs()
-                                    .block(Duration.ofSeconds(60))
-                                    .claim(Duration.ofSeconds(service.accounting().pollInterval()))
-                                    .count(1);
+        final int batchSize = Math.max(1, service.accounting().batchSize());
 
         return Multi.createBy()
 
             .repeating()
             .uni(() ->
-                // Create Multi stream by reading messages from the Redis stream
-                this.stream
-                    .xreadgroup(GROUP, this.instance, JOBSTORE_STREAM, ">", args)
-                    .onFailure().recoverWithItem(emptyList())
+                // Create Multi stream by reading batches of jobs from the job store
+                this.jobs.next(batchSize)
+                         .onFailure().recoverWithItem(e -> {
+                             MDC.put("consumerId", this.instance);
+                             log.warnf("Cannot read from job store (%s)", e.getMessage());
+                             return Collections.<JobMessage>emptyList();
+                         })
             )
             .indefinitely()
-            .flatMap(messages -> Multi.createFrom().iterable(messages))
-            .onItem().transformToUniAndMerge(this::processMessage)
-            .onFailure().recoverWithItem(e -> {
-                // On error respond with empty message array, essentially a NOP
-                MDC.put("consumerId", this.instance);
-                log.errorf("Cannot process message (%s)", e.getMessage());
-                return false;
-            })
-            .collect()
-            .in(BooleanCounter::new, (acc, success) -> {
-                acc.accumulateSuccess(success);
-            })
-            .onItem().transform(BooleanCounter::get)
-            .subscribe()
-            .with(count -> {
-                if(count > 0) {
-                    // Log how many jobs were handled
-                    MDC.put("consumerId", this.instance);
-                    log.debugf("Accounted for %d transfer job(s)", count);
+            .onItem().transformToUniAndConcatenate(this::processBatch);
+    }
+
+    /***
+     * Process a batch of jobs from the job store, then remove all the ones
+     * that are done with in a single call to the job store
+     * @param messages is the batch of jobs
+     * @return Number of transfers accounted for
+     */
+    private Uni<Integer> processBatch(List<JobMessage> messages) {
+        if(null == messages || messages.isEmpty())
+            return Uni.createFrom().item(0);
+
+        var accounted = new AtomicLong(0);
+
+        return Multi.createFrom().iterable(messages)
+
+            .onItem().transformToUniAndMerge(message ->
+                processMessage(message)
+                    .onFailure().recoverWithItem(e -> {
+                        MDC.put("consumerId", this.instance);
+                        MDC.put("messageId", message.id);
+                        log.errorf("Cannot process message (%s)", e.getMessage());
+                        return JobOutcome.pending;
+                    })
+                    .map(outcome -> Tuple2.of(message, outcome)))
+            .collect().asList()
+            .chain(outcomes -> {
+                // Collect the jobs to remove
+                var done = new ArrayList<JobMessage>();
+                for(var outcome : outcomes) {
+                    if(JobOutcome.pending == outcome.getItem2())
+                        continue;
+
+                    if(JobOutcome.accounted == outcome.getItem2())
+                        accounted.incrementAndGet();
+
+                    done.add(outcome.getItem1());
                 }
-            });
+
+                if(done.isEmpty())
+                    return Uni.createFrom().item(0);
+
+                final var stageStart = new AtomicLong(System.nanoTime());
+                return this.jobs.remove(done)
+                        .onFailure().recoverWithItem(e -> {
+                            MDC.put("consumerId", this.instance);
+                            log.errorf("Cannot remove jobs from job store (%s)", e.getMessage());
+                            return 0;
+                        })
+                        .invoke(removed -> metrics.recordStage("ack", stageStart));
+            })
+            .map(unused -> (int)accounted.get());
     }
 
     /***
-     * Check if a transfer job recorded in the stream has finished
-     * @param message is a messages from the jobs stream
-     * @return True if job has finished and was successfully accounted for (accounting record sent)
+     * Check if a transfer job recorded in the job store has finished
+     * @param message is a message from the job store
+     * @return What should happen to the message
      */
-    Uni<Boolean> processMessage(StreamMessage<String, String, String> message) {
+    Uni<JobOutcome> processMessage(JobMessage message) {
 
         var badMessage = new AtomicReference<String>(null);
         var destination = new AtomicReference<String>(null);
@@ -216,7 +274,7 @@ public class AccountingCollector {
         var userId = new AtomicReference<String>(null);
 
         try {
-            var dest = message.payload().get("dest");
+            var dest = message.payload.get(JobStore.FIELD_DESTINATION);
             if(null != dest)
                 destination.set(dest);
             else
@@ -228,7 +286,7 @@ public class AccountingCollector {
 
         try {
             if(null == badMessage.get()) {
-                var jid = message.payload().get("jobId");
+                var jid = message.payload.get(JobStore.FIELD_JOB_ID);
                 if (null != jid)
                     jobId.set(jid);
                 else
@@ -241,7 +299,7 @@ public class AccountingCollector {
 
         try {
             if(null == badMessage.get()) {
-                var uid = message.payload().get("userId");
+                var uid = message.payload.get(JobStore.FIELD_USER_ID);
                 if(null != uid)
                     userId.set(uid);
                 else
@@ -253,31 +311,49 @@ public class AccountingCollector {
         }
 
         if(null != badMessage.get()) {
-            // Remove malformed message from stream
-            return this.stream.xdel(JOBSTORE_STREAM, message.id())
-                              .chain(delCount -> {
-                                  MDC.put("payload", message.payload().toString());
-                                  log.errorf("Removed malformed stream message %s (%s)",
-                                             message.id(), badMessage.get());
-                                  return Uni.createFrom().item(false);
-                              });
+            // Malformed message, will be removed from job store
+            MDC.put("payload", String.valueOf(message.payload));
+            log.errorf("Removing malformed job message %s (%s)", message.id, badMessage.get());
+            return Uni.createFrom().item(JobOutcome.discarded);
         }
 
+        if(System.currentTimeMillis() < message.notBefore)
+            // Still backing off, leave the message until the next check
+            return Uni.createFrom().item(JobOutcome.pending);
+
+        return accountForTransfer(message, destination.get(), jobId.get(), userId.get());
+    }
+
+    /***
+     * Check if a transfer job has finished, and if so send an accounting record for it
+     * @param message is the message from the job store, with previous failed attempts
+     * @param destination is the destination of the transfer
+     * @param jobId is the transfer job to check
+     * @param userId is the user who started the transfer
+     * @return What should happen to the message
+     */
+    private Uni<JobOutcome> accountForTransfer(JobMessage message, String destination, String jobId, String userId) {
+
         // Pick transfer service and create REST client for it
-        var destinationConfig = DataTransferBase.getDestinationConfig(transfer, destination.get(), log);
+        var destinationConfig = DataTransferBase.getDestinationConfig(transfer, destination, log);
         if(null == destinationConfig) {
-            // Unsupported destination
+            // Unsupported destination, retrying will not help
             log.errorf("No configuration found for destination <%s>", destination);
-            return Uni.createFrom().failure(new TransferServiceException("destInvalid"));
+            return deadLetter(message, message.attempts + 1, "destInvalid");
         }
 
         final var ts = DataTransferBase.getTransferService(transfer, destinationConfig.serviceId(), log, false);
         if(null == ts)
-            // Could not the transfer engine used for this destination
-            return Uni.createFrom().failure(new TransferServiceException("configInvalid"));
+            // Could not the transfer engine used for this destination, retrying will not help
+            return deadLetter(message, message.attempts + 1, "configInvalid");
 
         var done = new AtomicReference<Boolean>(false);
         var token = new AtomicReference<String>(null);
+        var failure = new AtomicReference<String>(null);
+        var user = new AtomicReference<String>(userId);
+        var finishedAt = new AtomicReference<Date>(null);
+        var finished = new AtomicReference<TransferInfoExtended>(null);
+        var stageStart = new AtomicLong(System.nanoTime());
 
         var props = new HashMap<String, String>();
         props.put(OidcConstants.TOKEN_SCOPE, "openid entitlements");
@@ -287,27 +363,34 @@ public class AccountingCollector {
 
             .chain(tokens -> {
                 // Get transfer details
+                metrics.recordStage("token", stageStart);
                 var at = tokens.getAccessToken();
                 token.set("Bearer " + at);
-                return ts.getTransferInfo(token.get(), jobId.get(), FileDetails.all);
+
+                // Transfers done server-side are not known to the transfer service
+                return localTransfers.getTransferInfo(jobId, null, FileDetails.all)
+                    .chain(localInfo -> null != localInfo ? Uni.createFrom().item(localInfo) :
+                                                            ts.getTransferInfo(token.get(), jobId, FileDetails.all));
             })
             .onFailure().recoverWithItem(e -> {
                 MDC.put("consumerId", this.instance);
-                MDC.put("messageId", message.id());
-                MDC.put("dest", destination.get());
-                MDC.put("jobId", jobId.get());
-                log.errorf("Failed to get status of transfer %s (%s)", jobId.get(), e.getMessage());
+                MDC.put("messageId", message.id);
+                MDC.put("dest", destination);
+                MDC.put("jobId", jobId);
+                log.errorf("Failed to get status of transfer %s (%s)", jobId, e.getMessage());
+                failure.set(e.getMessage());
                 return null;
             })
             .chain(transferInfo -> {
                 if(null != transferInfo) {
                     // Got transfer details
+                    metrics.recordStage("status", stageStart);
                     MDC.put("consumerId", this.instance);
-                    MDC.put("messageId", message.id());
-                    MDC.put("dest", destination.get());
-                    MDC.put("jobId", jobId.get());
+                    MDC.put("messageId", message.id);
+                    MDC.put("dest", destination);
+                    MDC.put("jobId", jobId);
                     MDC.put("jobState", transferInfo.jobState);
-                    log.infof("Transfer %s is %s", jobId.get(), transferInfo.jobState.toString());
+                    log.infof("Transfer %s is %s", jobId, transferInfo.jobState.toString());
 
                     done.set(transferInfo.jobState == TransferState.failed ||
                              transferInfo.jobState == TransferState.partial ||
@@ -315,6 +398,8 @@ public class AccountingCollector {
                              transferInfo.jobState == TransferState.succeeded);
 
                     if(done.get() && transferInfo.payload.isPresent()) {
+                        finished.set(transferInfo);
+
                         // Compute amount of data that was transferred
                         int filesTransferred = 0;
                         long bytesTransferred = 0;
@@ -331,15 +416,16 @@ public class AccountingCollector {
                            service.accounting().installation().isPresent() &&
                            service.accounting().metric().isPresent()) {
                             // Send accounting record for this transfer
-                            if(null == userId.get())
-                                userId.set(transferInfo.userId);
+                            if(null == user.get())
+                                user.set(transferInfo.userId);
 
+                            finishedAt.set(transferInfo.finishedAt);
                             var installation = service.accounting().installation().get();
                             var usageRecord = new DataTransferUsageRecord(service.accounting().metric().get(),
                                     bytesTransferred,
                                     transferInfo.submittedAt,
                                     transferInfo.finishedAt,
-                                    userId.get());
+                                    user.get());
 
                             return accounting.sendUsageRecord(token.get(), installation, usageRecord);
                         }
@@ -350,8 +436,8 @@ public class AccountingCollector {
             })
             .onFailure().recoverWithItem(e -> {
                 MDC.put("consumerId", this.instance);
-                MDC.put("messageId", message.id());
-                MDC.put("jobId", jobId.get());
+                MDC.put("messageId", message.id);
+                MDC.put("jobId", jobId);
 
                 String error = null;
                 if(e instanceof AccountingServiceException)
@@ -360,35 +446,145 @@ public class AccountingCollector {
                     error  = e.getMessage();
 
                 MDC.put("error", error);
-                log.errorf("Failed to send accounting record for transfer %s (%s)", jobId.get(), error);
+                log.errorf("Failed to send accounting record for transfer %s (%s)", jobId, error);
+                failure.set(null != error ? error : "sendUsageRecord");
                 return null;
             })
             .chain(usageRecord -> {
                 if(null != usageRecord) {
+                    metrics.recordStage("send", stageStart);
+                    metrics.recordDelay(finishedAt.get());
                     MDC.put("consumerId", this.instance);
-                    MDC.put("messageId", message.id());
-                    MDC.put("jobId", jobId.get());
-                    MDC.put("userId", userId.get());
-                    log.infof("Sent accounting record for transfer %s", jobId.get());
+                    MDC.put("messageId", message.id);
+                    MDC.put("jobId", jobId);
+                    MDC.put("userId", user.get());
+                    log.infof("Sent accounting record for transfer %s", jobId);
                 }
 
-                if(done.get()) {
-                    // Transfer has finished, acknowledge message
-                    final String[] messageIds = { message.id() };
-                    return this.stream.xack(JOBSTORE_STREAM, GROUP, messageIds);
-                }
+                if(null != failure.get())
+                    // Something went wrong, try again later
+                    return retryLater(message, message.attempts + 1, failure.get());
 
-                return Uni.createFrom().item(0);
-            })
-            .chain(ackCount -> {
-                if(ackCount > 0)
-                    // Remove acknowledged message from stream
-                    return this.stream.xdel(JOBSTORE_STREAM, message.id());
+                if(done.get())
+                    // Transfer has finished, message will be acknowledged,
+                    // add it to the statistics used to predict the duration of transfers
+                    return linkStatistics.record(finished.get())
+                        .replaceWith(JobOutcome.accounted);
+
+                return Uni.createFrom().item(JobOutcome.pending);
+            });
+    }
+
+    /***
+     * Record a failed attempt to account for a transfer, and schedule the next one using
+     * exponential backoff. After too many attempts the message is moved to the dead-letter list.
+     * @param message is the message that failed to be processed
+     * @param attempts is the number of failed attempts, including this one
+     * @param error is the reason of the failure
+     * @return Pending, or discarded if the message was moved to the dead-letter list
+     */
+    private Uni<JobOutcome> retryLater(JobMessage message, int attempts, String error) {
+
+        if(attempts >= service.accounting().maxAttempts())
+            return deadLetter(message, attempts, error);
+
+        final long base = service.accounting().retryDelay();
+        final long max = service.accounting().maxRetryDelay();
+        final var delay = Math.min(max, base << Math.min(attempts - 1, 30));
+
+        message.attempts = attempts;
+        message.notBefore = System.currentTimeMillis() + delay * 1000;
+
+        return this.jobs.retry(message)
+
+            .onFailure().recoverWithNull()
+            .chain(unused -> {
+                MDC.put("consumerId", this.instance);
+                MDC.put("messageId", message.id);
+                MDC.put("attempts", attempts);
+                log.warnf("Will retry job message %s in %d seconds", message.id, delay);
+                return Uni.createFrom().item(JobOutcome.pending);
+            });
+    }
+
+    /***
+     * Move a message that cannot be processed to the dead-letter list, so that it is
+     * no longer processed by the collectors.
+     * @param message is the message that failed to be processed
+     * @param attempts is the number of failed attempts
+     * @param error is the reason of the last failure
+     * @return Discarded, so that the message gets removed from the job store
+     */
+    private Uni<JobOutcome> deadLetter(JobMessage message, int attempts, String error) {
+
+        var payload = new HashMap<String, String>(message.payload);
+        payload.put(DeadLetter.FIELD_MESSAGE_ID, message.id);
+        payload.put(DeadLetter.FIELD_ATTEMPTS, String.format("%d", attempts));
+        payload.put(DeadLetter.FIELD_ERROR, null != error ? error : "unknown");
+        payload.put(DeadLetter.FIELD_FAILED_AT, String.format("%d", System.currentTimeMillis()));
+
+        return this.jobs.addDeadLetter(payload)
+
+            .chain(dlqMessageId -> {
+                MDC.put("consumerId", this.instance);
+                MDC.put("messageId", message.id);
+                MDC.put("dlqMessageId", dlqMessageId);
+                MDC.put("attempts", attempts);
+                log.errorf("Moved job message %s to dead-letter list (%s)", message.id, error);
+                metrics.recordDeadLetter();
+                return Uni.createFrom().item(JobOutcome.discarded);
+            });
+    }
+
+    /***
+     * List the messages in the dead-letter list
+     * @param limit is the maximum number of messages to return
+     * @return List of dead letters, oldest first
+     */
+    public Uni<DeadLetterList> listDeadLetters(int limit) {
+
+        return this.jobs.deadLetters(limit)
 
-                return Uni.createFrom().item(0);
+            .chain(messages -> {
+                var deadLetters = new DeadLetterList();
+                for(var message : messages)
+                    deadLetters.add(new DeadLetter(message.id, message.payload));
+
+                return Uni.createFrom().item(deadLetters);
+            });
+    }
+
+    /***
+     * Move a message from the dead-letter list back to the job store, with a fresh retry counter
+     * @param messageId is the ID of the dead letter
+     * @return ID of the new message in the job store
+     */
+    public Uni<String> replayDeadLetter(String messageId) {
+
+        return this.jobs.deadLetter(messageId)
+
+            .chain(message -> {
+                if(null == message)
+                    return Uni.createFrom().failure(new TransferServiceException("messageNotFound", 404,
+                                                                                 "No such dead letter"));
+
+                // Rebuild the original job message
+                var payload = new HashMap<String, String>(message.payload);
+                payload.remove(DeadLetter.FIELD_MESSAGE_ID);
+                payload.remove(DeadLetter.FIELD_ATTEMPTS);
+                payload.remove(DeadLetter.FIELD_ERROR);
+                payload.remove(DeadLetter.FIELD_FAILED_AT);
+
+                return this.jobs.add(payload);
+            })
+            .call(newMessageId -> {
+                // Remove it from the dead-letter list
+                return this.jobs.removeDeadLetter(messageId);
             })
-            .chain(delCount -> {
-                return Uni.createFrom().item(done.get() && delCount > 0);
+            .invoke(newMessageId -> {
+                MDC.put("messageId", newMessageId);
+                MDC.put("dlqMessageId", messageId);
+                log.infof("Replayed dead letter %s as job message %s", messageId, newMessageId);
             });
     }
 }
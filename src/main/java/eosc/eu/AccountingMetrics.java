@@ -0,0 +1,209 @@
+package eosc.eu;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import org.jboss.logging.Logger;
+import io.smallrye.mutiny.Uni;
+import io.smallrye.mutiny.Multi;
+import io.smallrye.mutiny.subscription.Cancellable;
+import io.quarkus.runtime.Startup;
+
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.inject.Inject;
+
+import java.time.Duration;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/***
+ * Metrics about the backlog of the accounting collectors.
+ * The job store is sampled on a background schedule, so its queries
+ * stay off the request path. Timers are recorded by the collector itself.
+ */
+@Startup
+@ApplicationScoped
+public class AccountingMetrics {
+
+    private static final Logger log = Logger.getLogger(AccountingMetrics.class);
+
+    public static final String METRIC_STREAM_LENGTH = "accounting.jobs.stream.length";
+    public static final String METRIC_PENDING = "accounting.jobs.pending";
+    public static final String METRIC_PENDING_IDLE = "accounting.jobs.pending.idle.max";
+    public static final String METRIC_DEAD_LETTERS = "accounting.jobs.deadletters";
+    public static final String METRIC_DEAD_LETTERED = "accounting.jobs.deadlettered";
+    public static final String METRIC_DELAY = "accounting.jobs.delay";
+    public static final String METRIC_STAGE = "accounting.jobs.stage.duration";
+
+    @Inject
+    MeterRegistry registry;
+
+    @Inject
+    ServiceConfig service;
+
+    @Inject
+    JobStore jobs;
+
+    private final Map<String, AtomicLong> gauges = new ConcurrentHashMap<>();
+    private final Map<String, Set<String>> consumers = new ConcurrentHashMap<>();
+    private Cancellable sampler;
+
+
+    /***
+     * Constructor
+     */
+    public AccountingMetrics() {}
+
+    /***
+     * Start sampling the job store after instance creation
+     */
+    @PostConstruct
+    void onStart() {
+        if(service.accounting().url().isEmpty() ||
+           service.accounting().installation().isEmpty() ||
+           service.accounting().metric().isEmpty())
+            // No accounting, nothing to measure
+            return;
+
+        final var interval = Duration.ofSeconds(service.accounting().metricsInterval());
+
+        this.sampler = Multi.createFrom().ticks().every(interval)
+
+            .onOverflow().drop()
+            .onItem().transformToUniAndConcatenate(tick -> sample())
+            .subscribe().with(unused -> {}, e -> {
+                log.errorf("Stopped sampling job store (%s)", e.getMessage());
+            });
+
+        log.infof("Sampling job store every %d seconds", interval.toSeconds());
+    }
+
+    /***
+     * Stop sampling before instance destruction
+     */
+    @PreDestroy
+    void onStop() {
+        if(null != this.sampler)
+            this.sampler.cancel();
+    }
+
+    /***
+     * Record how long a stage of processing a job stream message took
+     * @param stage is the name of the stage
+     * @param start is when the stage started, from System.nanoTime(), reset to now
+     */
+    public void recordStage(String stage, AtomicLong start) {
+        final long now = System.nanoTime();
+        Timer.builder(METRIC_STAGE)
+             .description("Time spent in each stage of accounting for a transfer")
+             .tag("stage", stage)
+             .register(registry)
+             .record(now - start.getAndSet(now), TimeUnit.NANOSECONDS);
+    }
+
+    /***
+     * Record the delay between a transfer finishing and its accounting record being sent
+     * @param finishedAt is when the transfer finished
+     */
+    public void recordDelay(Date finishedAt) {
+        if(null == finishedAt)
+            return;
+
+        final long delay = System.currentTimeMillis() - finishedAt.getTime();
+        Timer.builder(METRIC_DELAY)
+             .description("Time from transfer finish to accounting record sent")
+             .register(registry)
+             .record(Math.max(0, delay), TimeUnit.MILLISECONDS);
+    }
+
+    /***
+     * Count a transfer moved to the dead-letter list. Unlike the number of dead letters,
+     * which drops when they are replayed, this only grows, so it can be alerted on.
+     */
+    public void recordDeadLetter() {
+        Counter.builder(METRIC_DEAD_LETTERED)
+               .description("Transfers moved to the dead-letter list")
+               .register(registry)
+               .increment();
+    }
+
+    /***
+     * Sample length and pending entries of the job store
+     * @return Number of job streams sampled
+     */
+    private Uni<Integer> sample() {
+
+        return this.jobs.stats()
+
+            .map(stats -> {
+                // Got statistics
+                for(var streamStats : stats.streams)
+                    update(streamStats);
+
+                gauge(METRIC_DEAD_LETTERS, Tags.empty(),
+                      "Transfers that could not be accounted for").set(stats.deadLetters);
+                return stats.streams.size();
+            })
+            .onFailure().recoverWithItem(e -> {
+                log.warnf("Cannot sample job store (%s)", e.getMessage());
+                return 0;
+            });
+    }
+
+    /***
+     * Update the gauges of a job stream
+     * @param stats are the statistics of the job stream
+     */
+    private void update(JobStoreStats.StreamStats stats) {
+
+        final var streamTags = Tags.of("stream", stats.name);
+
+        gauge(METRIC_STREAM_LENGTH, streamTags, "Messages in the job stream").set(stats.length);
+        gauge(METRIC_PENDING_IDLE, streamTags,
+              "Longest time since a pending message was last delivered [ms]").set(stats.maxPendingIdle);
+
+        // Update pending count of each consumer, zero the ones that left
+        var consumers = new HashSet<String>();
+        for(var entry : stats.pending.entrySet()) {
+            consumers.add(entry.getKey());
+            gauge(METRIC_PENDING, streamTags.and("consumer", entry.getKey()),
+                  "Messages delivered to a consumer but not yet acknowledged").set(entry.getValue());
+        }
+
+        var previous = this.consumers.put(stats.name, consumers);
+        if(null != previous) {
+            for(var consumer : previous)
+                if(!consumers.contains(consumer))
+                    gauge(METRIC_PENDING, streamTags.and("consumer", consumer),
+                          "Messages delivered to a consumer but not yet acknowledged").set(0);
+        }
+    }
+
+    /***
+     * Get the value holder of a gauge, registering the gauge on first use
+     * @param name is the name of the gauge
+     * @param tags are the tags of the gauge
+     * @param description is the description of the gauge
+     * @return Value holder backing the gauge
+     */
+    private AtomicLong gauge(String name, Tags tags, String description) {
+        return this.gauges.computeIfAbsent(name + tags, key -> {
+            var value = new AtomicLong(0);
+            Gauge.builder(name, value, AtomicLong::get)
+                 .description(description)
+                 .tags(tags)
+                 .register(registry);
+            return value;
+        });
+    }
+}
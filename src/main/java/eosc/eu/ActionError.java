@@ -222,6 +222,13 @@ public class ActionError {
                     this.id.equals("notFolder") ||
                     this.id.equals("noArgs") ||
                     this.id.equals("noFilesLink") ||
+                    this.id.equals("cursorInvalid") ||
+                    this.id.equals("filterInvalid") ||
+                    this.id.equals("syncNotSupported") ||
+                    this.id.equals("nothingToRetry") ||
+                    this.id.equals("schedulingNotSupported") ||
+                    this.id.equals("notBeforeInvalid") ||
+                    this.id.equals("destFolderNotFound") ||
                     this.id.equals("destInvalid"))
                 // Return BAD_REQUEST instead of INTERNAL_ERROR
                 this.status = Status.BAD_REQUEST;
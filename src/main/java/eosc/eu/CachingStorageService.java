@@ -0,0 +1,198 @@
+package eosc.eu;
+
+import io.smallrye.mutiny.Multi;
+import io.smallrye.mutiny.Uni;
+import org.jboss.logging.Logger;
+
+import eosc.eu.TransferConfig.StorageSystemConfig;
+import eosc.eu.model.StorageContent;
+import eosc.eu.model.StorageElement;
+import eosc.eu.model.StorageFilter;
+import eosc.eu.model.StorageOperation;
+
+
+/***
+ * Storage service that answers details and listings of storage elements from
+ * the metadata cache when possible, and keeps the cache up to date with the
+ * changes it makes. All calls are passed on to the wrapped storage service.
+ * Results are copied into and out of the cache, so callers may change them.
+ */
+public class CachingStorageService implements StorageService {
+
+    private static final Logger log = Logger.getLogger(CachingStorageService.class);
+
+    private static final String KIND_INFO = "info";
+    private static final String KIND_LIST = "list";
+
+    private final StorageService ss;
+    private final StorageMetadataCache cache;
+
+
+    /***
+     * Constructor
+     * @param ss is the storage service to wrap
+     * @param cache is the cache to use
+     */
+    public CachingStorageService(StorageService ss, StorageMetadataCache cache) {
+        this.ss = ss;
+        this.cache = cache;
+    }
+
+    /***
+     * Get the wrapped storage service
+     * @return Storage service that does the actual work
+     */
+    public StorageService unwrap() { return this.ss; }
+
+    @Override
+    public boolean initService(StorageSystemConfig config, String storageElementUri, String storageAuth) {
+        return this.ss.initService(config, storageElementUri, storageAuth);
+    }
+
+    @Override
+    public String getServiceName() { return this.ss.getServiceName(); }
+
+    @Override
+    public String getServiceBaseUrl() { return this.ss.getServiceBaseUrl(); }
+
+    /**
+     * List the contents of a folder, from the cache if not changed since it was listed.
+     * @param tsAuth Optional access token needed to call the service.
+     * @param storageAuth Optional credentials for the destination storage, Base-64 encoded "key:value"
+     * @param folderUri The URI to the folder to list.
+     * @param limit The maximum number of elements to return, 0 for no limit.
+     * @param cursor Cursor from a previous page, null to start from the beginning.
+     * @param filter Selects the elements to return, null for all.
+     * @return List of storage elements
+     */
+    @Override
+    public Uni<StorageContent> listFolderContent(String tsAuth, String storageAuth, String folderUri,
+                                                 int limit, String cursor, StorageFilter filter) {
+
+        final var selection = (null != filter && filter.selects()) ? filter : null;
+        final var key = StorageMetadataCache.key(KIND_LIST, Utils.hashCredentials(tsAuth, storageAuth), folderUri,
+                                                 limit + "|" + cursor + (null != selection ? "|" + selection.key() : ""));
+        final StorageMetadataCache.Cached<StorageContent> cached = this.cache.get(key, folderUri);
+
+        if(null != cached && this.cache.isFresh(cached))
+            return Uni.createFrom().item(new StorageContent(cached.value));
+
+        final var requestedAt = System.currentTimeMillis();
+        if(null == cached || null == cached.validator)
+            // Nothing to revalidate, the listing brings the validator of the folder if the storage has one
+            return this.ss.listFolderContent(tsAuth, storageAuth, folderUri, limit, cursor, selection)
+                .invoke(content -> this.cache.put(key, new StorageContent(content), content.validator, requestedAt));
+
+        // The validator must be taken before listing, to not miss changes made meanwhile
+        return folderValidator(tsAuth, storageAuth, folderUri)
+            .chain(validator -> {
+                if(cached.validator.equals(validator)) {
+                    // Folder unchanged, much cheaper than listing it again
+                    log.debugf("Folder %s unchanged", folderUri);
+                    this.cache.revalidated(cached);
+                    return Uni.createFrom().item(new StorageContent(cached.value));
+                }
+
+                return this.ss.listFolderContent(tsAuth, storageAuth, folderUri, limit, cursor, selection)
+                    .invoke(content -> this.cache.put(key, new StorageContent(content),
+                                                      null != content.validator ? content.validator : validator,
+                                                      requestedAt));
+            });
+    }
+
+    /***
+     * Get the validator of a folder, its ETag or last modification time
+     * @param tsAuth Optional access token needed to call the service.
+     * @param storageAuth Optional credentials for the destination storage
+     * @param folderUri The URI to the folder
+     * @return Validator, null if the storage system does not provide one for folders
+     */
+    private Uni<String> folderValidator(String tsAuth, String storageAuth, String folderUri) {
+        return this.ss.getStorageElementInfo(tsAuth, storageAuth, folderUri)
+            .map(CachingStorageService::validator)
+            .onFailure().recoverWithNull();
+    }
+
+    /***
+     * Get the validator of a folder from its details
+     * @param folder is the folder
+     * @return ETag or last modification time, null if the storage system provides neither
+     */
+    public static String validator(StorageElement folder) {
+        if(null == folder)
+            return null;
+        if(null != folder.etag && !folder.etag.isEmpty())
+            return folder.etag;
+        if(null != folder.modifiedAt)
+            return String.valueOf(folder.modifiedAt.getTime());
+
+        return null;
+    }
+
+    @Override
+    public Multi<StorageElement> streamFolderContent(String tsAuth, String storageAuth, String folderUri,
+                                                     StorageFilter filter) {
+        // Streams are for big listings, those are not cached
+        return this.ss.streamFolderContent(tsAuth, storageAuth, folderUri, filter);
+    }
+
+    /**
+     * Get the details of a file or folder, from the cache if not changed since.
+     * @param tsAuth Optional access token needed to call the service.
+     * @param storageAuth Optional credentials for the destination storage, Base-64 encoded "key:value"
+     * @param seUri The URI to the storage element to get details of.
+     * @return Details about the storage element
+     */
+    @Override
+    public Uni<StorageElement> getStorageElementInfo(String tsAuth, String storageAuth, String seUri) {
+        final var key = StorageMetadataCache.key(KIND_INFO, Utils.hashCredentials(tsAuth, storageAuth), seUri, null);
+        final StorageMetadataCache.Cached<StorageElement> cached = this.cache.get(key, seUri);
+        if(null != cached && this.cache.isFresh(cached))
+            return Uni.createFrom().item(new StorageElement(cached.value));
+
+        // Details come from the cheapest call anyway, just get them again
+        final var requestedAt = System.currentTimeMillis();
+        return this.ss.getStorageElementInfo(tsAuth, storageAuth, seUri)
+            .invoke(element -> this.cache.put(key, null != element ? new StorageElement(element) : null,
+                                              null, requestedAt));
+    }
+
+    @Override
+    public Uni<String> createFolder(String tsAuth, String storageAuth, String folderUri) {
+        return this.ss.createFolder(tsAuth, storageAuth, folderUri)
+            .onTermination().invoke(() -> this.cache.changed(folderUri));
+    }
+
+    @Override
+    public Uni<String> deleteFolder(String tsAuth, String storageAuth, String folderUri, StorageOperation progress) {
+        return this.ss.deleteFolder(tsAuth, storageAuth, folderUri, progress)
+            .onTermination().invoke(() -> this.cache.changed(folderUri));
+    }
+
+    @Override
+    public Uni<String> deleteFile(String tsAuth, String storageAuth, String fileUri) {
+        return this.ss.deleteFile(tsAuth, storageAuth, fileUri)
+            .onTermination().invoke(() -> this.cache.changed(fileUri));
+    }
+
+    @Override
+    public Uni<String> renameStorageElement(String tsAuth, String storageAuth, String seOld, String seNew,
+                                            StorageOperation progress) {
+        return this.ss.renameStorageElement(tsAuth, storageAuth, seOld, seNew, progress)
+            .onTermination().invoke(() -> {
+                this.cache.changed(seOld);
+                this.cache.changed(seNew);
+            });
+    }
+
+    @Override
+    public boolean canCopyInPlace(String seFrom, String seTo) {
+        return this.ss.canCopyInPlace(seFrom, seTo);
+    }
+
+    @Override
+    public Uni<Long> copyStorageElement(String tsAuth, String storageAuth, String seFrom, String seTo) {
+        return this.ss.copyStorageElement(tsAuth, storageAuth, seFrom, seTo)
+            .onTermination().invoke(() -> this.cache.changed(seTo));
+    }
+}
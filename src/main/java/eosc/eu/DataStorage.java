@@ -17,12 +17,16 @@ import org.jboss.logging.Logger;
 import org.jboss.logging.MDC;
 import org.jboss.resteasy.reactive.RestHeader;
 import org.jboss.resteasy.reactive.RestQuery;
+import org.jboss.resteasy.reactive.RestStreamElementType;
+import org.jboss.resteasy.reactive.server.ServerExceptionMapper;
 import io.quarkus.security.Authenticated;
 import io.quarkus.security.identity.SecurityIdentity;
 
 import jakarta.annotation.security.PermitAll;
+import java.time.Duration;
 import java.util.Arrays;
 import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 
 import jakarta.inject.Inject;
@@ -47,12 +51,33 @@ public class DataStorage extends DataTransferBase {
 
     private static final Logger log = Logger.getLogger(DataStorage.class);
 
+    public static final String MEDIA_TYPE_NDJSON = "application/x-ndjson";
+
+    public static final String FILTER_NAME = "Only elements whose name matches this glob (supports *, ? and [...], at most 256 characters)";
+    public static final String FILTER_NAME_REGEX = "Only elements whose name contains a match of this regular expression (at most 256 characters)";
+    public static final String FILTER_MIN_SIZE = "Only files of at least this size, in bytes";
+    public static final String FILTER_MAX_SIZE = "Only files of at most this size, in bytes";
+    public static final String FILTER_MODIFIED_AFTER = "Only elements modified after this ISO-8601 date or date and time";
+    public static final String FILTER_MODIFIED_BEFORE = "Only elements modified before this ISO-8601 date or date and time";
+    public static final String FILTER_TYPE = "Only elements of this type, 'file' or 'folder'";
+    public static final String FILTER_FIELDS = "Comma separated list of the fields to return for each element, " +
+                                               "'kind', 'isFolder' and 'isAccessible' are always returned";
+
     @Inject
     SecurityIdentity identity;
 
     @Inject
     TransferConfig config;
 
+    @Inject
+    FolderSummarizer summarizer;
+
+    @Inject
+    StorageOperations operations;
+
+    @Inject
+    ServiceConfig service;
+
 
     /***
      * Constructor
@@ -246,6 +271,16 @@ public class DataStorage extends DataTransferBase {
      * @param folderUri The link to the folder to list content of.
      * @param destination The type of destination storage (selects transfer service to call).
      * @param storageAuth Optional credentials for the destination storage, Base-64 encoded "key:value".
+     * @param limit Maximum number of elements to return, 0 for all.
+     * @param cursor Continue after the previous page.
+     * @param name Only elements whose name matches this glob.
+     * @param nameRegex Only elements whose name contains a match of this regular expression.
+     * @param minSize Only files of at least this size.
+     * @param maxSize Only files of at most this size.
+     * @param modifiedAfter Only elements modified after this moment.
+     * @param modifiedBefore Only elements modified before this moment.
+     * @param type Only elements of this type.
+     * @param fields The fields to return for each element.
      * @return API Response, wraps an ActionSuccess(StorageContent) or an ActionError entity
      */
     @GET
@@ -290,7 +325,42 @@ public class DataStorage extends DataTransferBase {
                                            @RestHeader(HEADER_STORAGE_AUTH)
                                            @Parameter(required = false,
                                                       description = STORAGE_AUTH)
-                                           String storageAuth) {
+                                           String storageAuth,
+                                           @RestQuery("limit") @DefaultValue("0")
+                                           @Parameter(description = "Maximum number of elements to return, " +
+                                                                    "0 returns the whole folder")
+                                           int limit,
+                                           @RestQuery("cursor")
+                                           @Parameter(description = "Continue listing after the previous page, " +
+                                                                    "use the field 'next' from the previous page. " +
+                                                                    "When filtering, pages may hold fewer elements " +
+                                                                    "than the limit, continue while 'next' is present")
+                                           String cursor,
+                                           @RestQuery("name")
+                                           @Parameter(description = FILTER_NAME)
+                                           String name,
+                                           @RestQuery("nameRegex")
+                                           @Parameter(description = FILTER_NAME_REGEX)
+                                           String nameRegex,
+                                           @RestQuery("minSize")
+                                           @Parameter(description = FILTER_MIN_SIZE)
+                                           Long minSize,
+                                           @RestQuery("maxSize")
+                                           @Parameter(description = FILTER_MAX_SIZE)
+                                           Long maxSize,
+                                           @RestQuery("modifiedAfter")
+                                           @Parameter(description = FILTER_MODIFIED_AFTER)
+                                           String modifiedAfter,
+                                           @RestQuery("modifiedBefore")
+                                           @Parameter(description = FILTER_MODIFIED_BEFORE)
+                                           String modifiedBefore,
+                                           @RestQuery("type")
+                                           @Parameter(schema = @Schema(implementation = StorageFilter.Type.class),
+                                                      description = FILTER_TYPE)
+                                           String type,
+                                           @RestQuery("fields")
+                                           @Parameter(description = FILTER_FIELDS)
+                                           String fields) {
 
         final var callerId = identity.getAttribute(CheckinUser.ATTR_USERID);
         if(null != callerId)
@@ -310,8 +380,30 @@ public class DataStorage extends DataTransferBase {
                     .toResponse());
         }
 
+        if(limit < 0) {
+            log.error("Invalid page size");
+            return Uni.createFrom().item(new ActionError("badRequest")
+                    .setStatus(Response.Status.BAD_REQUEST)
+                    .toResponse());
+        }
+
+        StorageFilter filter;
+        try {
+            filter = listingFilter(name, nameRegex, minSize, maxSize, modifiedAfter, modifiedBefore, type, fields);
+        }
+        catch(TransferServiceException e) {
+            log.error(e.getMessage());
+            return Uni.createFrom().item(new ActionError(e).toResponse());
+        }
+
         MDC.put("seUri", folderUri);
         MDC.put("destination", destination);
+        if(limit > 0)
+            MDC.put("limit", limit);
+        if(null != cursor && !cursor.isBlank())
+            MDC.put("cursor", cursor);
+        if(null != filter && filter.selects())
+            MDC.put("filter", filter.key());
 
         log.info("List folder content");
 
@@ -331,12 +423,13 @@ public class DataStorage extends DataTransferBase {
                     return Uni.createFrom().failure(new TransferServiceException("seNotSupported"));
 
                 // List folder content
-                return params.ss.listFolderContent(auth, storageAuth, folderUriWithAuth);
+                return params.ss.listFolderContent(auth, storageAuth, folderUriWithAuth, limit, cursor, filter);
             })
             .chain(content -> {
                 // Got folder content, success
                 log.info("Got folder content");
-                return Uni.createFrom().item(Response.ok(content).build());
+                var projected = null != filter ? filter.project(content) : content;
+                return Uni.createFrom().item(Response.ok(projected).build());
             })
             .onFailure().recoverWithItem(e -> {
                 log.error("Failed to list folder content");
@@ -348,6 +441,503 @@ public class DataStorage extends DataTransferBase {
         return result;
     }
 
+    /**
+     * Stream the content of a folder, as newline-delimited JSON.
+     * Selected instead of listFolderContent() when the client accepts "application/x-ndjson".
+     * @param auth The access token needed to call the service.
+     * @param folderUri The link to the folder to list content of.
+     * @param destination The type of destination storage (selects transfer service to call).
+     * @param storageAuth Optional credentials for the destination storage, Base-64 encoded "key:value".
+     * @param name Only elements whose name matches this glob.
+     * @param nameRegex Only elements whose name contains a match of this regular expression.
+     * @param minSize Only files of at least this size.
+     * @param maxSize Only files of at most this size.
+     * @param modifiedAfter Only elements modified after this moment.
+     * @param modifiedBefore Only elements modified before this moment.
+     * @param type Only elements of this type.
+     * @param fields The fields to return for each element.
+     * @return Stream of StorageElement, or an ActionError entity if listing cannot start
+     */
+    @GET
+    @Path("/folder/list")
+    @Produces(MEDIA_TYPE_NDJSON)
+    @RestStreamElementType(MediaType.APPLICATION_JSON)
+    @SecurityRequirement(name = "OIDC")
+    @Authenticated
+    @Operation(operationId = "streamFolderContent",
+               summary = "Stream the content of a folder from a storage system, one element per line")
+    @APIResponses(value = {
+            @APIResponse(responseCode = "200", description = "Success",
+                    content = @Content(mediaType = MEDIA_TYPE_NDJSON,
+                    schema = @Schema(implementation = StorageElement.class))),
+            @APIResponse(responseCode = "400",
+                         description = "Invalid parameters/configuration or the storage element is not a folder",
+                    content = @Content(mediaType = MediaType.APPLICATION_JSON,
+                    schema = @Schema(implementation = ActionError.class))),
+            @APIResponse(responseCode = "401", description="Authorization required",
+                    content = @Content(mediaType = MediaType.APPLICATION_JSON,
+                    schema = @Schema(implementation = ActionError.class))),
+            @APIResponse(responseCode = "403", description="Permission denied",
+                    content = @Content(mediaType = MediaType.APPLICATION_JSON,
+                    schema = @Schema(implementation = ActionError.class))),
+            @APIResponse(responseCode = "404", description="Storage element not found",
+                    content = @Content(mediaType = MediaType.APPLICATION_JSON,
+                    schema = @Schema(implementation = ActionError.class)))
+    })
+    public Multi<StorageElement> streamFolderContent(@RestHeader(HttpHeaders.AUTHORIZATION) String auth,
+                                                     @RestQuery("folderUri")
+                                                     @Parameter(required = true,
+                                                                description =
+                                                                    "URI to the storage element (folder) to list content of")
+                                                     String folderUri,
+                                                     @RestQuery("dest") @DefaultValue(DEFAULT_DESTINATION)
+                                                     @Parameter(schema = @Schema(implementation = Destination.class),
+                                                                description = DESTINATION_STORAGE)
+                                                     String destination,
+                                                     @RestHeader(HEADER_STORAGE_AUTH)
+                                                     @Parameter(required = false,
+                                                                description = STORAGE_AUTH)
+                                                     String storageAuth,
+                                                     @RestQuery("name")
+                                                     @Parameter(description = FILTER_NAME)
+                                                     String name,
+                                                     @RestQuery("nameRegex")
+                                                     @Parameter(description = FILTER_NAME_REGEX)
+                                                     String nameRegex,
+                                                     @RestQuery("minSize")
+                                                     @Parameter(description = FILTER_MIN_SIZE)
+                                                     Long minSize,
+                                                     @RestQuery("maxSize")
+                                                     @Parameter(description = FILTER_MAX_SIZE)
+                                                     Long maxSize,
+                                                     @RestQuery("modifiedAfter")
+                                                     @Parameter(description = FILTER_MODIFIED_AFTER)
+                                                     String modifiedAfter,
+                                                     @RestQuery("modifiedBefore")
+                                                     @Parameter(description = FILTER_MODIFIED_BEFORE)
+                                                     String modifiedBefore,
+                                                     @RestQuery("type")
+                                                     @Parameter(schema = @Schema(implementation = StorageFilter.Type.class),
+                                                                description = FILTER_TYPE)
+                                                     String type,
+                                                     @RestQuery("fields")
+                                                     @Parameter(description = FILTER_FIELDS)
+                                                     String fields) {
+
+        final var callerId = identity.getAttribute(CheckinUser.ATTR_USERID);
+        if(null != callerId)
+            MDC.put("callerId", callerId);
+
+        if(null == destination || destination.isEmpty()) {
+            log.error("No destination provided");
+            return Multi.createFrom().failure(new TransferServiceException("destInvalid"));
+        }
+
+        if(null == folderUri || folderUri.isEmpty()) {
+            log.error("No folder provided");
+            return Multi.createFrom().failure(new TransferServiceException("seInvalid"));
+        }
+
+        StorageFilter filter;
+        try {
+            filter = listingFilter(name, nameRegex, minSize, maxSize, modifiedAfter, modifiedBefore, type, fields);
+        }
+        catch(TransferServiceException e) {
+            log.error(e.getMessage());
+            return Multi.createFrom().failure(e);
+        }
+
+        MDC.put("seUri", folderUri);
+        MDC.put("destination", destination);
+        if(null != filter && filter.selects())
+            MDC.put("filter", filter.key());
+
+        log.info("Stream folder content");
+
+        final String folderUriWithAuth = applyStorageCredentials(destination, folderUri, storageAuth);
+        final var count = new AtomicLong(0);
+
+        Multi<StorageElement> result = Uni.createFrom().nullItem()
+
+            .chain(unused -> {
+                if(null == folderUriWithAuth)
+                    return Uni.createFrom().failure(new TransferServiceException("uriInvalid"));
+
+                // Pick storage system and create a client for it
+                return getStorageSystem(destination, folderUri, auth, storageAuth);
+            })
+            .onItem().transformToMulti(params -> {
+                if(null == params || null == params.ss)
+                    return Multi.createFrom().failure(new TransferServiceException("seNotSupported"));
+
+                // Stream folder content
+                return params.ss.streamFolderContent(auth, storageAuth, folderUriWithAuth, filter);
+            })
+            .map(se -> null != filter ? filter.project(se) : se)
+            .onItem().invoke(count::incrementAndGet)
+            .onCompletion().invoke(() -> {
+                MDC.put("seCount", count.get());
+                log.info("Streamed folder content");
+            })
+            .onFailure().invoke(e -> {
+                log.error("Failed to stream folder content");
+            });
+
+        return result;
+    }
+
+    /***
+     * Build the filter for a folder listing from the query parameters
+     * @return Filter, null if no filtering or projection was requested
+     * @throws TransferServiceException if any of the parameters is invalid
+     */
+    private StorageFilter listingFilter(String name, String nameRegex, Long minSize, Long maxSize,
+                                        String modifiedAfter, String modifiedBefore, String type, String fields) {
+        var filter = StorageFilter.parse(name, nameRegex, minSize, maxSize,
+                                         modifiedAfter, modifiedBefore, type, fields);
+        if(null != filter)
+            filter.maxScan = service.storage().listMaxScan();
+
+        return filter;
+    }
+
+    /**
+     * Start a long-running operation, which continues in the background.
+     * @param auth The access token needed to call the service.
+     * @param request The operation to perform and the storage element(s) it works on.
+     * @param destination The type of destination storage (selects transfer service to call).
+     * @param storageAuth Optional credentials for the destination storage, Base-64 encoded "key:value".
+     * @return API Response, wraps a StorageOperation or an ActionError entity
+     */
+    @POST
+    @Path("/operations")
+    @SecurityRequirement(name = "OIDC")
+    @Authenticated
+    @Operation(operationId = "startStorageOperation",  summary = "Start a long-running operation in a storage system")
+    @Consumes(MediaType.APPLICATION_JSON)
+    @APIResponses(value = {
+            @APIResponse(responseCode = "202", description = "Started",
+                    content = @Content(mediaType = MediaType.APPLICATION_JSON,
+                    schema = @Schema(implementation = StorageOperation.class))),
+            @APIResponse(responseCode = "400", description="Invalid parameters or configuration",
+                    content = @Content(mediaType = MediaType.APPLICATION_JSON,
+                    schema = @Schema(implementation = ActionError.class))),
+            @APIResponse(responseCode = "401", description="Authorization required",
+                    content = @Content(mediaType = MediaType.APPLICATION_JSON,
+                    schema = @Schema(implementation = ActionError.class))),
+            @APIResponse(responseCode = "419", description="Re-delegate credentials",
+                    content = @Content(mediaType = MediaType.APPLICATION_JSON,
+                    schema = @Schema(implementation = ActionError.class))),
+            @APIResponse(responseCode = "503", description="Too many operations, try again later",
+                    content = @Content(mediaType = MediaType.APPLICATION_JSON,
+                    schema = @Schema(implementation = ActionError.class)))
+    })
+    public Uni<Response> startOperation(@RestHeader(HttpHeaders.AUTHORIZATION) String auth,
+                                        StorageOperationRequest request,
+                                        @RestQuery("dest") @DefaultValue(DEFAULT_DESTINATION)
+                                        @Parameter(schema = @Schema(implementation = Destination.class),
+                                                   description = DESTINATION_STORAGE)
+                                        String destination,
+                                        @RestHeader(HEADER_STORAGE_AUTH)
+                                        @Parameter(required = false, description = STORAGE_AUTH)
+                                        String storageAuth) {
+
+        final var callerId = identity.getAttribute(CheckinUser.ATTR_USERID);
+        if(null != callerId)
+            MDC.put("callerId", callerId);
+
+        if(null == destination || destination.isEmpty()) {
+            log.error("No destination provided");
+            return Uni.createFrom().item(new ActionError("destInvalid")
+                    .setStatus(Response.Status.BAD_REQUEST)
+                    .toResponse());
+        }
+
+        MDC.put("destination", destination);
+
+        final boolean isRename = null != request && StorageOperationRequest.Action.rename == request.action;
+        if(null == request || null == request.action || null == request.target() ||
+           (isRename && null == request.seUriNew)) {
+            log.error("Cannot start operation");
+            return Uni.createFrom().item(new ActionError("missingOperationParameters",
+                                         Arrays.asList(Tuple2.of("destination", destination)) )
+                                            .setStatus(BAD_REQUEST)
+                                            .toResponse());
+        }
+
+        final var target = request.target();
+        MDC.put("action", request.action.toString());
+        MDC.put("seUri", target);
+        if(isRename)
+            MDC.put("seUriNew", request.seUriNew);
+
+        log.info("Starting operation");
+
+        final String seUriWithAuth = applyStorageCredentials(destination, target, storageAuth);
+        final String seUriNewWithAuth = isRename ? applyStorageCredentials(destination, request.seUriNew, storageAuth) : null;
+
+        Uni<Response> result = Uni.createFrom().nullItem()
+
+            .chain(unused -> {
+                if(null == seUriWithAuth || (isRename && null == seUriNewWithAuth))
+                    return Uni.createFrom().failure(new TransferServiceException("uriInvalid"));
+
+                // Pick storage system and create a client for it
+                return getStorageSystem(destination, target, auth, storageAuth);
+            })
+            .chain(params -> {
+                if(null == params || null == params.ss)
+                    return Uni.createFrom().failure(new TransferServiceException("seNotSupported"));
+
+                // Start operation, returns right away
+                final var operation = new StorageOperation(request.action.toString(), target, callerId);
+                MDC.put("operationId", operation.id);
+
+                operations.start(operation, progress ->
+                        performOperation(params.ss, request.action, auth, storageAuth,
+                                         seUriWithAuth, seUriNewWithAuth, progress));
+
+                log.info("Started operation");
+                return Uni.createFrom().item(operationResponse(operation));
+            })
+            .onFailure().recoverWithItem(e -> {
+                log.error("Failed to start operation");
+                return new ActionError(e, Arrays.asList(
+                             Tuple2.of("seUri", target),
+                             Tuple2.of("destination", destination)) ).toResponse();
+            });
+
+        return result;
+    }
+
+    /**
+     * Get the progress of a long-running operation.
+     * @param id The ID of the operation.
+     * @return API Response, wraps a StorageOperation or an ActionError entity
+     */
+    @GET
+    @Path("/operations/{id}")
+    @SecurityRequirement(name = "OIDC")
+    @Authenticated
+    @Operation(operationId = "getStorageOperation",  summary = "Get the progress of a long-running storage operation")
+    @APIResponses(value = {
+            @APIResponse(responseCode = "200", description = "Success",
+                    content = @Content(mediaType = MediaType.APPLICATION_JSON,
+                    schema = @Schema(implementation = StorageOperation.class))),
+            @APIResponse(responseCode = "401", description="Authorization required",
+                    content = @Content(mediaType = MediaType.APPLICATION_JSON,
+                    schema = @Schema(implementation = ActionError.class))),
+            @APIResponse(responseCode = "404", description="Operation not found",
+                    content = @Content(mediaType = MediaType.APPLICATION_JSON,
+                    schema = @Schema(implementation = ActionError.class)))
+    })
+    public Uni<Response> getOperation(@PathParam("id")
+                                      @Parameter(description = "ID of the operation")
+                                      String id) {
+
+        final var callerId = identity.getAttribute(CheckinUser.ATTR_USERID);
+        if(null != callerId)
+            MDC.put("callerId", callerId);
+
+        MDC.put("operationId", id);
+
+        log.info("Getting operation progress");
+
+        Uni<Response> result = operations.get(id)
+
+            .map(operation -> {
+                if(null == operation || (null != operation.owner && !operation.owner.equals(callerId))) {
+                    // Operations of other users do not exist
+                    log.error("No such operation");
+                    return new ActionError("notFound", Arrays.asList(Tuple2.of("operationId", id)))
+                            .setStatus(Response.Status.NOT_FOUND)
+                            .toResponse();
+                }
+
+                MDC.put("operationStatus", operation.status.toString());
+                return Response.ok(operation).build();
+            });
+
+        return result;
+    }
+
+    /***
+     * Perform a storage operation.
+     * @param ss is the storage service that handles the storage element
+     * @param action is the operation to perform
+     * @param auth is the access token for the storage service
+     * @param storageAuth are the credentials for the storage system
+     * @param seUri is the storage element to work on
+     * @param seUriNew is the new URI of the storage element, for renames
+     * @param progress receives the progress of the operation
+     * @return Result message
+     */
+    private static Uni<String> performOperation(StorageService ss, StorageOperationRequest.Action action,
+                                                String auth, String storageAuth,
+                                                String seUri, String seUriNew, StorageOperation progress) {
+        switch(action) {
+            case deleteFile:
+                return ss.deleteFile(auth, storageAuth, seUri);
+            case deleteFolder:
+                return ss.deleteFolder(auth, storageAuth, seUri, progress);
+            case rename:
+                return ss.renameStorageElement(auth, storageAuth, seUri, seUriNew, progress);
+            default:
+                return Uni.createFrom().failure(new TransferServiceException("noArgs"));
+        }
+    }
+
+    /***
+     * Build the response for an operation that continues in the background.
+     * @param operation is the running operation
+     * @return Response with status ACCEPTED, pointing to the progress of the operation
+     */
+    private static Response operationResponse(StorageOperation operation) {
+        return Response.status(Response.Status.ACCEPTED)
+                       .entity(operation)
+                       .header(HttpHeaders.LOCATION, "/storage/operations/" + operation.id)
+                       .build();
+    }
+
+    /***
+     * Build the error response when a stream fails before its first element.
+     * All other endpoints in this class recover from failures themselves.
+     * @param e is the failure
+     * @return ActionError response
+     */
+    @ServerExceptionMapper
+    public Response mapException(TransferServiceException e) {
+        return Response.fromResponse(new ActionError(e).toResponse())
+                       .type(MediaType.APPLICATION_JSON)
+                       .build();
+    }
+
+    /**
+     * Get the total size and number of files in a folder tree.
+     * @param auth The access token needed to call the service.
+     * @param folderUri The link to the folder to summarize.
+     * @param recursive Whether to include the content of sub-folders.
+     * @param maxDepth How deep to go into sub-folders, when recursive.
+     * @param listing Whether to also return a flat listing of the folder tree.
+     * @param destination The type of destination storage (selects transfer service to call).
+     * @param storageAuth Optional credentials for the destination storage, Base-64 encoded "key:value".
+     * @return API Response, wraps an ActionSuccess(FolderSummary) or an ActionError entity
+     */
+    @GET
+    @Path("/folder/summary")
+    @SecurityRequirement(name = "OIDC")
+    @Authenticated
+    @Operation(operationId = "getFolderSummary",  summary = "Get the total size and number of files in a folder tree")
+    @APIResponses(value = {
+            @APIResponse(responseCode = "200", description = "Success",
+                    content = @Content(mediaType = MediaType.APPLICATION_JSON,
+                    schema = @Schema(implementation = FolderSummary.class))),
+            @APIResponse(responseCode = "400",
+                         description = "Invalid parameters/configuration or the storage element is not a folder",
+                    content = @Content(mediaType = MediaType.APPLICATION_JSON,
+                    schema = @Schema(implementation = ActionError.class))),
+            @APIResponse(responseCode = "401", description="Authorization required",
+                    content = @Content(mediaType = MediaType.APPLICATION_JSON,
+                    schema = @Schema(implementation = ActionError.class))),
+            @APIResponse(responseCode = "403", description="Permission denied",
+                    content = @Content(mediaType = MediaType.APPLICATION_JSON,
+                    schema = @Schema(implementation = ActionError.class))),
+            @APIResponse(responseCode = "404", description="Storage element not found",
+                    content = @Content(mediaType = MediaType.APPLICATION_JSON,
+                    schema = @Schema(implementation = ActionError.class))),
+            @APIResponse(responseCode = "419", description="Re-delegate credentials",
+                    content = @Content(mediaType = MediaType.APPLICATION_JSON,
+                    schema = @Schema(implementation = ActionError.class))),
+            @APIResponse(responseCode = "503", description="Try again later",
+                    content = @Content(mediaType = MediaType.APPLICATION_JSON,
+                    schema = @Schema(implementation = ActionError.class)))
+    })
+    public Uni<Response> getFolderSummary(@RestHeader(HttpHeaders.AUTHORIZATION) String auth,
+                                          @RestQuery("folderUri")
+                                          @Parameter(required = true,
+                                                     description = "URI to the storage element (folder) to summarize")
+                                          String folderUri,
+                                          @RestQuery("recursive") @DefaultValue("false")
+                                          @Parameter(description = "Include the content of sub-folders")
+                                          boolean recursive,
+                                          @RestQuery("maxDepth") @DefaultValue("-1")
+                                          @Parameter(description = "How many levels of sub-folders to include, " +
+                                                                   "when recursive. Defaults to the maximum allowed.")
+                                          int maxDepth,
+                                          @RestQuery("listing") @DefaultValue("false")
+                                          @Parameter(description = "Also return all files and sub-folders in the tree")
+                                          boolean listing,
+                                          @RestQuery("dest") @DefaultValue(DEFAULT_DESTINATION)
+                                          @Parameter(schema = @Schema(implementation = Destination.class),
+                                                     description = DESTINATION_STORAGE)
+                                          String destination,
+                                          @RestHeader(HEADER_STORAGE_AUTH)
+                                          @Parameter(required = false,
+                                                     description = STORAGE_AUTH)
+                                          String storageAuth) {
+
+        final var callerId = identity.getAttribute(CheckinUser.ATTR_USERID);
+        if(null != callerId)
+            MDC.put("callerId", callerId);
+
+        if(null == destination || destination.isEmpty()) {
+            log.error("No destination provided");
+            return Uni.createFrom().item(new ActionError("destInvalid")
+                    .setStatus(Response.Status.BAD_REQUEST)
+                    .toResponse());
+        }
+
+        if(null == folderUri || folderUri.isEmpty()) {
+            log.error("No folder provided");
+            return Uni.createFrom().item(new ActionError("seInvalid")
+                    .setStatus(Response.Status.BAD_REQUEST)
+                    .toResponse());
+        }
+
+        // Without recursion only the folder itself is listed, and never deeper than allowed
+        final int depth = !recursive ? 0 :
+                          (maxDepth < 0 ? summarizer.maxDepth() : Math.min(maxDepth, summarizer.maxDepth()));
+
+        MDC.put("seUri", folderUri);
+        MDC.put("destination", destination);
+        MDC.put("maxDepth", depth);
+
+        log.info("Summarize folder");
+
+        final String folderUriWithAuth = applyStorageCredentials(destination, folderUri, storageAuth);
+
+        Uni<Response> result = Uni.createFrom().nullItem()
+
+            .chain(unused -> {
+                if(null == folderUriWithAuth)
+                    return Uni.createFrom().failure(new TransferServiceException("uriInvalid"));
+
+                // Pick storage system and create a client for it
+                return getStorageSystem(destination, folderUri, auth, storageAuth);
+            })
+            .chain(params -> {
+                if(null == params || null == params.ss)
+                    return Uni.createFrom().failure(new TransferServiceException("seNotSupported"));
+
+                // Traverse the folder tree
+                return summarizer.summarize(params.ss, auth, storageAuth, folderUriWithAuth, depth, listing);
+            })
+            .chain(summary -> {
+                // Got folder summary, success
+                MDC.put("seCount", summary.fileCount);
+                log.info("Got folder summary");
+                return Uni.createFrom().item(Response.ok(summary).build());
+            })
+            .onFailure().recoverWithItem(e -> {
+                log.error("Failed to summarize folder");
+                return new ActionError(e, Arrays.asList(
+                             Tuple2.of("folderUri", folderUri),
+                             Tuple2.of("destination", destination)) ).toResponse();
+            });
+
+        return result;
+    }
+
     /**
      * Get the details of a file.
      * @param auth The access token needed to call the service.
@@ -453,6 +1043,143 @@ public class DataStorage extends DataTransferBase {
         return result;
     }
 
+    /**
+     * Get information about many files or folders on the same storage system.
+     * The details are looked up in parallel, using a single client for the storage system.
+     * @param auth The access token needed to call the service.
+     * @param request The links to the storage elements to get details of.
+     * @param destination The type of destination storage (selects transfer service to call).
+     * @param storageAuth Optional credentials for the destination storage, Base-64 encoded "key:value".
+     * @return API Response, wraps a StorageInfoList or an ActionError entity
+     */
+    @POST
+    @Path("/files/info")
+    @SecurityRequirement(name = "OIDC")
+    @Authenticated
+    @Operation(operationId = "getFilesInfo",  summary = "Retrieve information about many files in a storage system")
+    @Consumes(MediaType.APPLICATION_JSON)
+    @APIResponses(value = {
+            @APIResponse(responseCode = "200", description = "Success, check each element for errors",
+                    content = @Content(mediaType = MediaType.APPLICATION_JSON,
+                    schema = @Schema(implementation = StorageInfoList.class))),
+            @APIResponse(responseCode = "400", description="Invalid parameters or configuration",
+                    content = @Content(mediaType = MediaType.APPLICATION_JSON,
+                    schema = @Schema(implementation = ActionError.class))),
+            @APIResponse(responseCode = "401", description="Authorization required",
+                    content = @Content(mediaType = MediaType.APPLICATION_JSON,
+                    schema = @Schema(implementation = ActionError.class))),
+            @APIResponse(responseCode = "419", description="Re-delegate credentials",
+                    content = @Content(mediaType = MediaType.APPLICATION_JSON,
+                    schema = @Schema(implementation = ActionError.class))),
+            @APIResponse(responseCode = "503", description="Try again later",
+                    content = @Content(mediaType = MediaType.APPLICATION_JSON,
+                    schema = @Schema(implementation = ActionError.class)))
+    })
+    public Uni<Response> getFilesInfo(@RestHeader(HttpHeaders.AUTHORIZATION) String auth,
+                                      StorageInfoRequest request,
+                                      @RestQuery("dest") @DefaultValue(DEFAULT_DESTINATION)
+                                      @Parameter(schema = @Schema(implementation = Destination.class),
+                                                 description = DESTINATION_STORAGE)
+                                      String destination,
+                                      @RestHeader(HEADER_STORAGE_AUTH)
+                                      @Parameter(required = false, description = STORAGE_AUTH)
+                                      String storageAuth) {
+
+        final var callerId = identity.getAttribute(CheckinUser.ATTR_USERID);
+        if(null != callerId)
+            MDC.put("callerId", callerId);
+
+        if(null == destination || destination.isEmpty()) {
+            log.error("No destination provided");
+            return Uni.createFrom().item(new ActionError("destInvalid")
+                    .setStatus(Response.Status.BAD_REQUEST)
+                    .toResponse());
+        }
+
+        if(null == request || null == request.seUris || request.seUris.isEmpty()) {
+            log.error("No storage elements provided");
+            return Uni.createFrom().item(new ActionError("seInvalid")
+                    .setStatus(Response.Status.BAD_REQUEST)
+                    .toResponse());
+        }
+
+        final var config = service.storage();
+        if(request.seUris.size() > config.infoMaxElements()) {
+            log.error("Too many storage elements");
+            return Uni.createFrom().item(new ActionError("tooManyElements",
+                                         Arrays.asList(Tuple2.of("maxElements", String.valueOf(config.infoMaxElements()))))
+                    .setStatus(Response.Status.BAD_REQUEST)
+                    .toResponse());
+        }
+
+        final var firstUri = request.seUris.get(0);
+        MDC.put("seUri", firstUri);
+        MDC.put("seCount", request.seUris.size());
+        MDC.put("destination", destination);
+
+        log.info("Get details of storage elements");
+
+        Uni<Response> result = Uni.createFrom().nullItem()
+
+            .chain(unused -> {
+                // Pick storage system and create a client for it, shared by all elements
+                return getStorageSystem(destination, firstUri, auth, storageAuth);
+            })
+            .chain(params -> {
+                if(null == params || null == params.ss)
+                    return Uni.createFrom().failure(new TransferServiceException("seNotSupported"));
+
+                final var baseUrl = params.ss.getServiceBaseUrl();
+
+                // Get storage element info for all elements, keeping the requested order
+                return Multi.createFrom().range(0, request.seUris.size())
+                    .onItem().transformToUni(index -> {
+                        final var seUri = request.seUris.get(index);
+                        return Uni.createFrom().nullItem()
+                            .chain(unused -> {
+                                if(null == seUri || seUri.isBlank())
+                                    return Uni.createFrom().failure(new TransferServiceException("seInvalid"));
+                                if(null != baseUrl && !seUri.startsWith(baseUrl))
+                                    // All elements must be on the same storage system
+                                    return Uni.createFrom().failure(new TransferServiceException("uriMismatch"));
+
+                                final String seUriWithAuth = applyStorageCredentials(destination, seUri, storageAuth);
+                                if(null == seUriWithAuth)
+                                    return Uni.createFrom().failure(new TransferServiceException("uriInvalid"));
+
+                                return params.ss.getStorageElementInfo(auth, storageAuth, seUriWithAuth);
+                            })
+                            .map(seinfo -> new StorageInfoList.Info(seUri, seinfo))
+                            .onFailure().recoverWithItem(e -> {
+                                // Report error for this element only
+                                return new StorageInfoList.Info(seUri, new ActionError(e, Tuple2.of("seUri", seUri)));
+                            })
+                            .map(info -> Tuple2.of(index, info));
+                    })
+                    .merge(Math.max(1, config.infoConcurrency()))
+                    .collect().asList();
+            })
+            .chain(infos -> {
+                // Got details of all storage elements, success
+                var ordered = new StorageInfoList.Info[infos.size()];
+                for(var info : infos)
+                    ordered[info.getItem1()] = info.getItem2();
+
+                var list = new StorageInfoList(Arrays.asList(ordered));
+                MDC.put("errorCount", list.failed);
+                log.info("Got storage elements details");
+                return Uni.createFrom().item(Response.ok(list).build());
+            })
+            .onFailure().recoverWithItem(e -> {
+                log.error("Failed to get storage elements details");
+                return new ActionError(e, Arrays.asList(
+                             Tuple2.of("seUri", firstUri),
+                             Tuple2.of("destination", destination)) ).toResponse();
+            });
+
+        return result;
+    }
+
     /**
      * Get the details of a folder.
      * @param auth The access token needed to call the service.
@@ -608,12 +1335,15 @@ public class DataStorage extends DataTransferBase {
     }
 
     /**
-     * Delete existing folder.
+     * Delete existing folder. Deleting big folders can take long, if not done within the
+     * configured wait time (or when asked to), the deletion continues in the background
+     * and its progress is returned instead.
      * @param auth The access token needed to call the service.
      * @param seUri The link to the folder to delete.
+     * @param background Return immediately, with the progress of the deletion.
      * @param destination The type of destination storage (selects transfer service to call).
      * @param storageAuth Optional credentials for the destination storage, Base-64 encoded "key:value".
-     * @return API Response, wraps an ActionError entity in case of error
+     * @return API Response, wraps an ActionSuccess, a StorageOperation, or an ActionError entity
      */
     @DELETE
     @Path("/folder")
@@ -624,6 +1354,9 @@ public class DataStorage extends DataTransferBase {
             @APIResponse(responseCode = "200", description = "Deleted",
                     content = @Content(mediaType = MediaType.APPLICATION_JSON,
                     schema = @Schema(implementation = ActionSuccess.class))),
+            @APIResponse(responseCode = "202", description = "Deletion continues in the background",
+                    content = @Content(mediaType = MediaType.APPLICATION_JSON,
+                    schema = @Schema(implementation = StorageOperation.class))),
             @APIResponse(responseCode = "400",
                     description="Invalid parameters/configuration or storage element is not a folder",
                     content = @Content(mediaType = MediaType.APPLICATION_JSON,
@@ -649,6 +1382,9 @@ public class DataStorage extends DataTransferBase {
                                       @Parameter(required = true,
                                                  description = "URI to the storage element (folder) to delete")
                                       String seUri,
+                                      @RestQuery("background") @DefaultValue("false")
+                                      @Parameter(description = "Do not wait for the deletion to finish")
+                                      boolean background,
                                       @RestQuery("dest") @DefaultValue(DEFAULT_DESTINATION)
                                       @Parameter(schema = @Schema(implementation = Destination.class),
                                                  description = DESTINATION_STORAGE)
@@ -695,13 +1431,32 @@ public class DataStorage extends DataTransferBase {
                 if(null == params || null == params.ss)
                     return Uni.createFrom().failure(new TransferServiceException("seNotSupported"));
 
-                // Delete folder
-                return params.ss.deleteFolder(auth, storageAuth, seUriWithAuth);
-            })
-            .chain(deleted -> {
-                // Folder got deleted, success
-                log.info("Deleted folder");
-                return Uni.createFrom().item(new ActionSuccess(deleted).toResponse());
+                // Delete folder, as an operation that can outlive this request
+                final var operation = new StorageOperation("deleteFolder", seUri, callerId);
+                MDC.put("operationId", operation.id);
+
+                var deleting = operations.start(operation, progress ->
+                        params.ss.deleteFolder(auth, storageAuth, seUriWithAuth, progress));
+
+                if(background) {
+                    log.info("Deleting folder in the background");
+                    return Uni.createFrom().item(operationResponse(operation));
+                }
+
+                return deleting
+                    .ifNoItem().after(Duration.ofSeconds(service.storage().operationWait()))
+                        .recoverWithItem(() -> null)
+                    .map(deleted -> {
+                        if(null == deleted) {
+                            // Taking too long, let it finish in the background
+                            log.info("Deleting folder continues in the background");
+                            return operationResponse(operation);
+                        }
+
+                        // Folder got deleted, success
+                        log.info("Deleted folder");
+                        return new ActionSuccess(deleted).toResponse();
+                    });
             })
             .onFailure().recoverWithItem(e -> {
                 log.error("Failed to delete folder");
@@ -865,6 +1620,21 @@ public class DataStorage extends DataTransferBase {
                                     @RestHeader(HEADER_STORAGE_AUTH)
                                     @Parameter(required = false, description = STORAGE_AUTH)
                                     String storageAuth) {
+        return rename(auth, operation, destination, storageAuth, false);
+    }
+
+    /**
+     * Rename a file or folder.
+     * @param auth The access token needed to call the service.
+     * @param operation The links to the old and new storage element URLs.
+     * @param destination The type of destination storage (selects transfer service to call).
+     * @param storageAuth Optional credentials for the destination storage, Base-64 encoded "key:value".
+     * @param asOperation Rename as a long-running operation, which continues in the background
+     *                    if not done within the configured wait time.
+     * @return API Response, wraps an ActionSuccess, a StorageOperation, or an ActionError entity
+     */
+    private Uni<Response> rename(String auth, StorageRenameOperation operation,
+                                 String destination, String storageAuth, boolean asOperation) {
 
         final var callerId = identity.getAttribute(CheckinUser.ATTR_USERID);
         if(null != callerId)
@@ -910,13 +1680,35 @@ public class DataStorage extends DataTransferBase {
                 if(null == params || null == params.ss)
                     return Uni.createFrom().failure(new TransferServiceException("seNotSupported"));
 
-                // Rename storage element
-                return params.ss.renameStorageElement(auth, storageAuth, seUriOldWithAuth, seUriNewWithAuth);
-            })
-            .chain(renamed -> {
-                // Storage element got renamed, success
-                log.info("Renamed storage element");
-                return Uni.createFrom().item(new ActionSuccess(renamed).toResponse());
+                if(!asOperation) {
+                    // Rename storage element
+                    return params.ss.renameStorageElement(auth, storageAuth, seUriOldWithAuth, seUriNewWithAuth)
+                        .map(renamed -> {
+                            // Storage element got renamed, success
+                            log.info("Renamed storage element");
+                            return new ActionSuccess(renamed).toResponse();
+                        });
+                }
+
+                // Rename storage element, as an operation that can outlive this request
+                final var renameOperation = new StorageOperation("rename", operation.seUriOld, callerId);
+                MDC.put("operationId", renameOperation.id);
+
+                return operations.start(renameOperation, progress ->
+                        params.ss.renameStorageElement(auth, storageAuth, seUriOldWithAuth, seUriNewWithAuth, progress))
+                    .ifNoItem().after(Duration.ofSeconds(service.storage().operationWait()))
+                        .recoverWithItem(() -> null)
+                    .map(renamed -> {
+                        if(null == renamed) {
+                            // Taking too long, let it finish in the background
+                            log.info("Renaming storage element continues in the background");
+                            return operationResponse(renameOperation);
+                        }
+
+                        // Storage element got renamed, success
+                        log.info("Renamed storage element");
+                        return new ActionSuccess(renamed).toResponse();
+                    });
             })
             .onFailure().recoverWithItem(e -> {
                 log.error("Failed to rename storage element");
@@ -930,12 +1722,14 @@ public class DataStorage extends DataTransferBase {
     }
 
     /**
-     * Rename a folder.
+     * Rename a folder. Moving big folders can take long, if not done within the
+     * configured wait time, the rename continues in the background and its progress
+     * is returned instead.
      * @param auth The access token needed to call the service.
      * @param operation The links to the old and new storage element URLs.
      * @param destination The type of destination storage (selects transfer service to call).
      * @param storageAuth Optional credentials for the destination storage, Base-64 encoded "key:value".
-     * @return API Response, wraps an ActionError entity in case of error
+     * @return API Response, wraps an ActionSuccess, a StorageOperation, or an ActionError entity
      */
     @PUT
     @Path("/folder")
@@ -947,6 +1741,9 @@ public class DataStorage extends DataTransferBase {
             @APIResponse(responseCode = "200", description = "Renamed",
                     content = @Content(mediaType = MediaType.APPLICATION_JSON,
                     schema = @Schema(implementation = ActionSuccess.class))),
+            @APIResponse(responseCode = "202", description = "Rename continues in the background",
+                    content = @Content(mediaType = MediaType.APPLICATION_JSON,
+                    schema = @Schema(implementation = StorageOperation.class))),
             @APIResponse(responseCode = "400", description="Invalid parameters or configuration",
                     content = @Content(mediaType = MediaType.APPLICATION_JSON,
                     schema = @Schema(implementation = ActionError.class))),
@@ -975,7 +1772,7 @@ public class DataStorage extends DataTransferBase {
                                       @RestHeader(HEADER_STORAGE_AUTH)
                                       @Parameter(required = false, description = STORAGE_AUTH)
                                       String storageAuth) {
-        // This is the same for files and folders
-        return renameFile(auth, operation, destination, storageAuth);
+        // Moving a virtual folder means moving all its objects, which can take long
+        return rename(auth, operation, destination, storageAuth, true);
     }
 }
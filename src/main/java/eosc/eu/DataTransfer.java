@@ -14,11 +14,10 @@ import org.jboss.resteasy.reactive.RestPath;
 import org.jboss.resteasy.reactive.RestQuery;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import io.smallrye.mutiny.Multi;
 import io.smallrye.mutiny.Uni;
 import io.smallrye.mutiny.tuples.Tuple2;
 import io.micrometer.core.instrument.MeterRegistry;
-import io.quarkus.redis.datasource.ReactiveRedisDataSource;
-import io.quarkus.redis.datasource.stream.ReactiveStreamCommands;
 import io.quarkus.security.Authenticated;
 import io.quarkus.security.identity.SecurityIdentity;
 
@@ -36,6 +35,7 @@ import egi.checkin.model.CheckinUser;
 import eosc.eu.model.*;
 import eosc.eu.model.Transfer.Destination;
 import eosc.eu.model.TransferPayloadInfo.FileDetails;
+import eosc.eu.model.TransferPayloadInfo.FileState;
 import eosc.eu.model.TransferInfoExtended.TransferState;
 
 
@@ -49,6 +49,9 @@ public class DataTransfer extends DataTransferBase {
 
     private static final Logger log = Logger.getLogger(DataTransfer.class);
 
+    // Job metadata set by this service, not by the user who submitted the transfer
+    private static final Set<String> SERVICE_METADATA = Set.of("engine", "scheduledId", "scheduledBy", "retryOf");
+
     @Inject
     MeterRegistry registry;
 
@@ -58,32 +61,56 @@ public class DataTransfer extends DataTransferBase {
     @Inject
     protected ServiceConfig service;
 
-    ReactiveStreamCommands<String, String, String> stream;
+    @Inject
+    JobStore jobs;
+
+    @Inject
+    LocalTransfers localTransfers;
+
+    @Inject
+    TransferSync transferSync;
+
+    @Inject
+    SourceSizes sourceSizes;
+
+    @Inject
+    LinkStatistics linkStatistics;
+
+    @Inject
+    TransferScheduler transferScheduler;
+
+    @Inject
+    ReplicaPlanner replicaPlanner;
+
+    @Inject
+    DestinationPreflight destinationPreflight;
 
 
     /***
      * Constructor
-     * @param ds Injected Redis data source
      */
-    public DataTransfer(ReactiveRedisDataSource ds) {
+    public DataTransfer() {
         super(log);
-
-        if(null != ds)
-            this.stream = ds.stream(String.class);
     }
 
     /**
      * Estimate the cost (in credits) of transferring multiple files.
      * @param auth The access token needed to call the service.
-     * @param files The details of the transfer (source files with sizes).
      * @param destination The type of destination storage (selects transfer service to call).
+     * @param verify Whether to check the sizes of the files at their sources.
+     * @param storageAuth Optional credentials for the destination storage, Base-64 encoded "key:value".
+     * @param transfer The details of the transfer (source files with sizes).
      * @return API Response, wraps an ActionSuccess(TransferInfo) or an ActionError entity
      */
     @POST
     @Path("/transfers/estimate")
     @SecurityRequirement(name = "OIDC")
     @Authenticated
-    @Operation(operationId = "estimateTransfer",  summary = "Estimate cost of a data transfer")
+    @Operation(operationId = "estimateTransfer",  summary = "Estimate cost of a data transfer",
+               description = "By default the provided sizes are used. With _verify_ the sizes are checked " +
+                             "at the sources, and missing or wrong sizes are replaced.\n" +
+                             "Once past transfers over the same links are known, the expected duration " +
+                             "is also returned, with bounds.")
     @Consumes(MediaType.APPLICATION_JSON)
     @APIResponses(value = {
             @APIResponse(responseCode = "200", description = "Accepted",
@@ -107,9 +134,15 @@ public class DataTransfer extends DataTransferBase {
                                           @Parameter(schema = @Schema(implementation = Destination.class),
                                                      description = DESTINATION_STORAGE)
                                           String destination,
+                                          @RestQuery("verify") @DefaultValue("false")
+                                          @Parameter(description = "Check the sizes of the files at their sources")
+                                          boolean verify,
+                                          @RestHeader(HEADER_STORAGE_AUTH)
+                                          @Parameter(required = false, description = STORAGE_AUTH)
+                                          String storageAuth,
                                           TransferEstimation transfer) {
 
-        final var callerId = identity.getAttribute(CheckinUser.ATTR_USERID);
+        final String callerId = identity.getAttribute(CheckinUser.ATTR_USERID);
         if(null != callerId)
             MDC.put("callerId", callerId);
 
@@ -128,6 +161,7 @@ public class DataTransfer extends DataTransferBase {
         }
 
         MDC.put("destination", destination);
+        MDC.put("verify", verify);
 
         try {
             ObjectMapper objectMapper = new ObjectMapper();
@@ -160,16 +194,46 @@ public class DataTransfer extends DataTransferBase {
                     return Uni.createFrom().failure(new TransferServiceException("configInvalid"));
                 }
 
-                // Estimate transfer cost
-                var cost = new TransferEstimationInfo();
-                for(var file : transfer.files)
-                    if(null != file && file.size > 0)
-                        cost.addFile(file.size);
+                if(!verify) {
+                    // Trust the provided sizes
+                    var cost = new TransferEstimationInfo();
+                    for(var file : transfer.files)
+                        if(null != file && file.size > 0)
+                            cost.addFile(file.size);
 
-                if(!cost.calculateCost(serviceConfig.bytesPerCredit()))
+                    return Uni.createFrom().item(Tuple2.of(cost, serviceConfig.bytesPerCredit()));
+                }
+
+                // Sources that are not reachable over HTTP may be on the storage of the destination
+                String storageSource = null;
+                for(var file : transfer.files)
+                    if(null != file && null != file.sources)
+                        for(var source : file.sources)
+                            if(null == storageSource && null != source && !SourceSizes.isHttp(source))
+                                storageSource = source;
+
+                Uni<StorageService> storage = (null == storageSource) ? Uni.createFrom().nullItem() :
+                        getStorageSystem(destination, storageSource, auth, storageAuth)
+                            .map(params -> null != params ? params.ss : null)
+                            .onFailure().recoverWithItem(e -> {
+                                log.debugf("Cannot check sizes on the storage system (%s)", e.getMessage());
+                                return null;
+                            });
+
+                // Check the sizes at the sources
+                return storage
+                    .chain(ss -> sourceSizes.measure(transfer.files, ss, auth, storageAuth))
+                    .map(cost -> Tuple2.of(cost, serviceConfig.bytesPerCredit()));
+            })
+            .chain(estimate -> {
+                // Estimate transfer cost
+                var cost = estimate.getItem1();
+                if(!cost.calculateCost(estimate.getItem2()))
                     return Uni.createFrom().failure(new TransferServiceException("configInvalid"));
 
-                return Uni.createFrom().item(Response.accepted(cost).build());
+                // Predict how long it will take
+                return linkStatistics.predict(cost, transfer.files)
+                    .map(prediction -> Response.accepted(prediction).build());
             })
             .onFailure().recoverWithItem(e -> {
                 // On error return empty estimation
@@ -195,6 +259,9 @@ public class DataTransfer extends DataTransferBase {
     @Operation(operationId = "startTransfer",  summary = "Initiate new data transfer")
     @Consumes(MediaType.APPLICATION_JSON)
     @APIResponses(value = {
+            @APIResponse(responseCode = "200", description = "Nothing to transfer, in sync mode",
+                    content = @Content(mediaType = MediaType.APPLICATION_JSON,
+                    schema = @Schema(implementation = TransferInfo.class))),
             @APIResponse(responseCode = "202", description = "Accepted",
                     content = @Content(mediaType = MediaType.APPLICATION_JSON,
                     schema = @Schema(implementation = TransferInfo.class))),
@@ -251,8 +318,12 @@ public class DataTransfer extends DataTransferBase {
 
         log.info("Starting new data transfer");
 
+        final var deferred = TransferScheduler.isDeferred(transfer.params);
+
         // If authentication info is provided for the storage, embed it in every FTP destination URI
-        if(null != storageAuth && !storageAuth.isBlank() && destination.equalsIgnoreCase(Destination.ftp.toString())) {
+        // (scheduled transfers only get it when released, so it is never stored in the clear)
+        if(!deferred && null != storageAuth && !storageAuth.isBlank() &&
+           destination.equalsIgnoreCase(Destination.ftp.toString())) {
             // If the destination is FTP, embed storage credentials in all
             // destination URIs (will not check each URI if the protocol is "ftp")
             for(var payload : transfer.files) {
@@ -276,37 +347,119 @@ public class DataTransfer extends DataTransferBase {
         }
 
         var jobInfo = new AtomicReference<TransferInfo>(null);
+        var delta = new AtomicReference<TransferSync.Delta>(null);
+        var submit = new AtomicReference<Transfer>(transfer);
 
         Uni<Response> result = Uni.createFrom().nullItem()
 
             .chain(unused -> {
-                // Pick transfer service and create REST client for it
-                return getTransferService(destination);
+                if(null == transfer.params || !transfer.params.sync ||
+                   null == transfer.files || transfer.files.isEmpty() || !transfer.files.get(0).isValid())
+                    return Uni.createFrom().nullItem();
+
+                // Only submit the files that are missing or changed at the destination
+                return getStorageSystem(destination, transfer.files.get(0).destinations.get(0), auth, storageAuth)
+                    .chain(params -> {
+                        if(null == params || null == params.ss)
+                            return Uni.createFrom().failure(new TransferServiceException("syncNotSupported",
+                                    "Cannot compare files in this destination"));
+
+                        return transferSync.delta(params.ss, auth, storageAuth, transfer);
+                    })
+                    .invoke(d -> {
+                        log.info(d.describe());
+                        delta.set(d);
+                        submit.set(d.transfer);
+                    });
             })
-            .chain(params -> {
-                // Start transfer
-                return params.ts.startTransfer(auth, storageAuth, transfer);
+            .chain(unused -> {
+                if(null != delta.get() && delta.get().isEmpty())
+                    return Uni.createFrom().voidItem();
+
+                // Fail fast if the destination folders are missing or not accessible
+                return destinationPreflight.check(submit.get(),
+                        seUri -> getStorageSystem(destination, seUri, auth, storageAuth)
+                                    .map(params -> null != params ? params.ss : null),
+                        auth, storageAuth);
+            })
+            .chain(unused -> {
+                // Have the transfer service try the fastest replica of each file first
+                return replicaPlanner.plan(submit.get());
+            })
+            .chain(unused -> {
+                if(deferred)
+                    // Will be started later
+                    return Uni.createFrom().nullItem();
+
+                // Check if the storage system can copy the files itself
+                return getInPlaceCopier(auth, submit.get(), destination, storageAuth);
+            })
+            .chain(ss -> {
+                if(null != delta.get() && delta.get().isEmpty())
+                    // Nothing to transfer, all files are already at the destination
+                    return Uni.createFrom().item(new TransferInfo());
+
+                if(deferred) {
+                    // Start it later, when due
+                    log.info("Scheduling transfer");
+                    return transferScheduler.schedule(callerId, submit.get(), destination, auth, storageAuth);
+                }
+
+                if(null != ss) {
+                    try {
+                        // All files are on the same storage system, copy them there
+                        var transferInfo = localTransfers.start(callerId, submit.get(), ss, auth, storageAuth);
+                        log.info("Transferring server-side");
+                        return Uni.createFrom().item(transferInfo);
+                    }
+                    catch(TransferServiceException e) {
+                        log.warnf("Cannot transfer server-side (%s)", e.getMessage());
+                    }
+                }
+
+                // Pick transfer service and create REST client for it
+                return getTransferService(destination)
+                    .chain(params -> {
+                        // Start transfer
+                        return params.ts.startTransfer(auth, storageAuth, submit.get());
+                    });
             })
             .chain(transferInfo -> {
+                if(null != delta.get())
+                    transferInfo.description = (null != transferInfo.description) ?
+                                                delta.get().describe() + ". " + transferInfo.description :
+                                                delta.get().describe();
+
+                jobInfo.set(transferInfo);
+                if(null == transferInfo.jobId)
+                    // Nothing was submitted
+                    return Uni.createFrom().item("");
+
+                if(deferred) {
+                    // The scheduler adds it to the job store when it starts
+                    MDC.put("scheduledId", transferInfo.jobId);
+                    log.info("Scheduled new transfer");
+                    return Uni.createFrom().item("");
+                }
+
                 // Transfer started
                 MDC.put("jobId", transferInfo.jobId);
                 log.info("Started new transfer");
-                jobInfo.set(transferInfo);
 
                 // Remember this transfer job by adding it to the job store
                 // This allows us to poll the transfer engine until the transfer finishes,
                 // then collect accounting information for it
-                if(null != this.stream && null != callerId &&
+                if(null != callerId &&
                    service.accounting().url().isPresent() &&
                    service.accounting().installation().isPresent() &&
                    service.accounting().metric().isPresent()) {
                     // We have everything we need to send accounting records
                     var jobCheckInfo = new HashMap<String, String>();
-                    jobCheckInfo.put("dest", destination);
-                    jobCheckInfo.put("jobId", transferInfo.jobId);
-                    jobCheckInfo.put("userId", callerId);
+                    jobCheckInfo.put(JobStore.FIELD_DESTINATION, destination);
+                    jobCheckInfo.put(JobStore.FIELD_JOB_ID, transferInfo.jobId);
+                    jobCheckInfo.put(JobStore.FIELD_USER_ID, callerId);
 
-                    return stream.xadd(AccountingCollector.JOBSTORE_STREAM, jobCheckInfo);
+                    return jobs.add(jobCheckInfo);
                 }
 
                 return Uni.createFrom().item("");
@@ -318,7 +471,11 @@ public class DataTransfer extends DataTransferBase {
                 }
 
                 // Success, return job ID
-                return Uni.createFrom().item(Response.accepted(jobInfo.get()).build());
+                var ji = jobInfo.get();
+                if(null == ji.jobId)
+                    return Uni.createFrom().item(Response.ok(ji).build());
+
+                return Uni.createFrom().item(Response.accepted(ji).build());
             })
             .onFailure().recoverWithItem(e -> {
                 // Check if a new transfer job was created
@@ -338,6 +495,65 @@ public class DataTransfer extends DataTransferBase {
         return result;
     }
 
+    /***
+     * Get a storage system that can perform a transfer as server-side copies.
+     * This is the case when the storage system of the destination supports it, all sources
+     * and destinations are on it, the credentials of the caller can read all the sources,
+     * and server-side transfers can run it (e.g. no checksum verification).
+     * @param auth The access token needed to call the service.
+     * @param transfer The details of the transfer.
+     * @param destination The type of destination storage.
+     * @param storageAuth Optional credentials for the destination storage, Base-64 encoded "key:value".
+     * @return Storage system to copy on, null if the transfer must go through the transfer service
+     */
+    private Uni<StorageService> getInPlaceCopier(String auth, Transfer transfer, String destination,
+                                                 String storageAuth) {
+
+        if(null == transfer.files || transfer.files.isEmpty() ||
+           transfer.files.size() > service.storage().localTransferMaxFiles() ||
+           null == storageAuth || storageAuth.isBlank() ||
+           !localTransfers.accepts(transfer))
+            return Uni.createFrom().nullItem();
+
+        for(var payload : transfer.files)
+            if(null == payload || !payload.isValid())
+                return Uni.createFrom().nullItem();
+
+        var destinationConfig = getDestinationConfig(config, destination, log);
+        if(null == destinationConfig || destinationConfig.storageId().isEmpty())
+            return Uni.createFrom().nullItem();
+
+        var storageConfig = config.storages().get(destinationConfig.storageId().get());
+        if(null == storageConfig || !storageConfig.serverSideTransfers())
+            return Uni.createFrom().nullItem();
+
+        final var seUri = transfer.files.get(0).destinations.get(0);
+        return getStorageSystem(destination, seUri, auth, storageAuth)
+            .chain(params -> {
+                if(null == params || null == params.ss)
+                    return Uni.createFrom().nullItem();
+
+                // All sources and destinations must be on this storage system
+                for(var payload : transfer.files)
+                    for(var source : payload.sources)
+                        for(var target : payload.destinations)
+                            if(!params.ss.canCopyInPlace(source, target))
+                                return Uni.createFrom().nullItem();
+
+                // The credentials must allow reading the sources
+                return Multi.createFrom().iterable(transfer.files)
+                    .onItem().transformToUni(payload ->
+                        params.ss.getStorageElementInfo(auth, storageAuth, payload.sources.get(0)))
+                    .merge(Math.max(1, service.storage().infoConcurrency()))
+                    .collect().last()
+                    .replaceWith(params.ss);
+            })
+            .onFailure().recoverWithItem(e -> {
+                log.debugf("Transfer not possible server-side (%s)", e.getMessage());
+                return null;
+            });
+    }
+
     /***
      * Find transfers matching criteria.
      * @param auth The access token needed to call the service.
@@ -537,7 +753,7 @@ public class DataTransfer extends DataTransferBase {
                                                     description = FILE_INFO_FOR)
                                          String fileInfo) {
 
-        final var callerId = identity.getAttribute(CheckinUser.ATTR_USERID);
+        final String callerId = identity.getAttribute(CheckinUser.ATTR_USERID);
         if(null != callerId)
             MDC.put("callerId", callerId);
 
@@ -564,12 +780,26 @@ public class DataTransfer extends DataTransferBase {
         Uni<Response> result = Uni.createFrom().nullItem()
 
             .chain(unused -> {
-                // Pick transfer service and create REST client for it
-                return getTransferService(destination);
+                // Transfers done server-side are not known to the transfer service
+                return localTransfers.getTransferInfo(jobId, callerId, FileDetails.fromString(fileInfo));
             })
-            .chain(params -> {
-                // Get transfer details
-                return params.ts.getTransferInfo(auth, jobId, FileDetails.fromString(fileInfo));
+            .chain(localInfo -> {
+                if(null != localInfo)
+                    return Uni.createFrom().item(localInfo);
+
+                // Scheduled transfers are not known to the transfer service until released
+                return transferScheduler.getTransferInfo(auth, jobId, callerId, FileDetails.fromString(fileInfo));
+            })
+            .chain(scheduled -> {
+                if(null != scheduled)
+                    return Uni.createFrom().item(scheduled);
+
+                // Pick transfer service and create REST client for it
+                return getTransferService(destination)
+                    .chain(params -> {
+                        // Get transfer details
+                        return params.ts.getTransferInfo(auth, jobId, FileDetails.fromString(fileInfo));
+                    });
             })
             .chain(transferInfo -> {
                 // Got transfer details, success
@@ -630,7 +860,7 @@ public class DataTransfer extends DataTransferBase {
                                                          description = DESTINATION_STORAGE)
                                               String destination) {
 
-        final var callerId = identity.getAttribute(CheckinUser.ATTR_USERID);
+        final String callerId = identity.getAttribute(CheckinUser.ATTR_USERID);
         if(null != callerId)
             MDC.put("callerId", callerId);
 
@@ -664,12 +894,26 @@ public class DataTransfer extends DataTransferBase {
         Uni<Response> result = Uni.createFrom().nullItem()
 
             .chain(unused -> {
-                // Pick transfer service and create REST client for it
-                return getTransferService(destination);
+                // Transfers done server-side are not known to the transfer service
+                return localTransfers.getTransferInfoField(jobId, callerId, fieldName);
             })
-            .chain(params -> {
-                // Get transfer info field
-                return params.ts.getTransferInfoField(auth, jobId, fieldName);
+            .chain(localField -> {
+                if(null != localField)
+                    return Uni.createFrom().item(localField);
+
+                // Scheduled transfers are not known to the transfer service until released
+                return transferScheduler.getTransferInfoField(auth, jobId, callerId, fieldName);
+            })
+            .chain(scheduled -> {
+                if(null != scheduled)
+                    return Uni.createFrom().item(scheduled);
+
+                // Pick transfer service and create REST client for it
+                return getTransferService(destination)
+                    .chain(params -> {
+                        // Get transfer info field
+                        return params.ts.getTransferInfoField(auth, jobId, fieldName);
+                    });
             })
             .chain(fieldValue -> {
                 // Found transfer and field, success
@@ -731,7 +975,7 @@ public class DataTransfer extends DataTransferBase {
                                                    description = DESTINATION_STORAGE)
                                         String destination) {
 
-        final var callerId = identity.getAttribute(CheckinUser.ATTR_USERID);
+        final String callerId = identity.getAttribute(CheckinUser.ATTR_USERID);
         if(null != callerId)
             MDC.put("callerId", callerId);
 
@@ -757,12 +1001,26 @@ public class DataTransfer extends DataTransferBase {
         Uni<Response> result = Uni.createFrom().nullItem()
 
             .chain(unused -> {
-                // Pick transfer service and create REST client for it
-                return getTransferService(destination);
+                // Transfers done server-side are not known to the transfer service
+                return localTransfers.cancelTransfer(jobId, callerId);
             })
-            .chain(params -> {
-                // Cancel transfer
-                return params.ts.cancelTransfer(auth, jobId);
+            .chain(localInfo -> {
+                if(null != localInfo)
+                    return Uni.createFrom().item(localInfo);
+
+                // Scheduled transfers are not known to the transfer service until released
+                return transferScheduler.cancelTransfer(auth, jobId, callerId);
+            })
+            .chain(scheduled -> {
+                if(null != scheduled)
+                    return Uni.createFrom().item(scheduled);
+
+                // Pick transfer service and create REST client for it
+                return getTransferService(destination)
+                    .chain(params -> {
+                        // Cancel transfer
+                        return params.ts.cancelTransfer(auth, jobId);
+                    });
             })
             .chain(transferInfo -> {
                 // Canceled transfer, success
@@ -780,4 +1038,198 @@ public class DataTransfer extends DataTransferBase {
         return result;
     }
 
+    /**
+     * Retry the files that failed in a finished transfer.
+     * Submits a new transfer with only the failed files, with the parameters of the original
+     * transfer, and links the new transfer to the original one in its metadata ("retryOf").
+     * @param auth The access token needed to call the service.
+     * @param jobId The ID of the transfer to retry.
+     * @param destination The type of destination storage (selects transfer service to call).
+     * @param storageAuth Optional credentials for the destination storage, Base-64 encoded "key:value".
+     * @return API Response, wraps an ActionSuccess(TransferInfo) or an ActionError entity
+     */
+    @POST
+    @Path("/transfer/{jobId}/retry")
+    @SecurityRequirement(name = "OIDC")
+    @Authenticated
+    @Operation(operationId = "retryTransfer",  summary = "Retry the failed files of a transfer",
+               description = "Starts a new transfer with the files that failed or were canceled in a " +
+                             "finished transfer. Files that were transferred are not transferred again.")
+    @APIResponses(value = {
+            @APIResponse(responseCode = "202", description = "Accepted",
+                    content = @Content(mediaType = MediaType.APPLICATION_JSON,
+                    schema = @Schema(implementation = TransferInfo.class))),
+            @APIResponse(responseCode = "400", description="Invalid parameters or configuration",
+                    content = @Content(mediaType = MediaType.APPLICATION_JSON,
+                    schema = @Schema(implementation = ActionError.class))),
+            @APIResponse(responseCode = "401", description="Authorization required",
+                    content = @Content(mediaType = MediaType.APPLICATION_JSON,
+                    schema = @Schema(implementation = ActionError.class))),
+            @APIResponse(responseCode = "403", description="Permission denied",
+                    content = @Content(mediaType = MediaType.APPLICATION_JSON,
+                    schema = @Schema(implementation = ActionError.class))),
+            @APIResponse(responseCode = "404", description="Transfer not found",
+                    content = @Content(mediaType = MediaType.APPLICATION_JSON,
+                    schema = @Schema(implementation = ActionError.class))),
+            @APIResponse(responseCode = "409", description="Transfer not finished",
+                    content = @Content(mediaType = MediaType.APPLICATION_JSON,
+                    schema = @Schema(implementation = ActionError.class))),
+            @APIResponse(responseCode = "419", description="Re-delegate credentials",
+                    content = @Content(mediaType = MediaType.APPLICATION_JSON,
+                    schema = @Schema(implementation = ActionError.class)))
+    })
+    public Uni<Response> retryTransfer(@RestHeader(HttpHeaders.AUTHORIZATION) String auth,
+                                       @RestPath("jobId") String jobId,
+                                       @RestQuery("dest") @DefaultValue(DEFAULT_DESTINATION)
+                                       @Parameter(schema = @Schema(implementation = Destination.class),
+                                                  description = DESTINATION_STORAGE)
+                                       String destination,
+                                       @RestHeader(HEADER_STORAGE_AUTH)
+                                       @Parameter(required = false, description = STORAGE_AUTH)
+                                       String storageAuth) {
+
+        final String callerId = identity.getAttribute(CheckinUser.ATTR_USERID);
+        if(null != callerId)
+            MDC.put("callerId", callerId);
+
+        if(null == destination || destination.isEmpty()) {
+            log.error("No destination provided");
+            return Uni.createFrom().item(new ActionError("destInvalid")
+                    .setStatus(Response.Status.BAD_REQUEST)
+                    .toResponse());
+        }
+
+        if(null == jobId || jobId.isEmpty()) {
+            log.error("No job ID provided");
+            return Uni.createFrom().item(new ActionError("noJob")
+                    .setStatus(Response.Status.BAD_REQUEST)
+                    .toResponse());
+        }
+
+        MDC.put("jobId", jobId);
+        MDC.put("destination", destination);
+
+        log.info("Retrying failed files of transfer");
+
+        var retry = new AtomicReference<Transfer>(null);
+
+        Uni<Response> result = Uni.createFrom().nullItem()
+
+            .chain(unused -> {
+                // Transfers done server-side are not known to the transfer service
+                return localTransfers.getTransferInfo(jobId, callerId, FileDetails.all);
+            })
+            .chain(localInfo -> {
+                if(null != localInfo)
+                    return Uni.createFrom().item(localInfo);
+
+                // Scheduled transfers are not known to the transfer service until released
+                return transferScheduler.getTransferInfo(auth, jobId, callerId, FileDetails.all);
+            })
+            .chain(scheduled -> {
+                if(null != scheduled)
+                    return Uni.createFrom().item(scheduled);
+
+                // Pick transfer service and create REST client for it
+                return getTransferService(destination)
+                    .chain(params -> {
+                        // Get the state of all files
+                        return params.ts.getTransferInfo(auth, jobId, FileDetails.all);
+                    });
+            })
+            .chain(transferInfo -> {
+                // Got transfer details, only finished transfers can be retried
+                MDC.put("jobState", transferInfo.jobState);
+                if(TransferState.submitted == transferInfo.jobState || TransferState.active == transferInfo.jobState)
+                    return Uni.createFrom().failure(new TransferServiceException("transferNotFinished", 409,
+                                                        "Transfer is " + transferInfo.jobState));
+
+                var failed = failedFiles(transferInfo);
+                if(failed.files.isEmpty())
+                    return Uni.createFrom().failure(new TransferServiceException("nothingToRetry"));
+
+                MDC.put("fileCount", failed.files.size());
+                log.infof("Retrying %d failed files", failed.files.size());
+                retry.set(failed);
+
+                // Start the new transfer like any other
+                return startTransfer(auth, failed, destination, storageAuth);
+            })
+            .map(response -> {
+                if(response.getEntity() instanceof TransferInfo ti && null == ti.description)
+                    ti.description = String.format("Retrying %d failed files of transfer %s",
+                                                   retry.get().files.size(), jobId);
+                return response;
+            })
+            .onFailure().recoverWithItem(e -> {
+                log.error("Failed to retry transfer");
+                return new ActionError(e, Arrays.asList(
+                        Tuple2.of("jobId", jobId),
+                        Tuple2.of("destination", destination)) ).toResponse();
+            });
+
+        return result;
+    }
+
+    /***
+     * Build a transfer with the files that failed in a finished transfer.
+     * A file is retried if no attempt to any of its sources succeeded, and at least one
+     * failed or was canceled. All its sources are tried again, in the original order.
+     * @param transferInfo The finished transfer, with the state of all its files.
+     * @return Transfer with the failed files and the original parameters
+     */
+    private static Transfer failedFiles(TransferInfoExtended transferInfo) {
+        // Group the attempts by destination, as there is one per source
+        var attempts = new LinkedHashMap<String, List<TransferPayloadInfo>>();
+        if(transferInfo.payload.isPresent())
+            for(var file : transferInfo.payload.get())
+                if(null != file.destinationSE && null != file.sourceSE)
+                    attempts.computeIfAbsent(file.destinationSE, d -> new ArrayList<>()).add(file);
+
+        var retry = new Transfer();
+        for(var entry : attempts.entrySet()) {
+            var files = entry.getValue();
+            boolean succeeded = false, failed = false;
+            for(var file : files) {
+                succeeded |= FileState.succeeded == file.fileState;
+                failed |= FileState.failed == file.fileState || FileState.canceled == file.fileState;
+            }
+
+            if(succeeded || !failed)
+                continue;
+
+            var payload = new TransferPayload();
+            payload.destinations.add(entry.getKey());
+            for(var file : files) {
+                if(!payload.sources.contains(file.sourceSE))
+                    payload.sources.add(file.sourceSE);
+                if(null == payload.checksum && null != file.checksum && file.checksum.indexOf(':') > 0)
+                    payload.checksum = file.checksum;
+                if(null == payload.size && null != file.size && file.size.isPresent())
+                    payload.size = file.size.get();
+            }
+
+            retry.files.add(payload);
+        }
+
+        // Same parameters as the original transfer
+        var params = new TransferParameters();
+        params.verifyChecksum = transferInfo.verifyChecksum;
+        params.overwrite = null != transferInfo.overwrite && transferInfo.overwrite.orElse(false);
+        params.retry = null != transferInfo.retry ? transferInfo.retry.orElse(params.retry) : params.retry;
+        params.priority = null != transferInfo.priority ? transferInfo.priority.orElse(0) : 0;
+
+        // Keep only the metadata of the user, and link to the original transfer
+        params.metadata = new HashMap<>();
+        if(null != transferInfo.jobMetadata)
+            transferInfo.jobMetadata.forEach((key, value) -> {
+                if(!SERVICE_METADATA.contains(key))
+                    params.metadata.put(key, value);
+            });
+        params.metadata.put("retryOf", transferInfo.jobId);
+
+        retry.params = params;
+        return retry;
+    }
+
 }
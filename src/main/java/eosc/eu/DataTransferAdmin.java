@@ -0,0 +1,181 @@
+package eosc.eu;
+
+import egi.checkin.model.CheckinUser;
+import org.eclipse.microprofile.openapi.annotations.Operation;
+import org.eclipse.microprofile.openapi.annotations.media.Content;
+import org.eclipse.microprofile.openapi.annotations.media.Schema;
+import org.eclipse.microprofile.openapi.annotations.parameters.Parameter;
+import org.eclipse.microprofile.openapi.annotations.responses.APIResponse;
+import org.eclipse.microprofile.openapi.annotations.responses.APIResponses;
+import org.eclipse.microprofile.openapi.annotations.security.SecurityRequirement;
+import org.jboss.logging.Logger;
+import org.jboss.logging.MDC;
+import org.jboss.resteasy.reactive.RestPath;
+import org.jboss.resteasy.reactive.RestQuery;
+import io.smallrye.mutiny.Uni;
+import io.smallrye.mutiny.tuples.Tuple2;
+import io.quarkus.security.identity.SecurityIdentity;
+import io.quarkus.security.Authenticated;
+
+import jakarta.inject.Inject;
+import jakarta.ws.rs.*;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Response;
+
+import eosc.eu.model.*;
+
+
+/***
+ * Class for administration operations.
+ * Only users listed in the configuration setting "eosc.service.admins" can call these endpoints.
+ */
+@Path("/admin")
+@Produces(MediaType.APPLICATION_JSON)
+public class DataTransferAdmin {
+
+    private static final Logger log = Logger.getLogger(DataTransferAdmin.class);
+
+    @Inject
+    SecurityIdentity identity;
+
+    @Inject
+    ServiceConfig service;
+
+    @Inject
+    AccountingCollector collector;
+
+
+    /***
+     * Constructor
+     */
+    public DataTransferAdmin() {}
+
+    /***
+     * Check if the caller is an administrator
+     * @param callerId is the Check-in user ID of the caller
+     * @return True if the caller is allowed to call administration endpoints
+     */
+    private boolean isAdmin(String callerId) {
+        return null != callerId && service.admins().isPresent() && service.admins().get().contains(callerId);
+    }
+
+    /**
+     * List transfers that could not be accounted for.
+     * @param limit Maximum number of dead letters to return.
+     * @return API Response, wraps an ActionSuccess(DeadLetterList) or an ActionError entity
+     */
+    @GET
+    @Path("/jobs/failed")
+    @SecurityRequirement(name = "OIDC")
+    @Authenticated
+    @Operation(operationId = "listDeadLetters",  summary = "List transfers that could not be accounted for")
+    @APIResponses(value = {
+            @APIResponse(responseCode = "200", description = "Success",
+                    content = @Content(mediaType = MediaType.APPLICATION_JSON,
+                    schema = @Schema(implementation = DeadLetterList.class))),
+            @APIResponse(responseCode = "401", description="Authorization required",
+                    content = @Content(mediaType = MediaType.APPLICATION_JSON,
+                    schema = @Schema(implementation = ActionError.class))),
+            @APIResponse(responseCode = "403", description="Permission denied",
+                    content = @Content(mediaType = MediaType.APPLICATION_JSON,
+                    schema = @Schema(implementation = ActionError.class)))
+    })
+    public Uni<Response> listDeadLetters(@RestQuery("limit") @DefaultValue("100")
+                                         @Parameter(description = "Maximum number of jobs to return")
+                                         int limit) {
+
+        final String callerId = identity.getAttribute(CheckinUser.ATTR_USERID);
+        if(null != callerId)
+            MDC.put("callerId", callerId);
+
+        if(!isAdmin(callerId)) {
+            log.error("Caller is not an administrator");
+            return Uni.createFrom().item(new ActionError("noAccess")
+                    .setStatus(Response.Status.FORBIDDEN)
+                    .toResponse());
+        }
+
+        MDC.put("limit", limit);
+
+        log.info("Listing dead letters");
+
+        Uni<Response> result = Uni.createFrom().nullItem()
+
+            .chain(unused -> {
+                // Get the messages from the dead-letter list
+                return collector.listDeadLetters(limit);
+            })
+            .chain(deadLetters -> {
+                // Got dead letters, success
+                MDC.put("jobCount", deadLetters.count);
+                log.info("Got dead letters");
+                return Uni.createFrom().item(Response.ok(deadLetters).build());
+            })
+            .onFailure().recoverWithItem(e -> {
+                log.error("Failed to list dead letters");
+                return new ActionError(e).toResponse();
+            });
+
+        return result;
+    }
+
+    /**
+     * Put a transfer that could not be accounted for back in the job store.
+     * @param messageId The ID of the dead letter to replay.
+     * @return API Response, wraps an ActionSuccess or an ActionError entity
+     */
+    @POST
+    @Path("/jobs/failed/{messageId}/replay")
+    @SecurityRequirement(name = "OIDC")
+    @Authenticated
+    @Operation(operationId = "replayDeadLetter",  summary = "Retry accounting for a failed transfer")
+    @APIResponses(value = {
+            @APIResponse(responseCode = "200", description = "Success",
+                    content = @Content(mediaType = MediaType.APPLICATION_JSON,
+                    schema = @Schema(implementation = ActionSuccess.class))),
+            @APIResponse(responseCode = "401", description="Authorization required",
+                    content = @Content(mediaType = MediaType.APPLICATION_JSON,
+                    schema = @Schema(implementation = ActionError.class))),
+            @APIResponse(responseCode = "403", description="Permission denied",
+                    content = @Content(mediaType = MediaType.APPLICATION_JSON,
+                    schema = @Schema(implementation = ActionError.class))),
+            @APIResponse(responseCode = "404", description="Dead letter not found",
+                    content = @Content(mediaType = MediaType.APPLICATION_JSON,
+                    schema = @Schema(implementation = ActionError.class)))
+    })
+    public Uni<Response> replayDeadLetter(@RestPath("messageId") String messageId) {
+
+        final String callerId = identity.getAttribute(CheckinUser.ATTR_USERID);
+        if(null != callerId)
+            MDC.put("callerId", callerId);
+
+        if(!isAdmin(callerId)) {
+            log.error("Caller is not an administrator");
+            return Uni.createFrom().item(new ActionError("noAccess")
+                    .setStatus(Response.Status.FORBIDDEN)
+                    .toResponse());
+        }
+
+        MDC.put("dlqMessageId", messageId);
+
+        log.info("Replaying dead letter");
+
+        Uni<Response> result = Uni.createFrom().nullItem()
+
+            .chain(unused -> {
+                // Move message back to the job store
+                return collector.replayDeadLetter(messageId);
+            })
+            .chain(newMessageId -> {
+                // Job is back in the job store, success
+                log.info("Replayed dead letter");
+                return Uni.createFrom().item(new ActionSuccess(newMessageId).toResponse());
+            })
+            .onFailure().recoverWithItem(e -> {
+                log.error("Failed to replay dead letter");
+                return new ActionError(e, Tuple2.of("messageId", messageId)).toResponse();
+            });
+
+        return result;
+    }
+}
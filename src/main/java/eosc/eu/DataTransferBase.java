@@ -32,6 +32,9 @@ public class DataTransferBase {
     @Inject
     protected TransferConfig config;
 
+    @Inject
+    protected StorageMetadataCache metadataCache;
+
 
     /***
      * Construct with logger
@@ -208,6 +211,9 @@ public class DataTransferBase {
                                 var ssName = params.ss.getServiceName();
                                 MDC.put("storageName", ssName);
                                 log.infof("Storage elements handled by %s", ssName);
+
+                                // Details and listings are answered from the cache when possible
+                                params.ss = metadataCache.wrap(params.ss);
                             } else
                                 return Uni.createFrom().failure(new TransferServiceException("configInvalid"));
                         }
@@ -252,6 +258,19 @@ public class DataTransferBase {
      * @return Updated URL with embedded credentials, null on error
      */
     protected String applyStorageCredentials(String destination, String seUri, String storageAuth) {
+        return applyStorageCredentials(destination, seUri, storageAuth, this.log);
+    }
+
+    /**
+     * Embed credentials in storage element URL
+     * @param destination is the type of destination storage.
+     * @param seUri is the URI to the storage element.
+     * @param storageAuth contains the Base64-encoded 'username:password'
+     * @param log is the logger to use
+     * @return Updated URL with embedded credentials, null on error
+     */
+    public static String applyStorageCredentials(String destination, String seUri, String storageAuth,
+                                                 Logger log) {
 
         if(null == storageAuth || storageAuth.isBlank())
             // When no credentials, will try anonymous access
@@ -0,0 +1,333 @@
+package eosc.eu;
+
+import io.smallrye.mutiny.Multi;
+import io.smallrye.mutiny.Uni;
+import io.smallrye.mutiny.tuples.Tuple2;
+import jakarta.ws.rs.core.Response.Status;
+import org.jboss.logging.Logger;
+import org.jboss.logging.MDC;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.function.Function;
+
+import eosc.eu.model.Transfer;
+
+
+/***
+ * Checks the destination folders of a transfer before it is submitted, so that transfers
+ * that would fail in the transfer service minutes later (the folder does not exist, or the
+ * credentials are not accepted) fail right away instead of taking a slot in its queue.
+ * Each distinct destination folder is listed once, folders in parallel. Missing folders
+ * are created when the transfer asks for it.
+ *
+ * Only definite answers fail a transfer. When a folder cannot be checked in time, or the
+ * storage system answers with anything else, the transfer is submitted as before.
+ * Existing folders are remembered for a short while per folder and credentials, and
+ * rejected credentials per storage system and credentials.
+ */
+@ApplicationScoped
+public class DestinationPreflight {
+
+    private static final Logger log = Logger.getLogger(DestinationPreflight.class);
+
+    /***
+     * The outcome of checking a destination folder
+     */
+    enum Outcome {
+        ok,         // Exists and can be listed with the credentials
+        missing,    // Does not exist
+        noAccess,   // Credentials not accepted
+        unknown     // Could not tell
+    }
+
+    @Inject
+    ServiceConfig service;
+
+    private TtlCache<String, Outcome> outcomes;
+
+
+    /***
+     * Constructor
+     */
+    public DestinationPreflight() {}
+
+    /***
+     * Create the cache after instance creation
+     */
+    @PostConstruct
+    void init() {
+        var config = service.preflight();
+        this.outcomes = new TtlCache<>(config.cacheTtl() * 1000L, config.cacheSize());
+    }
+
+    /***
+     * Check the destination folders of a transfer
+     * @param transfer is the transfer to check
+     * @param storageSystem gets the storage service for a storage element, null if the destination has none
+     * @param tsAuth is the access token for the storage service
+     * @param storageAuth are the credentials for the storage system
+     * @return Completion, fails if a destination folder is missing (and could not be created)
+     *         or cannot be accessed with the credentials
+     */
+    public Uni<Void> check(Transfer transfer, Function<String, Uni<StorageService>> storageSystem,
+                           String tsAuth, String storageAuth) {
+        final var config = service.preflight();
+        if(!config.enabled() || null == transfer || null == transfer.files || transfer.files.isEmpty())
+            return Uni.createFrom().voidItem();
+
+        var hosts = transfer.allDestinationStorages(null);
+        if(null == hosts)
+            // Invalid destination, let the transfer service report it
+            return Uni.createFrom().voidItem();
+
+        // Collect the distinct destination folders, grouped by storage system
+        final var folders = new LinkedHashMap<String, Set<String>>();
+        for(var payload : transfer.files) {
+            if(null == payload || null == payload.destinations)
+                continue;
+
+            for(var destination : payload.destinations) {
+                var host = hostOf(destination);
+                if(null != host && hosts.contains(host))
+                    folders.computeIfAbsent(host, h -> new LinkedHashSet<>()).add(parentOf(destination));
+            }
+        }
+
+        final var create = null != transfer.params && transfer.params.createFolders;
+        final var credentials = Utils.hashCredentials(tsAuth, storageAuth);
+        return Multi.createFrom().iterable(folders.entrySet())
+            .onItem().transformToUniAndConcatenate(entry -> {
+                // Get a storage service for this storage system
+                final var host = entry.getKey();
+                return storageSystem.apply(entry.getValue().iterator().next())
+                    .onFailure().recoverWithItem(e -> {
+                        log.debugf("Cannot check destination %s (%s)", host, e.getMessage());
+                        return null;
+                    })
+                    .map(ss -> null != ss ? Tuple2.of(entry, ss) : null);
+            })
+            .onItem().transformToMultiAndConcatenate(hostSs -> {
+                final var host = hostSs.getItem1().getKey();
+                final var ss = hostSs.getItem2();
+                return Multi.createFrom().iterable(hostSs.getItem1().getValue())
+                    .map(folder -> Tuple2.of(host, Tuple2.of(folder, ss)));
+            })
+            .onItem().transformToUni(folder -> {
+                final var host = folder.getItem1();
+                final var folderUri = folder.getItem2().getItem1();
+                final var ss = folder.getItem2().getItem2();
+                return ensure(ss, tsAuth, storageAuth, host, credentials, folderUri, create)
+                    .ifNoItem()
+                        .after(Duration.ofMillis(config.timeout()))
+                        .recoverWithItem(Outcome.unknown)
+                    .map(outcome -> Tuple2.of(folderUri, outcome));
+            })
+            .merge(Math.max(1, config.concurrency()))
+            .select().where(checked -> Outcome.missing == checked.getItem2() || Outcome.noAccess == checked.getItem2())
+            .toUni()
+            .chain(failed -> {
+                if(null == failed) {
+                    log.infof("Checked %d destination folders", folders.values().stream().mapToInt(Set::size).sum());
+                    return Uni.createFrom().voidItem();
+                }
+
+                // Fail fast, the transfer would fail anyway
+                final var folderUri = failed.getItem1();
+                MDC.put("destFolder", folderUri);
+                if(Outcome.noAccess == failed.getItem2())
+                    return Uni.createFrom().failure(new TransferServiceException("destNoAccess",
+                            Status.FORBIDDEN.getStatusCode(),
+                            Arrays.asList(Tuple2.of("folder", folderUri),
+                                          Tuple2.of("reason", "Credentials not accepted by destination"))));
+
+                return Uni.createFrom().failure(new TransferServiceException("destFolderNotFound",
+                        Arrays.asList(Tuple2.of("folder", folderUri),
+                                      Tuple2.of("reason", create ? "Cannot create destination folder" :
+                                                                   "Destination folder does not exist"))));
+            });
+    }
+
+    /***
+     * Make sure a destination folder exists, creating it (and its missing parents) if asked
+     * @param ss is the storage service for the storage system of the folder
+     * @param tsAuth is the access token for the storage service
+     * @param storageAuth are the credentials for the storage system
+     * @param host is the storage system of the folder
+     * @param credentials is the hash of the credentials
+     * @param folderUri is the folder, ending in a slash
+     * @param create is whether to create the folder if missing
+     * @return Outcome of the check, never fails
+     */
+    private Uni<Outcome> ensure(StorageService ss, String tsAuth, String storageAuth,
+                                String host, String credentials, String folderUri, boolean create) {
+        return exists(ss, tsAuth, storageAuth, host, credentials, folderUri)
+            .chain(outcome -> {
+                if(Outcome.missing != outcome || !create)
+                    return Uni.createFrom().item(outcome);
+
+                // Create the parent first, if it is also missing
+                var parent = parentOf(folderUri.substring(0, folderUri.length() - 1));
+                var base = ss.getServiceBaseUrl();
+                Uni<Outcome> parentOutcome = (parent.length() <= hostRoot(folderUri).length() ||
+                                              (null != base && !parent.startsWith(base))) ?
+                                             Uni.createFrom().item(Outcome.ok) :
+                                             ensure(ss, tsAuth, storageAuth, host, credentials, parent, true);
+
+                return parentOutcome.chain(parentExists -> {
+                    if(Outcome.ok != parentExists && Outcome.unknown != parentExists)
+                        return Uni.createFrom().item(parentExists);
+
+                    log.infof("Creating destination folder %s", folderUri);
+                    final var key = key(folderUri, credentials);
+                    return ss.createFolder(tsAuth, storageAuth, folderUri)
+                        .map(unused -> remember(key, Outcome.ok))
+                        .onFailure().recoverWithUni(e -> {
+                            // Maybe created meanwhile for another file, check again
+                            this.outcomes.remove(key);
+                            return exists(ss, tsAuth, storageAuth, host, credentials, folderUri)
+                                .map(recheck -> {
+                                    if(Outcome.missing != recheck)
+                                        return recheck;
+
+                                    log.warnf("Cannot create destination folder %s (%s)", folderUri, e.getMessage());
+                                    return Outcome.noAccess == classify(e) ? Outcome.noAccess : Outcome.missing;
+                                });
+                        });
+                });
+            });
+    }
+
+    /***
+     * Check if a destination folder exists and can be accessed
+     * @param ss is the storage service for the storage system of the folder
+     * @param tsAuth is the access token for the storage service
+     * @param storageAuth are the credentials for the storage system
+     * @param host is the storage system of the folder
+     * @param credentials is the hash of the credentials
+     * @param folderUri is the folder, ending in a slash
+     * @return Outcome of the check, never fails
+     */
+    private Uni<Outcome> exists(StorageService ss, String tsAuth, String storageAuth,
+                                String host, String credentials, String folderUri) {
+        // Credentials rejected by this storage system are rejected for all its folders
+        if(Outcome.noAccess == this.outcomes.get(key(host, credentials)))
+            return Uni.createFrom().item(Outcome.noAccess);
+
+        final var key = key(folderUri, credentials);
+        var cached = this.outcomes.get(key);
+        if(null != cached)
+            return Uni.createFrom().item(cached);
+
+        return ss.listFolderContent(tsAuth, storageAuth, folderUri, 1, null)
+            .map(unused -> Outcome.ok)
+            .onFailure().recoverWithItem(e -> {
+                var outcome = classify(e);
+                log.debugf("Destination folder %s is %s (%s)", folderUri, outcome, e.getMessage());
+                return outcome;
+            })
+            .map(outcome -> {
+                if(Outcome.noAccess == outcome)
+                    remember(key(host, credentials), outcome);
+
+                return remember(key, outcome);
+            });
+    }
+
+    /***
+     * Tell what a failure from a storage system means for a folder
+     * @param e is the failure
+     * @return Outcome, unknown if the failure says nothing definite
+     */
+    private static Outcome classify(Throwable e) {
+        var ae = new ActionError(e);
+        var status = ae.getStatus();
+        if(Status.NOT_FOUND == status || "notFound".equals(ae.id))
+            return Outcome.missing;
+        if(Status.UNAUTHORIZED == status || Status.FORBIDDEN == status ||
+           "notAuthorized".equals(ae.id) || "noAccess".equals(ae.id))
+            return Outcome.noAccess;
+
+        // Storage systems that report errors as messages (e.g. S3)
+        var message = null != e.getMessage() ? e.getMessage() : "";
+        if(message.contains("NoSuchBucket") || message.contains("NoSuchKey") || message.contains("Not Found"))
+            return Outcome.missing;
+        if(message.contains("AccessDenied") || message.contains("InvalidAccessKeyId") ||
+           message.contains("SignatureDoesNotMatch") || message.contains("Forbidden") ||
+           message.contains("Unauthorized"))
+            return Outcome.noAccess;
+
+        return Outcome.unknown;
+    }
+
+    /***
+     * Remember the outcome of a check. Missing folders are not remembered,
+     * as they are likely to be created right after a transfer fails.
+     * @param key is the key of the check
+     * @param outcome is the outcome
+     * @return The outcome
+     */
+    private Outcome remember(String key, Outcome outcome) {
+        if(Outcome.ok == outcome || Outcome.noAccess == outcome)
+            this.outcomes.put(key, outcome);
+
+        return outcome;
+    }
+
+    /***
+     * Build the cache key of a check
+     * @param target is the folder or storage system
+     * @param credentials is the hash of the credentials
+     * @return Cache key
+     */
+    private static String key(String target, String credentials) {
+        return target + "|" + credentials;
+    }
+
+    /***
+     * Get the storage system of a destination
+     * @param seUri is the URI of the destination
+     * @return Lowercase hostname, null if not a valid URI
+     */
+    private static String hostOf(String seUri) {
+        try {
+            var host = new URI(seUri).getHost();
+            return null != host ? host.toLowerCase() : null;
+        }
+        catch(URISyntaxException | NullPointerException e) {
+            return null;
+        }
+    }
+
+    /***
+     * Get the root of the storage system of a storage element
+     * @param seUri is the URI of the storage element
+     * @return URI up to and including the slash after the authority
+     */
+    private static String hostRoot(String seUri) {
+        var scheme = seUri.indexOf("://");
+        var slash = seUri.indexOf('/', scheme >= 0 ? scheme + 3 : 0);
+        return slash >= 0 ? seUri.substring(0, slash + 1) : seUri + "/";
+    }
+
+    /***
+     * Get the folder of a destination
+     * @param seUri is the URI of a file, or of a folder when ending in a slash
+     * @return URI of the folder, ending in a slash
+     */
+    private static String parentOf(String seUri) {
+        if(seUri.endsWith("/"))
+            return seUri;
+
+        return seUri.substring(0, seUri.lastIndexOf('/') + 1);
+    }
+}
@@ -0,0 +1,382 @@
+package eosc.eu;
+
+import org.jboss.logging.Logger;
+import io.smallrye.mutiny.Uni;
+
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.CRC32;
+
+
+/***
+ * Job store that keeps the jobs in memory and records every change in an append-only,
+ * memory-mapped log file. On startup the log is replayed to rebuild the jobs, stopping at the
+ * first torn or corrupted record (e.g. after a crash), then compacted into a fresh file.
+ * When the log fills up it is compacted as well, growing it if the live jobs do not fit.
+ *
+ * Each record is [length:int][crc32:int][type:byte][body], a zero length marks the end of the log.
+ * Changes are appended and applied under the same lock, so compaction never misses one;
+ * reading jobs stays lock-free. Changes run on a single writer thread, as appending can
+ * sync or compact the log, which must not block the event loop.
+ */
+public class FileJobStore extends MemoryJobStore {
+
+    private static final Logger log = Logger.getLogger(FileJobStore.class);
+
+    private static final byte RECORD_ADD = 1;
+    private static final byte RECORD_REMOVE = 2;
+    private static final byte RECORD_RETRY = 3;
+    private static final byte RECORD_DEAD = 4;
+    private static final byte RECORD_UNDEAD = 5;
+
+    private static final int RECORD_HEADER = 8;
+
+    private final Path path;
+    private final boolean sync;
+    private long capacity;
+    private MappedByteBuffer journal;
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(runnable -> {
+        var thread = new Thread(runnable, "job-store-writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+
+    /***
+     * Construct and recover the jobs from the log file
+     * @param config is the accounting configuration
+     * @throws IOException if the log file cannot be read or created
+     */
+    public FileJobStore(ServiceConfig.AccountingConfig config) throws IOException {
+        super(config);
+
+        this.path = Paths.get(config.jobStoreFile());
+        this.sync = config.jobStoreSync();
+        this.capacity = Math.max(1, config.jobStoreFileSize()) * 1024L * 1024L;
+
+        if(Files.exists(this.path))
+            recover();
+
+        // Start from a clean log that only holds the live jobs
+        compact(0);
+    }
+
+    /***
+     * Replay the log file to rebuild the jobs and dead letters
+     * @throws IOException if the log file cannot be read
+     */
+    private void recover() throws IOException {
+        int records = 0;
+        try(var channel = FileChannel.open(this.path, StandardOpenOption.READ)) {
+            var size = channel.size();
+            this.capacity = Math.max(this.capacity, size);
+            var buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+
+            while(buffer.remaining() >= RECORD_HEADER) {
+                var position = buffer.position();
+                var length = buffer.getInt();
+                if(0 == length)
+                    // End of log
+                    break;
+
+                var crc = buffer.getInt();
+                if(length < 0 || length > buffer.remaining()) {
+                    log.warnf("Job store log %s is truncated at %d, dropping the rest", this.path, position);
+                    break;
+                }
+
+                var record = new byte[length];
+                buffer.get(record);
+                if(crc != checksum(record)) {
+                    log.warnf("Job store log %s is corrupted at %d, dropping the rest", this.path, position);
+                    break;
+                }
+
+                apply(record);
+                records++;
+            }
+        }
+
+        log.infof("Recovered %d job(s) and %d dead letter(s) from %d record(s) in %s",
+                  this.jobs.size(), this.deadLetters.size(), records, this.path);
+    }
+
+    /***
+     * Apply a record from the log to the in-memory state
+     * @param record is the record to apply
+     * @throws IOException if the record is malformed
+     */
+    private void apply(byte[] record) throws IOException {
+        var in = new DataInputStream(new ByteArrayInputStream(record));
+        var type = in.readByte();
+        var id = in.readUTF();
+        seenId(id);
+
+        switch(type) {
+            case RECORD_ADD:
+                super.putJob(id, readMap(in));
+                break;
+            case RECORD_REMOVE:
+                super.removeJob(id);
+                break;
+            case RECORD_RETRY:
+                super.retryJob(id, in.readInt(), in.readLong());
+                break;
+            case RECORD_DEAD:
+                super.putDeadLetter(id, readMap(in));
+                break;
+            case RECORD_UNDEAD:
+                super.deleteDeadLetter(id);
+                break;
+            default:
+                log.warnf("Unknown record type %d in job store log", type);
+                break;
+        }
+    }
+
+    /***
+     * Write all live jobs and dead letters into a new log file, then replace the current one.
+     * The new log is at least twice as large as the live data, so that appending can continue.
+     * @param extra is the size of a record that must fit after compaction
+     * @throws IOException if the new log cannot be written
+     */
+    private synchronized void compact(int extra) throws IOException {
+        var snapshot = new ByteArrayOutputStream();
+        for(var entry : this.jobs.values()) {
+            writeRecord(snapshot, encode(RECORD_ADD, entry.id, entry.payload));
+            if(entry.attempts > 0)
+                writeRecord(snapshot, encodeRetry(entry.id, entry.attempts, entry.notBefore));
+        }
+        for(var entry : this.deadLetters.values())
+            writeRecord(snapshot, encode(RECORD_DEAD, entry.id, entry.payload));
+
+        var data = snapshot.toByteArray();
+        this.capacity = Math.max(this.capacity, 2L * (data.length + extra + RECORD_HEADER));
+
+        var parent = this.path.toAbsolutePath().getParent();
+        if(null != parent)
+            Files.createDirectories(parent);
+
+        var temp = this.path.resolveSibling(this.path.getFileName() + ".tmp");
+        try(var file = new RandomAccessFile(temp.toFile(), "rw")) {
+            file.setLength(0);
+            file.setLength(this.capacity);
+            file.write(data);
+            file.getFD().sync();
+        }
+
+        Files.move(temp, this.path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        try(var channel = FileChannel.open(this.path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            this.journal = channel.map(FileChannel.MapMode.READ_WRITE, 0, this.capacity);
+            this.journal.position(data.length);
+        }
+    }
+
+    /***
+     * Append a record to the log, compacting it first if it is full
+     * @param record is the encoded record
+     */
+    private synchronized void append(byte[] record) {
+        try {
+            if(this.journal.remaining() < RECORD_HEADER + record.length + 4)
+                compact(record.length);
+
+            this.journal.putInt(record.length);
+            this.journal.putInt(checksum(record));
+            this.journal.put(record);
+            if(this.sync)
+                this.journal.force();
+        }
+        catch(IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    protected synchronized void putJob(String id, Map<String, String> payload) {
+        append(encode(RECORD_ADD, id, payload));
+        super.putJob(id, payload);
+    }
+
+    @Override
+    protected synchronized boolean removeJob(String id) {
+        if(!this.jobs.containsKey(id))
+            return false;
+
+        append(encode(RECORD_REMOVE, id, null));
+        return super.removeJob(id);
+    }
+
+    @Override
+    protected synchronized void retryJob(String id, int attempts, long notBefore) {
+        append(encodeRetry(id, attempts, notBefore));
+        super.retryJob(id, attempts, notBefore);
+    }
+
+    @Override
+    protected synchronized void putDeadLetter(String id, Map<String, String> payload) {
+        append(encode(RECORD_DEAD, id, payload));
+        super.putDeadLetter(id, payload);
+    }
+
+    @Override
+    protected synchronized boolean deleteDeadLetter(String id) {
+        try {
+            if(!this.deadLetters.containsKey(id))
+                return false;
+        }
+        catch(NumberFormatException e) {
+            // Malformed ID, no such dead letter
+            return false;
+        }
+
+        append(encode(RECORD_UNDEAD, id, null));
+        return super.deleteDeadLetter(id);
+    }
+
+    @Override
+    public Uni<String> add(Map<String, String> job) {
+        return super.add(job).runSubscriptionOn(this.writer);
+    }
+
+    @Override
+    public Uni<Integer> remove(List<JobMessage> jobs) {
+        return super.remove(jobs).runSubscriptionOn(this.writer);
+    }
+
+    @Override
+    public Uni<Void> retry(JobMessage job) {
+        return super.retry(job).runSubscriptionOn(this.writer);
+    }
+
+    @Override
+    public Uni<String> addDeadLetter(Map<String, String> payload) {
+        return super.addDeadLetter(payload).runSubscriptionOn(this.writer);
+    }
+
+    @Override
+    public Uni<Boolean> removeDeadLetter(String id) {
+        return super.removeDeadLetter(id).runSubscriptionOn(this.writer);
+    }
+
+    @Override
+    public Uni<Void> start(String consumer) {
+        this.consumer = consumer;
+        log.infof("Using job store file %s with %d job(s)", this.path, this.jobs.size());
+        return Uni.createFrom().voidItem();
+    }
+
+    @Override
+    public Uni<Long> stop() {
+        return Uni.createFrom().voidItem()
+            .invoke(() -> {
+                synchronized(this) {
+                    this.journal.force();
+                }
+            })
+            .runSubscriptionOn(this.writer)
+            .chain(unused -> super.stop())
+            .eventually(this.writer::shutdown);
+    }
+
+    /***
+     * Encode a record that carries an optional payload
+     * @param type is the record type
+     * @param id is the message ID
+     * @param payload is the payload, null for none
+     * @return Encoded record
+     */
+    private static byte[] encode(byte type, String id, Map<String, String> payload) {
+        try {
+            var bytes = new ByteArrayOutputStream();
+            var out = new DataOutputStream(bytes);
+            out.writeByte(type);
+            out.writeUTF(id);
+            if(null != payload) {
+                out.writeInt(payload.size());
+                for(var field : payload.entrySet()) {
+                    out.writeUTF(field.getKey());
+                    out.writeUTF(null != field.getValue() ? field.getValue() : "");
+                }
+            }
+            out.flush();
+            return bytes.toByteArray();
+        }
+        catch(IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /***
+     * Encode a retry record
+     * @param id is the message ID
+     * @param attempts is the number of failed attempts
+     * @param notBefore is when to try again
+     * @return Encoded record
+     */
+    private static byte[] encodeRetry(String id, int attempts, long notBefore) {
+        try {
+            var bytes = new ByteArrayOutputStream();
+            var out = new DataOutputStream(bytes);
+            out.writeByte(RECORD_RETRY);
+            out.writeUTF(id);
+            out.writeInt(attempts);
+            out.writeLong(notBefore);
+            out.flush();
+            return bytes.toByteArray();
+        }
+        catch(IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /***
+     * Decode a payload
+     * @param in is the stream to read from
+     * @return Decoded payload
+     * @throws IOException if the payload is malformed
+     */
+    private static Map<String, String> readMap(DataInputStream in) throws IOException {
+        var count = in.readInt();
+        var payload = new HashMap<String, String>();
+        for(int i = 0; i < count; i++)
+            payload.put(in.readUTF(), in.readUTF());
+
+        return payload;
+    }
+
+    /***
+     * Write a record, with its header, to a snapshot
+     * @param out is the snapshot
+     * @param record is the encoded record
+     * @throws IOException if writing fails
+     */
+    private static void writeRecord(ByteArrayOutputStream out, byte[] record) throws IOException {
+        var data = new DataOutputStream(out);
+        data.writeInt(record.length);
+        data.writeInt(checksum(record));
+        data.write(record);
+        data.flush();
+    }
+
+    /***
+     * Compute the checksum of a record
+     * @param record is the encoded record
+     * @return CRC32 of the record
+     */
+    private static int checksum(byte[] record) {
+        var crc = new CRC32();
+        crc.update(record);
+        return (int)crc.getValue();
+    }
+}
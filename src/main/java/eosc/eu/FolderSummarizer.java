@@ -0,0 +1,160 @@
+package eosc.eu;
+
+import io.smallrye.mutiny.Multi;
+import io.smallrye.mutiny.Uni;
+import org.jboss.logging.Logger;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import eosc.eu.model.FolderSummary;
+
+
+/***
+ * Computes totals for folder trees, by listing the folders of each level in parallel.
+ * Results are cached for a short while, per folder and credentials.
+ */
+@ApplicationScoped
+public class FolderSummarizer {
+
+    private static final Logger log = Logger.getLogger(FolderSummarizer.class);
+
+    @Inject
+    ServiceConfig service;
+
+    private TtlCache<String, Uni<FolderSummary>> cache;
+
+
+    /***
+     * Constructor
+     */
+    public FolderSummarizer() {}
+
+    /***
+     * Create the cache after instance creation
+     */
+    @PostConstruct
+    void init() {
+        var config = service.storage();
+        this.cache = new TtlCache<>(config.summaryCacheTtl() * 1000L, config.summaryCacheSize());
+    }
+
+    /***
+     * Get the deepest level that can be requested
+     * @return Maximum depth
+     */
+    public int maxDepth() {
+        return service.storage().summaryMaxDepth();
+    }
+
+    /***
+     * Summarize a folder tree
+     * @param ss is the storage service that handles the folder
+     * @param tsAuth is the access token for the storage service
+     * @param storageAuth are the credentials for the storage system
+     * @param folderUri is the folder to summarize
+     * @param maxDepth is the deepest level to traverse, 0 only lists the folder itself
+     * @param withListing whether to also return a flat listing of the tree
+     * @return Summary of the folder tree
+     */
+    public Uni<FolderSummary> summarize(StorageService ss, String tsAuth, String storageAuth,
+                                        String folderUri, int maxDepth, boolean withListing) {
+
+        final var key = String.format("%s|%d|%b|%s", folderUri, maxDepth, withListing,
+                                      Utils.hashCredentials(tsAuth, storageAuth));
+
+        // Concurrent requests for the same tree share one traversal
+        final var summary = this.cache.computeIfAbsent(key, k ->
+                traverse(ss, tsAuth, storageAuth, folderUri, maxDepth, withListing)
+                    .memoize().indefinitely());
+
+        return summary
+            .onFailure().invoke(e -> {
+                // Do not cache failures
+                this.cache.remove(key, summary);
+            });
+    }
+
+    /***
+     * Traverse a folder tree, level by level
+     * @param ss is the storage service that handles the folder
+     * @param tsAuth is the access token for the storage service
+     * @param storageAuth are the credentials for the storage system
+     * @param folderUri is the folder to summarize
+     * @param maxDepth is the deepest level to traverse
+     * @param withListing whether to also return a flat listing of the tree
+     * @return Summary of the folder tree
+     */
+    private Uni<FolderSummary> traverse(StorageService ss, String tsAuth, String storageAuth,
+                                        String folderUri, int maxDepth, boolean withListing) {
+        var summary = new FolderSummary(folderUri, withListing);
+        return traverseLevel(ss, tsAuth, storageAuth, summary, List.of(folderUri), 0, maxDepth)
+            .invoke(s -> {
+                log.debugf("Summarized %d files in %d folders, %d levels deep",
+                           s.fileCount, s.folderCount, s.depth + 1);
+            });
+    }
+
+    /***
+     * List all folders of one level of the tree in parallel, then continue with their sub-folders.
+     * Elements are accumulated as they are listed, they are never all held in memory
+     * (unless a flat listing was requested).
+     * @param ss is the storage service that handles the folder
+     * @param tsAuth is the access token for the storage service
+     * @param storageAuth are the credentials for the storage system
+     * @param summary accumulates the totals
+     * @param folders are the folders on this level
+     * @param depth is the current level
+     * @param maxDepth is the deepest level to traverse
+     * @return Summary of the folder tree
+     */
+    private Uni<FolderSummary> traverseLevel(StorageService ss, String tsAuth, String storageAuth,
+                                             FolderSummary summary, List<String> folders,
+                                             int depth, int maxDepth) {
+
+        final var concurrency = Math.max(1, service.storage().summaryConcurrency());
+        final var maxElements = service.storage().summaryMaxElements();
+
+        return Multi.createFrom().iterable(folders)
+            .onItem().transformToMulti(folderUri -> ss.streamFolderContent(tsAuth, storageAuth, folderUri))
+            .merge(concurrency)
+            .collect().in(ArrayList<String>::new, (subFolders, element) -> {
+                // Items are delivered serially, no need to synchronize
+                if(element.isFolder) {
+                    summary.folderCount++;
+                    if(null != element.accessUrl)
+                        subFolders.add(element.accessUrl);
+                }
+                else {
+                    summary.fileCount++;
+                    summary.totalSize += element.size;
+                }
+
+                if(null != summary.elements) {
+                    if(summary.elements.size() < maxElements)
+                        summary.elements.add(element);
+                    else
+                        summary.listingTruncated = true;
+                }
+            })
+            .chain(subFolders -> {
+                summary.depth = depth;
+                if(subFolders.isEmpty())
+                    // Reached the bottom of the tree
+                    return Uni.createFrom().item(summary);
+
+                if(depth >= maxDepth) {
+                    // There is more, but we should not go deeper
+                    summary.truncated = true;
+                    return Uni.createFrom().item(summary);
+                }
+
+                // Continue with the next level
+                return traverseLevel(ss, tsAuth, storageAuth, summary, subFolders, depth + 1, maxDepth);
+            });
+    }
+}
@@ -0,0 +1,34 @@
+package eosc.eu;
+
+import java.util.Map;
+
+
+/***
+ * A transfer job recorded in a job store
+ */
+public class JobMessage {
+
+    public String id;
+    public String stream; // Job stream (shard) holding the message, if the store has any
+    public Map<String, String> payload;
+    public int attempts;  // Failed attempts to account for this job
+    public long notBefore; // When to try again [milliseconds since epoch]
+
+
+    /***
+     * Constructor
+     */
+    public JobMessage(String id, Map<String, String> payload) {
+        this.id = id;
+        this.payload = payload;
+    }
+
+    /***
+     * Construct with stream
+     */
+    public JobMessage(String id, String stream, Map<String, String> payload) {
+        this.id = id;
+        this.stream = stream;
+        this.payload = payload;
+    }
+}
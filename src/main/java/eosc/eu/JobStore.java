@@ -0,0 +1,96 @@
+package eosc.eu;
+
+import io.smallrye.mutiny.Uni;
+
+import java.util.List;
+import java.util.Map;
+
+
+/***
+ * Store for the transfer jobs that still have to be accounted for.
+ * Jobs are added when a transfer is started and removed once the accounting collector
+ * sent a usage record for them. Jobs that cannot be accounted for end up in a dead-letter list.
+ */
+public interface JobStore {
+
+    String FIELD_DESTINATION = "dest";
+    String FIELD_JOB_ID = "jobId";
+    String FIELD_USER_ID = "userId";
+
+    /***
+     * Prepare the store for consuming jobs, called once by the accounting collector
+     * @param consumer is the unique name of this instance
+     * @return Completion
+     */
+    Uni<Void> start(String consumer);
+
+    /***
+     * Stop consuming jobs
+     * @return Number of jobs delivered to this instance that were not yet removed
+     */
+    Uni<Long> stop();
+
+    /***
+     * Record a transfer job
+     * @param job is the job payload
+     * @return ID of the new job message
+     */
+    Uni<String> add(Map<String, String> job);
+
+    /***
+     * Get the next jobs to check. These are new jobs, and jobs that were delivered before
+     * but were not removed for a while (e.g. transfer still running, or accounting failed).
+     * Waits a while for new jobs if there are none.
+     * @param count is the maximum number of jobs to return
+     * @return Jobs to check, may be empty
+     */
+    Uni<List<JobMessage>> next(int count);
+
+    /***
+     * Remove jobs that are done with
+     * @param jobs are the jobs to remove
+     * @return Number of jobs removed
+     */
+    Uni<Integer> remove(List<JobMessage> jobs);
+
+    /***
+     * Remember a failed attempt to account for a job (the attempts and notBefore of the job)
+     * @param job is the job that failed
+     * @return Completion
+     */
+    Uni<Void> retry(JobMessage job);
+
+    /***
+     * Add an entry to the dead-letter list
+     * @param payload is the dead letter payload
+     * @return ID of the dead letter
+     */
+    Uni<String> addDeadLetter(Map<String, String> payload);
+
+    /***
+     * List the dead letters
+     * @param limit is the maximum number of dead letters to return
+     * @return Dead letters, oldest first
+     */
+    Uni<List<JobMessage>> deadLetters(int limit);
+
+    /***
+     * Get a dead letter
+     * @param id is the ID of the dead letter
+     * @return The dead letter, null if not found
+     */
+    Uni<JobMessage> deadLetter(String id);
+
+    /***
+     * Remove a dead letter
+     * @param id is the ID of the dead letter
+     * @return True if the dead letter was removed
+     */
+    Uni<Boolean> removeDeadLetter(String id);
+
+    /***
+     * Get backlog statistics
+     * @return Statistics about the jobs in the store
+     */
+    Uni<JobStoreStats> stats();
+}
@@ -0,0 +1,64 @@
+package eosc.eu;
+
+import org.jboss.logging.Logger;
+import io.quarkus.redis.datasource.ReactiveRedisDataSource;
+
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.inject.Instance;
+import jakarta.enterprise.inject.Produces;
+import jakarta.inject.Inject;
+
+import java.io.IOException;
+
+
+/***
+ * Creates the job store selected by the configuration setting "eosc.service.accounting.job-store"
+ */
+@ApplicationScoped
+public class JobStoreProducer {
+
+    private static final Logger log = Logger.getLogger(JobStoreProducer.class);
+
+    @Inject
+    ServiceConfig service;
+
+    @Inject
+    Instance<ReactiveRedisDataSource> redis;
+
+
+    /***
+     * Create the job store
+     * @return Job store to be injected
+     */
+    @Produces
+    @ApplicationScoped
+    public JobStore jobStore() {
+        var config = service.accounting();
+        var type = config.jobStore().toLowerCase();
+
+        switch(type) {
+            case "memory":
+                log.warn("Using in-memory job store, pending accounting is lost on restart");
+                return new MemoryJobStore(config);
+
+            case "file":
+                try {
+                    return new FileJobStore(config);
+                }
+                catch(IOException | RuntimeException e) {
+                    // Do not silently lose pending accounting on the next restart
+                    log.errorf("Cannot open job store file %s (%s)", config.jobStoreFile(), e.getMessage());
+                    throw new IllegalStateException("Cannot open job store file " + config.jobStoreFile(), e);
+                }
+
+            case "redis":
+                break;
+
+            default:
+                log.errorf("Unknown job store type %s, using redis", type);
+                break;
+        }
+
+        return new RedisJobStore(redis.get(), config);
+    }
+}
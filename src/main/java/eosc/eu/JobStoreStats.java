@@ -0,0 +1,28 @@
+package eosc.eu;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/***
+ * Backlog statistics of a job store
+ */
+public class JobStoreStats {
+
+    public long deadLetters;
+    public List<StreamStats> streams = new ArrayList<>();
+
+    /***
+     * Backlog statistics of one job stream
+     */
+    public static class StreamStats {
+        public String name;
+        public long length;
+        public long maxPendingIdle; // milliseconds since a pending message was last delivered
+        public Map<String, Long> pending = new HashMap<>(); // per consumer
+
+        public StreamStats(String name) { this.name = name; }
+    }
+}
@@ -0,0 +1,458 @@
+package eosc.eu;
+
+import io.quarkus.redis.datasource.ReactiveRedisDataSource;
+import io.quarkus.redis.datasource.hash.ReactiveHashCommands;
+import io.quarkus.redis.datasource.keys.ReactiveKeyCommands;
+import io.smallrye.mutiny.Multi;
+import io.smallrye.mutiny.Uni;
+import org.jboss.logging.Logger;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.inject.Instance;
+import jakarta.inject.Inject;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import eosc.eu.model.TransferEstimationInfo;
+import eosc.eu.model.TransferInfoExtended;
+import eosc.eu.model.TransferPayloadEstimation;
+import eosc.eu.model.TransferPayloadInfo.FileState;
+
+
+/***
+ * Keeps statistics about the throughput of finished transfers, per link (source and
+ * destination storage system), and uses them to predict the duration of new transfers.
+ * As the files of a job are transferred in parallel, the throughput of a link is measured
+ * over the whole job: bytes transferred divided by the time from the first file started
+ * until the last file finished.
+ *
+ * Throughputs are kept as histograms (two buckets per doubling) whose samples count less
+ * as they get older, halving every "half-life". To allow updates from any instance without
+ * locking, samples are stored with a weight that grows over time instead (forward decay),
+ * in Redis hashes per epoch of 32 half-lives, so the weights never grow too large.
+ */
+@ApplicationScoped
+public class LinkStatistics {
+
+    private static final Logger log = Logger.getLogger(LinkStatistics.class);
+
+    public static final String KEY_PREFIX = "transfers:links:";
+    public static final String ANY = "*";
+
+    private static final String FIELD_SAMPLES = "samples";
+    private static final String FIELD_BYTES = "bytes";
+    private static final String FIELD_SECONDS = "seconds";
+    private static final String FIELD_BUCKET = "b";
+
+    private static final int MIN_BUCKET = 20;   // 1 KiB/s
+    private static final int MAX_BUCKET = 80;   // 1 TiB/s
+    private static final int EPOCH_HALF_LIVES = 32;
+
+    /***
+     * Bytes transferred over one link by a job
+     */
+    private static class Sample {
+        long bytes = 0;
+        long startedAt = Long.MAX_VALUE;
+        long finishedAt = Long.MIN_VALUE;
+
+        /***
+         * Account for a transferred file
+         * @param size is the size of the file
+         * @param started is when the file started, in milliseconds
+         * @param finished is when the file finished, in milliseconds
+         */
+        void add(long size, long started, long finished) {
+            this.bytes += size;
+            this.startedAt = Math.min(this.startedAt, started);
+            this.finishedAt = Math.max(this.finishedAt, finished);
+        }
+
+        /***
+         * Get the duration of the transfers over the link
+         * @return Seconds, at least one as times are not more precise than that
+         */
+        double seconds() {
+            return Math.max(1.0, (this.finishedAt - this.startedAt) / 1000.0);
+        }
+    }
+
+    @Inject
+    ServiceConfig service;
+
+    @Inject
+    Instance<ReactiveRedisDataSource> redis;
+
+    private final Map<String, Map<String, Double>> memory = new ConcurrentHashMap<>();
+    private ReactiveHashCommands<String, String, String> store;
+    private ReactiveKeyCommands<String> keys;
+    private long halfLife;
+
+
+    /***
+     * Constructor
+     */
+    public LinkStatistics() {}
+
+    /***
+     * Connect to the statistics store after instance creation
+     */
+    @PostConstruct
+    void init() {
+        var config = service.statistics();
+        this.halfLife = Math.max(1, config.halfLife()) * 1000L;
+
+        var type = config.store().toLowerCase();
+        if(!"redis".equals(type)) {
+            if(!"memory".equals(type))
+                log.errorf("Unknown statistics store type %s, using memory", type);
+
+            log.warn("Using in-memory statistics store, only transfers seen by this instance are counted");
+            return;
+        }
+
+        var ds = redis.get();
+        this.store = ds.hash(String.class);
+        this.keys = ds.key(String.class);
+    }
+
+    /***
+     * Record the throughput of the links used by a finished transfer
+     * @param transferInfo is the finished transfer, with the details of all its files
+     * @return Completion, never fails
+     */
+    public Uni<Void> record(TransferInfoExtended transferInfo) {
+        if(null == transferInfo || null == transferInfo.payload || transferInfo.payload.isEmpty())
+            return Uni.createFrom().voidItem();
+
+        // Group the transferred files by link
+        var samples = new HashMap<String, Sample>();
+        for(var file : transferInfo.payload.get()) {
+            if(FileState.succeeded != file.fileState || null == file.size || file.size.isEmpty() ||
+               file.size.get() <= 0 || null == file.startedAt || null == file.finishedAt ||
+               file.finishedAt.before(file.startedAt))
+                continue;
+
+            samples.computeIfAbsent(link(storageSystem(file.sourceSE), storageSystem(file.destinationSE)),
+                                    link -> new Sample())
+                   .add(file.size.get(), file.startedAt.getTime(), file.finishedAt.getTime());
+        }
+
+        if(samples.isEmpty())
+            return Uni.createFrom().voidItem();
+
+        // Each link also counts for the source alone, and for all links
+        final var now = System.currentTimeMillis();
+        final var updates = new ArrayList<Map.Entry<String, Sample>>();
+        for(var entry : samples.entrySet())
+            for(var link : fallbacks(entry.getKey()))
+                updates.add(Map.entry(link, entry.getValue()));
+
+        return Multi.createFrom().iterable(updates)
+            .onItem().transformToUniAndConcatenate(update -> add(update.getKey(), update.getValue(), now))
+            .collect().last()
+            .invoke(() -> log.debugf("Recorded throughput of %d links of transfer %s",
+                                     samples.size(), transferInfo.jobId))
+            .replaceWithVoid()
+            .onFailure().recoverWithItem(e -> {
+                log.warnf("Cannot record throughput of transfer %s (%s)", transferInfo.jobId, e.getMessage());
+                return null;
+            });
+    }
+
+    /***
+     * Predict the duration of a transfer.
+     * Links are used in parallel, so the transfer takes as long as its slowest link.
+     * @param estimate is the estimation to add the duration to
+     * @param files are the files to transfer
+     * @return The estimation, without duration if there are no statistics yet, never fails
+     */
+    public Uni<TransferEstimationInfo> predict(TransferEstimationInfo estimate, List<TransferPayloadEstimation> files) {
+        // Group the bytes to transfer by link
+        final var bytes = new HashMap<String, Long>();
+        for(var file : files) {
+            if(null == file || file.size <= 0)
+                continue;
+
+            var source = (null != file.sources && !file.sources.isEmpty()) ?
+                         storageSystem(file.sources.get(0)) : ANY;
+            var destination = (null != file.destinations && !file.destinations.isEmpty()) ?
+                              storageSystem(file.destinations.get(0)) : ANY;
+            bytes.merge(link(source, destination), file.size, Long::sum);
+        }
+
+        if(bytes.isEmpty())
+            return Uni.createFrom().item(estimate);
+
+        // Links without enough statistics use the ones of their source, or of all links
+        final var candidates = new LinkedHashSet<String>();
+        for(var link : bytes.keySet())
+            candidates.addAll(fallbacks(link));
+
+        final var now = System.currentTimeMillis();
+        final var stats = new ConcurrentHashMap<String, Map<String, Double>>();
+        return Multi.createFrom().iterable(candidates)
+            .onItem().transformToUniAndMerge(link -> read(link, now).invoke(fields -> stats.put(link, fields)))
+            .collect().last()
+            .map(unused -> {
+                final var config = service.statistics();
+                final var confidence = Math.min(0.99, Math.max(0.01, config.confidence()));
+                double expected = 0, low = 0, high = 0;
+                for(var entry : bytes.entrySet()) {
+                    Map<String, Double> fields = null;
+                    for(var link : fallbacks(entry.getKey())) {
+                        var candidate = stats.get(link);
+                        if(null != candidate && candidate.getOrDefault(FIELD_SAMPLES, 0.0) >= config.minSamples()) {
+                            fields = candidate;
+                            break;
+                        }
+                    }
+
+                    if(null == fields)
+                        // No idea how fast this link is
+                        return estimate;
+
+                    var size = (double)entry.getValue();
+                    var throughput = fields.getOrDefault(FIELD_BYTES, 0.0) / fields.getOrDefault(FIELD_SECONDS, 1.0);
+                    expected = Math.max(expected, size / throughput);
+                    low = Math.max(low, size / quantile(fields, 1 - (1 - confidence) / 2));
+                    high = Math.max(high, size / quantile(fields, (1 - confidence) / 2));
+                }
+
+                estimate.duration = expected;
+                estimate.durationLow = Math.min(low, expected);
+                estimate.durationHigh = Math.max(high, expected);
+                estimate.durationConfidence = confidence;
+                return estimate;
+            })
+            .onFailure().recoverWithItem(e -> {
+                log.warnf("Cannot predict duration of transfer (%s)", e.getMessage());
+                return estimate;
+            });
+    }
+
+    /***
+     * Get the recent throughput of the transfers from a source storage system
+     * @param source is the URL of a file at the source
+     * @param destination is the URL of the destination
+     * @return Mean throughput in bytes/second, of the link or else of the source to anywhere,
+     *         null if there are not enough statistics, never fails
+     */
+    public Uni<Double> throughput(String source, String destination) {
+        final var from = storageSystem(source);
+        if(ANY.equals(from))
+            return Uni.createFrom().nullItem();
+
+        // The statistics of all links say nothing about this source
+        final var links = fallbacks(link(from, storageSystem(destination)));
+        links.remove(link(ANY, ANY));
+
+        final var now = System.currentTimeMillis();
+        final var minSamples = service.statistics().minSamples();
+        return Multi.createFrom().iterable(links)
+            .onItem().transformToUniAndConcatenate(link -> read(link, now))
+            .select().where(fields -> fields.getOrDefault(FIELD_SAMPLES, 0.0) >= minSamples &&
+                                      fields.getOrDefault(FIELD_SECONDS, 0.0) > 0)
+            .map(fields -> fields.getOrDefault(FIELD_BYTES, 0.0) / fields.get(FIELD_SECONDS))
+            .toUni();
+    }
+
+    /***
+     * Get the links whose statistics can be used for a link, most specific first
+     * @param link is the link
+     * @return The link, the link from the same source to anywhere, and all links
+     */
+    private static List<String> fallbacks(String link) {
+        var source = link.substring(0, link.indexOf('|'));
+        var links = new ArrayList<String>(3);
+        links.add(link);
+        if(!link.equals(link(source, ANY)))
+            links.add(link(source, ANY));
+        if(!source.equals(ANY))
+            links.add(link(ANY, ANY));
+
+        return links;
+    }
+
+    /***
+     * Add the throughput of a link to its statistics
+     * @param link is the link
+     * @param sample is what was transferred over the link
+     * @param now is the current time, in milliseconds
+     * @return Completion
+     */
+    private Uni<Void> add(String link, Sample sample, long now) {
+        final var epoch = now / epochLength();
+        final var weight = Math.pow(2, (double)(now - epoch * epochLength()) / this.halfLife);
+        final var throughput = sample.bytes / sample.seconds();
+
+        final var fields = new HashMap<String, Double>();
+        fields.put(FIELD_SAMPLES, weight);
+        fields.put(FIELD_BYTES, weight * sample.bytes);
+        fields.put(FIELD_SECONDS, weight * sample.seconds());
+        fields.put(FIELD_BUCKET + bucket(throughput), weight);
+
+        final var key = KEY_PREFIX + epoch + ":" + link;
+        if(null == this.store) {
+            // Forget epochs that no longer count
+            this.memory.keySet().removeIf(k -> k.startsWith(KEY_PREFIX) && epochOf(k) < epoch - 1);
+            var stored = this.memory.computeIfAbsent(key, k -> new ConcurrentHashMap<>());
+            fields.forEach((field, value) -> stored.merge(field, value, Double::sum));
+            return Uni.createFrom().voidItem();
+        }
+
+        return Multi.createFrom().iterable(fields.entrySet())
+            .onItem().transformToUniAndConcatenate(field ->
+                this.store.hincrbyfloat(key, field.getKey(), field.getValue()))
+            .collect().last()
+            .chain(unused -> this.keys.expire(key, Duration.ofMillis(2 * epochLength() + this.halfLife)))
+            .replaceWithVoid();
+    }
+
+    /***
+     * Read the statistics of a link, as of now
+     * @param link is the link
+     * @param now is the current time, in milliseconds
+     * @return Fields of the statistics, empty if none
+     */
+    private Uni<Map<String, Double>> read(String link, long now) {
+        final var epoch = now / epochLength();
+        final var result = new HashMap<String, Double>();
+
+        return Multi.createFrom().items(epoch - 1, epoch)
+            .onItem().transformToUniAndConcatenate(e -> {
+                final var key = KEY_PREFIX + e + ":" + link;
+                final var decay = Math.pow(2, -(double)(now - e * epochLength()) / this.halfLife);
+
+                Uni<Map<String, Double>> fields;
+                if(null == this.store)
+                    fields = Uni.createFrom().item(this.memory.getOrDefault(key, Map.of()));
+                else
+                    fields = this.store.hgetall(key).map(stored -> {
+                        var parsed = new HashMap<String, Double>();
+                        if(null != stored)
+                            stored.forEach((field, value) -> {
+                                try {
+                                    parsed.put(field, Double.parseDouble(value));
+                                }
+                                catch(NumberFormatException ex) {
+                                    log.debugf("Invalid statistic %s of %s", field, key);
+                                }
+                            });
+                        return parsed;
+                    });
+
+                return fields.invoke(stored ->
+                    stored.forEach((field, value) -> result.merge(field, value * decay, Double::sum)));
+            })
+            .collect().last()
+            .map(unused -> (Map<String, Double>)result)
+            .onFailure().recoverWithItem(e -> {
+                log.debugf("Cannot read statistics of link %s (%s)", link, e.getMessage());
+                return Map.of();
+            });
+    }
+
+    /***
+     * Get a throughput quantile from the histogram of a link
+     * @param fields are the statistics of the link
+     * @param q is the quantile, between 0 and 1
+     * @return Throughput in bytes per second, middle of the bucket the quantile falls in
+     */
+    private static double quantile(Map<String, Double> fields, double q) {
+        double total = 0;
+        for(int b = MIN_BUCKET; b <= MAX_BUCKET; b++)
+            total += fields.getOrDefault(FIELD_BUCKET + b, 0.0);
+
+        double seen = 0;
+        int bucket = MAX_BUCKET;
+        for(int b = MIN_BUCKET; b <= MAX_BUCKET; b++) {
+            seen += fields.getOrDefault(FIELD_BUCKET + b, 0.0);
+            if(seen >= q * total) {
+                bucket = b;
+                break;
+            }
+        }
+
+        return Math.pow(2, (bucket + 0.5) / 2);
+    }
+
+    /***
+     * Get the histogram bucket of a throughput
+     * @param throughput is in bytes per second
+     * @return Bucket, two per doubling of the throughput
+     */
+    private static int bucket(double throughput) {
+        var b = (int)Math.floor(2 * Math.log(Math.max(1, throughput)) / Math.log(2));
+        return Math.max(MIN_BUCKET, Math.min(MAX_BUCKET, b));
+    }
+
+    /***
+     * Get the length of an epoch, after which weights start from one again
+     * @return Milliseconds
+     */
+    private long epochLength() {
+        return EPOCH_HALF_LIVES * this.halfLife;
+    }
+
+    /***
+     * Get the epoch of a statistics key
+     * @param key is the key
+     * @return Epoch, -1 if the key is not a statistics key
+     */
+    private static long epochOf(String key) {
+        try {
+            var rest = key.substring(KEY_PREFIX.length());
+            return Long.parseLong(rest.substring(0, rest.indexOf(':')));
+        }
+        catch(NumberFormatException | IndexOutOfBoundsException e) {
+            return -1;
+        }
+    }
+
+    /***
+     * Build the name of a link
+     * @param source is the source storage system
+     * @param destination is the destination storage system
+     * @return Name of the link
+     */
+    private static String link(String source, String destination) {
+        return source + "|" + destination;
+    }
+
+    /***
+     * Get the storage system of a file
+     * @param seUri is the URL of the file
+     * @return Scheme and authority of the URL, in lowercase, ANY if not a valid URL
+     */
+    static String storageSystem(String seUri) {
+        if(null == seUri)
+            return ANY;
+
+        try {
+            var uri = new URI(seUri);
+            if(null == uri.getScheme() || null == uri.getRawAuthority())
+                return ANY;
+
+            // Drop credentials, if any were embedded
+            var authority = uri.getRawAuthority();
+            var at = authority.lastIndexOf('@');
+            if(at >= 0)
+                authority = authority.substring(at + 1);
+
+            return (uri.getScheme() + "://" + authority).toLowerCase();
+        }
+        catch(URISyntaxException e) {
+            return ANY;
+        }
+    }
+}
@@ -0,0 +1,608 @@
+package eosc.eu;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.quarkus.redis.datasource.ReactiveRedisDataSource;
+import io.quarkus.redis.datasource.hash.ReactiveHashCommands;
+import io.quarkus.redis.datasource.keys.ReactiveKeyCommands;
+import io.smallrye.mutiny.Multi;
+import io.smallrye.mutiny.Uni;
+import io.smallrye.mutiny.subscription.Cancellable;
+import io.smallrye.mutiny.tuples.Tuple2;
+import org.jboss.logging.Logger;
+import org.jboss.logging.MDC;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.inject.Instance;
+import jakarta.inject.Inject;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Response;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import eosc.eu.model.StorageOperation;
+import eosc.eu.model.Transfer;
+import eosc.eu.model.TransferInfo;
+import eosc.eu.model.TransferInfoExtended;
+import eosc.eu.model.TransferInfoExtended.TransferState;
+import eosc.eu.model.TransferPayload;
+import eosc.eu.model.TransferPayloadInfo;
+import eosc.eu.model.TransferPayloadInfo.FileDetails;
+import eosc.eu.model.TransferPayloadInfo.FileState;
+
+import static jakarta.ws.rs.core.HttpHeaders.CONTENT_TYPE;
+
+
+/***
+ * Runs transfers whose sources and destinations are all on the same storage system
+ * as server-side copies, without going through the transfer service.
+ * These jobs are described with the same TransferInfoExtended as the jobs of the transfer
+ * service, and their IDs are UUIDs as well. They run as storage operations, so they share
+ * the same bounded concurrency, and their details are published to the operation store,
+ * so any instance can answer queries about them, and the accounting collector can still
+ * find them after a restart.
+ *
+ * Server-side transfers are only available with the Redis operation store, with the "memory"
+ * one all transfers go through the transfer service. Transfers that ask for checksum
+ * verification also go through the transfer service, as copies are not verified.
+ */
+@ApplicationScoped
+public class LocalTransfers {
+
+    private static final Logger log = Logger.getLogger(LocalTransfers.class);
+
+    public static final String KEY_PREFIX = "transfers:local:";
+    public static final String FIELD_TRANSFER = "transfer";
+    public static final String FIELD_OWNER = "owner";
+    public static final String FIELD_CANCEL = "cancel";
+    public static final String ENGINE = "local";
+
+    /***
+     * A transfer job run by this instance
+     */
+    static class Job {
+        final TransferInfoExtended info;
+        final String owner;
+        final AtomicBoolean canceled = new AtomicBoolean(false);
+
+        Job(TransferInfoExtended info, String owner) {
+            this.info = info;
+            this.owner = owner;
+        }
+    }
+
+    @Inject
+    ServiceConfig service;
+
+    @Inject
+    StorageOperations operations;
+
+    @Inject
+    Instance<ReactiveRedisDataSource> redis;
+
+    @Inject
+    ObjectMapper mapper;
+
+    private final Map<String, Job> running = new ConcurrentHashMap<>();
+    private TtlCache<String, Job> finished;
+    private ReactiveHashCommands<String, String, String> store;
+    private ReactiveKeyCommands<String> keys;
+    private Cancellable publisher;
+
+
+    /***
+     * Constructor
+     */
+    public LocalTransfers() {}
+
+    /***
+     * Create the stores for transfer jobs after instance creation
+     */
+    @PostConstruct
+    void init() {
+        var config = service.storage();
+        // Finished jobs are kept until accounted for, which can take longer than for storage operations
+        this.finished = new TtlCache<>(config.localTransferTtl() * 1000L, config.localTransferCacheSize());
+
+        // Jobs are kept where storage operations are, only Redis survives restarts and is shared
+        if(!"redis".equals(config.operationStore().toLowerCase())) {
+            log.info("Server-side transfers need the redis operation store, disabled");
+            return;
+        }
+
+        var ds = redis.get();
+        this.store = ds.hash(String.class);
+        this.keys = ds.key(String.class);
+
+        // Periodically publish the running jobs, and pick up cancellations made through other instances
+        this.publisher = Multi.createFrom().ticks()
+            .every(Duration.ofSeconds(Math.max(1, config.operationSyncInterval())))
+            .onOverflow().drop()
+            .onItem().transformToUniAndConcatenate(tick ->
+                Multi.createFrom().iterable(this.running.values())
+                     .onItem().transformToUniAndConcatenate(job -> checkCanceled(job).chain(() -> publish(job)))
+                     .collect().last())
+            .subscribe().with(unused -> {}, e -> {
+                log.errorf("Stopped publishing local transfers (%s)", e.getMessage());
+            });
+    }
+
+    /***
+     * Stop publishing jobs
+     */
+    @PreDestroy
+    void stop() {
+        if(null != this.publisher)
+            this.publisher.cancel();
+    }
+
+    /***
+     * Check if a transfer can run as server-side copies
+     * @param transfer is the transfer to perform
+     * @return True if server-side transfers are available and the transfer needs nothing they lack
+     */
+    public boolean accepts(Transfer transfer) {
+        return null != this.store && null != transfer && (null == transfer.params || !transfer.params.verifyChecksum);
+    }
+
+    /***
+     * Start a transfer as server-side copies, it runs until done even if nobody waits for it
+     * @param owner is the ID of the user who started the transfer
+     * @param transfer is the transfer to perform
+     * @param ss is the storage system all the sources and destinations are on
+     * @param tsAuth is the access token for the storage system
+     * @param storageAuth are the credentials for the storage system
+     * @return Identification for the new transfer
+     * @throws TransferServiceException if the transfer cannot run server-side,
+     *                                  or if too many storage operations are queued
+     */
+    public TransferInfo start(String owner, Transfer transfer, StorageService ss, String tsAuth, String storageAuth) {
+        if(!accepts(transfer))
+            throw new TransferServiceException("localTransferNotSupported",
+                                               "Transfer cannot be performed server-side");
+
+        final var operation = new StorageOperation("transfer", ss.getServiceBaseUrl(), owner);
+        operation.total = transfer.files.size();
+
+        final var job = new Job(newTransferInfo(operation.id, owner, transfer, ss), owner);
+        this.running.put(operation.id, job);
+
+        try {
+            this.operations.start(operation, op -> run(job, transfer, ss, tsAuth, storageAuth, op));
+        }
+        catch(TransferServiceException e) {
+            this.running.remove(operation.id);
+            throw e;
+        }
+
+        publish(job).subscribe().with(unused -> {});
+        return new TransferInfo(operation.id);
+    }
+
+    /***
+     * Describe a new transfer job
+     * @param jobId is the ID of the job
+     * @param owner is the ID of the user who started the transfer
+     * @param transfer is the transfer to perform
+     * @param ss is the storage system the transfer is on
+     * @return Details of the job, with one payload entry for each file to transfer
+     */
+    private TransferInfoExtended newTransferInfo(String jobId, String owner, Transfer transfer, StorageService ss) {
+        var params = transfer.params;
+        var info = new TransferInfoExtended();
+        info.jobId = jobId;
+        info.jobState = TransferState.submitted;
+        info.jobMetadata = new HashMap<>();
+        if(null != params && null != params.metadata)
+            info.jobMetadata.putAll(params.metadata);
+        info.jobMetadata.put("engine", ENGINE);
+        info.sourceSS = ss.getServiceBaseUrl();
+        info.destinationSS = ss.getServiceBaseUrl();
+        info.verifyChecksum = null != params && params.verifyChecksum;
+        info.overwrite = Optional.of(null != params && params.overwrite);
+        info.priority = null != params ? Optional.of(params.priority) : Optional.empty();
+        info.retry = null != params ? Optional.of(params.retry) : Optional.empty();
+        info.cancel = Optional.of(false);
+        info.submittedAt = new Date();
+        info.submittedTo = service.instance().orElse(null);
+        info.userId = owner;
+
+        var files = new ArrayList<TransferPayloadInfo>(transfer.files.size());
+        for(var payload : transfer.files) {
+            var file = new TransferPayloadInfo();
+            file.fileState = FileState.submitted;
+            file.sourceSE = payload.sources.get(0);
+            file.destinationSE = payload.destinations.get(0);
+            file.checksum = payload.checksum;
+            files.add(file);
+        }
+
+        info.payload = Optional.of(files);
+        return info;
+    }
+
+    /***
+     * Copy all the files of a transfer
+     * @param job is the job to run
+     * @param transfer is the transfer to perform
+     * @param ss is the storage system to copy on
+     * @param tsAuth is the access token for the storage system
+     * @param storageAuth are the credentials for the storage system
+     * @param operation records the number of copied files
+     * @return Result message
+     */
+    private Uni<String> run(Job job, Transfer transfer, StorageService ss, String tsAuth, String storageAuth,
+                            StorageOperation operation) {
+
+        MDC.put("jobId", job.info.jobId);
+        log.info("Starting server-side transfer");
+
+        synchronized(job) {
+            job.info.jobState = TransferState.active;
+        }
+        publish(job).subscribe().with(unused -> {});
+
+        final var files = job.info.payload.get();
+        final var overwrite = null != transfer.params && transfer.params.overwrite;
+        return Multi.createFrom().range(0, files.size())
+            .onItem().transformToUni(i -> copyFile(job, transfer.files.get(i), files.get(i), overwrite,
+                                                   ss, tsAuth, storageAuth, operation))
+            .merge(Math.max(1, service.storage().localTransferConcurrency()))
+            .collect().last()
+            .onFailure().recoverWithNull()
+            .map(unused -> finish(job));
+    }
+
+    /***
+     * Copy one file, trying each source and destination until one copy succeeds
+     * @param job is the job the file belongs to
+     * @param payload is the file to copy
+     * @param file records the outcome
+     * @param overwrite is true to replace existing destination files
+     * @param ss is the storage system to copy on
+     * @param tsAuth is the access token for the storage system
+     * @param storageAuth are the credentials for the storage system
+     * @param operation records the number of copied files
+     * @return Completion, never fails
+     */
+    private Uni<Void> copyFile(Job job, TransferPayload payload, TransferPayloadInfo file, boolean overwrite,
+                               StorageService ss, String tsAuth, String storageAuth, StorageOperation operation) {
+
+        var attempts = new ArrayList<Tuple2<String, String>>();
+        for(var destination : payload.destinations)
+            for(var source : payload.sources)
+                attempts.add(Tuple2.of(source, destination));
+
+        synchronized(job) {
+            file.fileState = FileState.active;
+            file.startedAt = new Date();
+        }
+
+        return tryCopy(job, attempts, 0, null, file, overwrite, ss, tsAuth, storageAuth)
+            .invoke(copied -> operation.progress(copied ? 1 : 0, copied ? 0 : 1))
+            .replaceWithVoid();
+    }
+
+    /***
+     * Try one copy of a file, moving on to the next source and destination if it fails
+     * @param job is the job the file belongs to
+     * @param attempts are the (source, destination) pairs to try
+     * @param index is the pair to try now
+     * @param lastError is why the previous pair failed
+     * @param file records the outcome
+     * @param overwrite is true to replace existing destination files
+     * @param ss is the storage system to copy on
+     * @param tsAuth is the access token for the storage system
+     * @param storageAuth are the credentials for the storage system
+     * @return True if the file was copied, never fails
+     */
+    private Uni<Boolean> tryCopy(Job job, List<Tuple2<String, String>> attempts, int index, String lastError,
+                                 TransferPayloadInfo file, boolean overwrite,
+                                 StorageService ss, String tsAuth, String storageAuth) {
+
+        if(job.canceled.get() || index >= attempts.size()) {
+            synchronized(job) {
+                file.fileState = job.canceled.get() ? FileState.canceled : FileState.failed;
+                file.reason = job.canceled.get() ? "Transfer canceled" : lastError;
+                file.finishedAt = new Date();
+            }
+            return Uni.createFrom().item(false);
+        }
+
+        final var source = attempts.get(index).getItem1();
+        final var destination = attempts.get(index).getItem2();
+        return Uni.createFrom().nullItem()
+
+            .chain(unused -> {
+                if(overwrite)
+                    return Uni.createFrom().item(false);
+
+                // Do not replace existing files
+                return ss.getStorageElementInfo(tsAuth, storageAuth, destination)
+                    .map(se -> null != se)
+                    .onFailure().recoverWithItem(false);
+            })
+            .chain(exists -> {
+                if(exists)
+                    return Uni.createFrom().failure(new TransferServiceException("destinationExists",
+                                                                                 "Destination file exists"));
+
+                return ss.copyStorageElement(tsAuth, storageAuth, source, destination);
+            })
+            .map(size -> {
+                synchronized(job) {
+                    file.fileState = FileState.succeeded;
+                    file.sourceSE = source;
+                    file.destinationSE = destination;
+                    file.size = Optional.of(size);
+                    file.reason = null;
+                    file.finishedAt = new Date();
+                }
+                return true;
+            })
+            .onFailure().recoverWithUni(e ->
+                tryCopy(job, attempts, index + 1, errorMessage(e), file, overwrite, ss, tsAuth, storageAuth));
+    }
+
+    /***
+     * Record the outcome of a finished job
+     * @param job is the finished job
+     * @return Result message
+     */
+    private String finish(Job job) {
+        int succeeded = 0;
+        int total;
+        synchronized(job) {
+            var files = job.info.payload.get();
+            total = files.size();
+            for(var file : files)
+                if(FileState.succeeded == file.fileState)
+                    succeeded++;
+
+            if(job.canceled.get())
+                job.info.jobState = TransferState.canceled;
+            else if(succeeded == total)
+                job.info.jobState = TransferState.succeeded;
+            else if(0 == succeeded)
+                job.info.jobState = TransferState.failed;
+            else
+                job.info.jobState = TransferState.partial;
+
+            job.info.finishedAt = new Date();
+        }
+
+        this.finished.put(job.info.jobId, job);
+        this.running.remove(job.info.jobId);
+        publish(job).subscribe().with(unused -> {});
+
+        MDC.put("jobId", job.info.jobId);
+        MDC.put("jobState", job.info.jobState);
+        log.infof("Server-side transfer %s", job.info.jobState);
+
+        return String.format("Copied %d of %d files", succeeded, total);
+    }
+
+    /***
+     * Get the details of a transfer job, from this instance or from the operation store
+     * @param jobId is the ID of the job
+     * @param owner is the user asking, null to skip the ownership check
+     * @param fileInfo for which files to include details
+     * @return Details of the transfer, null if not a local transfer of this user
+     */
+    public Uni<TransferInfoExtended> getTransferInfo(String jobId, String owner, FileDetails fileInfo) {
+        return find(jobId, owner)
+            .map(job -> null != job ? view(job, fileInfo) : null);
+    }
+
+    /***
+     * Get one field from the details of a transfer job
+     * @param jobId is the ID of the job
+     * @param owner is the user asking
+     * @param fieldName is the name of the field
+     * @return Response with the value of the field, null if not a local transfer of this user
+     */
+    public Uni<Response> getTransferInfoField(String jobId, String owner, String fieldName) {
+        return find(jobId, owner)
+            .map(job -> {
+                if(null == job)
+                    return null;
+
+                var value = this.mapper.valueToTree(view(job, FileDetails.all)).get(fieldName);
+                if(null == value || "kind".equals(fieldName))
+                    throw new TransferServiceException("fieldNotSupported", Tuple2.of("fieldName", fieldName));
+
+                MDC.put("fieldValue", value.toString());
+                if(value.isContainerNode())
+                    return Response.ok(value).build();
+
+                // Not an object, return as text/plain
+                return Response.ok(value.asText()).header(CONTENT_TYPE, MediaType.TEXT_PLAIN).build();
+            });
+    }
+
+    /***
+     * Cancel a transfer job. Files already copied stay, the others are not copied.
+     * @param jobId is the ID of the job
+     * @param owner is the user asking
+     * @return Details of the canceled transfer, null if not a local transfer of this user
+     */
+    public Uni<TransferInfoExtended> cancelTransfer(String jobId, String owner) {
+        return find(jobId, owner)
+            .chain(job -> {
+                if(null == job)
+                    return Uni.createFrom().nullItem();
+
+                synchronized(job) {
+                    var state = job.info.jobState;
+                    if(TransferState.submitted != state && TransferState.active != state)
+                        // Already finished
+                        return Uni.createFrom().item(view(job, FileDetails.none));
+
+                    job.info.cancel = Optional.of(true);
+                }
+
+                job.canceled.set(true);
+                log.infof("Canceling server-side transfer %s", jobId);
+                if(this.running.containsKey(jobId) || null == this.store)
+                    return publish(job).map(unused -> view(job, FileDetails.none));
+
+                // Running on another instance, which picks up the request when publishing progress
+                return this.store.hset(KEY_PREFIX + jobId, FIELD_CANCEL, "true")
+                    .map(unused -> view(job, FileDetails.none));
+            });
+    }
+
+    /***
+     * Find a job, on this instance or in the operation store
+     * @param jobId is the ID of the job
+     * @param owner is the user asking, null to skip the ownership check
+     * @return The job, null if unknown or not owned by the user
+     */
+    private Uni<Job> find(String jobId, String owner) {
+        var job = this.running.get(jobId);
+        if(null == job)
+            job = this.finished.get(jobId);
+
+        Uni<Job> found;
+        if(null != job || null == this.store)
+            found = Uni.createFrom().item(job);
+        else
+            // Maybe started by another instance
+            found = this.store.hgetall(KEY_PREFIX + jobId)
+                .map(fields -> {
+                    var json = null != fields ? fields.get(FIELD_TRANSFER) : null;
+                    if(null == json)
+                        return null;
+
+                    try {
+                        var info = this.mapper.readValue(json, TransferInfoExtended.class);
+                        var stored = new Job(info, fields.get(FIELD_OWNER));
+                        stored.canceled.set("true".equals(fields.get(FIELD_CANCEL)));
+                        return stored;
+                    }
+                    catch(Exception e) {
+                        log.errorf("Cannot parse transfer %s (%s)", jobId, e.getMessage());
+                        return null;
+                    }
+                })
+                .onFailure().recoverWithItem(e -> {
+                    log.errorf("Cannot read transfer %s (%s)", jobId, e.getMessage());
+                    return null;
+                });
+
+        return found.map(j -> {
+            if(null == j || (null != owner && null != j.owner && !j.owner.isEmpty() && !owner.equals(j.owner)))
+                return null;
+
+            return j;
+        });
+    }
+
+    /***
+     * Copy the details of a job, with the requested file details
+     * @param job is the job
+     * @param fileInfo for which files to include details
+     * @return Copy of the job details
+     */
+    private TransferInfoExtended view(Job job, FileDetails fileInfo) {
+        TransferInfoExtended copy;
+        synchronized(job) {
+            copy = this.mapper.convertValue(job.info, TransferInfoExtended.class);
+        }
+
+        if(FileDetails.none == fileInfo || copy.payload.isEmpty())
+            copy.payload = Optional.empty();
+        else if(FileDetails.failed == fileInfo)
+            copy.payload = Optional.of(copy.payload.get().stream()
+                                           .filter(file -> FileState.failed == file.fileState)
+                                           .toList());
+
+        return copy;
+    }
+
+    /***
+     * Pick up a cancellation requested through another instance
+     * @param job is a job running on this instance
+     * @return Completion, never fails
+     */
+    private Uni<Void> checkCanceled(Job job) {
+        if(null == this.store || job.canceled.get())
+            return Uni.createFrom().voidItem();
+
+        return this.store.hget(KEY_PREFIX + job.info.jobId, FIELD_CANCEL)
+            .invoke(cancel -> {
+                if("true".equals(cancel)) {
+                    log.infof("Canceling server-side transfer %s", job.info.jobId);
+                    synchronized(job) {
+                        job.info.cancel = Optional.of(true);
+                    }
+                    job.canceled.set(true);
+                }
+            })
+            .replaceWithVoid()
+            .onFailure().recoverWithNull();
+    }
+
+    /***
+     * Publish a job to the operation store.
+     * Running jobs expire soon unless published again, like storage operations.
+     * @param job is the job to publish
+     * @return Completion, never fails
+     */
+    private Uni<Void> publish(Job job) {
+        if(null == this.store)
+            return Uni.createFrom().voidItem();
+
+        final var config = service.storage();
+        final var key = KEY_PREFIX + job.info.jobId;
+
+        String json;
+        boolean isRunning;
+        try {
+            synchronized(job) {
+                json = this.mapper.writeValueAsString(job.info);
+                isRunning = TransferState.submitted == job.info.jobState ||
+                            TransferState.active == job.info.jobState;
+            }
+        }
+        catch(Exception e) {
+            log.errorf("Cannot serialize transfer %s (%s)", job.info.jobId, e.getMessage());
+            return Uni.createFrom().voidItem();
+        }
+
+        final var ttl = isRunning ?
+                        Duration.ofSeconds(3L * Math.max(1, config.operationSyncInterval())) :
+                        Duration.ofSeconds(config.localTransferTtl());
+
+        return this.store.hset(key, Map.of(FIELD_TRANSFER, json,
+                                           FIELD_OWNER, null != job.owner ? job.owner : ""))
+            .chain(unused -> this.keys.expire(key, ttl))
+            .replaceWithVoid()
+            .onFailure().recoverWithItem(e -> {
+                log.warnf("Cannot publish transfer %s (%s)", job.info.jobId, e.getMessage());
+                return null;
+            });
+    }
+
+    /***
+     * Describe why a copy failed
+     * @param e is the failure
+     * @return Error message
+     */
+    private static String errorMessage(Throwable e) {
+        var message = e.getMessage();
+        if(e instanceof TransferServiceException tse)
+            return (null != message && !message.isBlank()) ? tse.getId() + ": " + message : tse.getId();
+
+        return message;
+    }
+}
@@ -0,0 +1,302 @@
+package eosc.eu;
+
+import org.jboss.logging.Logger;
+import io.smallrye.mutiny.Uni;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+
+/***
+ * Job store that keeps the jobs in memory, for single-node setups.
+ * All operations are lock-free, jobs are claimed by compare-and-set on their delivery time.
+ * Message IDs have the same format as Redis stream IDs (milliseconds-sequence).
+ */
+public class MemoryJobStore implements JobStore {
+
+    private static final Logger log = Logger.getLogger(MemoryJobStore.class);
+
+    private static final Comparator<String> ID_ORDER = Comparator.comparingLong(MemoryJobStore::idTime)
+                                                                 .thenComparingLong(MemoryJobStore::idSequence);
+
+    /***
+     * A job held in memory
+     */
+    protected static class Entry {
+        final String id;
+        final Map<String, String> payload;
+        final AtomicLong deliveredAt = new AtomicLong(0); // 0 means never delivered
+        volatile int attempts;
+        volatile long notBefore;
+
+        Entry(String id, Map<String, String> payload) {
+            this.id = id;
+            this.payload = Collections.unmodifiableMap(new HashMap<>(payload));
+        }
+    }
+
+    protected final ServiceConfig.AccountingConfig config;
+    protected final ConcurrentSkipListMap<String, Entry> jobs = new ConcurrentSkipListMap<>(ID_ORDER);
+    protected final ConcurrentSkipListMap<String, Entry> deadLetters = new ConcurrentSkipListMap<>(ID_ORDER);
+    private final AtomicReference<long[]> lastId = new AtomicReference<>(new long[] { 0, 0 });
+    protected String consumer;
+
+
+    /***
+     * Constructor
+     * @param config is the accounting configuration
+     */
+    public MemoryJobStore(ServiceConfig.AccountingConfig config) {
+        this.config = config;
+    }
+
+    /***
+     * Get the time part of a message ID
+     * @param id is the message ID
+     * @return Milliseconds since epoch
+     */
+    protected static long idTime(String id) {
+        var dash = id.indexOf('-');
+        return Long.parseLong(dash < 0 ? id : id.substring(0, dash));
+    }
+
+    /***
+     * Get the sequence part of a message ID
+     * @param id is the message ID
+     * @return Sequence number
+     */
+    protected static long idSequence(String id) {
+        var dash = id.indexOf('-');
+        return dash < 0 ? 0 : Long.parseLong(id.substring(dash + 1));
+    }
+
+    /***
+     * Generate a new message ID, greater than all previous ones
+     * @return Message ID
+     */
+    protected String nextId() {
+        while(true) {
+            var last = this.lastId.get();
+            var now = System.currentTimeMillis();
+            var next = now > last[0] ? new long[] { now, 0 } : new long[] { last[0], last[1] + 1 };
+            if(this.lastId.compareAndSet(last, next))
+                return String.format("%d-%d", next[0], next[1]);
+        }
+    }
+
+    /***
+     * Make sure new message IDs are greater than an existing one
+     * @param id is an existing message ID
+     */
+    protected void seenId(String id) {
+        final long time = idTime(id);
+        final long sequence = idSequence(id);
+        while(true) {
+            var last = this.lastId.get();
+            if(last[0] > time || (last[0] == time && last[1] >= sequence))
+                return;
+            if(this.lastId.compareAndSet(last, new long[] { time, sequence }))
+                return;
+        }
+    }
+
+    @Override
+    public Uni<Void> start(String consumer) {
+        this.consumer = consumer;
+        log.infof("Using in-memory job store with %d job(s)", this.jobs.size());
+        return Uni.createFrom().voidItem();
+    }
+
+    @Override
+    public Uni<Long> stop() {
+        return Uni.createFrom().item(this.jobs.values().stream().filter(e -> e.deliveredAt.get() > 0).count());
+    }
+
+    @Override
+    public Uni<String> add(Map<String, String> job) {
+        return Uni.createFrom().item(() -> {
+            var id = nextId();
+            putJob(id, job);
+            return id;
+        });
+    }
+
+    /***
+     * Hand out new jobs, and jobs that were delivered but not removed for longer than
+     * the poll interval. A job is claimed by moving its delivery time forward with a
+     * compare-and-set, so concurrent readers never get the same job.
+     * @param count is the maximum number of jobs to return
+     * @return Jobs to check, may be empty
+     */
+    @Override
+    public Uni<List<JobMessage>> next(int count) {
+
+        final long now = System.currentTimeMillis();
+        final long idle = Duration.ofSeconds(config.pollInterval()).toMillis();
+
+        var batch = new ArrayList<JobMessage>();
+        for(var entry : this.jobs.values()) {
+            if(batch.size() >= count)
+                break;
+
+            var delivered = entry.deliveredAt.get();
+            if(delivered > 0 && now - delivered < idle)
+                continue;
+
+            if(entry.deliveredAt.compareAndSet(delivered, now)) {
+                var job = new JobMessage(entry.id, entry.payload);
+                job.attempts = entry.attempts;
+                job.notBefore = entry.notBefore;
+                batch.add(job);
+            }
+        }
+
+        if(batch.isEmpty())
+            // Nothing to do, do not spin
+            return Uni.createFrom().item(Collections.<JobMessage>emptyList())
+                      .onItem().delayIt().by(Duration.ofSeconds(1));
+
+        return Uni.createFrom().item(batch);
+    }
+
+    @Override
+    public Uni<Integer> remove(List<JobMessage> jobs) {
+        return Uni.createFrom().item(() -> {
+            int removed = 0;
+            for(var job : jobs)
+                if(removeJob(job.id))
+                    removed++;
+
+            return removed;
+        });
+    }
+
+    @Override
+    public Uni<Void> retry(JobMessage job) {
+        return Uni.createFrom().voidItem()
+                  .invoke(() -> retryJob(job.id, job.attempts, job.notBefore));
+    }
+
+    @Override
+    public Uni<String> addDeadLetter(Map<String, String> payload) {
+        return Uni.createFrom().item(() -> {
+            var id = nextId();
+            putDeadLetter(id, payload);
+            return id;
+        });
+    }
+
+    @Override
+    public Uni<List<JobMessage>> deadLetters(int limit) {
+        var list = new ArrayList<JobMessage>();
+        for(var entry : this.deadLetters.values()) {
+            if(list.size() >= limit)
+                break;
+            list.add(new JobMessage(entry.id, entry.payload));
+        }
+
+        return Uni.createFrom().item(list);
+    }
+
+    @Override
+    public Uni<JobMessage> deadLetter(String id) {
+        Entry entry = null;
+        try {
+            entry = this.deadLetters.get(id);
+        }
+        catch(NumberFormatException e) {
+            // Malformed ID, no such dead letter
+        }
+
+        return Uni.createFrom().item(null != entry ? new JobMessage(entry.id, entry.payload) : null);
+    }
+
+    @Override
+    public Uni<Boolean> removeDeadLetter(String id) {
+        return Uni.createFrom().item(() -> deleteDeadLetter(id));
+    }
+
+    @Override
+    public Uni<JobStoreStats> stats() {
+        final long now = System.currentTimeMillis();
+
+        var stats = new JobStoreStats();
+        var streamStats = new JobStoreStats.StreamStats("memory");
+        long pending = 0;
+        for(var entry : this.jobs.values()) {
+            streamStats.length++;
+            var deliveredAt = entry.deliveredAt.get();
+            if(deliveredAt > 0) {
+                streamStats.maxPendingIdle = Math.max(streamStats.maxPendingIdle, now - deliveredAt);
+                pending++;
+            }
+        }
+
+        if(null != this.consumer)
+            streamStats.pending.put(this.consumer, pending);
+
+        stats.streams.add(streamStats);
+        stats.deadLetters = this.deadLetters.size();
+
+        return Uni.createFrom().item(stats);
+    }
+
+    /***
+     * Add a job
+     * @param id is the message ID
+     * @param payload is the job payload
+     */
+    protected void putJob(String id, Map<String, String> payload) {
+        this.jobs.put(id, new Entry(id, payload));
+    }
+
+    /***
+     * Remove a job
+     * @param id is the message ID
+     * @return True if the job was removed
+     */
+    protected boolean removeJob(String id) {
+        return null != this.jobs.remove(id);
+    }
+
+    /***
+     * Update the retry state of a job
+     * @param id is the message ID
+     * @param attempts is the number of failed attempts
+     * @param notBefore is when to try again
+     */
+    protected void retryJob(String id, int attempts, long notBefore) {
+        var entry = this.jobs.get(id);
+        if(null != entry) {
+            entry.attempts = attempts;
+            entry.notBefore = notBefore;
+        }
+    }
+
+    /***
+     * Add a dead letter
+     * @param id is the dead letter ID
+     * @param payload is the dead letter payload
+     */
+    protected void putDeadLetter(String id, Map<String, String> payload) {
+        this.deadLetters.put(id, new Entry(id, payload));
+    }
+
+    /***
+     * Remove a dead letter
+     * @param id is the dead letter ID
+     * @return True if the dead letter was removed
+     */
+    protected boolean deleteDeadLetter(String id) {
+        try {
+            return null != this.deadLetters.remove(id);
+        }
+        catch(NumberFormatException e) {
+            // Malformed ID, no such dead letter
+            return false;
+        }
+    }
+}
@@ -0,0 +1,702 @@
+package eosc.eu;
+
+import org.jboss.logging.Logger;
+import org.jboss.logging.MDC;
+import io.smallrye.mutiny.Uni;
+import io.smallrye.mutiny.Multi;
+import io.smallrye.mutiny.subscription.Cancellable;
+import io.quarkus.redis.datasource.ReactiveRedisDataSource;
+import io.quarkus.redis.datasource.hash.ReactiveHashCommands;
+import io.quarkus.redis.datasource.sortedset.ReactiveSortedSetCommands;
+import io.quarkus.redis.datasource.sortedset.ScoreRange;
+import io.quarkus.redis.datasource.stream.ReactiveStreamCommands;
+import io.quarkus.redis.datasource.stream.StreamRange;
+import io.quarkus.redis.datasource.stream.XGroupCreateArgs;
+import io.quarkus.redis.datasource.stream.XReadGroupArgs;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+
+/***
+ * Job store backed by Redis streams.
+ * Jobs are spread over several job streams (shards) by hashing the job ID, and each instance
+ * consumes a balanced subset of the job streams. Each job stream is read with its own XREADGROUP,
+ * as the job streams hash to different slots on Redis Cluster. Failed attempts are tracked in a
+ * hash and dead letters in a separate stream.
+ *
+ * When sharding is enabled on a deployment that used a single job stream, the instance that
+ * consumes the first shard keeps draining the original job stream until it is empty.
+ */
+public class RedisJobStore implements JobStore {
+
+    private static final Logger log = Logger.getLogger(RedisJobStore.class);
+
+    public static final String CHANNEL = "transfer";
+    public static final String STREAM = "jobs";
+    public static final String GROUP = "api";
+    public static final String JOBSTORE_STREAM = String.format("%s:%s", CHANNEL, STREAM);
+    public static final String DLQ_STREAM = String.format("%s:%s:dlq", CHANNEL, STREAM);
+    public static final String RETRY_HASH = String.format("%s:%s:retry", CHANNEL, STREAM);
+    public static final String MEMBERS_ZSET = String.format("%s:%s:members", CHANNEL, STREAM);
+
+    // Pending entries looked at to find the longest idle one, per job stream
+    private static final int PENDING_SAMPLE = 100;
+
+    // Acknowledge and delete messages from a stream in one step, for servers without XACKDEL
+    private static final String ACKDEL_SCRIPT =
+            "local acked = redis.call('XACK', KEYS[1], ARGV[1], unpack(ARGV, 2))\n" +
+            "redis.call('XDEL', KEYS[1], unpack(ARGV, 2))\n" +
+            "return acked";
+
+    private final ServiceConfig.AccountingConfig config;
+    private final ReactiveRedisDataSource ds;
+    private final ReactiveStreamCommands<String, String, String> stream;
+    private final ReactiveHashCommands<String, String, String> retries;
+    private final ReactiveSortedSetCommands<String, String> members;
+    private final AtomicBoolean xackdelSupported = new AtomicBoolean(true);
+    private final AtomicBoolean legacyDrained = new AtomicBoolean(true);
+    private final AtomicInteger nextStream = new AtomicInteger(0);
+    private final int shards;
+    private String instance;
+    private Cancellable membership;
+    private volatile Set<Integer> assignedShards = Collections.emptySet();
+
+
+    /***
+     * Construct with a data source
+     * @param ds is the Redis data source
+     * @param config is the accounting configuration
+     */
+    public RedisJobStore(ReactiveRedisDataSource ds, ServiceConfig.AccountingConfig config) {
+        this.ds = ds;
+        this.config = config;
+        this.stream = ds.stream(String.class);
+        this.retries = ds.hash(String.class);
+        this.members = ds.sortedSet(String.class);
+        this.shards = Math.max(1, config.shards());
+    }
+
+    /***
+     * Get the name of the job stream a transfer is recorded in
+     * @param jobId is the ID of the transfer job
+     * @param shards is the number of job streams
+     * @return Name of the job stream
+     */
+    public static String jobStream(String jobId, int shards) {
+        if(shards <= 1 || null == jobId)
+            return shardStream(0, shards);
+
+        return shardStream(Math.floorMod(jobId.hashCode(), shards), shards);
+    }
+
+    /***
+     * Get the name of a job stream
+     * @param shard is the index of the job stream
+     * @param shards is the number of job streams
+     * @return Name of the job stream, a single job stream keeps the original name
+     */
+    public static String shardStream(int shard, int shards) {
+        if(shards <= 1)
+            return JOBSTORE_STREAM;
+
+        return String.format("%s:%d", JOBSTORE_STREAM, shard);
+    }
+
+    /***
+     * Get the arguments of the XADD command that adds a message to a job stream,
+     * according to the configured trimming policy.
+     * Only messages acknowledged by the consumer group are trimmed (option ACKED, Redis 8.2+),
+     * so trimming never drops transfers that were not yet accounted for.
+     * @param jobStream is the job stream to add the message to
+     * @param job is the job payload
+     * @param config is the accounting configuration
+     * @return Arguments for XADD
+     */
+    public static List<String> jobStreamArgs(String jobStream, Map<String, String> job,
+                                             ServiceConfig.AccountingConfig config) {
+        var args = new ArrayList<String>();
+        args.add(jobStream);
+        if(config.trimMaxLength().isPresent()) {
+            // Keep at most this many acknowledged messages in each job stream
+            args.addAll(List.of("ACKED", "MAXLEN", "~", String.valueOf(config.trimMaxLength().get())));
+        }
+        else if(config.trimMaxAge().isPresent()) {
+            // Drop acknowledged messages older than this many seconds
+            var oldest = System.currentTimeMillis() - config.trimMaxAge().get() * 1000;
+            args.addAll(List.of("ACKED", "MINID", "~", String.format("%d-0", Math.max(0, oldest))));
+        }
+
+        args.add("*");
+        for(var field : job.entrySet()) {
+            args.add(field.getKey());
+            args.add(field.getValue());
+        }
+
+        return args;
+    }
+
+    /***
+     * Create the job streams and their consumer group, then periodically
+     * rebalance the job streams between the live instances
+     * @param consumer is the unique name of this instance
+     * @return Completion
+     */
+    @Override
+    public Uni<Void> start(String consumer) {
+        this.instance = consumer;
+
+        final var interval = Duration.ofSeconds(config.rebalanceInterval());
+
+        this.membership = Multi.createFrom().range(0, this.shards)
+
+            .onItem().transformToUniAndConcatenate(shard -> createGroup(shardStream(shard, this.shards)))
+            .collect().asList()
+            .chain(unused -> checkLegacyStream())
+            .toMulti()
+            .onItem().transformToMultiAndConcatenate(unused ->
+                // Periodically announce this instance and pick the job streams to consume
+                Multi.createFrom().ticks().startingAfter(Duration.ZERO).every(interval).onOverflow().drop())
+            .onItem().transformToUniAndConcatenate(tick -> rebalance(interval))
+            .subscribe().with(unused -> {}, e -> {
+                MDC.put("consumerId", this.instance);
+                log.errorf("Stopped rebalancing job streams (%s)", e.getMessage());
+            });
+
+        log.infof("Joining consumers of channel %s", JOBSTORE_STREAM);
+        return Uni.createFrom().voidItem();
+    }
+
+    /***
+     * Create the consumer group of a job stream, if it does not exist yet
+     * @param jobStream is the job stream
+     * @return Completion, never fails
+     */
+    private Uni<Void> createGroup(String jobStream) {
+        return this.stream.xgroupCreate(jobStream, GROUP, "0-0", new XGroupCreateArgs().mkstream())
+            .onFailure().recoverWithItem(e -> {
+                if(null == e.getMessage() || !e.getMessage().contains("BUSYGROUP")) {
+                    MDC.put("consumerId", this.instance);
+                    MDC.put("stream", jobStream);
+                    log.errorf("Cannot create consumer group (%s)", e.getMessage());
+                }
+                return null;
+            })
+            .replaceWithVoid();
+    }
+
+    /***
+     * Check if the original job stream, used before sharding was enabled, still has messages
+     * @return Completion, never fails
+     */
+    private Uni<Void> checkLegacyStream() {
+        if(this.shards <= 1)
+            return Uni.createFrom().voidItem();
+
+        return this.stream.xlen(JOBSTORE_STREAM)
+            .onFailure().recoverWithItem(e -> {
+                MDC.put("consumerId", this.instance);
+                MDC.put("stream", JOBSTORE_STREAM);
+                log.errorf("Cannot check job stream (%s)", e.getMessage());
+                return 1L;
+            })
+            .chain(length -> {
+                if(0 == length)
+                    return Uni.createFrom().voidItem();
+
+                // Acknowledged messages are deleted, so the remaining ones still have to be accounted for
+                MDC.put("consumerId", this.instance);
+                MDC.put("stream", JOBSTORE_STREAM);
+                log.infof("Draining %d messages from job stream used before sharding", length);
+                this.legacyDrained.set(false);
+                return createGroup(JOBSTORE_STREAM);
+            });
+    }
+
+    /***
+     * Leave the consumers, so that the other instances take over our job streams
+     * @return Number of unacknowledged messages this instance had
+     */
+    @Override
+    public Uni<Long> stop() {
+        if(null != this.membership)
+            this.membership.cancel();
+
+        return this.members.zrem(MEMBERS_ZSET, this.instance)
+
+            .onFailure().recoverWithItem(0)
+            .toMulti()
+            .onItem().transformToMultiAndConcatenate(unused -> Multi.createFrom().iterable(allStreams()))
+            .onItem().transformToUniAndConcatenate(jobStream ->
+                this.stream.xgroupDelConsumer(jobStream, GROUP, this.instance)
+                           .onFailure().recoverWithItem(e -> {
+                               MDC.put("consumerId", this.instance);
+                               MDC.put("stream", jobStream);
+                               log.warnf("Cannot leave consumer group (%s)", e.getMessage());
+                               return 0L;
+                           }))
+            .collect().with(Collectors.summingLong(Long::longValue));
+    }
+
+    /***
+     * Get the names of all job streams, including the original one while it is drained
+     * @return Names of the job streams
+     */
+    private List<String> allStreams() {
+        var jobStreams = new ArrayList<String>();
+        for(int shard = 0; shard < this.shards; shard++)
+            jobStreams.add(shardStream(shard, this.shards));
+
+        if(!this.legacyDrained.get())
+            jobStreams.add(JOBSTORE_STREAM);
+
+        return jobStreams;
+    }
+
+    /***
+     * Refresh the membership of this instance and, if the live instances changed,
+     * switch to consuming the job streams now assigned to this instance.
+     * Job streams are dealt round-robin to the live instances, ordered by name, so every
+     * instance computes the same assignment. Pending messages of streams that changed owner
+     * are claimed by the new owner once they have been idle long enough.
+     * @param interval is how often instances refresh their membership
+     * @return Number of job streams consumed by this instance
+     */
+    private Uni<Integer> rebalance(Duration interval) {
+
+        final long now = System.currentTimeMillis();
+        final long expired = now - 3 * interval.toMillis();
+
+        return this.members.zadd(MEMBERS_ZSET, (double)now, this.instance)
+
+            .chain(unused -> {
+                // Forget about instances that stopped refreshing their membership
+                return this.members.zremrangebyscore(MEMBERS_ZSET, new ScoreRange<>(0.0, (double)expired));
+            })
+            .chain(unused -> this.members.zrange(MEMBERS_ZSET, 0, -1))
+            .map(instances -> {
+                var live = new ArrayList<String>(instances);
+                if(!live.contains(this.instance))
+                    live.add(this.instance);
+                Collections.sort(live);
+
+                var index = live.indexOf(this.instance);
+                var shardSet = new TreeSet<Integer>();
+                for(int shard = index; shard < this.shards; shard += live.size())
+                    shardSet.add(shard);
+
+                if(!shardSet.equals(this.assignedShards)) {
+                    // Assignment changed, next read will use the new job streams
+                    MDC.put("consumerId", this.instance);
+                    MDC.put("consumers", live.size());
+                    MDC.put("shards", shardSet.toString());
+                    log.infof("Consuming %d of %d job streams", shardSet.size(), this.shards);
+                    this.assignedShards = shardSet;
+                }
+
+                return shardSet.size();
+            })
+            .onFailure().recoverWithItem(e -> {
+                // Keep the current assignment, try again on next tick
+                MDC.put("consumerId", this.instance);
+                log.errorf("Cannot rebalance job streams (%s)", e.getMessage());
+                return this.assignedShards.size();
+            });
+    }
+
+    /***
+     * Record a transfer job in the job stream picked by hashing the job ID
+     * @param job is the job payload
+     * @return ID of the new stream message
+     */
+    @Override
+    public Uni<String> add(Map<String, String> job) {
+        var jobStream = jobStream(job.get(FIELD_JOB_ID), this.shards);
+        if(config.trimMaxLength().isEmpty() && config.trimMaxAge().isEmpty())
+            return this.stream.xadd(jobStream, job);
+
+        return this.ds.execute("XADD", jobStreamArgs(jobStream, job, config).toArray(new String[0]))
+                      .map(response -> null != response ? response.toString() : null);
+    }
+
+    /***
+     * Read new messages and claim idle pending ones from the job streams assigned to this instance.
+     * A single job stream is read blocking, several are read one after the other without blocking,
+     * starting with a different one each time, and only wait a bit if none had messages.
+     * @param count is the maximum number of jobs to return
+     * @return Jobs to check, with their failed attempts
+     */
+    @Override
+    public Uni<List<JobMessage>> next(int count) {
+
+        final var shardSet = this.assignedShards;
+        if(shardSet.isEmpty())
+            // No job streams assigned (yet), wait for the next rebalance
+            return Uni.createFrom().item(Collections.<JobMessage>emptyList())
+                      .onItem().delayIt().by(Duration.ofSeconds(1));
+
+        var jobStreams = new ArrayList<String>();
+        for(var shard : shardSet)
+            jobStreams.add(shardStream(shard, this.shards));
+
+        final var drainLegacy = !this.legacyDrained.get() && shardSet.contains(0);
+        if(drainLegacy)
+            jobStreams.add(JOBSTORE_STREAM);
+
+        Collections.rotate(jobStreams, -Math.floorMod(this.nextStream.getAndIncrement(), jobStreams.size()));
+
+        final var block = 1 == jobStreams.size();
+        final var jobs = new ArrayList<JobMessage>();
+        final var legacyRead = new AtomicInteger(0);
+
+        return Multi.createFrom().iterable(jobStreams)
+
+            .onItem().transformToUniAndConcatenate(jobStream -> {
+                if(jobs.size() >= count)
+                    // Got enough, leave the rest for the next read
+                    return Uni.createFrom().voidItem();
+
+                return read(jobStream, count - jobs.size(), block)
+                    .invoke(messages -> {
+                        jobs.addAll(messages);
+                        if(JOBSTORE_STREAM.equals(jobStream))
+                            legacyRead.addAndGet(messages.size());
+                    })
+                    .replaceWithVoid();
+            })
+            .collect().last()
+            .call(unused -> drainLegacy && 0 == legacyRead.get() ? checkLegacyDrained() :
+                                                                   Uni.createFrom().voidItem())
+            .chain(unused -> {
+                if(jobs.isEmpty()) {
+                    if(block)
+                        // The read already waited for new messages
+                        return Uni.createFrom().item((List<JobMessage>)jobs);
+
+                    // Nothing new in any job stream, wait a bit
+                    return Uni.createFrom().item((List<JobMessage>)jobs)
+                              .onItem().delayIt().by(Duration.ofSeconds(1));
+                }
+
+                // Fetch previous failed attempts for all messages in one go
+                var fields = jobs.stream().map(RedisJobStore::retryField).toArray(String[]::new);
+                return this.retries.hmget(RETRY_HASH, fields)
+                        .onFailure().recoverWithItem(e -> {
+                            MDC.put("consumerId", this.instance);
+                            log.warnf("Cannot fetch failed attempts (%s)", e.getMessage());
+                            return null;
+                        })
+                        .map(retryStates -> {
+                            if(null != retryStates)
+                                for(var job : jobs)
+                                    parseRetryState(job, retryStates.get(retryField(job)));
+
+                            return (List<JobMessage>)jobs;
+                        });
+            });
+    }
+
+    /***
+     * Read new messages and claim idle pending ones from a job stream
+     * @param jobStream is the job stream to read
+     * @param count is the maximum number of messages to return
+     * @param block tells if the read should wait for new messages
+     * @return Jobs to check, empty (after a short wait) if the job stream cannot be read
+     */
+    private Uni<List<JobMessage>> read(String jobStream, int count, boolean block) {
+
+        XReadGroupArgs args = new XReadGroupArgs()
+                                    .claim(Duration.ofSeconds(config.pollInterval()))
+                                    .count(count);
+        if(block)
+            args.block(Duration.ofSeconds(60));
+
+        return this.stream.xreadgroup(GROUP, this.instance, jobStream, ">", args)
+
+            .map(messages -> {
+                var jobs = new ArrayList<JobMessage>();
+                for(var message : messages)
+                    jobs.add(new JobMessage(message.id(), message.key(), message.payload()));
+
+                return (List<JobMessage>)jobs;
+            })
+            .onFailure().recoverWithUni(e -> {
+                MDC.put("consumerId", this.instance);
+                MDC.put("stream", jobStream);
+                log.errorf("Cannot read from job stream (%s)", e.getMessage());
+
+                // Do not hammer the server while it fails
+                return Uni.createFrom().item(Collections.<JobMessage>emptyList())
+                          .onItem().delayIt().by(Duration.ofSeconds(1));
+            });
+    }
+
+    /***
+     * Stop reading the original job stream once all its messages are accounted for
+     * @return Completion, never fails
+     */
+    private Uni<Void> checkLegacyDrained() {
+        return this.stream.xlen(JOBSTORE_STREAM)
+            .invoke(length -> {
+                if(0 == length && this.legacyDrained.compareAndSet(false, true)) {
+                    MDC.put("consumerId", this.instance);
+                    MDC.put("stream", JOBSTORE_STREAM);
+                    log.info("Drained job stream used before sharding");
+                }
+            })
+            .onFailure().recoverWithItem(e -> {
+                MDC.put("consumerId", this.instance);
+                MDC.put("stream", JOBSTORE_STREAM);
+                log.warnf("Cannot check job stream (%s)", e.getMessage());
+                return null;
+            })
+            .replaceWithVoid();
+    }
+
+    /***
+     * Get the field of the retry hash that holds the retry state of a job.
+     * Message IDs are only unique within a job stream, so the field includes the job stream.
+     * @param job is the job
+     * @return Field name, "stream:id"
+     */
+    static String retryField(JobMessage job) {
+        return (null != job.stream ? job.stream : JOBSTORE_STREAM) + ":" + job.id;
+    }
+
+    /***
+     * Parse the retry state of a job, stored as "attempts:notBefore"
+     * @param job is the job to update
+     * @param retryState is the stored retry state
+     */
+    private static void parseRetryState(JobMessage job, String retryState) {
+        if(null == retryState)
+            return;
+
+        try {
+            var parts = retryState.split(":");
+            job.attempts = Integer.parseInt(parts[0]);
+            if(parts.length > 1)
+                job.notBefore = Long.parseLong(parts[1]);
+        }
+        catch(NumberFormatException e) {
+            job.attempts = 0;
+            job.notBefore = 0;
+        }
+    }
+
+    /***
+     * Acknowledge messages and remove them from the job streams.
+     * Uses XACKDEL where available, otherwise a script, so that each job stream
+     * takes a single atomic round trip no matter how many messages are removed.
+     * @param jobs are the jobs to remove
+     * @return Number of messages removed
+     */
+    @Override
+    public Uni<Integer> remove(List<JobMessage> jobs) {
+        if(jobs.isEmpty())
+            return Uni.createFrom().item(0);
+
+        // Group the messages by job stream
+        var done = new HashMap<String, List<String>>();
+        for(var job : jobs)
+            done.computeIfAbsent(null != job.stream ? job.stream : JOBSTORE_STREAM, k -> new ArrayList<>()).add(job.id);
+
+        final var retryFields = jobs.stream().map(RedisJobStore::retryField).toArray(String[]::new);
+
+        return Multi.createFrom().iterable(done.entrySet())
+
+            .onItem().transformToUniAndMerge(entry -> acknowledge(entry.getKey(), entry.getValue()))
+            .collect().with(Collectors.summingInt(Integer::intValue))
+            .call(removed -> {
+                // Forget about previous failed attempts
+                return this.retries.hdel(RETRY_HASH, retryFields)
+                                   .onFailure().recoverWithItem(e -> {
+                                       MDC.put("consumerId", this.instance);
+                                       log.warnf("Cannot forget failed attempts (%s)", e.getMessage());
+                                       return 0;
+                                   });
+            });
+    }
+
+    /***
+     * Acknowledge messages and remove them from a job stream
+     * @param jobStream is the job stream to remove the messages from
+     * @param messageIds are the IDs of the messages to remove
+     * @return Number of messages removed
+     */
+    private Uni<Integer> acknowledge(String jobStream, List<String> messageIds) {
+
+        if(this.xackdelSupported.get()) {
+            var args = new ArrayList<String>(List.of(jobStream, GROUP, "IDS", String.valueOf(messageIds.size())));
+            args.addAll(messageIds);
+
+            return this.ds.execute("XACKDEL", args.toArray(new String[0]))
+
+                .map(response -> {
+                    // One result per message, 1 means acknowledged and deleted
+                    int removed = 0;
+                    for(var result : response)
+                        if(null != result && 1 == result.toInteger())
+                            removed++;
+
+                    return removed;
+                })
+                .onFailure().recoverWithUni(e -> {
+                    MDC.put("consumerId", this.instance);
+                    MDC.put("stream", jobStream);
+                    if(null != e.getMessage() && e.getMessage().toLowerCase().contains("unknown command")) {
+                        // Older Redis server, use script from now on
+                        log.info("XACKDEL not supported, falling back to script");
+                        this.xackdelSupported.set(false);
+                    }
+                    else
+                        log.warnf("Cannot acknowledge messages (%s)", e.getMessage());
+
+                    return acknowledgeWithScript(jobStream, messageIds);
+                });
+        }
+
+        return acknowledgeWithScript(jobStream, messageIds);
+    }
+
+    /***
+     * Acknowledge messages and remove them from a job stream using a script
+     * @param jobStream is the job stream to remove the messages from
+     * @param messageIds are the IDs of the messages to remove
+     * @return Number of messages acknowledged
+     */
+    private Uni<Integer> acknowledgeWithScript(String jobStream, List<String> messageIds) {
+
+        var args = new ArrayList<String>(List.of(ACKDEL_SCRIPT, "1", jobStream, GROUP));
+        args.addAll(messageIds);
+
+        return this.ds.execute("EVAL", args.toArray(new String[0]))
+
+            .map(response -> null != response ? response.toInteger() : 0)
+            .onFailure().recoverWithItem(e -> {
+                MDC.put("consumerId", this.instance);
+                MDC.put("stream", jobStream);
+                log.errorf("Cannot acknowledge messages (%s)", e.getMessage());
+                return 0;
+            });
+    }
+
+    /***
+     * Remember a failed attempt in the retry hash
+     * @param job is the job that failed
+     * @return Completion
+     */
+    @Override
+    public Uni<Void> retry(JobMessage job) {
+        return this.retries.hset(RETRY_HASH, retryField(job), String.format("%d:%d", job.attempts, job.notBefore))
+                           .replaceWithVoid();
+    }
+
+    /***
+     * Add a message to the dead-letter stream
+     * @param payload is the dead letter payload
+     * @return ID of the dead letter
+     */
+    @Override
+    public Uni<String> addDeadLetter(Map<String, String> payload) {
+        return this.stream.xadd(DLQ_STREAM, payload);
+    }
+
+    /***
+     * List the messages in the dead-letter stream
+     * @param limit is the maximum number of messages to return
+     * @return Dead letters, oldest first
+     */
+    @Override
+    public Uni<List<JobMessage>> deadLetters(int limit) {
+        return this.stream.xrange(DLQ_STREAM, StreamRange.of("-", "+"), limit)
+                          .map(messages -> messages.stream()
+                                                   .map(message -> new JobMessage(message.id(), message.payload()))
+                                                   .collect(Collectors.toList()));
+    }
+
+    /***
+     * Get a message from the dead-letter stream
+     * @param id is the ID of the dead letter
+     * @return The dead letter, null if not found
+     */
+    @Override
+    public Uni<JobMessage> deadLetter(String id) {
+        return this.stream.xrange(DLQ_STREAM, StreamRange.of(id, id), 1)
+                          .map(messages -> (null == messages || messages.isEmpty()) ? null :
+                                           new JobMessage(messages.get(0).id(), messages.get(0).payload()));
+    }
+
+    /***
+     * Remove a message from the dead-letter stream
+     * @param id is the ID of the dead letter
+     * @return True if the dead letter was removed
+     */
+    @Override
+    public Uni<Boolean> removeDeadLetter(String id) {
+        return this.stream.xdel(DLQ_STREAM, id).map(count -> count > 0);
+    }
+
+    /***
+     * Sample length and pending entries of all job streams
+     * @return Backlog statistics
+     */
+    @Override
+    public Uni<JobStoreStats> stats() {
+
+        final var stats = new JobStoreStats();
+
+        return Multi.createFrom().iterable(allStreams())
+
+            .onItem().transformToUniAndConcatenate(this::streamStats)
+            .collect().asList()
+            .chain(streamStats -> {
+                stats.streams.addAll(streamStats);
+                return this.stream.xlen(DLQ_STREAM);
+            })
+            .map(length -> {
+                stats.deadLetters = length;
+                return stats;
+            });
+    }
+
+    /***
+     * Sample length and pending entries of a job stream
+     * @param jobStream is the name of the job stream
+     * @return Backlog statistics of the job stream
+     */
+    private Uni<JobStoreStats.StreamStats> streamStats(String jobStream) {
+
+        final var stats = new JobStoreStats.StreamStats(jobStream);
+
+        return this.stream.xlen(jobStream)
+
+            .chain(length -> {
+                // Got stream length
+                stats.length = length;
+                return this.stream.xpending(jobStream, GROUP);
+            })
+            .chain(pending -> {
+                // Got pending summary
+                stats.pending.putAll(pending.getConsumers());
+                if(0 == pending.getPendingCount())
+                    return Uni.createFrom().item(stats);
+
+                // Unfinished transfers stay pending, but healthy collectors claim them again
+                // every poll interval, so look at how long since they were last delivered
+                return this.stream.xpending(jobStream, GROUP, StreamRange.of("-", "+"), PENDING_SAMPLE)
+                    .map(messages -> {
+                        for(var message : messages) {
+                            var idle = message.getDurationSinceLastDelivery();
+                            if(null != idle)
+                                stats.maxPendingIdle = Math.max(stats.maxPendingIdle, idle.toMillis());
+                        }
+
+                        return stats;
+                    });
+            });
+    }
+}
@@ -0,0 +1,337 @@
+package eosc.eu;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.smallrye.mutiny.Multi;
+import io.smallrye.mutiny.Uni;
+import io.vertx.mutiny.core.Vertx;
+import io.vertx.mutiny.ext.web.client.WebClient;
+import org.jboss.logging.Logger;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import eosc.eu.model.Transfer;
+import eosc.eu.model.TransferPayload;
+
+
+/***
+ * Orders the replicas of the files to transfer so that the transfer service tries the
+ * fastest source first, and optionally drops the replicas that are much slower.
+ * Each source storage system gets a score: the rolling latency of cheap HEAD requests
+ * (for HTTP(S) and WebDAV sources on the hosts in "eosc.service.storage.probe-hosts"
+ * that resolve to public addresses), and the recent throughput of finished transfers
+ * from it (from the link statistics). Scores are refreshed when older than the probe TTL,
+ * and are exposed as metrics so that slow or unreachable sites can be spotted.
+ *
+ * Replicas are only reordered when all reachable ones have a score, otherwise the order
+ * given by the client is kept, except that unreachable sources are moved last.
+ */
+@ApplicationScoped
+public class ReplicaPlanner {
+
+    private static final Logger log = Logger.getLogger(ReplicaPlanner.class);
+
+    public static final String METRIC_LATENCY = "transfers.sources.latency";
+    public static final String METRIC_THROUGHPUT = "transfers.sources.throughput";
+    public static final String METRIC_REACHABLE = "transfers.sources.reachable";
+
+    private static final long MIN_SIZE = 1024 * 1024; // transfers of smaller files are dominated by latency
+
+    /***
+     * The score of a source storage system
+     */
+    static class SourceScore {
+        final String host;
+        volatile double latency = -1;       // milliseconds, rolling average, negative if unknown
+        volatile double throughput = -1;    // bytes/second, negative if unknown
+        volatile boolean reachable = true;
+        volatile long probedAt = 0;
+        volatile long usedAt = 0;
+        final List<Meter> meters = new ArrayList<>(3);
+
+        /***
+         * Constructor
+         * @param host is the source storage system
+         */
+        SourceScore(String host) {
+            this.host = host;
+        }
+
+        /***
+         * Check if anything is known about the speed of this source
+         * @return True if latency or throughput is known
+         */
+        boolean isKnown() {
+            return this.latency >= 0 || this.throughput > 0;
+        }
+
+        /***
+         * Get the expected time to transfer a file from this source
+         * @param size is the size of the file, 0 or negative if unknown
+         * @return Seconds, lower is better
+         */
+        double expectedSeconds(long size) {
+            if(!this.reachable)
+                return Double.POSITIVE_INFINITY;
+
+            var seconds = Math.max(0, this.latency) / 1000.0;
+            if(this.throughput > 0)
+                seconds += Math.max(size, MIN_SIZE) / this.throughput;
+
+            return seconds;
+        }
+    }
+
+    @Inject
+    ServiceConfig service;
+
+    @Inject
+    LinkStatistics linkStatistics;
+
+    @Inject
+    MeterRegistry registry;
+
+    @Inject
+    Vertx vertx;
+
+    private final Map<String, SourceScore> scores = new ConcurrentHashMap<>();
+    private WebClient client;
+
+
+    /***
+     * Constructor
+     */
+    public ReplicaPlanner() {}
+
+    /***
+     * Create the client after instance creation
+     */
+    @PostConstruct
+    void init() {
+        this.client = WebClient.create(vertx);
+    }
+
+    /***
+     * Order the replicas of the files of a transfer, fastest first.
+     * Only files with more than one source are changed, in place.
+     * @param transfer is the transfer to plan
+     * @return Completion, never fails
+     */
+    public Uni<Void> plan(Transfer transfer) {
+        final var config = service.planner();
+        if(!config.enabled() || null == transfer || null == transfer.files)
+            return Uni.createFrom().voidItem();
+
+        // Collect the source storage systems of the files that have replicas
+        final var now = System.currentTimeMillis();
+        final var stale = new HashMap<String, String>();
+        boolean replicas = false;
+        for(var payload : transfer.files) {
+            if(null == payload || null == payload.sources || payload.sources.size() < 2)
+                continue;
+
+            replicas = true;
+            for(var source : payload.sources) {
+                var host = LinkStatistics.storageSystem(source);
+                if(LinkStatistics.ANY.equals(host))
+                    continue;
+
+                var score = score(host);
+                score.usedAt = now;
+                if(now - score.probedAt > config.probeTtl() * 1000L) {
+                    // Claim the probe, so that concurrent transfers do not repeat it
+                    score.probedAt = now;
+                    stale.putIfAbsent(host, source);
+                }
+            }
+        }
+
+        if(!replicas)
+            return Uni.createFrom().voidItem();
+
+        return Multi.createFrom().iterable(stale.entrySet())
+            .onItem().transformToUni(entry -> refresh(this.scores.get(entry.getKey()), entry.getValue()))
+            .merge(Math.max(1, config.probeConcurrency()))
+            .collect().last()
+            .invoke(unused -> {
+                int reordered = 0, pruned = 0;
+                for(var payload : transfer.files) {
+                    if(null == payload || null == payload.sources || payload.sources.size() < 2)
+                        continue;
+
+                    var before = payload.sources;
+                    payload.sources = order(payload);
+                    if(payload.sources.size() < before.size())
+                        pruned += before.size() - payload.sources.size();
+                    else if(!payload.sources.equals(before))
+                        reordered++;
+                }
+
+                if(reordered > 0 || pruned > 0)
+                    log.infof("Reordered replicas of %d files, dropped %d slow or unreachable replicas", reordered, pruned);
+            })
+            .onFailure().recoverWithItem(e -> {
+                log.warnf("Cannot order replicas (%s)", e.getMessage());
+                return null;
+            })
+            .replaceWithVoid()
+            .invoke(this::evict);
+    }
+
+    /***
+     * Order the sources of a file
+     * @param payload is the file, with more than one source
+     * @return Sources, fastest first, without the ones that should be dropped
+     */
+    private List<String> order(TransferPayload payload) {
+        final long size = null != payload.size ? payload.size : 0;
+        final var sources = new ArrayList<String>(payload.sources);
+        final var known = new HashMap<String, SourceScore>();
+        boolean allKnown = true;
+        boolean anyReachable = false;
+        for(var source : sources) {
+            var score = this.scores.get(LinkStatistics.storageSystem(source));
+            if(null != score)
+                known.put(source, score);
+
+            var reachable = null == score || score.reachable;
+            anyReachable |= reachable;
+            if(reachable && (null == score || !score.isKnown()))
+                allKnown = false;
+        }
+
+        if(allKnown) {
+            // Stable, so equally fast replicas keep the order of the client
+            sources.sort(Comparator.comparingDouble(source -> known.get(source).expectedSeconds(size)));
+        } else {
+            // Only move unreachable sources last
+            sources.sort(Comparator.comparing(source -> null != known.get(source) && !known.get(source).reachable));
+        }
+
+        if(!anyReachable)
+            // Let the transfer service try anyway
+            return sources;
+
+        final var pruneFactor = service.planner().pruneFactor();
+        final var best = (null != known.get(sources.get(0))) ? known.get(sources.get(0)).expectedSeconds(size) : -1;
+        final var kept = new ArrayList<String>(sources.size());
+        for(var source : sources) {
+            var score = known.get(source);
+            if(null != score && !score.reachable)
+                continue;
+            if(allKnown && pruneFactor > 0 && best > 0 && score.expectedSeconds(size) > pruneFactor * best)
+                continue;
+
+            kept.add(source);
+        }
+
+        return kept.isEmpty() ? sources : kept;
+    }
+
+    /***
+     * Refresh the score of a source storage system
+     * @param score is the score to refresh
+     * @param source is the URL of a file at the source, to probe
+     * @return The refreshed score, never fails
+     */
+    private Uni<SourceScore> refresh(SourceScore score, String source) {
+        final var config = service.planner();
+        final var started = System.nanoTime();
+
+        // Only sources on allowed public hosts are probed, others keep the scores from transfers
+        Uni<Void> probe = SourceSizes.toProbe(source, service.storage().probeHosts().orElse(null))
+            .chain(url -> {
+                if(null == url)
+                    // No cheap or allowed way to probe this source
+                    return Uni.createFrom().voidItem();
+
+                return this.client.headAbs(url)
+                    .followRedirects(false)
+                    .send()
+                    .map(response -> {
+                        // Any answer but a server error means the source is there
+                        var latency = (System.nanoTime() - started) / 1e6;
+                        var alpha = Math.min(1, Math.max(0, config.smoothing()));
+                        score.latency = (score.latency < 0) ? latency : alpha * latency + (1 - alpha) * score.latency;
+                        score.reachable = response.statusCode() < 500;
+                        return null;
+                    })
+                    .replaceWithVoid();
+            })
+            .ifNoItem()
+                .after(Duration.ofMillis(config.probeTimeout()))
+                .failWith(new TransferServiceException("probeTimeout"))
+            .onFailure().recoverWithItem(e -> {
+                log.debugf("Cannot probe source %s (%s)", score.host, e.getMessage());
+                score.reachable = false;
+                return null;
+            });
+
+        return probe
+            .chain(unused -> linkStatistics.throughput(source, null))
+            .invoke(throughput -> {
+                if(null != throughput)
+                    score.throughput = throughput;
+
+                log.debugf("Source %s latency %.0fms throughput %.0fB/s %s", score.host,
+                           score.latency, score.throughput, score.reachable ? "reachable" : "unreachable");
+            })
+            .onFailure().recoverWithNull()
+            .replaceWith(score);
+    }
+
+    /***
+     * Get the score of a source storage system, registering its metrics on first use
+     * @param host is the source storage system
+     * @return Score of the source
+     */
+    private SourceScore score(String host) {
+        return this.scores.computeIfAbsent(host, key -> {
+            var score = new SourceScore(key);
+            var tags = Tags.of("source", key);
+            score.meters.add(Gauge.builder(METRIC_LATENCY, score, s -> s.latency < 0 ? Double.NaN : s.latency)
+                                  .description("Rolling latency of probes of a source storage system, in milliseconds")
+                                  .tags(tags)
+                                  .register(registry));
+            score.meters.add(Gauge.builder(METRIC_THROUGHPUT, score, s -> s.throughput < 0 ? Double.NaN : s.throughput)
+                                  .description("Recent throughput of transfers from a source storage system, in bytes/second")
+                                  .tags(tags)
+                                  .register(registry));
+            score.meters.add(Gauge.builder(METRIC_REACHABLE, score, s -> s.reachable ? 1 : 0)
+                                  .description("Whether the last probe of a source storage system got an answer")
+                                  .tags(tags)
+                                  .register(registry));
+            return score;
+        });
+    }
+
+    /***
+     * Forget the least recently used sources, and their metrics, beyond the maximum number of sources
+     */
+    private void evict() {
+        var excess = this.scores.size() - Math.max(1, service.planner().maxHosts());
+        if(excess <= 0)
+            return;
+
+        this.scores.values().stream()
+            .sorted(Comparator.comparingLong(score -> score.usedAt))
+            .limit(excess)
+            .toList()
+            .forEach(score -> {
+                if(this.scores.remove(score.host, score))
+                    score.meters.forEach(registry::remove);
+            });
+    }
+}
@@ -4,6 +4,8 @@ import io.smallrye.config.ConfigMapping;
 import io.smallrye.config.WithDefault;
 import io.smallrye.config.WithName;
 
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 
@@ -16,12 +18,30 @@ public interface ServiceConfig {
     // Unique instance ID
     Optional<String> instance();
 
+    // Check-in user IDs allowed to call the administration endpoints
+    Optional<List<String>> admins();
+
     // Contains details of the OIDC client
     CheckinConfig checkin();
 
     // Contains details of the service accounting
     AccountingConfig accounting();
 
+    // Contains settings for storage element manipulation
+    StorageConfig storage();
+
+    // Contains settings for the statistics of past transfers
+    StatisticsConfig statistics();
+
+    // Contains settings for deferred and off-peak transfers
+    SchedulerConfig scheduler();
+
+    // Contains settings for picking the best replica of each file
+    PlannerConfig planner();
+
+    // Contains settings for checking destinations before transfers are submitted
+    PreflightConfig preflight();
+
     /***
      * Configuration for OIDC integration
      */
@@ -59,5 +79,415 @@ public interface ServiceConfig {
 
         @WithDefault("5000")
         int timeout(); // milliseconds
+
+        // How many times to try to account for a transfer before moving it to the dead-letter stream
+        @WithName("max-attempts")
+        @WithDefault("10")
+        int maxAttempts();
+
+        // Delay before the first retry, doubled after each failed attempt
+        @WithName("retry-delay")
+        @WithDefault("60") // seconds
+        int retryDelay();
+
+        @WithName("max-retry-delay")
+        @WithDefault("3600") // seconds
+        int maxRetryDelay();
+
+        // Number of job streams, transfers are assigned to one by hashing the job ID
+        // Note: Changing this requires draining the existing job streams first
+        @WithDefault("1")
+        int shards();
+
+        // How often collectors announce themselves and rebalance the job streams between them
+        @WithName("rebalance-interval")
+        @WithDefault("30") // seconds
+        int rebalanceInterval();
+
+        // How often to sample the job streams for backlog metrics
+        @WithName("metrics-interval")
+        @WithDefault("15") // seconds
+        int metricsInterval();
+
+        // Maximum number of job stream messages to process at once
+        @WithName("batch-size")
+        @WithDefault("10")
+        int batchSize();
+
+        // Maximum number of acknowledged messages kept per job stream, not set to not trim by length
+        // Note: Only acknowledged messages are trimmed, needs Redis 8.2+
+        @WithName("trim-max-length")
+        Optional<Long> trimMaxLength();
+
+        // Maximum age of acknowledged messages kept in the job streams, used if no maximum length is set
+        @WithName("trim-max-age")
+        Optional<Long> trimMaxAge(); // seconds
+
+        // Where to keep transfers until they are accounted for, one of redis, memory or file
+        // Note: memory and file are only suitable for single-node setups
+        @WithName("job-store")
+        @WithDefault("redis")
+        String jobStore();
+
+        // Log file of the file job store
+        @WithName("job-store-file")
+        @WithDefault("data/jobs.log")
+        String jobStoreFile();
+
+        // Initial size of the log file, grows as needed
+        @WithName("job-store-file-size")
+        @WithDefault("16") // megabytes
+        int jobStoreFileSize();
+
+        // Flush the log file to disk after every change, survives power loss (not just crashes)
+        @WithName("job-store-sync")
+        @WithDefault("false")
+        boolean jobStoreSync();
+    }
+
+    /***
+     * Configuration for storage element manipulation
+     */
+    interface StorageConfig {
+
+        // Maximum number of folders listed in parallel when summarizing a folder tree
+        @WithName("summary-concurrency")
+        @WithDefault("8")
+        int summaryConcurrency();
+
+        // Maximum depth of a folder tree summary
+        @WithName("summary-max-depth")
+        @WithDefault("32")
+        int summaryMaxDepth();
+
+        // Maximum number of elements in the flat listing of a folder tree summary
+        @WithName("summary-max-elements")
+        @WithDefault("10000")
+        int summaryMaxElements();
+
+        // How long to keep folder tree summaries, 0 disables caching
+        @WithName("summary-cache-ttl")
+        @WithDefault("60") // seconds
+        int summaryCacheTtl();
+
+        // Maximum number of cached folder tree summaries
+        @WithName("summary-cache-size")
+        @WithDefault("1000")
+        int summaryCacheSize();
+
+        // Maximum number of elements examined for one page of a filtered listing, 0 for no limit
+        @WithName("list-max-scan")
+        @WithDefault("10000")
+        int listMaxScan();
+
+        // How long details and listings of storage elements are used without checking the storage, 0 disables caching
+        @WithName("metadata-cache-ttl")
+        @WithDefault("30") // seconds
+        int metadataCacheTtl();
+
+        // How long listings are kept, to be revalidated with the ETag or modification time of their folder
+        @WithName("metadata-cache-revalidate")
+        @WithDefault("300") // seconds
+        int metadataCacheRevalidate();
+
+        // Maximum number of cached details and listings
+        @WithName("metadata-cache-size")
+        @WithDefault("10000")
+        int metadataCacheSize();
+
+        // Maximum number of storage elements looked up in parallel when getting details of many
+        @WithName("info-concurrency")
+        @WithDefault("16")
+        int infoConcurrency();
+
+        // Maximum number of destination folders listed in parallel when syncing a transfer
+        @WithName("sync-list-concurrency")
+        @WithDefault("8")
+        int syncListConcurrency();
+
+        // Maximum number of files compared with their source in parallel when syncing a transfer
+        @WithName("sync-check-concurrency")
+        @WithDefault("16")
+        int syncCheckConcurrency();
+
+        // Maximum number of storage elements in one request for details
+        @WithName("info-max-elements")
+        @WithDefault("1000")
+        int infoMaxElements();
+
+        // How long a request waits for a long-running operation before returning its progress instead
+        @WithName("operation-wait")
+        @WithDefault("30") // seconds
+        int operationWait();
+
+        // How long to keep finished operations, so their outcome can be queried
+        @WithName("operation-ttl")
+        @WithDefault("3600") // seconds
+        int operationTtl();
+
+        // Maximum number of finished operations to keep
+        @WithName("operation-cache-size")
+        @WithDefault("10000")
+        int operationCacheSize();
+
+        // Maximum number of long-running operations to run at once, per instance
+        @WithName("operation-concurrency")
+        @WithDefault("8")
+        int operationConcurrency();
+
+        // Maximum number of long-running operations waiting for their turn, per instance
+        @WithName("operation-queue-size")
+        @WithDefault("1000")
+        int operationQueueSize();
+
+        // Where to publish the progress of long-running operations, one of redis or memory
+        // Note: memory is only suitable for single-node setups
+        @WithName("operation-store")
+        @WithDefault("redis")
+        String operationStore();
+
+        // How often to publish the progress of running operations
+        @WithName("operation-sync-interval")
+        @WithDefault("5") // seconds
+        int operationSyncInterval();
+
+        // Maximum number of files copied at once by a transfer done server-side, without the transfer service
+        @WithName("local-transfer-concurrency")
+        @WithDefault("4")
+        int localTransferConcurrency();
+
+        // Maximum number of files in a transfer that is done server-side, bigger ones go through the transfer service
+        @WithName("local-transfer-max-files")
+        @WithDefault("1000")
+        int localTransferMaxFiles();
+
+        // How long to keep finished server-side transfers, they must still be there when accounting for them,
+        // which includes all its retries (see accounting.max-attempts and accounting.max-retry-delay)
+        @WithName("local-transfer-ttl")
+        @WithDefault("604800") // seconds
+        int localTransferTtl();
+
+        // Maximum number of finished server-side transfers to keep in memory
+        @WithName("local-transfer-cache-size")
+        @WithDefault("10000")
+        int localTransferCacheSize();
+
+        // Hosts that may be probed with HEAD requests to learn about sources (e.g. their sizes),
+        // exact names or domains starting with a dot, none are probed when empty.
+        // Hosts with loopback, link-local, private or other non-public addresses are never probed.
+        @WithName("probe-hosts")
+        Optional<List<String>> probeHosts();
+
+        // Maximum number of sources checked at once when verifying the sizes in an estimation
+        @WithName("estimate-concurrency")
+        @WithDefault("32")
+        int estimateConcurrency();
+
+        // How long to wait for the size of one source
+        @WithName("estimate-timeout")
+        @WithDefault("3000") // milliseconds
+        int estimateTimeout();
+
+        // How long to keep checking sources, the sizes of the remaining files are not verified
+        @WithName("estimate-deadline")
+        @WithDefault("20") // seconds
+        int estimateDeadline();
+
+        // How long to remember the size of a source
+        @WithName("estimate-cache-ttl")
+        @WithDefault("600") // seconds
+        int estimateCacheTtl();
+
+        // Maximum number of source sizes to remember
+        @WithName("estimate-cache-size")
+        @WithDefault("100000")
+        int estimateCacheSize();
+    }
+
+    /***
+     * Configuration for the statistics of past transfers
+     */
+    interface StatisticsConfig {
+
+        // Where to keep the statistics, "redis" or "memory" (single node only)
+        @WithDefault("redis")
+        String store();
+
+        // How fast past transfers stop counting, after this long they count half
+        @WithName("half-life")
+        @WithDefault("604800") // seconds
+        int halfLife();
+
+        // How many recent transfers a link needs before its own statistics are used
+        @WithName("min-samples")
+        @WithDefault("3")
+        double minSamples();
+
+        // Probability that the duration of a transfer falls between the predicted bounds
+        @WithDefault("0.8")
+        double confidence();
+    }
+
+    /***
+     * Configuration for deferred and off-peak transfers
+     */
+    interface SchedulerConfig {
+
+        // Whether transfers can be scheduled, needs Redis
+        @WithDefault("false")
+        boolean enabled();
+
+        // How often to release scheduled transfers that are due
+        @WithDefault("30") // seconds
+        int interval();
+
+        // How far in the future transfers can be scheduled
+        @WithName("max-delay")
+        @WithDefault("604800") // seconds
+        long maxDelay();
+
+        // Maximum number of transfers waiting to be released
+        @WithName("max-queued")
+        @WithDefault("10000")
+        int maxQueued();
+
+        // How long to keep scheduled transfers after they were due
+        @WithDefault("604800") // seconds
+        long retention();
+
+        // When off-peak transfers can be released, "HH:mm-HH:mm"
+        @WithName("off-peak")
+        @WithDefault("20:00-06:00")
+        String offPeak();
+
+        // Time zone of the off-peak windows
+        @WithName("time-zone")
+        @WithDefault("UTC")
+        String timeZone();
+
+        // Maximum number of released transfers running at once, per destination
+        @WithName("max-active")
+        @WithDefault("4")
+        int maxActive();
+
+        // Maximum number of bytes of released transfers running at once, per destination, 0 for no limit
+        @WithName("max-bytes")
+        @WithDefault("0")
+        long maxBytes();
+
+        // Delay before trying again to release a transfer the transfer service did not take, doubled on each attempt
+        @WithName("retry-delay")
+        @WithDefault("60") // seconds
+        int retryDelay();
+
+        // Longest delay between attempts to release a transfer
+        @WithName("max-retry-delay")
+        @WithDefault("3600") // seconds
+        int maxRetryDelay();
+
+        // Attempts to release a transfer before failing it
+        @WithName("max-attempts")
+        @WithDefault("10")
+        int maxAttempts();
+
+        // Base64-encoded AES key (16, 24 or 32 bytes) to encrypt the credentials kept for scheduled transfers,
+        // transfers cannot be scheduled without it
+        @WithName("credentials-key")
+        Optional<String> credentialsKey();
+
+        // Name of the OIDC client that exchanges the access token of the user for a refresh token,
+        // used to start scheduled transfers on behalf of the user
+        @WithName("delegation-client")
+        @WithDefault("delegation")
+        String delegationClient();
+
+        // How long a transfer being released is reserved, then it can be released again
+        @WithDefault("300") // seconds
+        int lease();
+
+        // Overrides per destination
+        Map<String, SchedulerDestinationConfig> destinations();
+
+        /***
+         * Configuration of the scheduling for a destination
+         */
+        interface SchedulerDestinationConfig {
+
+            @WithName("off-peak")
+            Optional<String> offPeak();
+
+            @WithName("max-active")
+            Optional<Integer> maxActive();
+
+            @WithName("max-bytes")
+            Optional<Long> maxBytes();
+        }
+    }
+
+    /***
+     * Configuration for ordering the replicas of files by how fast their sources are
+     */
+    interface PlannerConfig {
+
+        // Whether replicas are reordered before transfers are submitted
+        @WithDefault("false")
+        boolean enabled();
+
+        // How long a probe of a source storage system counts, before it is probed again
+        @WithName("probe-ttl")
+        @WithDefault("300") // seconds
+        int probeTtl();
+
+        // How long to wait for a probe of a source storage system
+        @WithName("probe-timeout")
+        @WithDefault("2000") // milliseconds
+        int probeTimeout();
+
+        // Maximum number of source storage systems probed at once
+        @WithName("probe-concurrency")
+        @WithDefault("16")
+        int probeConcurrency();
+
+        // Weight of the newest probe in the rolling latency of a source storage system
+        @WithDefault("0.3")
+        double smoothing();
+
+        // Drop replicas expected to be this many times slower than the best one, 0 to keep all
+        @WithName("prune-factor")
+        @WithDefault("0")
+        double pruneFactor();
+
+        // Maximum number of source storage systems to keep scores for
+        @WithName("max-hosts")
+        @WithDefault("1000")
+        int maxHosts();
+    }
+
+    /***
+     * Configuration for checking the destination folders before transfers are submitted
+     */
+    interface PreflightConfig {
+
+        // Whether destination folders are checked before transfers are submitted
+        @WithDefault("false")
+        boolean enabled();
+
+        // Maximum number of destination folders checked at once
+        @WithDefault("8")
+        int concurrency();
+
+        // How long to wait for the check of a destination folder, then let the transfer go
+        @WithDefault("5000") // milliseconds
+        int timeout();
+
+        // How long the outcome of a check is remembered, per folder and credentials, 0 to disable
+        @WithName("cache-ttl")
+        @WithDefault("60") // seconds
+        int cacheTtl();
+
+        // Maximum number of remembered outcomes
+        @WithName("cache-size")
+        @WithDefault("10000")
+        int cacheSize();
     }
 }
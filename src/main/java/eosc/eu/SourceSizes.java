@@ -0,0 +1,343 @@
+package eosc.eu;
+
+import io.smallrye.mutiny.Multi;
+import io.smallrye.mutiny.Uni;
+import io.smallrye.mutiny.infrastructure.Infrastructure;
+import io.smallrye.mutiny.tuples.Tuple2;
+import io.vertx.mutiny.core.Vertx;
+import io.vertx.mutiny.ext.web.client.WebClient;
+import org.jboss.logging.Logger;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+
+import java.net.InetAddress;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.UnknownHostException;
+import java.time.Duration;
+import java.util.List;
+
+import eosc.eu.model.TransferEstimationInfo;
+import eosc.eu.model.TransferPayloadEstimation;
+
+
+/***
+ * Finds the sizes of the files to transfer at their sources, so that estimations
+ * do not depend on the sizes provided by the client.
+ * Sources on the storage system of the destination are looked up through the storage
+ * service, HTTP(S) and WebDAV sources with a HEAD request. Sources are checked in
+ * parallel, and found sizes are remembered for a while.
+ *
+ * Sources come from the caller, so HEAD requests only go to the hosts allowed by the
+ * configuration setting "eosc.service.storage.probe-hosts", and never to internal addresses.
+ */
+@ApplicationScoped
+public class SourceSizes {
+
+    private static final Logger log = Logger.getLogger(SourceSizes.class);
+
+    private static final long UNKNOWN = -1;
+
+    @Inject
+    ServiceConfig service;
+
+    @Inject
+    Vertx vertx;
+
+    private WebClient client;
+    private TtlCache<String, Long> sizes;
+
+
+    /***
+     * Constructor
+     */
+    public SourceSizes() {}
+
+    /***
+     * Create the client and the cache after instance creation
+     */
+    @PostConstruct
+    void init() {
+        var config = service.storage();
+        this.client = WebClient.create(vertx);
+        this.sizes = new TtlCache<>(config.estimateCacheTtl() * 1000L, config.estimateCacheSize());
+    }
+
+    /***
+     * Check if a source can be looked up without a storage service
+     * @param source is the URL of the source
+     * @return True for HTTP(S) and WebDAV sources
+     */
+    public static boolean isHttp(String source) {
+        return null != toHttp(source);
+    }
+
+    /***
+     * Measure the files of a transfer at their sources.
+     * Sizes that cannot be found in time are taken from the files, the others are corrected in the files.
+     * @param files are the files to measure, with the sizes provided by the client
+     * @param ss is the storage service of the destination, null if none
+     * @param tsAuth is the access token for the storage service
+     * @param storageAuth are the credentials for the storage system
+     * @return Estimation with the total size, and how many sizes were verified
+     */
+    public Uni<TransferEstimationInfo> measure(List<TransferPayloadEstimation> files, StorageService ss,
+                                               String tsAuth, String storageAuth) {
+
+        final var config = service.storage();
+        final var deadline = System.currentTimeMillis() + config.estimateDeadline() * 1000L;
+
+        return Multi.createFrom().iterable(files)
+            .select().where(file -> null != file)
+            .onItem().transformToUni(file -> Uni.createFrom().deferred(() -> {
+                    if(System.currentTimeMillis() > deadline || null == file.sources)
+                        // Out of time, trust the provided size
+                        return Uni.createFrom().item(UNKNOWN);
+
+                    return size(file.sources, 0, ss, tsAuth, storageAuth);
+                })
+                .map(size -> Tuple2.of(file, size)))
+            .merge(Math.max(1, config.estimateConcurrency()))
+            .collect().in(() -> {
+                    var estimate = new TransferEstimationInfo();
+                    estimate.verifiedFiles = 0;
+                    estimate.correctedFiles = 0;
+                    estimate.unverifiedFiles = 0;
+                    return estimate;
+                }, (estimate, measured) -> {
+                    var provided = measured.getItem1().size;
+                    long size = measured.getItem2();
+                    if(UNKNOWN == size) {
+                        estimate.unverifiedFiles++;
+                        size = Math.max(0, provided);
+                    } else {
+                        estimate.verifiedFiles++;
+                        if(size != provided) {
+                            estimate.correctedFiles++;
+                            measured.getItem1().size = size;
+                        }
+                    }
+
+                    estimate.addFile(size);
+                })
+            .invoke(estimate -> log.infof("Verified sizes of %d files, corrected %d, could not verify %d",
+                                          estimate.verifiedFiles, estimate.correctedFiles,
+                                          estimate.unverifiedFiles));
+    }
+
+    /***
+     * Get the size of a file at its sources
+     * @param sources are the sources of the file
+     * @param ss is the storage service of the destination, null if none
+     * @param tsAuth is the access token for the storage service
+     * @param storageAuth are the credentials for the storage system
+     * @return Size in bytes from the first source that tells, negative if none does
+     */
+    public Uni<Long> size(List<String> sources, StorageService ss, String tsAuth, String storageAuth) {
+        if(null == sources)
+            return Uni.createFrom().item(UNKNOWN);
+
+        return size(sources, 0, ss, tsAuth, storageAuth);
+    }
+
+    /***
+     * Get the size of a file from the first source that tells
+     * @param sources are the sources of the file
+     * @param index is the first source to try
+     * @param ss is the storage service of the destination, null if none
+     * @param tsAuth is the access token for the storage service
+     * @param storageAuth are the credentials for the storage system
+     * @return Size in bytes, UNKNOWN if no source tells
+     */
+    private Uni<Long> size(List<String> sources, int index, StorageService ss, String tsAuth, String storageAuth) {
+        if(index >= sources.size())
+            return Uni.createFrom().item(UNKNOWN);
+
+        return size(sources.get(index), ss, tsAuth, storageAuth)
+            .chain(size -> (UNKNOWN != size) ? Uni.createFrom().item(size) :
+                                               size(sources, index + 1, ss, tsAuth, storageAuth));
+    }
+
+    /***
+     * Get the size of a source
+     * @param source is the URL of the source
+     * @param ss is the storage service of the destination, null if none
+     * @param tsAuth is the access token for the storage service
+     * @param storageAuth are the credentials for the storage system
+     * @return Size in bytes, UNKNOWN if not found
+     */
+    private Uni<Long> size(String source, StorageService ss, String tsAuth, String storageAuth) {
+        if(null == source || source.isBlank())
+            return Uni.createFrom().item(UNKNOWN);
+
+        final var baseUrl = null != ss ? ss.getServiceBaseUrl() : null;
+        final var onStorage = null != baseUrl && source.startsWith(baseUrl);
+        final var url = onStorage ? null : toHttp(source);
+        if(!onStorage && null == url)
+            // No way to check this source
+            return Uni.createFrom().item(UNKNOWN);
+
+        // Sizes seen with credentials are only shared with the same credentials
+        final var key = onStorage ? source + "|" + Utils.hashCredentials(tsAuth, storageAuth) : source;
+        var cached = this.sizes.get(key);
+        if(null != cached)
+            return Uni.createFrom().item(cached);
+
+        Uni<Long> probe;
+        if(onStorage) {
+            probe = ss.getStorageElementInfo(tsAuth, storageAuth, source)
+                .map(se -> (null != se && !se.isFolder) ? se.size : UNKNOWN);
+        }
+        else {
+            probe = toProbe(source, service.storage().probeHosts().orElse(null))
+                .chain(allowed -> null != allowed ? headSize(allowed) : Uni.createFrom().item(UNKNOWN));
+        }
+
+        return probe
+            .ifNoItem()
+                .after(Duration.ofMillis(service.storage().estimateTimeout()))
+                .failWith(new TransferServiceException("sizeTimeout"))
+            .onFailure().recoverWithItem(e -> {
+                log.debugf("Cannot get size of %s (%s)", source, e.getMessage());
+                return UNKNOWN;
+            })
+            .invoke(size -> {
+                if(size >= 0)
+                    this.sizes.put(key, size);
+            });
+    }
+
+    /***
+     * Get the size of a file with a HEAD request, without following redirects
+     * @param url is the HTTP(S) URL of the file, allowed to be probed
+     * @return Size in bytes, UNKNOWN if not found
+     */
+    private Uni<Long> headSize(String url) {
+        return this.client.headAbs(url)
+            .followRedirects(false)
+            .send()
+            .map(response -> {
+                if(response.statusCode() < 200 || response.statusCode() >= 300)
+                    return UNKNOWN;
+
+                var length = response.getHeader("Content-Length");
+                try {
+                    return null != length ? Long.parseLong(length.trim()) : UNKNOWN;
+                }
+                catch(NumberFormatException e) {
+                    return UNKNOWN;
+                }
+            });
+    }
+
+    /***
+     * Get the HTTP URL of a source
+     * @param source is the URL of the source
+     * @return HTTP(S) URL, null if the source is not reachable over HTTP
+     */
+    static String toHttp(String source) {
+        if(null == source)
+            return null;
+
+        var lower = source.toLowerCase();
+        if(lower.startsWith("http://") || lower.startsWith("https://"))
+            return source;
+        if(lower.startsWith("davs://"))
+            return "https://" + source.substring(7);
+        if(lower.startsWith("dav://"))
+            return "http://" + source.substring(6);
+
+        return null;
+    }
+
+    /***
+     * Get the HTTP URL of a source that may be probed. Only sources on allowed hosts are,
+     * and only if all the addresses of the host are public, so that callers cannot make
+     * this service reach internal systems. Resolving the host blocks, so it is done on a
+     * worker thread. Redirects must not be followed when probing the returned URL.
+     * @param source is the URL of the source
+     * @param hosts are the hosts that may be probed, exact names or domains starting with a dot
+     * @return HTTP(S) URL, null if the source must not be probed
+     */
+    static Uni<String> toProbe(String source, List<String> hosts) {
+        final var url = toHttp(source);
+        if(null == url || null == hosts || hosts.isEmpty())
+            return Uni.createFrom().nullItem();
+
+        String host;
+        try {
+            host = new URI(url).getHost();
+        }
+        catch(URISyntaxException e) {
+            return Uni.createFrom().nullItem();
+        }
+
+        if(null == host || !isAllowedHost(host, hosts))
+            return Uni.createFrom().nullItem();
+
+        return Uni.createFrom().item(() -> {
+                try {
+                    for(var address : InetAddress.getAllByName(host))
+                        if(!isPublic(address)) {
+                            log.debugf("Not probing %s, it has the internal address %s", host, address.getHostAddress());
+                            return null;
+                        }
+
+                    return url;
+                }
+                catch(UnknownHostException e) {
+                    return null;
+                }
+            })
+            .runSubscriptionOn(Infrastructure.getDefaultWorkerPool());
+    }
+
+    /***
+     * Check if a host is in the allow-list
+     * @param host is the host name
+     * @param hosts are the allowed hosts, exact names or domains starting with a dot
+     * @return True if the host may be probed
+     */
+    static boolean isAllowedHost(String host, List<String> hosts) {
+        host = host.toLowerCase();
+        if(host.endsWith("."))
+            host = host.substring(0, host.length() - 1);
+
+        for(var allowed : hosts) {
+            if(null == allowed || allowed.isBlank())
+                continue;
+
+            allowed = allowed.trim().toLowerCase();
+            if(allowed.startsWith(".") ? host.endsWith(allowed) : host.equals(allowed))
+                return true;
+        }
+
+        return false;
+    }
+
+    /***
+     * Check if an address is reachable from the Internet
+     * @param address is the address to check
+     * @return False for loopback, link-local, private, shared (CGNAT), unique local and multicast addresses
+     */
+    static boolean isPublic(InetAddress address) {
+        if(address.isAnyLocalAddress() || address.isLoopbackAddress() || address.isLinkLocalAddress() ||
+           address.isSiteLocalAddress() || address.isMulticastAddress())
+            return false;
+
+        var bytes = address.getAddress();
+        if(4 == bytes.length) {
+            // 0.0.0.0/8 and 100.64.0.0/10
+            if(0 == bytes[0] || (100 == (bytes[0] & 0xff) && 64 == (bytes[1] & 0xc0)))
+                return false;
+        }
+        else if(0xfc == (bytes[0] & 0xfe)) {
+            // fc00::/7
+            return false;
+        }
+
+        return true;
+    }
+}
@@ -0,0 +1,248 @@
+package eosc.eu;
+
+import org.jboss.logging.Logger;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/***
+ * Caches details and listings of storage elements, per credentials, for a short while.
+ * Entries are dropped when this service changes the storage element they describe,
+ * or any folder above it. Listings that have a validator (ETag or last modification time
+ * of the folder) are kept longer, and once no longer fresh they are revalidated by
+ * comparing the validator, instead of listing the folder again.
+ * Changes are remembered, regardless of how many there are, for as long as the entries
+ * they affect may be cached, so that eviction never brings back an outdated entry.
+ * Note: Only changes made through this instance are noticed before the entries expire.
+ */
+@ApplicationScoped
+public class StorageMetadataCache {
+
+    private static final Logger log = Logger.getLogger(StorageMetadataCache.class);
+
+    /***
+     * A cached value
+     */
+    public static class Cached<T> {
+        public final T value;
+        public final String validator;
+        final long storedAt;
+        volatile long validatedAt;
+
+        /***
+         * Constructor
+         * @param value is the cached value
+         * @param validator can tell if the value changed, null if not available
+         * @param storedAt is when the value was requested from the storage system
+         */
+        Cached(T value, String validator, long storedAt) {
+            this.value = value;
+            this.validator = validator;
+            this.storedAt = storedAt;
+            this.validatedAt = storedAt;
+        }
+    }
+
+    @Inject
+    ServiceConfig service;
+
+    private TtlCache<String, Cached<?>> entries;
+    private final Map<String, Long> treeChanges = new ConcurrentHashMap<>();
+    private final Map<String, Long> elementChanges = new ConcurrentHashMap<>();
+    private final AtomicLong sweptAt = new AtomicLong(0);
+    private long ttl;
+    private long keep;
+
+
+    /***
+     * Constructor
+     */
+    public StorageMetadataCache() {}
+
+    /***
+     * Create the caches after instance creation
+     */
+    @PostConstruct
+    void init() {
+        var config = service.storage();
+        this.ttl = config.metadataCacheTtl() * 1000L;
+
+        // Changes must be remembered as long as the entries they affect
+        this.keep = this.ttl > 0 ? Math.max(this.ttl, config.metadataCacheRevalidate() * 1000L) : 0;
+        this.entries = new TtlCache<>(this.keep, config.metadataCacheSize());
+
+        if(!isEnabled())
+            log.info("Storage metadata cache disabled");
+    }
+
+    /***
+     * Check if caching is enabled
+     * @return True if metadata is cached
+     */
+    public boolean isEnabled() {
+        return this.ttl > 0;
+    }
+
+    /***
+     * Add caching to a storage service
+     * @param ss is the storage service to wrap
+     * @return Storage service that uses the cache, or the passed one if caching is disabled
+     */
+    public StorageService wrap(StorageService ss) {
+        if(!isEnabled() || null == ss || ss instanceof CachingStorageService)
+            return ss;
+
+        return new CachingStorageService(ss, this);
+    }
+
+    /***
+     * Build the key of a cache entry
+     * @param kind is the kind of metadata
+     * @param credentials identify whose view of the storage this is
+     * @param seUri is the storage element
+     * @param variant distinguishes entries for the same element (e.g. pages of a listing)
+     * @return Cache key
+     */
+    public static String key(String kind, String credentials, String seUri, String variant) {
+        return String.format("%s|%s|%s|%s", kind, credentials, seUri, null != variant ? variant : "");
+    }
+
+    /***
+     * Get a cached value, unless the storage element changed since it was cached
+     * @param key is the key of the entry
+     * @param seUri is the storage element the entry describes
+     * @return Cached value, null if not cached or outdated
+     */
+    @SuppressWarnings("unchecked")
+    public <T> Cached<T> get(String key, String seUri) {
+        var entry = this.entries.get(key);
+        if(null == entry)
+            return null;
+
+        if(changedSince(seUri, entry.storedAt)) {
+            this.entries.remove(key, entry);
+            return null;
+        }
+
+        return (Cached<T>)entry;
+    }
+
+    /***
+     * Check if a cached value can be used without revalidation
+     * @param entry is the cached value
+     * @return True if still fresh
+     */
+    public boolean isFresh(Cached<?> entry) {
+        return System.currentTimeMillis() - entry.validatedAt < this.ttl;
+    }
+
+    /***
+     * Mark a cached value as fresh again, after the storage element was found unchanged
+     * @param entry is the cached value
+     */
+    public void revalidated(Cached<?> entry) {
+        entry.validatedAt = System.currentTimeMillis();
+    }
+
+    /***
+     * Cache a value
+     * @param key is the key of the entry
+     * @param value is the value to cache
+     * @param validator can tell if the value changed, null if not available
+     * @param requestedAt is when the value was requested from the storage system, changes made
+     *                    after this moment make the value outdated
+     */
+    public <T> void put(String key, T value, String validator, long requestedAt) {
+        this.entries.put(key, new Cached<>(value, validator, requestedAt));
+    }
+
+    /***
+     * Record that this service changed a storage element, so the entries that describe
+     * it, anything below it, and the listing of its parent are no longer used
+     * @param seUri is the storage element that changed
+     */
+    public void changed(String seUri) {
+        if(null == seUri || !isEnabled())
+            return;
+
+        final var now = System.currentTimeMillis();
+        final var path = normalize(seUri);
+        this.treeChanges.put(path, now);
+
+        var parent = parentOf(path);
+        if(null != parent)
+            this.elementChanges.put(parent, now);
+
+        sweep(now);
+    }
+
+    /***
+     * Forget the changes older than any cached entry, at most once per entry lifetime
+     * @param now is the current time
+     */
+    private void sweep(long now) {
+        var last = this.sweptAt.get();
+        if(now - last < this.keep || !this.sweptAt.compareAndSet(last, now))
+            return;
+
+        // Entries are stored after they were requested, leave room for slow requests
+        final var oldest = now - 2 * this.keep;
+        this.treeChanges.values().removeIf(changedAt -> changedAt < oldest);
+        this.elementChanges.values().removeIf(changedAt -> changedAt < oldest);
+    }
+
+    /***
+     * Check if a storage element, or a folder above it, was changed by this service
+     * @param seUri is the storage element
+     * @param since is the moment to check from
+     * @return True if changed at or after the moment
+     */
+    private boolean changedSince(String seUri, long since) {
+        var path = normalize(seUri);
+
+        var changedAt = this.elementChanges.get(path);
+        if(null != changedAt && changedAt >= since)
+            return true;
+
+        for(var p = path; null != p; p = parentOf(p)) {
+            changedAt = this.treeChanges.get(p);
+            if(null != changedAt && changedAt >= since)
+                return true;
+        }
+
+        return false;
+    }
+
+    /***
+     * Normalize the URI of a storage element, so folders match with or without trailing slash
+     * @param seUri is the storage element
+     * @return Normalized URI
+     */
+    private static String normalize(String seUri) {
+        var end = seUri.length();
+        while(end > 0 && '/' == seUri.charAt(end - 1))
+            end--;
+
+        return seUri.substring(0, end);
+    }
+
+    /***
+     * Get the parent of a normalized storage element URI
+     * @param path is the normalized URI
+     * @return Parent URI, null when reaching the storage system itself
+     */
+    private static String parentOf(String path) {
+        var slash = path.lastIndexOf('/');
+        var authority = path.indexOf("://");
+        if(slash <= 0 || (authority >= 0 && slash <= authority + 2))
+            return null;
+
+        return path.substring(0, slash);
+    }
+}
@@ -0,0 +1,273 @@
+package eosc.eu;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.quarkus.redis.datasource.ReactiveRedisDataSource;
+import io.quarkus.redis.datasource.hash.ReactiveHashCommands;
+import io.quarkus.redis.datasource.keys.ReactiveKeyCommands;
+import io.smallrye.mutiny.Multi;
+import io.smallrye.mutiny.Uni;
+import io.smallrye.mutiny.subscription.Cancellable;
+import org.jboss.logging.Logger;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.inject.Instance;
+import jakarta.inject.Inject;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Function;
+
+import eosc.eu.model.StorageOperation;
+
+
+/***
+ * Runs long-running storage operations, so they can continue after the request
+ * that started them returned, and keeps track of their progress.
+ * At most "operation-concurrency" operations run at once, the rest wait in a bounded queue.
+ * Progress is published to Redis (unless the operation store is "memory"),
+ * so any instance can answer queries about an operation.
+ */
+@ApplicationScoped
+public class StorageOperations {
+
+    private static final Logger log = Logger.getLogger(StorageOperations.class);
+
+    public static final String KEY_PREFIX = "storage:operations:";
+    public static final String FIELD_OPERATION = "operation";
+    public static final String FIELD_OWNER = "owner";
+
+    @Inject
+    ServiceConfig service;
+
+    @Inject
+    Instance<ReactiveRedisDataSource> redis;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final Map<String, StorageOperation> running = new ConcurrentHashMap<>();
+    private final Queue<Runnable> queue = new ConcurrentLinkedQueue<>();
+    private TtlCache<String, StorageOperation> finished;
+    private ReactiveHashCommands<String, String, String> store;
+    private ReactiveKeyCommands<String> keys;
+    private Cancellable publisher;
+    private int active = 0;
+
+
+    /***
+     * Constructor
+     */
+    public StorageOperations() {}
+
+    /***
+     * Create the stores for operations after instance creation
+     */
+    @PostConstruct
+    void init() {
+        var config = service.storage();
+        this.finished = new TtlCache<>(config.operationTtl() * 1000L, config.operationCacheSize());
+
+        var type = config.operationStore().toLowerCase();
+        if(!"redis".equals(type)) {
+            if(!"memory".equals(type))
+                log.errorf("Unknown operation store type %s, using memory", type);
+
+            log.warn("Using in-memory operation store, progress can only be queried on this instance");
+            return;
+        }
+
+        var ds = redis.get();
+        this.store = ds.hash(String.class);
+        this.keys = ds.key(String.class);
+
+        // Periodically publish the progress of the running operations
+        this.publisher = Multi.createFrom().ticks()
+            .every(Duration.ofSeconds(Math.max(1, config.operationSyncInterval())))
+            .onOverflow().drop()
+            .onItem().transformToUniAndConcatenate(tick ->
+                Multi.createFrom().iterable(this.running.values())
+                     .onItem().transformToUniAndConcatenate(this::publish)
+                     .collect().last())
+            .subscribe().with(unused -> {}, e -> {
+                log.errorf("Stopped publishing operation progress (%s)", e.getMessage());
+            });
+    }
+
+    /***
+     * Stop publishing progress
+     */
+    @PreDestroy
+    void stop() {
+        if(null != this.publisher)
+            this.publisher.cancel();
+    }
+
+    /***
+     * Start an operation, it runs until done even if nobody waits for it.
+     * If too many operations are running, it waits in the queue for its turn.
+     * @param operation is the operation to start
+     * @param work performs the operation, recording progress in the operation, returns a result message
+     * @return Uni with the outcome of the work, can be subscribed to any number of times
+     * @throws TransferServiceException if the queue is full
+     */
+    public Uni<String> start(StorageOperation operation, Function<StorageOperation, Uni<String>> work) {
+        var config = service.storage();
+        if(this.queue.size() >= config.operationQueueSize()) {
+            log.errorf("Cannot queue operation %s (%s), queue is full", operation.id, operation.type);
+            throw new TransferServiceException("tooManyOperations", 503,
+                                               "Too many storage operations, try again later");
+        }
+
+        this.running.put(operation.id, operation);
+        publish(operation).subscribe().with(unused -> {});
+
+        var done = Uni.createFrom().<String>emitter(emitter -> {
+                this.queue.add(() -> {
+                    // Our turn
+                    operation.run();
+                    log.infof("Started operation %s (%s)", operation.id, operation.type);
+                    publish(operation).subscribe().with(unused -> {});
+
+                    Uni.createFrom().deferred(() -> work.apply(operation))
+                        .onTermination().invoke(this::release)
+                        .subscribe().with(emitter::complete, emitter::fail);
+                });
+                drain();
+            })
+            .onItemOrFailure().invoke((message, e) -> {
+                if(null == e)
+                    operation.finish(StorageOperation.Status.succeeded, message);
+                else
+                    operation.finish(StorageOperation.Status.failed, errorMessage(e));
+
+                this.finished.put(operation.id, operation);
+                this.running.remove(operation.id);
+                publish(operation).subscribe().with(unused -> {});
+                log.infof("Operation %s %s", operation.id, operation.status);
+            })
+            .memoize().indefinitely();
+
+        // Run it now, not when someone subscribes
+        done.subscribe().with(unused -> {}, e -> {});
+        return done;
+    }
+
+    /***
+     * Start queued operations while there are free slots
+     */
+    private void drain() {
+        final var concurrency = Math.max(1, service.storage().operationConcurrency());
+        while(true) {
+            Runnable next;
+            synchronized(this) {
+                if(this.active >= concurrency || null == (next = this.queue.poll()))
+                    return;
+
+                this.active++;
+            }
+
+            next.run();
+        }
+    }
+
+    /***
+     * Free the slot of a finished operation, and start the next one
+     */
+    private void release() {
+        synchronized(this) {
+            this.active--;
+        }
+
+        drain();
+    }
+
+    /***
+     * Get an operation, from this instance or from the operation store
+     * @param id is the ID of the operation
+     * @return The operation, null if unknown or expired
+     */
+    public Uni<StorageOperation> get(String id) {
+        var operation = this.running.get(id);
+        if(null == operation)
+            operation = this.finished.get(id);
+
+        if(null != operation || null == this.store)
+            return Uni.createFrom().item(operation);
+
+        // Maybe started by another instance
+        return this.store.hgetall(KEY_PREFIX + id)
+            .map(fields -> {
+                var json = null != fields ? fields.get(FIELD_OPERATION) : null;
+                if(null == json)
+                    return null;
+
+                try {
+                    var stored = this.mapper.readValue(json, StorageOperation.class);
+                    var owner = fields.get(FIELD_OWNER);
+                    stored.owner = (null != owner && !owner.isEmpty()) ? owner : null;
+                    return stored;
+                }
+                catch(JsonProcessingException e) {
+                    log.errorf("Cannot parse operation %s (%s)", id, e.getMessage());
+                    return null;
+                }
+            })
+            .onFailure().recoverWithItem(e -> {
+                log.errorf("Cannot read operation %s (%s)", id, e.getMessage());
+                return null;
+            });
+    }
+
+    /***
+     * Publish an operation to the operation store.
+     * Running operations expire soon unless published again, so operations of
+     * instances that went away do not look like they are still running.
+     * @param operation is the operation to publish
+     * @return Completion, never fails
+     */
+    private Uni<Void> publish(StorageOperation operation) {
+        if(null == this.store)
+            return Uni.createFrom().voidItem();
+
+        final var config = service.storage();
+        final var key = KEY_PREFIX + operation.id;
+        final var ttl = operation.isRunning() ?
+                        Duration.ofSeconds(3L * Math.max(1, config.operationSyncInterval())) :
+                        Duration.ofSeconds(config.operationTtl());
+
+        String json;
+        try {
+            json = this.mapper.writeValueAsString(operation);
+        }
+        catch(JsonProcessingException e) {
+            log.errorf("Cannot serialize operation %s (%s)", operation.id, e.getMessage());
+            return Uni.createFrom().voidItem();
+        }
+
+        return this.store.hset(key, Map.of(FIELD_OPERATION, json,
+                                           FIELD_OWNER, null != operation.owner ? operation.owner : ""))
+            .chain(unused -> this.keys.expire(key, ttl))
+            .replaceWithVoid()
+            .onFailure().recoverWithItem(e -> {
+                log.warnf("Cannot publish operation %s (%s)", operation.id, e.getMessage());
+                return null;
+            });
+    }
+
+    /***
+     * Describe why an operation failed
+     * @param e is the failure
+     * @return Error message
+     */
+    private static String errorMessage(Throwable e) {
+        var message = e.getMessage();
+        if(e instanceof TransferServiceException tse)
+            return (null != message && !message.isBlank()) ? tse.getId() + ": " + message : tse.getId();
+
+        return message;
+    }
+}
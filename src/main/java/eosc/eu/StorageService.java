@@ -1,5 +1,6 @@
 package eosc.eu;
 
+import io.smallrye.mutiny.Multi;
 import io.smallrye.mutiny.Uni;
 
 import eosc.eu.model.*;
@@ -40,7 +41,67 @@ public interface StorageService {
      * @param folderUri The URI to the folder to list content of.
      * @return List of the folder content
      */
-    Uni<StorageContent> listFolderContent(String tsAuth, String storageAuth, String folderUri);
+    default Uni<StorageContent> listFolderContent(String tsAuth, String storageAuth, String folderUri) {
+        return listFolderContent(tsAuth, storageAuth, folderUri, 0, null);
+    }
+
+    /**
+     * List one page of the files and sub-folders in a folder.
+     * @param tsAuth Optional access token needed to call the service.
+     * @param storageAuth Optional credentials for the destination storage, Base-64 encoded "key:value"
+     * @param folderUri The URI to the folder to list content of.
+     * @param limit Maximum number of elements to return, 0 for all
+     * @param cursor Opaque cursor returned in the field "next" of the previous page, null for the first page
+     * @return Page of the folder content, with the cursor to the next page if there are more elements
+     */
+    default Uni<StorageContent> listFolderContent(String tsAuth, String storageAuth, String folderUri,
+                                                  int limit, String cursor) {
+        return listFolderContent(tsAuth, storageAuth, folderUri, limit, cursor, null);
+    }
+
+    /**
+     * List one page of the files and sub-folders in a folder that match a filter.
+     * The filter is applied while listing, so a page holds up to "limit" matching elements.
+     * When the filter examined "maxScan" elements without filling the page, the page is
+     * returned with fewer elements, and the cursor to continue from there.
+     * @param tsAuth Optional access token needed to call the service.
+     * @param storageAuth Optional credentials for the destination storage, Base-64 encoded "key:value"
+     * @param folderUri The URI to the folder to list content of.
+     * @param limit Maximum number of elements to return, 0 for all
+     * @param cursor Opaque cursor returned in the field "next" of the previous page, null for the first page
+     * @param filter Selects the elements to return, null for all
+     * @return Page of the folder content, with the cursor to the next page if there are more elements
+     */
+    Uni<StorageContent> listFolderContent(String tsAuth, String storageAuth, String folderUri,
+                                          int limit, String cursor, StorageFilter filter);
+
+    /**
+     * Stream the files and sub-folders in a folder, emitting each of them as soon as it is available.
+     * The default implementation lists the whole folder first.
+     * @param tsAuth Optional access token needed to call the service.
+     * @param storageAuth Optional credentials for the destination storage, Base-64 encoded "key:value"
+     * @param folderUri The URI to the folder to list content of.
+     * @return Stream of the folder content
+     */
+    default Multi<StorageElement> streamFolderContent(String tsAuth, String storageAuth, String folderUri) {
+        return streamFolderContent(tsAuth, storageAuth, folderUri, null);
+    }
+
+    /**
+     * Stream the files and sub-folders in a folder that match a filter.
+     * The default implementation lists the whole folder first.
+     * @param tsAuth Optional access token needed to call the service.
+     * @param storageAuth Optional credentials for the destination storage, Base-64 encoded "key:value"
+     * @param folderUri The URI to the folder to list content of.
+     * @param filter Selects the elements to emit, null for all
+     * @return Stream of the matching folder content
+     */
+    default Multi<StorageElement> streamFolderContent(String tsAuth, String storageAuth, String folderUri,
+                                                     StorageFilter filter) {
+        return listFolderContent(tsAuth, storageAuth, folderUri)
+                .onItem().transformToMulti(content -> Multi.createFrom().iterable(content.elements))
+                .select().where(se -> null == filter || filter.matches(se));
+    }
 
     /**
      * Get the details of a file or folder.
@@ -64,10 +125,22 @@ public interface StorageService {
      * Delete existing folder.
      * @param tsAuth Optional access token needed to call the service.
      * @param storageAuth Optional credentials for the destination storage, Base-64 encoded "key:value"
-     * @param folderUri The URI to the folder to create.
+     * @param folderUri The URI to the folder to delete.
+     * @return Confirmation message
+     */
+    default Uni<String> deleteFolder(String tsAuth, String storageAuth, String folderUri) {
+        return deleteFolder(tsAuth, storageAuth, folderUri, null);
+    }
+
+    /**
+     * Delete existing folder, reporting progress.
+     * @param tsAuth Optional access token needed to call the service.
+     * @param storageAuth Optional credentials for the destination storage, Base-64 encoded "key:value"
+     * @param folderUri The URI to the folder to delete.
+     * @param progress Optional operation to record the number of deleted elements in
      * @return Confirmation message
      */
-    Uni<String> deleteFolder(String tsAuth, String storageAuth, String folderUri);
+    Uni<String> deleteFolder(String tsAuth, String storageAuth, String folderUri, StorageOperation progress);
 
     /**
      * Delete existing file.
@@ -86,5 +159,41 @@ public interface StorageService {
      * @param seNew The URI to the new name/location of the storage element.
      * @return Confirmation message
      */
-    Uni<String> renameStorageElement(String tsAuth, String storageAuth, String seOld, String seNew);
+    default Uni<String> renameStorageElement(String tsAuth, String storageAuth, String seOld, String seNew) {
+        return renameStorageElement(tsAuth, storageAuth, seOld, seNew, null);
+    }
+
+    /**
+     * Rename a folder or file, reporting progress.
+     * @param tsAuth Optional access token needed to call the service.
+     * @param storageAuth Optional credentials for the destination storage, Base-64 encoded "key:value"
+     * @param seOld The URI to the storage element to rename.
+     * @param seNew The URI to the new name/location of the storage element.
+     * @param progress Optional operation to record the number of renamed elements in
+     * @return Confirmation message
+     */
+    Uni<String> renameStorageElement(String tsAuth, String storageAuth, String seOld, String seNew,
+                                     StorageOperation progress);
+
+    /**
+     * Check if a file can be copied by the storage system itself, without the data leaving it.
+     * @param seFrom The URI to the file to copy.
+     * @param seTo The URI to the copy.
+     * @return True if copyStorageElement() can copy between these URIs
+     */
+    default boolean canCopyInPlace(String seFrom, String seTo) {
+        return false;
+    }
+
+    /**
+     * Copy a file server-side, the data does not leave the storage system.
+     * @param tsAuth Optional access token needed to call the service.
+     * @param storageAuth Optional credentials for the destination storage, Base-64 encoded "key:value"
+     * @param seFrom The URI to the file to copy.
+     * @param seTo The URI to the copy, overwritten if it exists.
+     * @return Number of bytes copied
+     */
+    default Uni<Long> copyStorageElement(String tsAuth, String storageAuth, String seFrom, String seTo) {
+        return Uni.createFrom().failure(new TransferServiceException("seNotSupported"));
+    }
 }
@@ -83,5 +83,33 @@ public interface TransferConfig {
 
         @WithName("auth")
         String authType();
+
+        @WithName("executor")
+        @WithDefault("worker")
+        String executor(); // Where to run blocking SDK calls: worker, pool, or virtual
+
+        @WithName("executor-threads")
+        @WithDefault("16")
+        int executorThreads(); // Size of the dedicated pool, when executor is "pool"
+
+        @WithName("delete-concurrency")
+        @WithDefault("4")
+        int deleteConcurrency(); // Bulk delete requests in flight at once, when deleting folders
+
+        @WithName("multipart-copy-threshold")
+        @WithDefault("512")
+        int multipartCopyThreshold(); // megabytes, bigger objects are copied in parts when renamed
+
+        @WithName("copy-part-size")
+        @WithDefault("128")
+        int copyPartSize(); // megabytes, size of the parts copied in parallel
+
+        @WithName("copy-concurrency")
+        @WithDefault("8")
+        int copyConcurrency(); // Parts copied at once, when copying big objects
+
+        @WithName("server-side-transfers")
+        @WithDefault("false")
+        boolean serverSideTransfers(); // Transfers within the storage system are copied without the transfer service (needs Redis)
     }
 }
@@ -0,0 +1,1299 @@
+package eosc.eu;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.quarkus.oidc.client.OidcClient;
+import io.quarkus.oidc.client.OidcClients;
+import io.quarkus.oidc.client.runtime.TokensHelper;
+import io.quarkus.oidc.common.runtime.OidcConstants;
+import io.quarkus.redis.datasource.ReactiveRedisDataSource;
+import io.quarkus.redis.datasource.hash.ReactiveHashCommands;
+import io.quarkus.redis.datasource.keys.ReactiveKeyCommands;
+import io.quarkus.redis.datasource.sortedset.ReactiveSortedSetCommands;
+import io.quarkus.redis.datasource.sortedset.ScoreRange;
+import io.quarkus.redis.datasource.sortedset.ZAddArgs;
+import io.quarkus.redis.datasource.sortedset.ZRangeArgs;
+import io.quarkus.runtime.Startup;
+import io.smallrye.mutiny.Multi;
+import io.smallrye.mutiny.Uni;
+import io.smallrye.mutiny.subscription.Cancellable;
+import io.smallrye.mutiny.tuples.Tuple2;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Response;
+import org.jboss.logging.Logger;
+import org.jboss.logging.MDC;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.inject.Instance;
+import jakarta.inject.Inject;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.time.DateTimeException;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+
+import eosc.eu.model.Transfer;
+import eosc.eu.model.Transfer.Destination;
+import eosc.eu.model.TransferInfo;
+import eosc.eu.model.TransferInfoExtended;
+import eosc.eu.model.TransferInfoExtended.TransferState;
+import eosc.eu.model.TransferParameters;
+import eosc.eu.model.TransferPayloadInfo.FileDetails;
+
+import static jakarta.ws.rs.core.HttpHeaders.CONTENT_TYPE;
+
+
+/***
+ * Holds transfers that should not start right away, either until a given moment
+ * or until the off-peak hours of their destination, then releases them to the
+ * transfer service. Scheduled transfers are kept in Redis, in a sorted set by the
+ * moment they are due, so they survive restarts and any instance can release them.
+ * One instance at a time releases the due transfers, most urgent (priority) first,
+ * while the destination has fewer than "max-active" released transfers running,
+ * and fewer than "max-bytes" in them (when file sizes are known).
+ *
+ * Due transfers whose destination is at capacity are skipped, so they do not hold
+ * back the transfers to other destinations.
+ *
+ * Transfers are released on behalf of the user who scheduled them. When scheduling,
+ * the access token of the user is exchanged for a refresh token, with the OIDC client
+ * from the configuration setting "eosc.service.scheduler.delegation-client", and on
+ * release it gets a fresh access token of the user. Transfers for which no such
+ * delegation can be obtained are not scheduled.
+ * If the transfer service cannot be reached or fails, releasing is tried again later,
+ * with increasing delays; only transfers it rejects, or that keep failing, are failed.
+ * A transfer being released stays in the queue, reserved for "lease" seconds, until
+ * the transfer service took it, so it is released again if the releasing instance dies.
+ * Until released, a scheduled transfer is described as submitted, afterward queries
+ * and cancellation are passed on to the transfer job that was started, with the
+ * credentials of the caller.
+ *
+ * The delegation and the credentials for the destination storage (if any) are kept
+ * encrypted with the key from the configuration setting "eosc.service.scheduler.credentials-key",
+ * and are cleared as soon as the transfer is released, fails or is canceled. FTP credentials
+ * are only embedded in the destination URIs when the transfer is released.
+ */
+@Startup
+@ApplicationScoped
+public class TransferScheduler {
+
+    private static final Logger log = Logger.getLogger(TransferScheduler.class);
+
+    public static final String KEY_QUEUE = "transfers:scheduled";
+    public static final String KEY_PREFIX = "transfers:scheduled:";
+    public static final String KEY_ACTIVE_PREFIX = "transfers:scheduled-active:";
+    public static final String KEY_LOCK = "transfers:scheduler-lock";
+    public static final String FIELD_TRANSFER = "transfer";
+    public static final String FIELD_DESTINATION = "destination";
+    public static final String FIELD_OWNER = "owner";
+    public static final String FIELD_STORAGE_AUTH = "storageAuth";
+    public static final String FIELD_DELEGATION = "delegation";
+    public static final String FIELD_LEASED_UNTIL = "leasedUntil";
+    public static final String FIELD_DUE_AT = "dueAt";
+    public static final String FIELD_SCHEDULED_AT = "scheduledAt";
+    public static final String FIELD_BYTES = "bytes";
+    public static final String FIELD_STATE = "state";
+    public static final String FIELD_JOB_ID = "jobId";
+    public static final String FIELD_REASON = "reason";
+    public static final String FIELD_PRIORITY = "priority";
+    public static final String FIELD_ATTEMPTS = "attempts";
+    public static final String ENGINE = "scheduler";
+
+    private static final String STATE_QUEUED = "queued";
+    private static final String STATE_RELEASED = "released";
+    private static final String STATE_CANCELED = "canceled";
+    private static final String STATE_FAILED = "failed";
+    private static final int BATCH_SIZE = 100;           // released at most at once
+    private static final int MAX_SCAN = 10 * BATCH_SIZE; // due transfers examined at most at once
+    private static final int IV_LENGTH = 12;
+    private static final String SUBJECT_TOKEN = "subject_token";
+
+    // Only delete the lock if this instance still holds it
+    private static final String UNLOCK_SCRIPT =
+            "if redis.call('GET', KEYS[1]) == ARGV[1] then\n" +
+            "  return redis.call('DEL', KEYS[1])\n" +
+            "end\n" +
+            "return 0";
+
+    // Reserve a queued transfer for releasing, unless it is reserved already
+    private static final String LEASE_SCRIPT =
+            "if redis.call('HEXISTS', KEYS[1], 'transfer') == 0 then\n" +
+            "  return 0\n" +
+            "end\n" +
+            "local state = redis.call('HGET', KEYS[1], 'state')\n" +
+            "if state and state ~= 'queued' then\n" +
+            "  return 0\n" +
+            "end\n" +
+            "local leased = tonumber(redis.call('HGET', KEYS[1], 'leasedUntil'))\n" +
+            "if leased and leased > tonumber(ARGV[1]) then\n" +
+            "  return 0\n" +
+            "end\n" +
+            "redis.call('HSET', KEYS[1], 'leasedUntil', ARGV[2])\n" +
+            "return 1";
+
+    // Cancel a queued transfer that is not being released,
+    // returns 1 if canceled, 0 if no longer queued, -1 if being released
+    private static final String CANCEL_SCRIPT =
+            "local state = redis.call('HGET', KEYS[1], 'state')\n" +
+            "if state and state ~= 'queued' then\n" +
+            "  return 0\n" +
+            "end\n" +
+            "local leased = tonumber(redis.call('HGET', KEYS[1], 'leasedUntil'))\n" +
+            "if leased and leased > tonumber(ARGV[1]) then\n" +
+            "  return -1\n" +
+            "end\n" +
+            "redis.call('HSET', KEYS[1], 'state', 'canceled', 'storageAuth', '', 'delegation', '')\n" +
+            "return 1";
+
+    /***
+     * A due transfer, with just what is needed to decide which ones to release first
+     */
+    static class Due {
+        String id;
+        String destination;
+        int priority;
+        long dueAt;
+    }
+
+    /***
+     * A scheduled transfer
+     */
+    static class Scheduled {
+        String id;
+        Map<String, String> fields;
+        Transfer transfer;
+
+        /***
+         * Get the state of the scheduled transfer
+         * @return One of queued, released, canceled, failed
+         */
+        String state() {
+            return this.fields.getOrDefault(FIELD_STATE, STATE_QUEUED);
+        }
+
+        /***
+         * Get the number of bytes to transfer
+         * @return Bytes, 0 if not known
+         */
+        long bytes() {
+            try {
+                return Long.parseLong(this.fields.getOrDefault(FIELD_BYTES, "0"));
+            }
+            catch(NumberFormatException e) {
+                return 0;
+            }
+        }
+
+        /***
+         * Get when the scheduled transfer is due
+         * @return Milliseconds since epoch
+         */
+        long dueAt() {
+            try {
+                return Long.parseLong(this.fields.getOrDefault(FIELD_DUE_AT, "0"));
+            }
+            catch(NumberFormatException e) {
+                return 0;
+            }
+        }
+
+        /***
+         * Get the number of failed attempts to release the transfer
+         * @return Failed attempts
+         */
+        int attempts() {
+            try {
+                return Integer.parseInt(this.fields.getOrDefault(FIELD_ATTEMPTS, "0"));
+            }
+            catch(NumberFormatException e) {
+                return 0;
+            }
+        }
+
+        /***
+         * Get the priority of the transfer
+         * @return Priority, higher is more urgent
+         */
+        int priority() {
+            return null != this.transfer && null != this.transfer.params ? this.transfer.params.priority : 0;
+        }
+    }
+
+    @Inject
+    ServiceConfig service;
+
+    @Inject
+    TransferConfig config;
+
+    @Inject
+    Instance<ReactiveRedisDataSource> redis;
+
+    @Inject
+    JobStore jobs;
+
+    @Inject
+    OidcClient client;
+
+    @Inject
+    OidcClients clients;
+
+    @Inject
+    ObjectMapper mapper;
+
+    private final TokensHelper tokenHelper = new TokensHelper();
+    private final String instance = DynamicConfiguration.getInstanceName();
+    private final String lockToken = this.instance + ":" + UUID.randomUUID();
+    private final SecureRandom random = new SecureRandom();
+    private SecretKeySpec credentialsKey;
+    private OidcClient delegation;
+    private ReactiveRedisDataSource ds;
+    private ReactiveHashCommands<String, String, String> store;
+    private ReactiveSortedSetCommands<String, String> queue;
+    private ReactiveKeyCommands<String> keys;
+    private Cancellable releaser;
+
+
+    /***
+     * Constructor
+     */
+    public TransferScheduler() {}
+
+    /***
+     * Start releasing due transfers after instance creation
+     */
+    @PostConstruct
+    void init() {
+        var scheduler = service.scheduler();
+        if(!scheduler.enabled()) {
+            log.info("Transfer scheduling disabled");
+            return;
+        }
+
+        if(scheduler.credentialsKey().isPresent()) {
+            try {
+                var key = Base64.getDecoder().decode(scheduler.credentialsKey().get().trim());
+                if(16 != key.length && 24 != key.length && 32 != key.length)
+                    throw new IllegalArgumentException("AES keys have 16, 24 or 32 bytes");
+
+                this.credentialsKey = new SecretKeySpec(key, "AES");
+            }
+            catch(IllegalArgumentException e) {
+                log.errorf("Invalid scheduler credentials key (%s)", e.getMessage());
+                throw new IllegalStateException("Invalid scheduler credentials key", e);
+            }
+        }
+        else
+            log.warn("No scheduler credentials key, transfers cannot be scheduled");
+
+        this.delegation = this.clients.getClient(scheduler.delegationClient());
+        if(null == this.delegation)
+            log.warnf("No OIDC client %s to act on behalf of users, transfers cannot be scheduled",
+                      scheduler.delegationClient());
+
+        this.ds = redis.get();
+        this.store = this.ds.hash(String.class);
+        this.queue = this.ds.sortedSet(String.class);
+        this.keys = this.ds.key(String.class);
+
+        this.releaser = Multi.createFrom().ticks()
+            .every(Duration.ofSeconds(Math.max(1, scheduler.interval())))
+            .onOverflow().drop()
+            .onItem().transformToUniAndConcatenate(tick -> release()
+                .onFailure().recoverWithItem(e -> {
+                    log.warnf("Cannot release scheduled transfers (%s)", e.getMessage());
+                    return 0;
+                }))
+            .subscribe().with(count -> {
+                if(count > 0)
+                    log.infof("Released %d scheduled transfer(s)", count);
+            }, e -> log.errorf("Stopped releasing scheduled transfers (%s)", e.getMessage()));
+    }
+
+    /***
+     * Stop releasing transfers
+     */
+    @PreDestroy
+    void stop() {
+        if(null != this.releaser)
+            this.releaser.cancel();
+    }
+
+    /***
+     * Check if a transfer should be scheduled instead of started right away
+     * @param params are the parameters of the transfer
+     * @return True if the transfer is deferred
+     */
+    public static boolean isDeferred(TransferParameters params) {
+        return null != params &&
+               (params.offPeak || (null != params.notBefore && params.notBefore.getTime() > System.currentTimeMillis()));
+    }
+
+    /***
+     * Schedule a transfer
+     * @param owner is the user who started the transfer
+     * @param transfer is the transfer to schedule
+     * @param destination is the type of destination storage
+     * @param auth is the access token of the user, exchanged for a delegation to start the transfer later
+     * @param storageAuth are the optional credentials for the destination storage
+     * @return Identification of the scheduled transfer
+     */
+    public Uni<TransferInfo> schedule(String owner, Transfer transfer, String destination,
+                                      String auth, String storageAuth) {
+        if(null == this.store)
+            return Uni.createFrom().failure(new TransferServiceException("schedulingNotSupported"));
+
+        if(null == this.credentialsKey || null == this.delegation)
+            // Never keep credentials in the clear, nor start transfers with the credentials of this service
+            return Uni.createFrom().failure(new TransferServiceException("schedulingNotSupported",
+                    "Transfers cannot be started on behalf of the user later"));
+
+        final var scheduler = service.scheduler();
+        final var now = System.currentTimeMillis();
+        final var params = transfer.params;
+        var dueAt = (null != params.notBefore) ? Math.max(now, params.notBefore.getTime()) : now;
+        if(dueAt - now > scheduler.maxDelay() * 1000L)
+            return Uni.createFrom().failure(new TransferServiceException("notBeforeInvalid",
+                    "Transfers can be scheduled at most " + scheduler.maxDelay() + " seconds ahead"));
+
+        if(params.offPeak)
+            dueAt = nextOffPeak(destination, dueAt);
+
+        long bytes = 0;
+        for(var payload : transfer.files)
+            if(null != payload && null != payload.size && payload.size > 0)
+                bytes += payload.size;
+
+        String json;
+        try {
+            json = this.mapper.writeValueAsString(transfer);
+        }
+        catch(Exception e) {
+            return Uni.createFrom().failure(new TransferServiceException(e, "serialize"));
+        }
+
+        final var id = UUID.randomUUID().toString();
+        String sealedAuth = "";
+        if(null != storageAuth && !storageAuth.isEmpty()) {
+            try {
+                sealedAuth = seal(id, storageAuth);
+            }
+            catch(GeneralSecurityException e) {
+                return Uni.createFrom().failure(new TransferServiceException(e, "configInvalid"));
+            }
+        }
+
+        final var due = dueAt;
+        final var fields = new HashMap<String, String>();
+        fields.put(FIELD_TRANSFER, json);
+        fields.put(FIELD_DESTINATION, destination);
+        fields.put(FIELD_OWNER, null != owner ? owner : "");
+        fields.put(FIELD_STORAGE_AUTH, sealedAuth);
+        fields.put(FIELD_DUE_AT, String.valueOf(due));
+        fields.put(FIELD_SCHEDULED_AT, String.valueOf(now));
+        fields.put(FIELD_BYTES, String.valueOf(bytes));
+        fields.put(FIELD_PRIORITY, String.valueOf(params.priority));
+        fields.put(FIELD_STATE, STATE_QUEUED);
+
+        final var key = KEY_PREFIX + id;
+        return this.queue.zcard(KEY_QUEUE)
+            .chain(queued -> {
+                if(queued >= scheduler.maxQueued())
+                    return Uni.createFrom().failure(new TransferServiceException("tooManyScheduled", 503,
+                                                        "Too many scheduled transfers, try again later"));
+
+                return delegate(auth);
+            })
+            .chain(refreshToken -> {
+                try {
+                    fields.put(FIELD_DELEGATION, seal(id, refreshToken));
+                }
+                catch(GeneralSecurityException e) {
+                    return Uni.createFrom().failure(new TransferServiceException(e, "configInvalid"));
+                }
+
+                return this.store.hset(key, fields);
+            })
+            .chain(unused -> keep(id, due, now))
+            .chain(unused -> this.queue.zadd(KEY_QUEUE, (double)due, id))
+            .map(unused -> {
+                MDC.put("scheduledId", id);
+                log.infof("Scheduled transfer %s for %s", id, Instant.ofEpochMilli(due));
+
+                var info = new TransferInfo(id);
+                info.description = "Scheduled for " + Instant.ofEpochMilli(due);
+                return info;
+            });
+    }
+
+    /***
+     * Get the details of a scheduled transfer
+     * @param auth is the access token of the caller
+     * @param jobId is the ID of the scheduled transfer
+     * @param owner is the user asking, null to skip the ownership check
+     * @param fileInfo for which files to return details
+     * @return Details of the transfer, null if not a scheduled transfer of this user
+     */
+    public Uni<TransferInfoExtended> getTransferInfo(String auth, String jobId, String owner, FileDetails fileInfo) {
+        return find(jobId, owner)
+            .chain(scheduled -> {
+                if(null == scheduled)
+                    return Uni.createFrom().nullItem();
+
+                var released = scheduled.fields.get(FIELD_JOB_ID);
+                if(STATE_RELEASED.equals(scheduled.state()) && null != released && !released.isEmpty())
+                    // Ask about the transfer job that was started
+                    return withTransferService(scheduled, auth,
+                                               (ts, token) -> ts.getTransferInfo(token, released, fileInfo))
+                        .map(info -> {
+                            if(null == info.jobMetadata)
+                                info.jobMetadata = new HashMap<>();
+                            info.jobMetadata.put("scheduledId", scheduled.id);
+                            return info;
+                        });
+
+                return Uni.createFrom().item(view(scheduled));
+            });
+    }
+
+    /***
+     * Get one field from the details of a scheduled transfer
+     * @param auth is the access token of the caller
+     * @param jobId is the ID of the scheduled transfer
+     * @param owner is the user asking
+     * @param fieldName is the name of the field
+     * @return Response with the value of the field, null if not a scheduled transfer of this user
+     */
+    public Uni<Response> getTransferInfoField(String auth, String jobId, String owner, String fieldName) {
+        return getTransferInfo(auth, jobId, owner, FileDetails.all)
+            .map(info -> {
+                if(null == info)
+                    return null;
+
+                var value = this.mapper.valueToTree(info).get(fieldName);
+                if(null == value || "kind".equals(fieldName))
+                    throw new TransferServiceException("fieldNotSupported", Tuple2.of("fieldName", fieldName));
+
+                MDC.put("fieldValue", value.toString());
+                if(value.isContainerNode())
+                    return Response.ok(value).build();
+
+                // Not an object, return as text/plain
+                return Response.ok(value.asText()).header(CONTENT_TYPE, MediaType.TEXT_PLAIN).build();
+            });
+    }
+
+    /***
+     * Cancel a scheduled transfer, or the transfer job started for it
+     * @param auth is the access token of the caller
+     * @param jobId is the ID of the scheduled transfer
+     * @param owner is the user asking
+     * @return Details of the canceled transfer, null if not a scheduled transfer of this user
+     */
+    public Uni<TransferInfoExtended> cancelTransfer(String auth, String jobId, String owner) {
+        return find(jobId, owner)
+            .chain(scheduled -> {
+                if(null == scheduled)
+                    return Uni.createFrom().nullItem();
+
+                var released = scheduled.fields.get(FIELD_JOB_ID);
+                if(STATE_RELEASED.equals(scheduled.state()) && null != released && !released.isEmpty())
+                    return withTransferService(scheduled, auth, (ts, token) -> ts.cancelTransfer(token, released));
+
+                if(!STATE_QUEUED.equals(scheduled.state()))
+                    // Already finished
+                    return Uni.createFrom().item(view(scheduled));
+
+                // Not released yet, just take it out of the queue
+                log.infof("Canceling scheduled transfer %s", jobId);
+                return this.ds.execute("EVAL", CANCEL_SCRIPT, "1", KEY_PREFIX + jobId,
+                                       String.valueOf(System.currentTimeMillis()))
+                    .map(response -> null != response ? response.toInteger() : 0)
+                    .chain(canceled -> {
+                        if(canceled < 0)
+                            return Uni.createFrom().failure(new TransferServiceException("transferReleasing", 409,
+                                                                "Transfer is being started, try again shortly"));
+                        if(0 == canceled)
+                            // Released meanwhile, ask again
+                            return cancelTransfer(auth, jobId, owner);
+
+                        scheduled.fields.put(FIELD_STATE, STATE_CANCELED);
+                        return this.queue.zrem(KEY_QUEUE, jobId)
+                            .map(unused -> view(scheduled));
+                    });
+            });
+    }
+
+    /***
+     * Release the due transfers, if no other instance is doing it
+     * @return Number of released transfers
+     */
+    private Uni<Integer> release() {
+        final var interval = Math.max(1, service.scheduler().interval()) * 1000L;
+        return this.ds.execute("SET", KEY_LOCK, this.lockToken, "NX", "PX", String.valueOf(2 * interval))
+            .chain(locked -> {
+                if(null == locked)
+                    // Another instance is releasing
+                    return Uni.createFrom().item(0);
+
+                final var now = System.currentTimeMillis();
+                return due(now, 0, new ArrayList<>())
+                    .chain(due -> {
+                        if(due.isEmpty())
+                            return Uni.createFrom().item(0);
+
+                        // Most urgent first, then the longest waiting
+                        due.sort(Comparator.comparingInt((Due entry) -> entry.priority).reversed()
+                                           .thenComparingLong(entry -> entry.dueAt));
+
+                        var active = new HashMap<String, Map<String, String>>();
+                        var full = new HashSet<String>();
+                        var released = new AtomicInteger(0);
+                        return Multi.createFrom().iterable(due)
+                            .onItem().transformToUniAndConcatenate(entry -> {
+                                if(released.get() >= BATCH_SIZE || full.contains(entry.destination))
+                                    // Enough for now, or no capacity left at the destination
+                                    return Uni.createFrom().item(false);
+
+                                return find(entry.id, null)
+                                    .chain(scheduled -> null != scheduled ? release(scheduled, active, full, now) :
+                                                                            forget(entry.id))
+                                    .invoke(done -> {
+                                        if(done)
+                                            released.incrementAndGet();
+                                    });
+                            })
+                            .collect().asList()
+                            .map(unused -> released.get());
+                    })
+                    .onTermination().call(this::unlock);
+            });
+    }
+
+    /***
+     * Release the lock, unless it expired and another instance took it meanwhile
+     * @return Completion, never fails
+     */
+    private Uni<Void> unlock() {
+        return this.ds.execute("EVAL", UNLOCK_SCRIPT, "1", KEY_LOCK, this.lockToken)
+            .replaceWithVoid()
+            .onFailure().recoverWithNull();
+    }
+
+    /***
+     * Get the due transfers, reading only the fields needed to order them.
+     * Transfers whose details expired are taken out of the queue.
+     * @param now is the current time
+     * @param offset is where to continue in the queue
+     * @param found are the due transfers found so far
+     * @return Due transfers, about MAX_SCAN at most
+     */
+    private Uni<List<Due>> due(long now, int offset, List<Due> found) {
+        return this.queue.zrangebyscore(KEY_QUEUE, new ScoreRange<>(0.0, (double)now),
+                                        new ZRangeArgs().limit(offset, BATCH_SIZE))
+            .chain(ids -> {
+                final var forgotten = new AtomicInteger(0);
+                return Multi.createFrom().iterable(ids)
+                    .onItem().transformToUniAndConcatenate(id ->
+                        this.store.hmget(KEY_PREFIX + id, FIELD_DESTINATION, FIELD_PRIORITY, FIELD_DUE_AT)
+                            .chain(fields -> {
+                                var destination = null != fields ? fields.get(FIELD_DESTINATION) : null;
+                                if(null == destination) {
+                                    forgotten.incrementAndGet();
+                                    return forget(id).replaceWith((Due)null);
+                                }
+
+                                var entry = new Due();
+                                entry.id = id;
+                                entry.destination = destination;
+                                try {
+                                    var priority = fields.get(FIELD_PRIORITY);
+                                    entry.priority = null != priority ? Integer.parseInt(priority) : 0;
+                                    var dueAt = fields.get(FIELD_DUE_AT);
+                                    entry.dueAt = null != dueAt ? Long.parseLong(dueAt) : 0;
+                                }
+                                catch(NumberFormatException e) {
+                                    // Release it after the others
+                                }
+                                return Uni.createFrom().item(entry);
+                            }))
+                    .collect().asList()
+                    .chain(entries -> {
+                        found.addAll(entries);
+                        if(ids.size() < BATCH_SIZE || found.size() >= MAX_SCAN)
+                            return Uni.createFrom().item(found);
+
+                        // Forgotten transfers left the queue, the ones after them moved up
+                        return due(now, offset + ids.size() - forgotten.get(), found);
+                    });
+            });
+    }
+
+    /***
+     * Take a transfer whose details expired out of the queue
+     * @param id is the ID of the scheduled transfer
+     * @return False, as it was not released
+     */
+    private Uni<Boolean> forget(String id) {
+        log.warnf("Details of scheduled transfer %s are gone, dropping it", id);
+        return this.queue.zrem(KEY_QUEUE, id)
+            .replaceWith(false)
+            .onFailure().recoverWithItem(false);
+    }
+
+    /***
+     * Keep the details of a scheduled transfer until the retention period after it is due
+     * @param id is the ID of the scheduled transfer
+     * @param dueAt is when the transfer is due
+     * @param now is the current time
+     * @return True if the details exist
+     */
+    private Uni<Boolean> keep(String id, long dueAt, long now) {
+        return this.keys.expire(KEY_PREFIX + id,
+                                Duration.ofMillis(Math.max(0, dueAt - now) + service.scheduler().retention() * 1000L));
+    }
+
+    /***
+     * Release a due transfer, if its destination is in its off-peak hours and has capacity
+     * @param scheduled is the transfer to release
+     * @param active are the released transfers still running, per destination, filled as needed
+     * @param full are the destinations without capacity left, filled as found
+     * @param now is the current time
+     * @return True if released
+     */
+    private Uni<Boolean> release(Scheduled scheduled, Map<String, Map<String, String>> active,
+                                 Set<String> full, long now) {
+        if(!STATE_QUEUED.equals(scheduled.state()))
+            // Canceled while a release attempt was failing, only leave the queue
+            return this.queue.zrem(KEY_QUEUE, scheduled.id).replaceWith(false);
+
+        final var destination = scheduled.fields.get(FIELD_DESTINATION);
+        if(null == scheduled.transfer || null == destination)
+            return failed(scheduled, "Invalid scheduled transfer");
+
+        if(scheduled.transfer.params.offPeak) {
+            var next = nextOffPeak(destination, now);
+            if(next > now) {
+                // Window configuration changed, or missed the window
+                log.infof("Scheduled transfer %s postponed to %s", scheduled.id, Instant.ofEpochMilli(next));
+                return this.store.hset(KEY_PREFIX + scheduled.id, FIELD_DUE_AT, String.valueOf(next))
+                    .chain(unused -> keep(scheduled.id, next, now))
+                    .chain(unused -> this.queue.zadd(KEY_QUEUE, (double)next, scheduled.id))
+                    .replaceWith(false);
+            }
+        }
+
+        Uni<Map<String, String>> running = active.containsKey(destination) ?
+                                           Uni.createFrom().item(active.get(destination)) :
+                                           running(destination).invoke(jobs -> active.put(destination, jobs));
+
+        return running.chain(jobs -> {
+            // Check the capacity of the destination
+            long bytes = 0;
+            for(var size : jobs.values()) {
+                try {
+                    bytes += Long.parseLong(size);
+                }
+                catch(NumberFormatException e) {
+                    // Unknown size
+                }
+            }
+
+            if(jobs.size() >= maxActive(destination)) {
+                // Wait for a free slot, skip the other transfers to this destination
+                full.add(destination);
+                return Uni.createFrom().item(false);
+            }
+
+            if(!jobs.isEmpty() && maxBytes(destination) > 0 && bytes + scheduled.bytes() > maxBytes(destination))
+                // Too big for now, smaller transfers may still fit
+                return Uni.createFrom().item(false);
+
+            return lease(scheduled.id, now)
+                .chain(leased -> {
+                    if(!leased)
+                        // Canceled or being released meanwhile
+                        return Uni.createFrom().item(false);
+
+                    return start(scheduled, destination)
+                        .invoke(jobId -> jobs.put(jobId, String.valueOf(scheduled.bytes())))
+                        .replaceWith(true)
+                        .onFailure().recoverWithUni(e -> retryOrFail(scheduled, e, now));
+                });
+        });
+    }
+
+    /***
+     * Reserve a due transfer for releasing, it stays in the queue until started,
+     * so it is released again if this instance dies meanwhile
+     * @param id is the ID of the scheduled transfer
+     * @param now is the current time
+     * @return True if reserved, false if canceled or already being released
+     */
+    private Uni<Boolean> lease(String id, long now) {
+        final var until = now + Math.max(1, service.scheduler().lease()) * 1000L;
+        return this.ds.execute("EVAL", LEASE_SCRIPT, "1", KEY_PREFIX + id,
+                               String.valueOf(now), String.valueOf(until))
+            .map(response -> null != response && 1 == response.toInteger())
+            .chain(leased -> {
+                if(!leased)
+                    return Uni.createFrom().item(false);
+
+                // Do not look at it again until the lease expires
+                return this.queue.zadd(KEY_QUEUE, new ZAddArgs().xx(), (double)until, id)
+                    .replaceWith(true);
+            });
+    }
+
+    /***
+     * Start the transfer job for a scheduled transfer
+     * @param scheduled is the transfer to start
+     * @param destination is the type of destination storage
+     * @return ID of the started transfer job
+     */
+    private Uni<String> start(Scheduled scheduled, String destination) {
+        final var sealedAuth = scheduled.fields.get(FIELD_STORAGE_AUTH);
+        final var owner = scheduled.fields.get(FIELD_OWNER);
+
+        // Link the transfer job to the scheduled transfer
+        final var transfer = scheduled.transfer;
+        if(null == transfer.params.metadata)
+            transfer.params.metadata = new HashMap<>();
+        transfer.params.metadata.put("scheduledId", scheduled.id);
+        if(null != owner && !owner.isEmpty())
+            transfer.params.metadata.put("scheduledBy", owner);
+
+        return Uni.createFrom().item(() -> {
+                var storageCredentials = open(scheduled.id, sealedAuth);
+                applyStorageCredentials(transfer, destination, storageCredentials);
+                return storageCredentials;
+            })
+            .chain(storageCredentials -> onBehalf(scheduled)
+                .chain(auth -> withTransferService(scheduled, auth,
+                                   (ts, token) -> ts.startTransfer(token, storageCredentials, transfer))))
+            .chain(transferInfo -> {
+                final var jobId = transferInfo.jobId;
+                MDC.put("scheduledId", scheduled.id);
+                MDC.put("jobId", jobId);
+                log.infof("Released scheduled transfer %s as %s", scheduled.id, jobId);
+
+                var update = new HashMap<String, String>();
+                update.put(FIELD_STATE, STATE_RELEASED);
+                update.put(FIELD_JOB_ID, jobId);
+                update.put(FIELD_STORAGE_AUTH, "");
+                update.put(FIELD_DELEGATION, "");
+                update.put(FIELD_LEASED_UNTIL, "");
+
+                return this.store.hset(KEY_PREFIX + scheduled.id, update)
+                    .chain(unused -> this.queue.zrem(KEY_QUEUE, scheduled.id))
+                    .chain(unused -> this.store.hset(KEY_ACTIVE_PREFIX + destination, jobId,
+                                                     String.valueOf(scheduled.bytes())))
+                    .chain(unused -> {
+                        // Collect accounting information for it, like for transfers started right away
+                        if(null == owner || owner.isEmpty() ||
+                           service.accounting().url().isEmpty() ||
+                           service.accounting().installation().isEmpty() ||
+                           service.accounting().metric().isEmpty())
+                            return Uni.createFrom().item("");
+
+                        var jobCheckInfo = new HashMap<String, String>();
+                        jobCheckInfo.put(JobStore.FIELD_DESTINATION, destination);
+                        jobCheckInfo.put(JobStore.FIELD_JOB_ID, jobId);
+                        jobCheckInfo.put(JobStore.FIELD_USER_ID, owner);
+                        return jobs.add(jobCheckInfo)
+                            .onFailure().recoverWithItem(e -> {
+                                log.warnf("Failed to add transfer %s to job store (%s)", jobId, e.getMessage());
+                                return "";
+                            });
+                    })
+                    .onFailure().recoverWithItem(e -> {
+                        // The transfer job was started, it must not be started again
+                        log.errorf("Cannot record release of scheduled transfer %s (%s)", scheduled.id, e.getMessage());
+                        return "";
+                    })
+                    .replaceWith(jobId);
+            });
+    }
+
+    /***
+     * Try releasing a transfer again later, unless the transfer service rejected it
+     * or it failed too many times
+     * @param scheduled is the transfer that could not be released
+     * @param e is why releasing failed
+     * @param now is the current time
+     * @return False, as it was not released
+     */
+    private Uni<Boolean> retryOrFail(Scheduled scheduled, Throwable e, long now) {
+        final var scheduler = service.scheduler();
+        final var reason = e.getMessage();
+        final var attempts = scheduled.attempts() + 1;
+        if(isRejection(e) || attempts >= scheduler.maxAttempts())
+            return failed(scheduled, reason);
+
+        // Exponential backoff
+        var delay = Math.min(scheduler.maxRetryDelay(), (long)scheduler.retryDelay() << Math.min(attempts - 1, 20));
+        final var next = now + Math.max(1, delay) * 1000L;
+        log.warnf("Cannot release scheduled transfer %s (%s), trying again at %s",
+                  scheduled.id, reason, Instant.ofEpochMilli(next));
+
+        var update = new HashMap<String, String>();
+        update.put(FIELD_ATTEMPTS, String.valueOf(attempts));
+        update.put(FIELD_DUE_AT, String.valueOf(next));
+        update.put(FIELD_REASON, null != reason ? reason : "unknown");
+        update.put(FIELD_LEASED_UNTIL, "");
+
+        return this.store.hset(KEY_PREFIX + scheduled.id, update)
+            .chain(unused -> keep(scheduled.id, next, now))
+            .chain(unused -> this.queue.zadd(KEY_QUEUE, (double)next, scheduled.id))
+            .replaceWith(false)
+            .onFailure().recoverWithItem(false);
+    }
+
+    /***
+     * Check if a failure to release a transfer is final
+     * @param e is why releasing failed
+     * @return True if the transfer service rejected the transfer, false for errors that may go away
+     *         (network, timeouts, server errors, expired or refused credentials of this service)
+     */
+    static boolean isRejection(Throwable e) {
+        var status = new ActionError(e).getStatus();
+        if(null == status)
+            return false;
+
+        var code = status.getStatusCode();
+        return code >= 400 && code < 500 && 401 != code && 403 != code && 408 != code && 429 != code;
+    }
+
+    /***
+     * Encrypt credentials kept for a scheduled transfer
+     * @param id is the ID of the scheduled transfer, the credentials can only be decrypted for it
+     * @param storageAuth are the credentials
+     * @return Base64-encoded IV and ciphertext
+     * @throws GeneralSecurityException if encryption is not available
+     */
+    private String seal(String id, String storageAuth) throws GeneralSecurityException {
+        var iv = new byte[IV_LENGTH];
+        this.random.nextBytes(iv);
+
+        var cipher = Cipher.getInstance("AES/GCM/NoPadding");
+        cipher.init(Cipher.ENCRYPT_MODE, this.credentialsKey, new GCMParameterSpec(128, iv));
+        cipher.updateAAD(id.getBytes(StandardCharsets.UTF_8));
+        var encrypted = cipher.doFinal(storageAuth.getBytes(StandardCharsets.UTF_8));
+
+        return Base64.getEncoder().encodeToString(ByteBuffer.allocate(iv.length + encrypted.length)
+                                                            .put(iv).put(encrypted).array());
+    }
+
+    /***
+     * Decrypt credentials kept for a scheduled transfer
+     * @param id is the ID of the scheduled transfer
+     * @param sealed are the encrypted credentials
+     * @return Credentials, null if none
+     * @throws TransferServiceException if the credentials cannot be decrypted
+     */
+    private String open(String id, String sealed) {
+        if(null == sealed || sealed.isEmpty())
+            return null;
+
+        try {
+            if(null == this.credentialsKey)
+                throw new GeneralSecurityException("No credentials key");
+
+            var data = Base64.getDecoder().decode(sealed);
+            var cipher = Cipher.getInstance("AES/GCM/NoPadding");
+            cipher.init(Cipher.DECRYPT_MODE, this.credentialsKey, new GCMParameterSpec(128, data, 0, IV_LENGTH));
+            cipher.updateAAD(id.getBytes(StandardCharsets.UTF_8));
+            return new String(cipher.doFinal(data, IV_LENGTH, data.length - IV_LENGTH), StandardCharsets.UTF_8);
+        }
+        catch(GeneralSecurityException | IllegalArgumentException e) {
+            throw new TransferServiceException("credentialsInvalid", 400, "Cannot decrypt the stored credentials");
+        }
+    }
+
+    /***
+     * Mark a scheduled transfer as failed, it will not be released
+     * @param scheduled is the transfer that failed
+     * @param reason is why it failed
+     * @return False, as it was not released
+     */
+    private Uni<Boolean> failed(Scheduled scheduled, String reason) {
+        log.errorf("Cannot release scheduled transfer %s (%s)", scheduled.id, reason);
+        var update = new HashMap<String, String>();
+        update.put(FIELD_STATE, STATE_FAILED);
+        update.put(FIELD_REASON, null != reason ? reason : "unknown");
+        update.put(FIELD_STORAGE_AUTH, "");
+        update.put(FIELD_DELEGATION, "");
+        update.put(FIELD_LEASED_UNTIL, "");
+
+        return this.queue.zrem(KEY_QUEUE, scheduled.id)
+            .chain(unused -> this.store.hset(KEY_PREFIX + scheduled.id, update))
+            .replaceWith(false)
+            .onFailure().recoverWithItem(false);
+    }
+
+    /***
+     * Get the released transfers of a destination that are still running,
+     * forgetting the ones that finished
+     * @param destination is the type of destination storage
+     * @return Sizes of the running transfers, by job ID
+     */
+    private Uni<Map<String, String>> running(String destination) {
+        final var key = KEY_ACTIVE_PREFIX + destination;
+        return this.store.hgetall(key)
+            .chain(released -> {
+                final Map<String, String> jobs = new HashMap<>(null != released ? released : Map.of());
+                if(jobs.isEmpty())
+                    return Uni.createFrom().item(jobs);
+
+                final var ts = transferService(destination);
+                if(null == ts)
+                    return Uni.createFrom().item(jobs);
+
+                return token(ts)
+                    .chain(token -> Multi.createFrom().iterable(new ArrayList<>(jobs.keySet()))
+                        .onItem().transformToUniAndConcatenate(jobId ->
+                            ts.getTransferInfo(token, jobId, FileDetails.none)
+                              .map(info -> Tuple2.of(jobId, info.jobState))
+                              .onFailure().recoverWithItem(Tuple2.of(jobId, TransferState.active)))
+                        .collect().asList())
+                    .chain(states -> {
+                        var done = new ArrayList<String>();
+                        for(var state : states)
+                            if(TransferState.submitted != state.getItem2() && TransferState.active != state.getItem2())
+                                done.add(state.getItem1());
+
+                        if(done.isEmpty())
+                            return Uni.createFrom().item(jobs);
+
+                        done.forEach(jobs::remove);
+                        return this.store.hdel(key, done.toArray(new String[0]))
+                            .replaceWith(jobs);
+                    });
+            });
+    }
+
+    /***
+     * Call the transfer service of a scheduled transfer
+     * @param scheduled is the scheduled transfer
+     * @param auth is the access token to call it with
+     * @param call makes the call, given the transfer service and the access token
+     * @return Outcome of the call
+     */
+    private <T> Uni<T> withTransferService(Scheduled scheduled, String auth,
+                                           BiFunction<TransferService, String, Uni<T>> call) {
+        var ts = transferService(scheduled.fields.get(FIELD_DESTINATION));
+        if(null == ts)
+            return Uni.createFrom().failure(new TransferServiceException("configInvalid"));
+
+        return call.apply(ts, auth);
+    }
+
+    /***
+     * Embed the storage credentials in the destination URIs of a transfer being released,
+     * for destinations that need them there
+     * @param transfer is the transfer being released
+     * @param destination is the type of destination storage
+     * @param storageAuth are the credentials for the destination storage, null if none
+     * @throws TransferServiceException if a destination URI is not valid
+     */
+    private void applyStorageCredentials(Transfer transfer, String destination, String storageAuth) {
+        if(null == storageAuth || storageAuth.isBlank() || !destination.equalsIgnoreCase(Destination.ftp.toString()))
+            return;
+
+        for(var payload : transfer.files) {
+            var fixedDestinations = new ArrayList<String>();
+            for(var seUri : payload.destinations) {
+                var seUriFixed = DataTransferBase.applyStorageCredentials(destination, seUri, storageAuth, log);
+                if(null == seUriFixed)
+                    throw new TransferServiceException("uriInvalid", List.of(Tuple2.of("uri", seUri),
+                                                                             Tuple2.of("destination", destination)));
+
+                fixedDestinations.add(seUriFixed);
+            }
+
+            payload.destinations = fixedDestinations;
+        }
+    }
+
+    /***
+     * Get a delegation of the user, to start a transfer on their behalf later
+     * @param auth is the access token of the user
+     * @return Refresh token of the user
+     * @throws TransferServiceException if no delegation can be obtained
+     */
+    private Uni<String> delegate(String auth) {
+        var token = (null != auth && auth.regionMatches(true, 0, "Bearer ", 0, 7)) ? auth.substring(7).trim() : auth;
+        if(null == token || token.isBlank())
+            return Uni.createFrom().failure(new TransferServiceException("schedulingNotSupported",
+                    "No access token to start the transfer on behalf of the user later"));
+
+        return this.delegation.getTokens(Map.of(SUBJECT_TOKEN, token))
+            .onFailure().transform(e -> {
+                log.warnf("Cannot obtain a delegation of the user (%s)", e.getMessage());
+                return new TransferServiceException("schedulingNotSupported",
+                                                    "Cannot start the transfer on behalf of the user later");
+            })
+            .map(tokens -> {
+                var refreshToken = null != tokens ? tokens.getRefreshToken() : null;
+                if(null == refreshToken || refreshToken.isEmpty())
+                    throw new TransferServiceException("schedulingNotSupported",
+                                                       "Cannot start the transfer on behalf of the user later");
+
+                return refreshToken;
+            });
+    }
+
+    /***
+     * Get an access token of the user who scheduled a transfer, from the delegation kept for it
+     * @param scheduled is the scheduled transfer
+     * @return Authorization header value
+     */
+    private Uni<String> onBehalf(Scheduled scheduled) {
+        if(null == this.delegation)
+            return Uni.createFrom().failure(new TransferServiceException("configInvalid"));
+
+        final String refreshToken;
+        try {
+            refreshToken = open(scheduled.id, scheduled.fields.get(FIELD_DELEGATION));
+        }
+        catch(TransferServiceException e) {
+            return Uni.createFrom().failure(e);
+        }
+
+        if(null == refreshToken)
+            return Uni.createFrom().failure(new TransferServiceException("delegationInvalid", 400,
+                                                "No delegation of the user to start the transfer"));
+
+        return this.delegation.refreshTokens(refreshToken)
+            .chain(tokens -> {
+                var rotated = tokens.getRefreshToken();
+                if(null == rotated || rotated.isEmpty() || rotated.equals(refreshToken))
+                    return Uni.createFrom().item(tokens);
+
+                // The previous refresh token may no longer work, keep the new one for another attempt
+                String sealed;
+                try {
+                    sealed = seal(scheduled.id, rotated);
+                }
+                catch(GeneralSecurityException e) {
+                    return Uni.createFrom().failure(new TransferServiceException(e, "configInvalid"));
+                }
+
+                scheduled.fields.put(FIELD_DELEGATION, sealed);
+                return this.store.hset(KEY_PREFIX + scheduled.id, FIELD_DELEGATION, sealed)
+                    .replaceWith(tokens);
+            })
+            .map(tokens -> "Bearer " + tokens.getAccessToken());
+    }
+
+    /***
+     * Get the transfer service of a destination
+     * @param destination is the type of destination storage
+     * @return Transfer service, null if not configured
+     */
+    private TransferService transferService(String destination) {
+        var destinationConfig = DataTransferBase.getDestinationConfig(config, destination, log);
+        if(null == destinationConfig)
+            return null;
+
+        return DataTransferBase.getTransferService(config, destinationConfig.serviceId(), log, false);
+    }
+
+    /***
+     * Get an access token of this service for a transfer service, to check on released transfers
+     * @param ts is the transfer service
+     * @return Authorization header value
+     */
+    private Uni<String> token(TransferService ts) {
+        var props = new HashMap<String, String>();
+        props.put(OidcConstants.TOKEN_SCOPE, "openid entitlements");
+        props.put(OidcConstants.TOKEN_AUDIENCE_GRANT_PROPERTY, ts.getServiceUrl());
+
+        return tokenHelper.getTokens(client, props, true)
+            .map(tokens -> "Bearer " + tokens.getAccessToken());
+    }
+
+    /***
+     * Find a scheduled transfer
+     * @param jobId is the ID of the scheduled transfer
+     * @param owner is the user asking, null to skip the ownership check
+     * @return The scheduled transfer, null if unknown or not owned by the user
+     */
+    private Uni<Scheduled> find(String jobId, String owner) {
+        if(null == this.store || null == jobId)
+            return Uni.createFrom().nullItem();
+
+        return this.store.hgetall(KEY_PREFIX + jobId)
+            .map(fields -> {
+                if(null == fields || !fields.containsKey(FIELD_TRANSFER))
+                    return null;
+
+                if(null != owner && !owner.equals(fields.get(FIELD_OWNER)))
+                    // Transfers without an owner belong to nobody
+                    return null;
+
+                var scheduled = new Scheduled();
+                scheduled.id = jobId;
+                scheduled.fields = new HashMap<>(fields);
+                try {
+                    scheduled.transfer = this.mapper.readValue(fields.get(FIELD_TRANSFER), Transfer.class);
+                }
+                catch(Exception e) {
+                    log.errorf("Cannot parse scheduled transfer %s (%s)", jobId, e.getMessage());
+                }
+
+                return scheduled;
+            })
+            .onFailure().recoverWithItem(e -> {
+                log.errorf("Cannot read scheduled transfer %s (%s)", jobId, e.getMessage());
+                return null;
+            });
+    }
+
+    /***
+     * Describe a scheduled transfer that was not released
+     * @param scheduled is the scheduled transfer
+     * @return Details of the transfer
+     */
+    private TransferInfoExtended view(Scheduled scheduled) {
+        var info = new TransferInfoExtended();
+        info.jobId = scheduled.id;
+        info.jobMetadata = new HashMap<>();
+        info.jobMetadata.put("engine", ENGINE);
+        info.userId = scheduled.fields.get(FIELD_OWNER);
+        info.submittedTo = service.instance().orElse(this.instance);
+
+        try {
+            info.submittedAt = new Date(Long.parseLong(scheduled.fields.getOrDefault(FIELD_SCHEDULED_AT, "0")));
+        }
+        catch(NumberFormatException e) {
+            info.submittedAt = null;
+        }
+
+        var params = null != scheduled.transfer ? scheduled.transfer.params : null;
+        if(null != params) {
+            if(null != params.metadata)
+                info.jobMetadata.putAll(params.metadata);
+            info.verifyChecksum = params.verifyChecksum;
+            info.overwrite = Optional.of(params.overwrite);
+            info.priority = Optional.of(params.priority);
+            info.retry = Optional.of(params.retry);
+        }
+
+        switch(scheduled.state()) {
+            case STATE_CANCELED:
+                info.jobState = TransferState.canceled;
+                info.cancel = Optional.of(true);
+                info.reason = "Canceled before it was due";
+                break;
+            case STATE_FAILED:
+                info.jobState = TransferState.failed;
+                info.reason = scheduled.fields.get(FIELD_REASON);
+                break;
+            default:
+                info.jobState = TransferState.submitted;
+                info.description = "Scheduled for " + Instant.ofEpochMilli(scheduled.dueAt());
+                if(scheduled.attempts() > 0)
+                    // Waiting to try again
+                    info.reason = scheduled.fields.get(FIELD_REASON);
+                break;
+        }
+
+        return info;
+    }
+
+    /***
+     * Get the next moment in the off-peak hours of a destination
+     * @param destination is the type of destination storage
+     * @param at is the moment to start from
+     * @return The moment itself if in the off-peak hours, otherwise when they next start
+     */
+    private long nextOffPeak(String destination, long at) {
+        var scheduler = service.scheduler();
+        var overrides = scheduler.destinations().get(destination);
+        var window = (null != overrides && overrides.offPeak().isPresent()) ?
+                     overrides.offPeak().get() : scheduler.offPeak();
+
+        try {
+            return nextOffPeak(window, ZoneId.of(scheduler.timeZone()), at);
+        }
+        catch(DateTimeException | IndexOutOfBoundsException e) {
+            log.errorf("Invalid off-peak window %s for destination %s, not waiting", window, destination);
+            return at;
+        }
+    }
+
+    /***
+     * Get the next moment in an off-peak window
+     * @param window is the window, "HH:mm-HH:mm", it spans midnight if it ends before it starts
+     * @param zone is the time zone of the window
+     * @param at is the moment to start from
+     * @return The moment itself if in the window, otherwise when the window next starts
+     * @throws DateTimeException if the window is not valid
+     * @throws IndexOutOfBoundsException if the window has no end
+     */
+    static long nextOffPeak(String window, ZoneId zone, long at) {
+        var bounds = window.split("-");
+        var start = LocalTime.parse(bounds[0].trim());
+        var end = LocalTime.parse(bounds[1].trim());
+
+        var moment = Instant.ofEpochMilli(at).atZone(zone);
+        var time = moment.toLocalTime();
+        var inWindow = start.isBefore(end) ?
+                       !time.isBefore(start) && time.isBefore(end) :
+                       !time.isBefore(start) || time.isBefore(end);
+        if(inWindow)
+            return at;
+
+        var next = moment.with(start).withNano(0);
+        if(!next.isAfter(moment))
+            next = next.plusDays(1);
+
+        return next.toInstant().toEpochMilli();
+    }
+
+    /***
+     * Get the maximum number of released transfers running at once for a destination
+     * @param destination is the type of destination storage
+     * @return Maximum number of transfers, at least one
+     */
+    private int maxActive(String destination) {
+        var scheduler = service.scheduler();
+        var overrides = scheduler.destinations().get(destination);
+        return Math.max(1, (null != overrides && overrides.maxActive().isPresent()) ?
+                           overrides.maxActive().get() : scheduler.maxActive());
+    }
+
+    /***
+     * Get the maximum number of bytes of released transfers running at once for a destination
+     * @param destination is the type of destination storage
+     * @return Maximum number of bytes, 0 for no limit
+     */
+    private long maxBytes(String destination) {
+        var scheduler = service.scheduler();
+        var overrides = scheduler.destinations().get(destination);
+        return (null != overrides && overrides.maxBytes().isPresent()) ?
+               overrides.maxBytes().get() : scheduler.maxBytes();
+    }
+}
@@ -0,0 +1,321 @@
+package eosc.eu;
+
+import io.smallrye.mutiny.Multi;
+import io.smallrye.mutiny.Uni;
+import io.smallrye.mutiny.tuples.Tuple2;
+import org.jboss.logging.Logger;
+
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import eosc.eu.model.StorageElement;
+import eosc.eu.model.Transfer;
+import eosc.eu.model.TransferPayload;
+
+
+/***
+ * Finds which files of a transfer are missing or changed at the destination, so that
+ * a transfer can be repeated (e.g. to mirror a dataset) without moving again the files
+ * that are already there. Each destination folder is listed once, folders in parallel.
+ * Files are compared by name, then by size and checksum/ETag where available, with the
+ * size at the source (see SourceSizes) when the client provided neither.
+ * When in doubt (e.g. a folder cannot be listed, or the source cannot be checked)
+ * the file is transferred.
+ */
+@ApplicationScoped
+public class TransferSync {
+
+    private static final Logger log = Logger.getLogger(TransferSync.class);
+
+    /***
+     * The part of a transfer that must be submitted
+     */
+    public static class Delta {
+        public final Transfer transfer;
+        public final int total;
+        public final int skipped;
+
+        /***
+         * Constructor
+         * @param transfer is the transfer with only the files to submit
+         * @param total is the number of files in the original transfer
+         */
+        Delta(Transfer transfer, int total) {
+            this.transfer = transfer;
+            this.total = total;
+            this.skipped = total - transfer.files.size();
+        }
+
+        /***
+         * Check if there is nothing to transfer
+         * @return True if all files are already at the destination
+         */
+        public boolean isEmpty() {
+            return this.transfer.files.isEmpty();
+        }
+
+        /***
+         * Describe the outcome of the comparison
+         * @return Human readable summary
+         */
+        public String describe() {
+            return String.format("Submitted %d of %d files, %d already at destination",
+                                 this.transfer.files.size(), this.total, this.skipped);
+        }
+    }
+
+    @Inject
+    ServiceConfig service;
+
+    @Inject
+    SourceSizes sourceSizes;
+
+
+    /***
+     * Constructor
+     */
+    public TransferSync() {}
+
+    /***
+     * Find the files of a transfer that must be submitted.
+     * Only the first destination of each file is checked.
+     * @param ss is the storage service that handles the destination
+     * @param tsAuth is the access token for the storage service
+     * @param storageAuth are the credentials for the storage system
+     * @param transfer is the transfer to check
+     * @return Transfer with the same parameters, and only the files missing or changed at the destination
+     */
+    public Uni<Delta> delta(StorageService ss, String tsAuth, String storageAuth, Transfer transfer) {
+
+        final var baseUrl = ss.getServiceBaseUrl();
+        final var files = null != transfer.files ? transfer.files : List.<TransferPayload>of();
+
+        // Group the files by the folder of their destination
+        final var folders = new HashMap<String, Set<String>>();
+        for(var payload : files) {
+            var target = target(payload, baseUrl);
+            if(null != target)
+                folders.computeIfAbsent(parentOf(target), folder -> new HashSet<>()).add(baseName(target));
+        }
+
+        final var config = service.storage();
+        return Multi.createFrom().iterable(folders.entrySet())
+            .onItem().transformToUni(folder ->
+                existingFiles(ss, tsAuth, storageAuth, folder.getKey(), folder.getValue()))
+            .merge(Math.max(1, config.syncListConcurrency()))
+            .collect().in(HashMap<String, StorageElement>::new, Map::putAll)
+            .chain(existing -> {
+                // Compare the files that are already at the destination
+                return Multi.createFrom().iterable(files)
+                    .select().where(payload -> existing.containsKey(target(payload, baseUrl)))
+                    .onItem().transformToUni(payload ->
+                        isInSync(ss, tsAuth, storageAuth, payload, existing.get(target(payload, baseUrl)))
+                            .map(inSync -> Tuple2.of(payload, inSync)))
+                    .merge(Math.max(1, config.syncCheckConcurrency()))
+                    .select().where(Tuple2::getItem2)
+                    .map(Tuple2::getItem1)
+                    .collect().asList();
+            })
+            .map(inSync -> {
+                // Submit the rest, in the original order
+                final Set<TransferPayload> skip = Collections.newSetFromMap(new IdentityHashMap<>());
+                skip.addAll(inSync);
+
+                var delta = new Transfer();
+                delta.params = transfer.params;
+                delta.files = new ArrayList<>(files.size() - skip.size());
+                for(var payload : files)
+                    if(!skip.contains(payload))
+                        delta.files.add(payload);
+
+                log.infof("Sync found %d of %d files at destination", skip.size(), files.size());
+                return new Delta(delta, files.size());
+            });
+    }
+
+    /***
+     * Get the destination of a file that will be checked
+     * @param payload is the file to transfer
+     * @param baseUrl is the base URL of the destination storage system, null if unknown
+     * @return Destination URI, null if the file cannot be checked (and must be transferred)
+     */
+    private static String target(TransferPayload payload, String baseUrl) {
+        if(null == payload || !payload.isValid())
+            return null;
+
+        var target = payload.destinations.get(0);
+        if(null == target || target.endsWith("/") || (null != baseUrl && !target.startsWith(baseUrl)))
+            return null;
+
+        return target;
+    }
+
+    /***
+     * Find which of the wanted files exist in a folder
+     * @param ss is the storage service that handles the folder
+     * @param tsAuth is the access token for the storage service
+     * @param storageAuth are the credentials for the storage system
+     * @param folderUri is the folder, ending in a slash
+     * @param names are the names of the wanted files
+     * @return Details of the existing files, by URI, empty if the folder cannot be listed
+     */
+    private Uni<Map<String, StorageElement>> existingFiles(StorageService ss, String tsAuth, String storageAuth,
+                                                           String folderUri, Set<String> names) {
+        if(1 == names.size()) {
+            // Cheaper to get the details of one file than to list its folder
+            final var seUri = folderUri + names.iterator().next();
+            return ss.getStorageElementInfo(tsAuth, storageAuth, seUri)
+                .map(se -> {
+                    var found = new HashMap<String, StorageElement>();
+                    if(null != se && !se.isFolder)
+                        found.put(seUri, se);
+                    return (Map<String, StorageElement>)found;
+                })
+                .onFailure().recoverWithItem(e -> {
+                    log.debugf("File %s not at destination (%s)", seUri, e.getMessage());
+                    return Map.of();
+                });
+        }
+
+        return ss.streamFolderContent(tsAuth, storageAuth, folderUri)
+            .select().where(se -> !se.isFolder && names.contains(baseName(se.name)))
+            .collect().asMap(se -> folderUri + baseName(se.name))
+            .onFailure().recoverWithItem(e -> {
+                log.warnf("Cannot list folder %s, transferring all its files (%s)", folderUri, e.getMessage());
+                return Map.of();
+            });
+    }
+
+    /***
+     * Check if a file at the destination is the same as the one to transfer
+     * @param ss is the storage service that handles the destination
+     * @param tsAuth is the access token for the storage service
+     * @param storageAuth are the credentials for the storage system
+     * @param payload is the file to transfer
+     * @param existing is the file at the destination
+     * @return True if the file does not have to be transferred
+     */
+    private Uni<Boolean> isInSync(StorageService ss, String tsAuth, String storageAuth,
+                                  TransferPayload payload, StorageElement existing) {
+        // Compare with what the client told us about the file
+        if(null != payload.size && payload.size != existing.size)
+            return Uni.createFrom().item(false);
+
+        if(null != payload.checksum && !payload.checksum.isBlank()) {
+            var same = sameChecksum(payload.checksum, existing);
+            if(null != same)
+                return Uni.createFrom().item(same);
+        }
+
+        // Compare with the source, if it is on the same storage system
+        final var baseUrl = ss.getServiceBaseUrl();
+        final var source = payload.sources.get(0);
+        if(null == baseUrl || null == source || !source.startsWith(baseUrl)) {
+            // Compare with the size at the source, if it can be found
+            final var sizeMatched = null != payload.size;
+            return this.sourceSizes.size(payload.sources, ss, tsAuth, storageAuth)
+                .map(size -> {
+                    if(size < 0)
+                        // Only trust the name if the provided size matched
+                        return sizeMatched;
+
+                    return size == existing.size;
+                });
+        }
+
+        return ss.getStorageElementInfo(tsAuth, storageAuth, source)
+            .map(se -> {
+                if(null == se || se.size != existing.size)
+                    return false;
+
+                var sourceMd5 = md5Etag(se.etag);
+                var existingMd5 = md5Etag(existing.etag);
+                if(null != sourceMd5 && null != existingMd5)
+                    return sourceMd5.equals(existingMd5);
+
+                // Other ETags are not derived from the content, use the modification times
+                return null == se.modifiedAt || null == existing.modifiedAt ||
+                       !existing.modifiedAt.before(se.modifiedAt);
+            })
+            .onFailure().recoverWithItem(e -> {
+                log.debugf("Cannot get details of source %s (%s)", source, e.getMessage());
+                return false;
+            });
+    }
+
+    /***
+     * Compare a checksum with the one of a file
+     * @param checksum is the expected checksum in the form "algorithm:value"
+     * @param existing is the file to check
+     * @return True if same, false if different, null if cannot compare
+     */
+    private static Boolean sameChecksum(String checksum, StorageElement existing) {
+        var separator = checksum.indexOf(':');
+        if(separator <= 0)
+            return null;
+
+        var algorithm = checksum.substring(0, separator).trim();
+        var value = checksum.substring(separator + 1).trim();
+
+        if(null != existing.checksum) {
+            var existingSeparator = existing.checksum.indexOf(':');
+            if(existingSeparator > 0 &&
+               algorithm.equalsIgnoreCase(existing.checksum.substring(0, existingSeparator).trim()))
+                return value.equalsIgnoreCase(existing.checksum.substring(existingSeparator + 1).trim());
+        }
+
+        // ETags of objects uploaded in one part are their MD5
+        var md5 = md5Etag(existing.etag);
+        if(null != md5 && algorithm.equalsIgnoreCase("md5"))
+            return value.equalsIgnoreCase(md5);
+
+        return null;
+    }
+
+    /***
+     * Get the MD5 of the content from an ETag, if it is one
+     * @param etag is the ETag, may be quoted
+     * @return Lowercase MD5, null if the ETag is not an MD5 (e.g. multipart uploads)
+     */
+    private static String md5Etag(String etag) {
+        if(null == etag)
+            return null;
+
+        var md5 = etag.replace("\"", "").trim().toLowerCase();
+        return md5.matches("[0-9a-f]{32}") ? md5 : null;
+    }
+
+    /***
+     * Get the folder of a file
+     * @param seUri is the URI of the file
+     * @return URI of the folder, ending in a slash
+     */
+    private static String parentOf(String seUri) {
+        return seUri.substring(0, seUri.lastIndexOf('/') + 1);
+    }
+
+    /***
+     * Get the last segment of the name of an element
+     * @param name The name, may be a path
+     * @return Base name
+     */
+    private static String baseName(String name) {
+        if(null == name)
+            return "";
+
+        var end = name.length();
+        while(end > 0 && '/' == name.charAt(end - 1))
+            end--;
+
+        return name.substring(name.lastIndexOf('/', end - 1) + 1, end);
+    }
+}
@@ -0,0 +1,172 @@
+package eosc.eu;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.function.Function;
+
+
+/***
+ * Small in-memory cache whose entries expire a fixed time after they were added.
+ * When full, the entries closest to expiry are dropped first.
+ * As all entries live for the same time, keeping them in insertion order also keeps them
+ * in expiry order, so expired entries and eviction candidates are always at the head.
+ */
+public class TtlCache<K, V> {
+
+    /***
+     * A cached value and when it expires
+     */
+    private static class Entry<V> {
+        final V value;
+        final long expiresAt;
+
+        Entry(V value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private final LinkedHashMap<K, Entry<V>> entries = new LinkedHashMap<>();
+    private final long ttl;
+    private final int maxSize;
+
+
+    /***
+     * Constructor
+     * @param ttl is how long entries are kept [milliseconds]
+     * @param maxSize is the maximum number of entries
+     */
+    public TtlCache(long ttl, int maxSize) {
+        this.ttl = ttl;
+        this.maxSize = Math.max(1, maxSize);
+    }
+
+    /***
+     * Check if caching is enabled
+     * @return True if entries are kept for a while
+     */
+    public boolean isEnabled() {
+        return this.ttl > 0;
+    }
+
+    /***
+     * Get a cached value
+     * @param key is the key of the value
+     * @return Cached value, null if not in the cache or expired
+     */
+    public synchronized V get(K key) {
+        var entry = this.entries.get(key);
+        if(null == entry)
+            return null;
+
+        if(entry.expiresAt <= System.currentTimeMillis()) {
+            this.entries.remove(key);
+            return null;
+        }
+
+        return entry.value;
+    }
+
+    /***
+     * Add or replace a value
+     * @param key is the key of the value
+     * @param value is the value to cache
+     */
+    public synchronized void put(K key, V value) {
+        if(!isEnabled() || null == value)
+            return;
+
+        insert(key, new Entry<>(value, System.currentTimeMillis() + this.ttl));
+    }
+
+    /***
+     * Get a cached value, or compute and cache it if missing or expired.
+     * Concurrent callers with the same key share the computed value.
+     * The value is computed while holding the cache lock, so computing must be cheap.
+     * @param key is the key of the value
+     * @param compute creates the value
+     * @return Cached or computed value
+     */
+    public V computeIfAbsent(K key, Function<K, V> compute) {
+        if(!isEnabled())
+            return compute.apply(key);
+
+        synchronized(this) {
+            final var now = System.currentTimeMillis();
+            var existing = this.entries.get(key);
+            if(null != existing && existing.expiresAt > now)
+                return existing.value;
+
+            var value = compute.apply(key);
+            if(null == value)
+                this.entries.remove(key);
+            else
+                insert(key, new Entry<>(value, now + this.ttl));
+
+            return value;
+        }
+    }
+
+    /***
+     * Remove a value
+     * @param key is the key of the value
+     */
+    public synchronized void remove(K key) {
+        this.entries.remove(key);
+    }
+
+    /***
+     * Remove a value, but only if it is the one expected
+     * @param key is the key of the value
+     * @param value is the expected value
+     */
+    public synchronized void remove(K key, V value) {
+        var entry = this.entries.get(key);
+        if(null != entry && entry.value == value)
+            this.entries.remove(key);
+    }
+
+    /***
+     * Remove all values
+     */
+    public synchronized void clear() {
+        this.entries.clear();
+    }
+
+    /***
+     * Get the number of entries, including expired ones not dropped yet
+     * @return Number of entries
+     */
+    public synchronized int size() {
+        return this.entries.size();
+    }
+
+    /***
+     * Add an entry at the tail, making room for it first. Must hold the lock.
+     * @param key is the key of the value
+     * @param entry is the entry to add
+     */
+    private void insert(K key, Entry<V> entry) {
+        // Replaced entries move to the tail, to keep the expiry order
+        this.entries.remove(key);
+        evict(entry.expiresAt - this.ttl);
+        this.entries.put(key, entry);
+    }
+
+    /***
+     * Drop the expired entries, then the ones that would expire first until there is room
+     * for a new entry. Only looks at the head, so it costs O(1) per dropped entry.
+     * Must hold the lock.
+     * @param now is the current time [milliseconds]
+     */
+    private void evict(long now) {
+        Iterator<Entry<V>> it = this.entries.values().iterator();
+        while(it.hasNext()) {
+            var entry = it.next();
+            if(entry.expiresAt > now && this.entries.size() < this.maxSize)
+                break;
+
+            it.remove();
+        }
+    }
+}
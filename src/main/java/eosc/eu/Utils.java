@@ -3,10 +3,13 @@ package eosc.eu;
 import org.jboss.logging.Logger;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.security.KeyStore;
 import java.security.KeyStoreException;
+import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.cert.CertificateException;
+import java.util.HexFormat;
 import java.util.Optional;
 
 
@@ -43,4 +46,26 @@ public final class Utils {
 
         return oks;
     }
+
+    /***
+     * Hash credentials, so they can be part of a cache key without being kept in memory.
+     * @param credentials are the credentials to hash, null values are allowed
+     * @return Hex-encoded SHA-256 of the credentials
+     */
+    public static String hashCredentials(String... credentials) {
+        try {
+            var digest = MessageDigest.getInstance("SHA-256");
+            for(var credential : credentials) {
+                if(null != credential)
+                    digest.update(credential.getBytes(StandardCharsets.UTF_8));
+                digest.update((byte)0);
+            }
+
+            return HexFormat.of().formatHex(digest.digest());
+        }
+        catch(NoSuchAlgorithmException e) {
+            // Every JVM must support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
 }
@@ -0,0 +1,86 @@
+package eosc.eu.model;
+
+import com.fasterxml.jackson.annotation.JsonFormat;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import org.eclipse.microprofile.openapi.annotations.media.Schema;
+
+import java.util.Date;
+import java.util.Map;
+
+
+/**
+ * A transfer job that could not be accounted for
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class DeadLetter {
+
+    public static final String FIELD_MESSAGE_ID = "messageId";
+    public static final String FIELD_ATTEMPTS = "attempts";
+    public static final String FIELD_ERROR = "error";
+    public static final String FIELD_FAILED_AT = "failedAt";
+
+    public String kind = "DeadLetter";
+
+    @Schema(description="ID of the message in the dead-letter stream, use it to replay the job")
+    public String id;
+
+    @JsonInclude(JsonInclude.Include.NON_EMPTY)
+    @Schema(description="ID of the original message in the jobs stream")
+    public String messageId;
+
+    @JsonInclude(JsonInclude.Include.NON_EMPTY)
+    public String jobId;
+
+    @JsonInclude(JsonInclude.Include.NON_EMPTY)
+    public String destination;
+
+    @JsonInclude(JsonInclude.Include.NON_EMPTY)
+    public String userId;
+
+    @Schema(description="How many times accounting for the transfer was attempted")
+    public int attempts;
+
+    @JsonInclude(JsonInclude.Include.NON_EMPTY)
+    @Schema(description="Cause of the last failure")
+    public String error;
+
+    @JsonInclude(JsonInclude.Include.NON_DEFAULT)
+    @JsonFormat(pattern = "yyyy-MM-dd'T'HH:mm:ssZ")
+    @Schema(description="Date and time when the job was moved to the dead-letter stream",
+            example = "2022-10-15T20:14:22Z+2")
+    public Date failedAt;
+
+
+    /**
+     * Constructor
+     */
+    public DeadLetter() {}
+
+    /**
+     * Construct from a message in the dead-letter stream
+     * @param id The ID of the message
+     * @param payload The fields of the message
+     */
+    public DeadLetter(String id, Map<String, String> payload) {
+        this.id = id;
+        this.messageId = payload.get(FIELD_MESSAGE_ID);
+        this.jobId = payload.get("jobId");
+        this.destination = payload.get("dest");
+        this.userId = payload.get("userId");
+        this.error = payload.get(FIELD_ERROR);
+
+        try {
+            var attempts = payload.get(FIELD_ATTEMPTS);
+            if(null != attempts)
+                this.attempts = Integer.parseInt(attempts);
+
+            var failedAt = payload.get(FIELD_FAILED_AT);
+            if(null != failedAt)
+                this.failedAt = new Date(Long.parseLong(failedAt));
+        }
+        catch(NumberFormatException e) {
+            // Leave defaults
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package eosc.eu.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * List of transfer jobs that could not be accounted for.
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class DeadLetterList {
+
+    public String kind = "DeadLetterList";
+    public int count;
+    public List<DeadLetter> deadLetters;
+
+    /**
+     * Constructor
+     */
+    public DeadLetterList() {
+        this.count = 0;
+        this.deadLetters = new ArrayList<>();
+    }
+
+    /***
+     * Add a new dead letter
+     * @param deadLetter The dead letter to add
+     */
+    public void add(DeadLetter deadLetter) {
+        if(null != deadLetter) {
+            this.deadLetters.add(deadLetter);
+            this.count++;
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package eosc.eu.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import org.eclipse.microprofile.openapi.annotations.media.Schema;
+
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * Totals for a folder tree
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class FolderSummary {
+
+    public String kind = "FolderSummary";
+
+    @Schema(description="The folder that was summarized")
+    public String folderUri;
+
+    @Schema(description="Number of files in the folder tree")
+    public long fileCount;
+
+    @Schema(description="Number of sub-folders in the folder tree")
+    public long folderCount;
+
+    @Schema(description="Total size of all files in the folder tree, in bytes")
+    public long totalSize;
+
+    @Schema(description="Deepest level traversed, 0 means only the content of the folder itself")
+    public int depth;
+
+    @JsonInclude(JsonInclude.Include.NON_DEFAULT)
+    @Schema(description="The maximum depth was reached before the whole tree was traversed, " +
+                        "the totals only cover the traversed levels")
+    public boolean truncated;
+
+    @JsonInclude(JsonInclude.Include.NON_DEFAULT)
+    @Schema(description="The flat listing was cut at the maximum number of elements, the totals are complete")
+    public boolean listingTruncated;
+
+    @JsonInclude(JsonInclude.Include.NON_EMPTY)
+    @Schema(description="All files and sub-folders in the folder tree, if requested")
+    public List<StorageElement> elements;
+
+
+    /**
+     * Constructor
+     */
+    public FolderSummary() {}
+
+    /**
+     * Construct for a folder
+     * @param folderUri The folder to summarize
+     * @param withListing Whether to collect a flat listing
+     */
+    public FolderSummary(String folderUri, boolean withListing) {
+        this.folderUri = folderUri;
+        if(withListing)
+            this.elements = new ArrayList<>();
+    }
+}
@@ -1,11 +1,16 @@
 package eosc.eu.model;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.annotation.JsonInclude;
 
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Base64;
 import java.util.List;
 
+import org.eclipse.microprofile.openapi.annotations.media.Schema;
+
 import egi.s3.model.ObjectInfo;
 
 
@@ -21,6 +26,14 @@ public class StorageContent {
     @JsonInclude(JsonInclude.Include.NON_EMPTY)
     public List<StorageElement> elements;
 
+    @JsonInclude(JsonInclude.Include.NON_EMPTY)
+    @Schema(description="Cursor for the next page, pass it in the parameter 'cursor' to continue " +
+                        "the listing. Missing when there are no more elements.")
+    public String next;
+
+    @JsonIgnore
+    public String validator; // ETag or modification time of the folder as listed, if the storage returns one
+
 
     /**
      * Constructor
@@ -65,8 +78,14 @@ public class StorageContent {
      * @param storage The storage to copy all elements from.
      */
     public StorageContent(StorageContent storage) {
-        this.elements = new ArrayList<>(this.count);
-        merge(storage);
+        this.kind = storage.kind;
+        this.elements = new ArrayList<>(storage.elements.size());
+        for(var se : storage.elements)
+            this.elements.add(null != se ? new StorageElement(se) : null);
+
+        this.count = storage.count;
+        this.next = storage.next;
+        this.validator = storage.validator;
     }
 
     /***
@@ -90,4 +109,29 @@ public class StorageContent {
             this.count = this.elements.size();
         }
     }
+
+    /***
+     * Build an opaque cursor from the position in a listing
+     * @param position The name of the last element returned
+     * @return Cursor to return to the caller
+     */
+    public static String encodeCursor(String position) {
+        if(null == position)
+            return null;
+
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(position.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /***
+     * Extract the position in a listing from an opaque cursor
+     * @param cursor The cursor received from the caller
+     * @return The name of the last element returned, null if no cursor
+     * @throws IllegalArgumentException if the cursor is invalid
+     */
+    public static String decodeCursor(String cursor) {
+        if(null == cursor || cursor.isBlank())
+            return null;
+
+        return new String(Base64.getUrlDecoder().decode(cursor.trim()), StandardCharsets.UTF_8);
+    }
 }
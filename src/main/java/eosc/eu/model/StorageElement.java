@@ -11,6 +11,7 @@ import parser.zenodo.model.ZenodoFile;
 import parser.b2share.model.B2ShareFile;
 import parser.esrf.model.EsrfDataFile;
 import egi.s3.model.ObjectInfo;
+import egi.webdav.model.DavResource;
 
 
 /**
@@ -43,6 +44,10 @@ public class StorageElement extends StorageElementBase {
     @JsonInclude(JsonInclude.Include.NON_EMPTY)
     public String mediaType;
 
+    @JsonInclude(JsonInclude.Include.NON_EMPTY)
+    @Schema(description="Version tag of the element, changes when the element changes")
+    public String etag;
+
     @JsonInclude(JsonInclude.Include.NON_EMPTY)
     @JsonFormat(shape = JsonFormat.Shape.STRING)
     public String accessUrl;
@@ -66,6 +71,27 @@ public class StorageElement extends StorageElementBase {
      */
     public StorageElement() { super("StorageElement"); }
 
+    /**
+     * Copy constructor makes deep copy
+     * @param se The storage element to copy.
+     */
+    public StorageElement(StorageElement se) {
+        super(se.kind, se.name);
+        this.path = se.path;
+        this.isFolder = se.isFolder;
+        this.isAccessible = se.isAccessible;
+        this.size = se.size;
+        this.createdAt = null != se.createdAt ? new Date(se.createdAt.getTime()) : null;
+        this.accessedAt = null != se.accessedAt ? new Date(se.accessedAt.getTime()) : null;
+        this.modifiedAt = null != se.modifiedAt ? new Date(se.modifiedAt.getTime()) : null;
+        this.mediaType = se.mediaType;
+        this.etag = se.etag;
+        this.accessUrl = se.accessUrl;
+        this.downloadUrl = se.downloadUrl;
+        this.checksum = se.checksum;
+        this.collection = se.collection;
+    }
+
     /**
      * Construct using access URL and media type
      * @param url Access URL for the storage element
@@ -145,9 +171,28 @@ public class StorageElement extends StorageElementBase {
         this.accessedAt = obj.accessedAt();
         this.modifiedAt = obj.modifiedAt();
         this.isFolder = obj.isFolder;
+        this.etag = obj.etag;
         this.name = obj.getName();
 
         if(!isFolder && null != obj.bucket && !obj.bucket.isBlank())
             this.path = obj.bucket;
     }
+
+    /**
+     * Construct from WebDAV resource
+     * @param res Information about a file or folder returned by PROPFIND
+     * @param baseUrl The base URL of the WebDAV server, as the resource
+     *                only contains the path to the file or folder
+     */
+    public StorageElement(DavResource res, String baseUrl) {
+        super("StorageElement", res.getName());
+        this.size = res.size;
+        this.isFolder = res.isFolder;
+        this.createdAt = res.ctime;
+        this.modifiedAt = res.mtime;
+        this.mediaType = res.mediaType;
+        this.etag = res.etag;
+        this.path = res.getParentPath();
+        this.accessUrl = null != res.seUri ? res.seUri : baseUrl + res.getRawPath() + (res.isFolder ? "/" : "");
+    }
 }
@@ -0,0 +1,408 @@
+package eosc.eu.model;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeParseException;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import eosc.eu.TransferServiceException;
+
+
+/**
+ * Selects which storage elements of a folder listing are returned, and which of their fields.
+ * All conditions must match. Names are matched against the last segment of the element's
+ * name, without the trailing slash of folders.
+ *
+ * Name patterns come from the caller, and backtracking regular expressions can take
+ * exponential time on some inputs. Patterns are limited in length, and each match
+ * is aborted (rejecting the filter) when it runs longer than a few milliseconds.
+ */
+public class StorageFilter {
+
+    /***
+     * Types of storage elements to select
+     */
+    public enum Type {
+        file,
+        folder
+    }
+
+    /***
+     * Fields that can be selected for projection, "kind", "isFolder" and
+     * "isAccessible" are always returned
+     */
+    public static final Set<String> FIELDS = Set.of("name", "path", "size", "createdAt", "accessedAt",
+                                                    "modifiedAt", "mediaType", "etag", "accessUrl",
+                                                    "downloadUrl", "checksum", "collection");
+
+    public static final int MAX_PATTERN_LENGTH = 256;
+    private static final long MAX_MATCH_TIME = 50; // milliseconds, per name
+
+    public String name;
+    public Pattern namePattern;
+    public Pattern nameRegex;
+    public Long minSize;
+    public Long maxSize;
+    public Date modifiedAfter;
+    public Date modifiedBefore;
+    public Type type;
+    public Set<String> fields;
+
+    // Maximum number of elements examined for one page, 0 for no limit
+    public int maxScan;
+
+
+    /**
+     * Constructor
+     */
+    public StorageFilter() {}
+
+    /***
+     * Build a filter from the query parameters of a listing
+     * @param name Glob the names must match (supports *, ? and [...])
+     * @param nameRegex Regular expression the names must match
+     * @param minSize Minimum size of files, in bytes
+     * @param maxSize Maximum size of files, in bytes
+     * @param modifiedAfter Only elements modified after this moment, ISO-8601 date or date and time
+     * @param modifiedBefore Only elements modified before this moment, ISO-8601 date or date and time
+     * @param type Type of the elements to return, "file" or "folder"
+     * @param fields Comma separated list of the fields to return
+     * @return Filter, null if no filtering or projection was requested
+     * @throws TransferServiceException if any of the parameters is invalid
+     */
+    public static StorageFilter parse(String name, String nameRegex, Long minSize, Long maxSize,
+                                      String modifiedAfter, String modifiedBefore, String type, String fields) {
+        var filter = new StorageFilter();
+
+        if((null != name && name.length() > MAX_PATTERN_LENGTH) ||
+           (null != nameRegex && nameRegex.length() > MAX_PATTERN_LENGTH))
+            throw new TransferServiceException("filterInvalid",
+                                               "Name patterns are limited to " + MAX_PATTERN_LENGTH + " characters");
+
+        if(null != name && !name.isEmpty()) {
+            filter.name = name;
+            filter.namePattern = Pattern.compile(globToRegex(name));
+        }
+
+        if(null != nameRegex && !nameRegex.isEmpty()) {
+            try {
+                filter.nameRegex = Pattern.compile(nameRegex);
+            }
+            catch(PatternSyntaxException e) {
+                throw new TransferServiceException("filterInvalid", "Invalid regular expression " + nameRegex);
+            }
+        }
+
+        if((null != minSize && minSize < 0) || (null != maxSize && maxSize < 0) ||
+           (null != minSize && null != maxSize && minSize > maxSize))
+            throw new TransferServiceException("filterInvalid", "Invalid size range");
+
+        filter.minSize = minSize;
+        filter.maxSize = maxSize;
+        filter.modifiedAfter = parseDate(modifiedAfter);
+        filter.modifiedBefore = parseDate(modifiedBefore);
+
+        if(null != type && !type.isBlank()) {
+            try {
+                filter.type = Type.valueOf(type.trim().toLowerCase());
+            }
+            catch(IllegalArgumentException e) {
+                throw new TransferServiceException("filterInvalid", "Invalid type " + type);
+            }
+        }
+
+        if(null != fields && !fields.isBlank()) {
+            filter.fields = new LinkedHashSet<>();
+            for(var field : fields.split(",")) {
+                field = field.trim();
+                if(field.isEmpty())
+                    continue;
+                if(!FIELDS.contains(field))
+                    throw new TransferServiceException("filterInvalid", "Unknown field " + field);
+
+                filter.fields.add(field);
+            }
+        }
+
+        return filter.isEmpty() ? null : filter;
+    }
+
+    /***
+     * Check if this filter does nothing
+     * @return True if all elements are selected, with all their fields
+     */
+    public boolean isEmpty() {
+        return !selects() && null == this.fields;
+    }
+
+    /***
+     * Check if this filter drops any elements
+     * @return True if there are conditions on the elements
+     */
+    public boolean selects() {
+        return null != this.namePattern || null != this.nameRegex || null != this.minSize ||
+               null != this.maxSize || null != this.modifiedAfter || null != this.modifiedBefore ||
+               null != this.type;
+    }
+
+    /***
+     * Get the part of the name glob before the first wildcard, all selected
+     * elements have names that start with it, so it can be used as listing prefix
+     * @return Literal prefix of the names, empty string if none
+     */
+    public String namePrefix() {
+        if(null == this.name)
+            return "";
+
+        var end = 0;
+        while(end < this.name.length() && "*?[\\".indexOf(this.name.charAt(end)) < 0)
+            end++;
+
+        var prefix = this.name.substring(0, end);
+        return prefix.contains("/") ? "" : prefix;
+    }
+
+    /***
+     * Check if a storage element is selected
+     * @param se The storage element to check
+     * @return True if all conditions match
+     * @throws TransferServiceException if matching the name takes too long
+     */
+    public boolean matches(StorageElement se) {
+        if(null == se)
+            return false;
+
+        if(null != this.type && (Type.folder == this.type) != se.isFolder)
+            return false;
+
+        if(null != this.namePattern || null != this.nameRegex) {
+            var name = new BoundedName(baseName(se.name));
+            if(null != this.namePattern && !this.namePattern.matcher(name).matches())
+                return false;
+            if(null != this.nameRegex && !this.nameRegex.matcher(name.restart()).find())
+                return false;
+        }
+
+        // Size conditions only apply to files
+        if(!se.isFolder) {
+            if(null != this.minSize && se.size < this.minSize)
+                return false;
+            if(null != this.maxSize && se.size > this.maxSize)
+                return false;
+        }
+
+        if(null != this.modifiedAfter || null != this.modifiedBefore) {
+            if(null == se.modifiedAt)
+                return false;
+            if(null != this.modifiedAfter && !se.modifiedAt.after(this.modifiedAfter))
+                return false;
+            if(null != this.modifiedBefore && !se.modifiedAt.before(this.modifiedBefore))
+                return false;
+        }
+
+        return true;
+    }
+
+    /***
+     * Keep only the selected fields of a storage element.
+     * Returns a copy, as the element may be shared (e.g. cached).
+     * @param se The storage element to project
+     * @return Storage element with only the selected fields, the same element if no projection
+     */
+    public StorageElement project(StorageElement se) {
+        if(null == se || null == this.fields)
+            return se;
+
+        var projected = new StorageElement();
+        projected.isFolder = se.isFolder;
+        projected.isAccessible = se.isAccessible;
+        projected.path = null;
+        for(var field : this.fields) {
+            switch(field) {
+                case "name": projected.name = se.name; break;
+                case "path": projected.path = se.path; break;
+                case "size": projected.size = se.size; break;
+                case "createdAt": projected.createdAt = se.createdAt; break;
+                case "accessedAt": projected.accessedAt = se.accessedAt; break;
+                case "modifiedAt": projected.modifiedAt = se.modifiedAt; break;
+                case "mediaType": projected.mediaType = se.mediaType; break;
+                case "etag": projected.etag = se.etag; break;
+                case "accessUrl": projected.accessUrl = se.accessUrl; break;
+                case "downloadUrl": projected.downloadUrl = se.downloadUrl; break;
+                case "checksum": projected.checksum = se.checksum; break;
+                case "collection": projected.collection = se.collection; break;
+                default: break;
+            }
+        }
+
+        return projected;
+    }
+
+    /***
+     * Keep only the selected fields of all elements in a listing
+     * @param content The listing to project
+     * @return Listing with projected elements, the same listing if no projection
+     */
+    public StorageContent project(StorageContent content) {
+        if(null == content || null == this.fields)
+            return content;
+
+        var projected = new StorageContent(content.elements.size());
+        for(var se : content.elements)
+            projected.add(project(se));
+
+        projected.next = content.next;
+        return projected;
+    }
+
+    /***
+     * Build a key that identifies the selection (not the projection) of this filter
+     * @return Key for caching filtered listings
+     */
+    public String key() {
+        return String.join("|", Arrays.asList(
+                null != this.name ? this.name : "",
+                null != this.nameRegex ? this.nameRegex.pattern() : "",
+                null != this.minSize ? this.minSize.toString() : "",
+                null != this.maxSize ? this.maxSize.toString() : "",
+                null != this.modifiedAfter ? String.valueOf(this.modifiedAfter.getTime()) : "",
+                null != this.modifiedBefore ? String.valueOf(this.modifiedBefore.getTime()) : "",
+                null != this.type ? this.type.toString() : "",
+                String.valueOf(this.maxScan)));
+    }
+
+    /***
+     * Get the last segment of the name of an element
+     * @param name The name, may be a path, folders may end in a slash
+     * @return Base name
+     */
+    private static String baseName(String name) {
+        if(null == name)
+            return "";
+
+        var end = name.length();
+        while(end > 0 && '/' == name.charAt(end - 1))
+            end--;
+
+        return name.substring(name.lastIndexOf('/', end - 1) + 1, end);
+    }
+
+    /***
+     * Name that aborts matching when it takes too long. The regex engine reads the
+     * input through charAt(), so checking the clock there bounds any backtracking.
+     */
+    private static class BoundedName implements CharSequence {
+        private final String name;
+        private long deadline;
+        private int reads;
+
+        BoundedName(String name) {
+            this.name = name;
+            restart();
+        }
+
+        /***
+         * Give the next match its own time budget
+         * @return This name
+         */
+        BoundedName restart() {
+            this.deadline = System.nanoTime() + MAX_MATCH_TIME * 1_000_000L;
+            return this;
+        }
+
+        @Override
+        public char charAt(int index) {
+            if(0 == (++this.reads & 0x3ff) && System.nanoTime() > this.deadline)
+                throw new TransferServiceException("filterInvalid", "Name pattern is too complex");
+
+            return this.name.charAt(index);
+        }
+
+        @Override
+        public int length() { return this.name.length(); }
+
+        @Override
+        public CharSequence subSequence(int start, int end) { return this.name.subSequence(start, end); }
+
+        @Override
+        public String toString() { return this.name; }
+    }
+
+    /***
+     * Convert a glob to a regular expression
+     * @param glob The glob, supports *, ?, [...] and escaping with \
+     * @return Equivalent regular expression
+     */
+    static String globToRegex(String glob) {
+        var regex = new StringBuilder(glob.length() + 8);
+        var inClass = false;
+        for(int i = 0; i < glob.length(); i++) {
+            var c = glob.charAt(i);
+            if(inClass) {
+                if(']' == c)
+                    inClass = false;
+                if('\\' == c || '[' == c || '&' == c)
+                    regex.append('\\');
+                regex.append(c);
+                continue;
+            }
+
+            switch(c) {
+                case '*': regex.append(".*"); break;
+                case '?': regex.append('.'); break;
+                case '[':
+                    inClass = true;
+                    regex.append('[');
+                    if(i + 1 < glob.length() && '!' == glob.charAt(i + 1)) {
+                        regex.append('^');
+                        i++;
+                    }
+                    break;
+                case '\\':
+                    if(i + 1 < glob.length())
+                        c = glob.charAt(++i);
+                    regex.append(Pattern.quote(String.valueOf(c)));
+                    break;
+                default:
+                    regex.append(Pattern.quote(String.valueOf(c)));
+                    break;
+            }
+        }
+
+        if(inClass)
+            throw new TransferServiceException("filterInvalid", "Unterminated [ in " + glob);
+
+        return regex.toString();
+    }
+
+    /***
+     * Parse a date or date and time
+     * @param value ISO-8601 date (midnight UTC), date and time with offset, or instant
+     * @return Parsed moment, null if no value
+     * @throws TransferServiceException if the value is invalid
+     */
+    private static Date parseDate(String value) {
+        if(null == value || value.isBlank())
+            return null;
+
+        value = value.trim();
+        try {
+            if(10 == value.length())
+                return Date.from(LocalDate.parse(value).atStartOfDay(ZoneOffset.UTC).toInstant());
+            if(value.endsWith("Z"))
+                return Date.from(Instant.parse(value));
+
+            return Date.from(OffsetDateTime.parse(value).toInstant());
+        }
+        catch(DateTimeParseException e) {
+            throw new TransferServiceException("filterInvalid", "Invalid date " + value);
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package eosc.eu.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import org.eclipse.microprofile.openapi.annotations.media.Schema;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import eosc.eu.ActionError;
+
+
+/**
+ * Information about several storage elements, in the order they were requested.
+ * Each element either has its details or the error that prevented getting them.
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class StorageInfoList {
+
+    /**
+     * Information about one storage element
+     */
+    public static class Info {
+
+        @Schema(description="The URI to the storage element, as requested")
+        public String seUri;
+
+        @Schema(description="HTTP status of getting the details of this storage element")
+        public int status;
+
+        @JsonInclude(JsonInclude.Include.NON_NULL)
+        public StorageElement element;
+
+        @JsonInclude(JsonInclude.Include.NON_NULL)
+        public ActionError error;
+
+
+        /**
+         * Constructor
+         */
+        public Info() {}
+
+        /**
+         * Construct with details
+         * @param seUri The URI to the storage element
+         * @param element The details of the storage element
+         */
+        public Info(String seUri, StorageElement element) {
+            this.seUri = seUri;
+            this.element = element;
+            this.status = 200;
+        }
+
+        /**
+         * Construct with error
+         * @param seUri The URI to the storage element
+         * @param error Why the details are not available
+         */
+        public Info(String seUri, ActionError error) {
+            this.seUri = seUri;
+            this.error = error;
+            this.status = error.getStatus().getStatusCode();
+        }
+    }
+
+    public String kind = "StorageInfoList";
+    public int count;
+
+    @Schema(description="Number of storage elements with errors")
+    public int failed;
+
+    public List<Info> elements;
+
+
+    /**
+     * Constructor
+     */
+    public StorageInfoList() {
+        this.elements = new ArrayList<>();
+    }
+
+    /**
+     * Construct from the information about each storage element
+     * @param elements The information about the storage elements
+     */
+    public StorageInfoList(List<Info> elements) {
+        this.elements = elements;
+        this.count = elements.size();
+        this.failed = (int)elements.stream().filter(info -> null != info.error).count();
+    }
+}
@@ -0,0 +1,29 @@
+package eosc.eu.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import org.eclipse.microprofile.openapi.annotations.media.Schema;
+
+import java.util.List;
+
+
+/**
+ * Storage elements to get information about, all on the same storage system.
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class StorageInfoRequest {
+
+    @Schema(description="The URIs to the storage elements")
+    public List<String> seUris;
+
+
+    /**
+     * Constructor
+     */
+    public StorageInfoRequest() {}
+
+    /**
+     * Construct from storage element URIs
+     */
+    public StorageInfoRequest(List<String> seUris) { this.seUris = seUris; }
+
+}
@@ -0,0 +1,126 @@
+package eosc.eu.model;
+
+import com.fasterxml.jackson.annotation.JsonFormat;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import org.eclipse.microprofile.openapi.annotations.media.Schema;
+
+import java.util.Date;
+import java.util.UUID;
+
+
+/**
+ * A long-running operation on a storage system, and its progress
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class StorageOperation {
+
+    /***
+     * The states of an operation
+     */
+    public enum Status {
+        queued,
+        running,
+        succeeded,
+        failed
+    }
+
+    public String kind = "StorageOperation";
+
+    @Schema(description="ID of the operation, use it to query progress")
+    public String id;
+
+    @Schema(description="What the operation does", example = "deleteFolder")
+    public String type;
+
+    @Schema(description="The storage element the operation works on")
+    public String seUri;
+
+    public volatile Status status = Status.queued;
+
+    @Schema(description="Number of items (e.g. files) processed successfully so far")
+    public volatile long processed;
+
+    @JsonInclude(JsonInclude.Include.NON_DEFAULT)
+    @Schema(description="Number of items that could not be processed")
+    public volatile long failed;
+
+    @JsonInclude(JsonInclude.Include.NON_DEFAULT)
+    @Schema(description="Total number of items, if known in advance")
+    public volatile long total;
+
+    @JsonInclude(JsonInclude.Include.NON_EMPTY)
+    @Schema(description="Result or error message, once finished")
+    public String message;
+
+    @JsonFormat(pattern = "yyyy-MM-dd'T'HH:mm:ssZ")
+    @Schema(description="Date and time when the operation started", example = "2022-10-15T20:14:22Z+2")
+    public Date startedAt;
+
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    @JsonFormat(pattern = "yyyy-MM-dd'T'HH:mm:ssZ")
+    @Schema(description="Date and time when the operation finished", example = "2022-10-15T20:14:22Z+2")
+    public Date finishedAt;
+
+    @JsonIgnore
+    public String owner;
+
+
+    /**
+     * Constructor
+     */
+    public StorageOperation() {}
+
+    /**
+     * Construct a new operation, with a new ID
+     * @param type What the operation does
+     * @param seUri The storage element the operation works on
+     * @param owner ID of the user who started the operation
+     */
+    public StorageOperation(String type, String seUri, String owner) {
+        this.id = UUID.randomUUID().toString();
+        this.type = type;
+        this.seUri = seUri;
+        this.owner = owner;
+        this.startedAt = new Date();
+    }
+
+    /***
+     * Mark the operation as started
+     */
+    public synchronized void run() {
+        if(Status.queued == this.status)
+            this.status = Status.running;
+    }
+
+    /***
+     * Record progress, can be called from multiple threads
+     * @param processed Number of items processed successfully
+     * @param failed Number of items that failed
+     */
+    public synchronized void progress(long processed, long failed) {
+        this.processed += processed;
+        this.failed += failed;
+    }
+
+    /***
+     * Mark the operation as finished
+     * @param status The final state
+     * @param message Result or error message
+     */
+    public synchronized void finish(Status status, String message) {
+        this.status = status;
+        this.message = message;
+        this.finishedAt = new Date();
+    }
+
+    /***
+     * Check if the operation is still running
+     * @return True if not finished yet (includes operations waiting to start)
+     */
+    @JsonIgnore
+    public boolean isRunning() {
+        return Status.queued == this.status || Status.running == this.status;
+    }
+}
@@ -0,0 +1,69 @@
+package eosc.eu.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import org.eclipse.microprofile.openapi.annotations.media.Schema;
+
+
+/**
+ * Request to run a storage operation in the background.
+ * Deletions take the target of a StorageSimpleOperation,
+ * renames take the targets of a StorageRenameOperation.
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class StorageOperationRequest {
+
+    /***
+     * The operations that can run in the background
+     */
+    public enum Action {
+        deleteFile,
+        deleteFolder,
+        rename
+    }
+
+    @Schema(description="The operation to perform")
+    public Action action;
+
+    @Schema(description="The URL to the storage element to delete")
+    public String seUrl;
+
+    @Schema(description="The URI to the storage element to rename")
+    public String seUriOld;
+
+    @Schema(description="The new URI of the renamed storage element")
+    public String seUriNew;
+
+
+    /**
+     * Constructor
+     */
+    public StorageOperationRequest() {}
+
+    /**
+     * Construct a deletion
+     * @param action The kind of deletion
+     * @param target The storage element to delete
+     */
+    public StorageOperationRequest(Action action, StorageSimpleOperation target) {
+        this.action = action;
+        this.seUrl = target.seUrl;
+    }
+
+    /**
+     * Construct a rename
+     * @param rename The old and new storage element URIs
+     */
+    public StorageOperationRequest(StorageRenameOperation rename) {
+        this.action = Action.rename;
+        this.seUriOld = rename.seUriOld;
+        this.seUriNew = rename.seUriNew;
+    }
+
+    /**
+     * Get the storage element the operation works on
+     * @return URI of the storage element
+     */
+    public String target() {
+        return Action.rename == this.action ? this.seUriOld : this.seUrl;
+    }
+}
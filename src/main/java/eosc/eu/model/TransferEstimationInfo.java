@@ -1,6 +1,7 @@
 package eosc.eu.model;
 
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonInclude;
 import org.eclipse.microprofile.openapi.annotations.media.Schema;
 
 
@@ -19,6 +20,34 @@ public class TransferEstimationInfo {
     @Schema(description="Cost in credits")
     public double creditsExact;
 
+    @Schema(description="Number of files with the size checked at the source, only when verifying sizes")
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public Integer verifiedFiles;
+
+    @Schema(description="Number of files with a missing or wrong size, replaced by the size at the source")
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public Integer correctedFiles;
+
+    @Schema(description="Number of files with the size not checked, the provided size was used")
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public Integer unverifiedFiles;
+
+    @Schema(description="Expected duration in seconds, from the throughput of past transfers on the same links")
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public Double duration;
+
+    @Schema(description="Lower bound of the duration in seconds")
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public Double durationLow;
+
+    @Schema(description="Upper bound of the duration in seconds")
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public Double durationHigh;
+
+    @Schema(description="Probability that the duration falls between the bounds")
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public Double durationConfidence;
+
 
     /**
      * Constructor
@@ -24,6 +24,19 @@ public class TransferInfo {
     public String reason;
 
 
+    /**
+     * Constructor
+     */
+    public TransferInfo() {}
+
+    /**
+     * Construct with job ID
+     * @param jobId The ID of the transfer job
+     */
+    public TransferInfo(String jobId) {
+        this.jobId = jobId;
+    }
+
     /**
      * Construct from FTS job info
      */
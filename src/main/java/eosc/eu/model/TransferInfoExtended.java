@@ -93,6 +93,20 @@ public class TransferInfoExtended extends TransferInfo {
     public Optional<List<TransferPayloadInfo>> payload;
 
 
+    /***
+     * Constructor
+     */
+    public TransferInfoExtended() {
+        this.kind = "TransferInfoExtended";
+        this.overwrite = Optional.empty();
+        this.priority = Optional.empty();
+        this.retry = Optional.empty();
+        this.retryDelay = Optional.empty();
+        this.maxTimeInQueue = Optional.empty();
+        this.cancel = Optional.empty();
+        this.payload = Optional.empty();
+    }
+
     /***
      * Construct from extended FTS job info
      * @param jie The concrete job to construct from
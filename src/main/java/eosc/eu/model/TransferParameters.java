@@ -4,6 +4,9 @@ import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import org.eclipse.microprofile.openapi.annotations.media.Schema;
 
+import java.util.Date;
+import java.util.Map;
+
 
 /**
  * Parameters of a transfer job
@@ -21,6 +24,22 @@ public class TransferParameters {
     @Schema(description="Transfer priority from 1 to 5, 1 being the lowest priority")
     public int priority;
 
+    @Schema(description="Only transfer the files that are missing or changed at the destination. " +
+                        "Files are compared by name, size and checksum/ETag where available.")
+    public boolean sync = false;
+
+    @Schema(description="Metadata to attach to the transfer job")
+    public Map<String, String> metadata;
+
+    @Schema(description="Do not start the transfer before this moment (ISO-8601)")
+    public Date notBefore;
+
+    @Schema(description="Start the transfer in the off-peak hours of the destination")
+    public boolean offPeak = false;
+
+    @Schema(description="Create the destination folders that do not exist before submitting the transfer")
+    public boolean createFolders = false;
+
     /**
      * Constructor
      */
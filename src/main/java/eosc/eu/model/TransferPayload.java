@@ -23,6 +23,9 @@ public class TransferPayload {
     @Schema(description="User defined checksum in the form 'algorithm:value'")
     public String checksum;
 
+    @Schema(description="Optional size of the file in bytes, used by sync mode to detect changed files")
+    public Long size;
+
 
     /**
      * Constructor
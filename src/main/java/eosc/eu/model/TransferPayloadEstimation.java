@@ -20,6 +20,9 @@ public class TransferPayloadEstimation {
     @Schema(description="The size of the file'")
     public long size;
 
+    @Schema(description="Optional destinations of the file, improve the estimation of the duration")
+    public List<String> destinations;
+
 
     /**
      * Constructor
@@ -64,6 +64,15 @@ public class TransferPayloadInfo {
     public Map<String, String> fileMetadata;
 
 
+    /***
+     * Constructor
+     */
+    public TransferPayloadInfo() {
+        this.size = Optional.empty();
+        this.priority = Optional.empty();
+        this.retry = Optional.empty();
+    }
+
     /***
      * Construct from FTS job file info
      * @param jfi The concrete file info to construct from
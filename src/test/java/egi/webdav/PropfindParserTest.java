@@ -0,0 +1,115 @@
+package egi.webdav;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import egi.webdav.model.DavResource;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+/***
+ * Tests the parsing of WebDAV multistatus responses
+ */
+public class PropfindParserTest {
+
+    private static final String MULTISTATUS =
+        "<?xml version=\"1.0\" encoding=\"utf-8\"?>" +
+        "<d:multistatus xmlns:d=\"DAV:\">" +
+        // Folder, all properties found
+        "<d:response><d:href>/data/my%20folder/</d:href>" +
+        "<d:propstat><d:prop><d:resourcetype><d:collection/></d:resourcetype>" +
+        "<d:getlastmodified>Sat, 15 Oct 2022 20:14:22 GMT</d:getlastmodified></d:prop>" +
+        "<d:status>HTTP/1.1 200 OK</d:status></d:propstat></d:response>" +
+        // File, some properties not found
+        "<d:response><d:href>/data/my%20folder/a%2Bb.txt</d:href>" +
+        "<d:propstat><d:prop><d:resourcetype/><d:getcontentlength>1024</d:getcontentlength>" +
+        "<d:getetag>\"abc\"</d:getetag></d:prop>" +
+        "<d:status>HTTP/1.1 200 OK</d:status></d:propstat>" +
+        "<d:propstat><d:prop><d:getcontenttype>text/plain</d:getcontenttype><d:creationdate/></d:prop>" +
+        "<d:status>HTTP/1.1 404 Not Found</d:status></d:propstat></d:response>" +
+        // File, no successful propstat
+        "<d:response><d:href>/data/my%20folder/denied.txt</d:href>" +
+        "<d:propstat><d:prop><d:getcontentlength>2048</d:getcontentlength></d:prop>" +
+        "<d:status>HTTP/1.1 403 Forbidden</d:status></d:propstat></d:response>" +
+        // No href, skipped
+        "<d:response><d:propstat><d:prop/><d:status>HTTP/1.1 200 OK</d:status></d:propstat></d:response>" +
+        "</d:multistatus>";
+
+
+    /***
+     * Parse a response body
+     * @param body is the multistatus response
+     * @return All resources in the response
+     */
+    private static List<DavResource> parse(String body) throws Exception {
+        var resources = new ArrayList<DavResource>();
+        PropfindParser.parse(new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)), resources::add);
+        return resources;
+    }
+
+    @Test
+    void skipsResponsesWithoutHref() throws Exception {
+        var resources = parse(MULTISTATUS);
+        assertEquals(3, resources.size());
+    }
+
+    @Test
+    void keepsPropertiesOfSuccessfulPropstats() throws Exception {
+        var resources = parse(MULTISTATUS);
+
+        var folder = resources.get(0);
+        assertTrue(folder.isFolder);
+        assertNotNull(folder.mtime);
+
+        var file = resources.get(1);
+        assertFalse(file.isFolder);
+        assertEquals(1024, file.size);
+        assertEquals("abc", file.etag);
+    }
+
+    @Test
+    void ignoresPropertiesOfFailedPropstats() throws Exception {
+        var resources = parse(MULTISTATUS);
+
+        var file = resources.get(1);
+        assertNull(file.mediaType);
+        assertNull(file.ctime);
+
+        var denied = resources.get(2);
+        assertEquals(0, denied.size);
+    }
+
+    @Test
+    void stopsWhenHandlerDeclines() throws Exception {
+        var resources = new ArrayList<DavResource>();
+        var count = PropfindParser.parse(new ByteArrayInputStream(MULTISTATUS.getBytes(StandardCharsets.UTF_8)),
+                                         resource -> resources.add(resource) && resources.size() < 2);
+        assertEquals(2, count);
+        assertEquals(2, resources.size());
+    }
+
+    @Test
+    void decodesOnlyThePath() throws Exception {
+        var resources = parse(MULTISTATUS);
+
+        var folder = resources.get(0);
+        assertEquals("/data/my folder", folder.getPath());
+        assertEquals("/data/my%20folder", folder.getRawPath());
+        assertEquals("my folder/", folder.getName());
+
+        var file = resources.get(1);
+        assertEquals("a+b.txt", file.getName());
+        assertEquals("/data/my%20folder/a%2Bb.txt", file.getRawPath());
+        assertEquals("/data/my folder", file.getParentPath());
+    }
+
+    @Test
+    void failsOnInvalidXml() {
+        assertThrows(RuntimeException.class, () -> parse("<d:multistatus xmlns:d=\"DAV:\"><d:response><d:href>"));
+    }
+}
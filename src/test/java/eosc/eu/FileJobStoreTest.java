@@ -0,0 +1,138 @@
+package eosc.eu;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.RandomAccessFile;
+import java.lang.reflect.Proxy;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+/***
+ * Tests the recovery of the file job store from its log
+ */
+public class FileJobStoreTest {
+
+    @TempDir
+    Path folder;
+
+
+    /***
+     * Create a configuration that only sets the job store log file
+     * @param file is the log file
+     * @return Accounting configuration
+     */
+    private static ServiceConfig.AccountingConfig config(Path file) {
+        return (ServiceConfig.AccountingConfig)Proxy.newProxyInstance(
+            ServiceConfig.AccountingConfig.class.getClassLoader(),
+            new Class<?>[] { ServiceConfig.AccountingConfig.class },
+            (proxy, method, args) -> switch(method.getName()) {
+                case "jobStoreFile" -> file.toString();
+                case "jobStoreFileSize" -> 1;
+                case "jobStoreSync" -> false;
+                case "pollInterval" -> 60;
+                default -> method.getReturnType().equals(Optional.class) ? Optional.empty() : null;
+            });
+    }
+
+    /***
+     * Write three jobs to a new log, the last one being the one to damage
+     * @param file is the log file
+     * @return Offset of the last record
+     */
+    private static long writeJobs(Path file) throws Exception {
+        var store = new FileJobStore(config(file));
+        store.add(Map.of("jobId", "1")).await().indefinitely();
+        store.add(Map.of("jobId", "2")).await().indefinitely();
+        store.add(Map.of("jobId", "3")).await().indefinitely();
+        store.stop().await().indefinitely();
+
+        // Walk the records to find the last one
+        try(var log = new RandomAccessFile(file.toFile(), "r")) {
+            long position = 0, last = -1;
+            while(true) {
+                log.seek(position);
+                var length = log.readInt();
+                if(0 == length)
+                    break;
+
+                last = position;
+                position += 8 + length;
+            }
+            return last;
+        }
+    }
+
+    @Test
+    void recoversAllJobs() throws Exception {
+        var file = folder.resolve("jobs.log");
+        writeJobs(file);
+
+        var store = new FileJobStore(config(file));
+        assertEquals(3, store.jobs.size());
+        store.stop().await().indefinitely();
+    }
+
+    @Test
+    void dropsTornRecord() throws Exception {
+        var file = folder.resolve("jobs.log");
+        var last = writeJobs(file);
+
+        // Length that runs past the end of the log, as if the write was cut short
+        try(var log = new RandomAccessFile(file.toFile(), "rw")) {
+            log.seek(last);
+            log.writeInt(Integer.MAX_VALUE);
+        }
+
+        var store = new FileJobStore(config(file));
+        assertEquals(2, store.jobs.size());
+        assertTrue(store.jobs.values().stream().noneMatch(entry -> "3".equals(entry.payload.get("jobId"))));
+        store.stop().await().indefinitely();
+    }
+
+    @Test
+    void dropsCorruptRecord() throws Exception {
+        var file = folder.resolve("jobs.log");
+        var last = writeJobs(file);
+
+        // Flip the last byte of the record body, so that the checksum no longer matches
+        try(var log = new RandomAccessFile(file.toFile(), "rw")) {
+            log.seek(last);
+            var length = log.readInt();
+            var end = last + 8 + length - 1;
+            log.seek(end);
+            var value = log.readByte();
+            log.seek(end);
+            log.writeByte(value ^ 0xff);
+        }
+
+        var store = new FileJobStore(config(file));
+        assertEquals(2, store.jobs.size());
+        store.stop().await().indefinitely();
+    }
+
+    @Test
+    void keepsAppendingAfterRecovery() throws Exception {
+        var file = folder.resolve("jobs.log");
+        var last = writeJobs(file);
+
+        try(var log = new RandomAccessFile(file.toFile(), "rw")) {
+            log.seek(last);
+            log.writeInt(-1);
+        }
+
+        // The damaged log is compacted on open, so new jobs survive the next restart
+        var store = new FileJobStore(config(file));
+        var id = store.add(Map.of("jobId", "4")).await().indefinitely();
+        store.stop().await().indefinitely();
+
+        store = new FileJobStore(config(file));
+        assertEquals(3, store.jobs.size());
+        assertTrue(store.jobs.containsKey(id));
+        store.stop().await().indefinitely();
+    }
+}
@@ -0,0 +1,89 @@
+package eosc.eu;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+/***
+ * Tests the release rules of scheduled transfers
+ */
+public class TransferSchedulerTest {
+
+    private static final ZoneId UTC = ZoneOffset.UTC;
+
+    /***
+     * Get a moment in UTC
+     * @param moment is the moment, ISO-8601
+     * @return Milliseconds since epoch
+     */
+    private static long at(String moment) {
+        return Instant.parse(moment).toEpochMilli();
+    }
+
+    @Test
+    void staysInWindowBeforeMidnight() {
+        var now = at("2026-03-10T22:15:00Z");
+        assertEquals(now, TransferScheduler.nextOffPeak("20:00-06:00", UTC, now));
+    }
+
+    @Test
+    void staysInWindowAfterMidnight() {
+        var now = at("2026-03-11T03:30:00Z");
+        assertEquals(now, TransferScheduler.nextOffPeak("20:00-06:00", UTC, now));
+    }
+
+    @Test
+    void waitsForWindowSameDay() {
+        assertEquals(at("2026-03-10T20:00:00Z"),
+                     TransferScheduler.nextOffPeak("20:00-06:00", UTC, at("2026-03-10T06:00:00Z")));
+        assertEquals(at("2026-03-10T20:00:00Z"),
+                     TransferScheduler.nextOffPeak("20:00-06:00", UTC, at("2026-03-10T13:45:12.345Z")));
+    }
+
+    @Test
+    void waitsForWindowNextDay() {
+        // Window within a single day, already over
+        assertEquals(at("2026-03-11T01:00:00Z"),
+                     TransferScheduler.nextOffPeak("01:00-05:00", UTC, at("2026-03-10T23:30:00Z")));
+        // Window spanning midnight, across the end of the month
+        assertEquals(at("2026-04-01T23:00:00Z"),
+                     TransferScheduler.nextOffPeak("23:00-02:00", UTC, at("2026-04-01T02:00:00Z")));
+        assertEquals(at("2026-03-31T23:30:00Z"),
+                     TransferScheduler.nextOffPeak("23:00-02:00", UTC, at("2026-03-31T23:30:00Z")));
+    }
+
+    @Test
+    void usesTimeZoneOfWindow() {
+        // 20:00 in Bucharest (UTC+2 in winter) is 18:00 UTC
+        assertEquals(at("2026-01-15T18:00:00Z"),
+                     TransferScheduler.nextOffPeak("20:00-06:00", ZoneId.of("Europe/Bucharest"),
+                                                   at("2026-01-15T12:00:00Z")));
+    }
+
+    @Test
+    void rejectsInvalidWindows() {
+        assertThrows(DateTimeException.class, () -> TransferScheduler.nextOffPeak("8pm-6am", UTC, 0));
+        assertThrows(IndexOutOfBoundsException.class, () -> TransferScheduler.nextOffPeak("20:00", UTC, 0));
+    }
+
+    @Test
+    void retriesTemporaryFailures() {
+        assertFalse(TransferScheduler.isRejection(new RuntimeException("Connection refused")));
+        assertFalse(TransferScheduler.isRejection(new TransferServiceException("notAuthorized", 401, "Expired")));
+        assertFalse(TransferScheduler.isRejection(new TransferServiceException("busy", 429, "Too many requests")));
+        assertFalse(TransferScheduler.isRejection(new TransferServiceException("busy", 503, "Unavailable")));
+    }
+
+    @Test
+    void failsRejectedTransfers() {
+        assertTrue(TransferScheduler.isRejection(new TransferServiceException("seInvalid")));
+        assertTrue(TransferScheduler.isRejection(new TransferServiceException("credentialsInvalid", 400,
+                                                                              "Cannot decrypt")));
+    }
+}
@@ -0,0 +1,99 @@
+package eosc.eu.model;
+
+import org.junit.jupiter.api.Test;
+
+import eosc.eu.TransferServiceException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+/***
+ * Tests the selection of storage elements by name
+ */
+public class StorageFilterTest {
+
+    /***
+     * Create a storage element
+     * @param name is the name of the element
+     * @param isFolder tells if the element is a folder
+     * @return Storage element
+     */
+    private static StorageElement element(String name, boolean isFolder) {
+        var se = new StorageElement();
+        se.name = name;
+        se.isFolder = isFolder;
+        return se;
+    }
+
+    /***
+     * Check if a glob selects a file
+     * @param glob is the name filter
+     * @param name is the name of the file
+     * @return True if the file is selected
+     */
+    private static boolean globMatches(String glob, String name) {
+        var filter = StorageFilter.parse(glob, null, null, null, null, null, null, null);
+        return filter.matches(element(name, false));
+    }
+
+    @Test
+    void convertsWildcards() {
+        assertEquals("\\Qa\\E.*\\Q.\\E.", StorageFilter.globToRegex("a*.?"));
+        assertTrue(globMatches("*.txt", "notes.txt"));
+        assertFalse(globMatches("*.txt", "notes.txt.bak"));
+        assertTrue(globMatches("data-?.csv", "data-1.csv"));
+        assertFalse(globMatches("data-?.csv", "data-10.csv"));
+    }
+
+    @Test
+    void quotesRegexCharacters() {
+        assertTrue(globMatches("a+b(1).txt", "a+b(1).txt"));
+        assertFalse(globMatches("a.b", "axb"));
+        assertTrue(globMatches("\\*.txt", "*.txt"));
+        assertFalse(globMatches("\\*.txt", "a.txt"));
+    }
+
+    @Test
+    void convertsCharacterClasses() {
+        assertTrue(globMatches("file[0-9].dat", "file7.dat"));
+        assertFalse(globMatches("file[0-9].dat", "fileX.dat"));
+        assertTrue(globMatches("file[!0-9].dat", "fileX.dat"));
+        assertFalse(globMatches("file[!0-9].dat", "file7.dat"));
+        assertTrue(globMatches("x[[]y", "x[y"));
+    }
+
+    @Test
+    void rejectsUnterminatedClass() {
+        assertThrows(TransferServiceException.class, () -> StorageFilter.globToRegex("file[0-9"));
+    }
+
+    @Test
+    void matchesBaseNameOfFolders() {
+        var filter = StorageFilter.parse("data*", null, null, null, null, null, null, null);
+        assertTrue(filter.matches(element("some/path/data2024/", true)));
+        assertFalse(filter.matches(element("data/other", false)));
+    }
+
+    @Test
+    void extractsLiteralPrefix() {
+        assertEquals("data-", StorageFilter.parse("data-*.csv", null, null, null, null, null, null, null).namePrefix());
+        assertEquals("", StorageFilter.parse("*.csv", null, null, null, null, null, null, null).namePrefix());
+        assertEquals("", StorageFilter.parse("a/b*", null, null, null, null, null, null, null).namePrefix());
+    }
+
+    @Test
+    void rejectsLongPatterns() {
+        var pattern = "a".repeat(StorageFilter.MAX_PATTERN_LENGTH + 1);
+        assertThrows(TransferServiceException.class,
+                     () -> StorageFilter.parse(pattern, null, null, null, null, null, null, null));
+        assertThrows(TransferServiceException.class,
+                     () -> StorageFilter.parse(null, pattern, null, null, null, null, null, null));
+    }
+
+    @Test
+    void abortsCatastrophicBacktracking() {
+        var filter = StorageFilter.parse(null, "(.*a){12}$", null, null, null, null, null, null);
+        var name = "a".repeat(32) + "!";
+        assertThrows(TransferServiceException.class, () -> filter.matches(element(name, false)));
+    }
+}